@@ -0,0 +1,158 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.mortbay.jetty.asyncblazeds.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import flex.messaging.io.MessageIOConstants;
+import flex.messaging.io.SerializationContext;
+import flex.messaging.io.amf.ActionContext;
+import flex.messaging.io.amf.ActionMessage;
+import flex.messaging.io.amf.AmfMessageDeserializer;
+import flex.messaging.io.amf.AmfMessageSerializer;
+import flex.messaging.io.amf.MessageBody;
+import flex.messaging.messages.CommandMessage;
+import flex.messaging.messages.Message;
+import flex.messaging.messages.RemotingMessage;
+import flex.messaging.util.UUIDUtils;
+
+/* ------------------------------------------------------------ */
+/**
+ * AMFPayloads
+ *
+ * Encodes the canned AMF0 and AMF3 request bodies replayed by the
+ * benchmarks, the same way a Flash client would send them, and
+ * decodes responses.
+ */
+public class AMFPayloads
+{
+    public static final String ECHO_DESTINATION = "echo";
+    public static final String FEED_DESTINATION = "feed";
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A Flex 2+ client ping, answered with the id of a new FlexClient.
+     */
+    public static byte[] ping() throws IOException
+    {
+        CommandMessage ping = new CommandMessage(CommandMessage.CLIENT_PING_OPERATION);
+        ping.setHeader(Message.FLEX_CLIENT_ID_HEADER,"nil");
+        return amf3(new Message[]{ping});
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A subscription of the given FlexClient to the feed destination.
+     */
+    public static byte[] subscribe(String flexClientId) throws IOException
+    {
+        CommandMessage subscribe = new CommandMessage(CommandMessage.SUBSCRIBE_OPERATION);
+        subscribe.setDestination(FEED_DESTINATION);
+        subscribe.setClientId(UUIDUtils.createUUID());
+        return amf3(new Message[]{client(subscribe,flexClientId)});
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A poll of the given FlexClient.
+     */
+    public static byte[] poll(String flexClientId) throws IOException
+    {
+        return amf3(new Message[]{client(new CommandMessage(CommandMessage.POLL_OPERATION),flexClientId)});
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A batch of AMF3 encoded remoting messages, each echoing the given argument.
+     */
+    public static byte[] remoting(String flexClientId, int batch, Object argument) throws IOException
+    {
+        Message[] messages = new Message[batch];
+        for (int i = 0; i < batch; i++)
+        {
+            RemotingMessage message = new RemotingMessage();
+            message.setDestination(ECHO_DESTINATION);
+            message.setOperation("echo");
+            message.setBody(new Object[]{argument});
+            messages[i] = client(message,flexClientId);
+        }
+        return amf3(messages);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A Flash Remoting (AMF0) call of <code>echo.echo</code>, going through the legacy filter.
+     */
+    public static byte[] legacy(Object argument) throws IOException
+    {
+        ActionMessage request = new ActionMessage(MessageIOConstants.AMF0);
+        request.addBody(new MessageBody(ECHO_DESTINATION + ".echo","/1",new Object[]{argument}));
+        return write(request);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A string of the given length, to give payloads a realistic size.
+     */
+    public static String text(int length)
+    {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            text.append((char)('a' + i % 26));
+        return text.toString();
+    }
+
+    public static ActionMessage read(byte[] content) throws IOException
+    {
+        ActionMessage message = new ActionMessage();
+        AmfMessageDeserializer deserializer = new AmfMessageDeserializer();
+        deserializer.initialize(new SerializationContext(),new ByteArrayInputStream(content),null);
+        try
+        {
+            deserializer.readMessage(message,new ActionContext());
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException(e.toString());
+        }
+        return message;
+    }
+
+    private static Message client(Message message, String flexClientId)
+    {
+        message.setMessageId(UUIDUtils.createUUID());
+        message.setHeader(Message.FLEX_CLIENT_ID_HEADER,flexClientId);
+        message.setHeader(Message.ENDPOINT_HEADER,BenchmarkBroker.ENDPOINT_ID);
+        return message;
+    }
+
+    private static byte[] amf3(Message[] messages) throws IOException
+    {
+        ActionMessage request = new ActionMessage(MessageIOConstants.AMF3);
+        for (int i = 0; i < messages.length; i++)
+            request.addBody(new MessageBody("null","/" + (i + 1),new Object[]{messages[i]}));
+        return write(request);
+    }
+
+    private static byte[] write(ActionMessage message) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AmfMessageSerializer serializer = new AmfMessageSerializer();
+        serializer.initialize(new SerializationContext(),out,null);
+        serializer.writeMessage(message);
+        return out.toByteArray();
+    }
+}
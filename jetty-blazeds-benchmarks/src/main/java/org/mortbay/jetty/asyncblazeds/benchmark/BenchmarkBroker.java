@@ -0,0 +1,153 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.mortbay.jetty.asyncblazeds.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.mortbay.jetty.asyncblazeds.BaseAsyncHTTPEndpoint;
+
+import flex.messaging.FlexContext;
+import flex.messaging.HttpFlexSession;
+import flex.messaging.MessageBroker;
+import flex.messaging.MessageBrokerServlet;
+import flex.messaging.io.amf.ActionMessage;
+
+/* ------------------------------------------------------------ */
+/**
+ * BenchmarkBroker
+ *
+ * Boots a {@link MessageBroker} from <code>benchmark-services-config.xml</code>
+ * inside a connector-less jetty server, and dispatches in-memory requests
+ * straight to its {@link BaseAsyncHTTPEndpoint}, setting up the same
+ * thread locals as the {@link MessageBrokerServlet} would.
+ */
+public class BenchmarkBroker
+{
+    public static final String ENDPOINT_ID = "benchmark-async-amf";
+    private static final String CONFIG = "benchmark-services-config.xml";
+
+    private final Server _server = new Server();
+    private final MessageBrokerServlet _servlet = new MessageBrokerServlet();
+    private ServletHolder _holder;
+    private ServletContext _servletContext;
+    private MessageBroker _broker;
+    private BaseAsyncHTTPEndpoint _endpoint;
+    private File _config;
+
+    public void start() throws Exception
+    {
+        _config = File.createTempFile("benchmark-services-config",".xml");
+        _config.deleteOnExit();
+        copy(BenchmarkBroker.class.getClassLoader().getResourceAsStream(CONFIG),_config);
+
+        ServletContextHandler context = new ServletContextHandler(_server,"/benchmark",ServletContextHandler.SESSIONS);
+        _holder = new ServletHolder(_servlet);
+        _holder.setInitParameter("services.configuration.file",_config.getAbsolutePath());
+        _holder.setInitOrder(1);
+        context.addServlet(_holder,"/messagebroker/*");
+        _server.start();
+
+        _servletContext = context.getServletContext();
+        _broker = MessageBroker.getMessageBroker(null);
+        _endpoint = (BaseAsyncHTTPEndpoint)_broker.getEndpoint(ENDPOINT_ID);
+    }
+
+    public void stop() throws Exception
+    {
+        _server.stop();
+        _config.delete();
+    }
+
+    public BaseAsyncHTTPEndpoint getEndpoint()
+    {
+        return _endpoint;
+    }
+
+    public ServletContext getServletContext()
+    {
+        return _servletContext;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Service one request through the endpoint filter chain.
+     * @param request the request, recycled with the given payload
+     * @param response the response, recycled before the invocation
+     * @param payload the AMF request body
+     * @return the number of bytes written to the response
+     */
+    public int service(InMemoryRequest request, InMemoryResponse response, byte[] payload)
+    {
+        request.recycle(payload);
+        response.recycle();
+        try
+        {
+            _broker.initThreadLocals();
+            FlexContext.setThreadLocalObjects(null,null,_broker,request,response,getServletConfig());
+            FlexContext.setThreadLocalSession(HttpFlexSession.getFlexSession(request));
+            _endpoint.service(request,response);
+        }
+        finally
+        {
+            FlexContext.clearThreadLocalObjects();
+        }
+        if (response.getStatus() != InMemoryResponse.SC_OK)
+            throw new IllegalStateException("HTTP " + response.getStatus());
+        return response.getContentSize();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Service one request and decode its response.
+     */
+    public ActionMessage exchange(InMemoryRequest request, InMemoryResponse response, byte[] payload) throws IOException
+    {
+        service(request,response,payload);
+        return AMFPayloads.read(response.getContent());
+    }
+
+    private ServletConfig getServletConfig()
+    {
+        return _servlet.getServletConfig();
+    }
+
+    private static void copy(InputStream in, File file) throws IOException
+    {
+        if (in == null)
+            throw new IllegalStateException("No " + CONFIG + " on the classpath");
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) >= 0)
+                out.write(buffer,0,len);
+        }
+        finally
+        {
+            out.close();
+            in.close();
+        }
+    }
+}
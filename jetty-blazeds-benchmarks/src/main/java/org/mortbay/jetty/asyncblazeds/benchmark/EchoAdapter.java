@@ -0,0 +1,32 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.mortbay.jetty.asyncblazeds.benchmark;
+
+import flex.messaging.messages.Message;
+import flex.messaging.services.ServiceAdapter;
+
+/* ------------------------------------------------------------ */
+/**
+ * EchoAdapter
+ *
+ * Returns the body of the invocation, so that the benchmarks measure
+ * the filter chain rather than a service implementation.
+ */
+public class EchoAdapter extends ServiceAdapter
+{
+    public Object invoke(Message message)
+    {
+        return message.getBody();
+    }
+}
@@ -0,0 +1,45 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.mortbay.jetty.asyncblazeds.benchmark;
+
+import flex.messaging.Destination;
+import flex.messaging.MessageBroker;
+import flex.messaging.messages.Message;
+import flex.messaging.services.AbstractService;
+
+/* ------------------------------------------------------------ */
+/**
+ * EchoService
+ *
+ * A minimal RPC service, standing in for the remoting service that is
+ * not part of the BlazeDS core, which routes each message to the
+ * adapter of its destination.
+ */
+public class EchoService extends AbstractService
+{
+    public EchoService()
+    {
+        super(false);
+    }
+
+    public Object serviceMessage(Message message)
+    {
+        Destination destination = getDestination(message);
+        return destination.getAdapter().invoke(message);
+    }
+
+    protected void setupServiceControl(MessageBroker broker)
+    {
+    }
+}
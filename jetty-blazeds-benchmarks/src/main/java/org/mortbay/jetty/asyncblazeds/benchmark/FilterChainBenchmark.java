@@ -0,0 +1,131 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.mortbay.jetty.asyncblazeds.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import flex.messaging.io.amf.ActionMessage;
+import flex.messaging.messages.Message;
+
+/* ------------------------------------------------------------ */
+/**
+ * FilterChainBenchmark
+ *
+ * Measures a full pass of canned AMF requests through
+ * {@link org.mortbay.jetty.asyncblazeds.BaseAsyncHTTPEndpoint#service}, that is
+ * the AsyncSerializationFilter, AsyncBatchProcessFilter, AsyncSessionFilter,
+ * AsyncLegacyFilter and AsyncMessageBrokerFilter chain of an AsyncAMFEndpoint,
+ * for:
+ * <ul>
+ * <li>a small AMF3 remoting call</li>
+ * <li>a small AMF0 (Flash Remoting) call through the legacy envelope handling</li>
+ * <li>a large batch of AMF3 remoting calls in one request</li>
+ * <li>a poll of a subscribed client with no pending messages</li>
+ * </ul>
+ * Each benchmark thread acts as its own client with its own session and FlexClient.
+ * Run with {@link Main} to get throughput, latency percentiles and the allocation
+ * rate per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FilterChainBenchmark
+{
+    public static final int LARGE_BATCH = 100;
+
+    /* ------------------------------------------------------------ */
+    @State(Scope.Benchmark)
+    public static class BrokerState
+    {
+        BenchmarkBroker _broker;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception
+        {
+            _broker = new BenchmarkBroker();
+            _broker.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws Exception
+        {
+            _broker.stop();
+        }
+    }
+
+    private InMemoryRequest _request;
+    private InMemoryResponse _response;
+    private byte[] _smallRpc;
+    private byte[] _legacyRpc;
+    private byte[] _largeBatch;
+    private byte[] _poll;
+
+    @Setup(Level.Trial)
+    public void connect(BrokerState state) throws Exception
+    {
+        BenchmarkBroker broker = state._broker;
+        InMemorySession session = new InMemorySession(Long.toHexString(System.nanoTime()),broker.getServletContext());
+        _request = new InMemoryRequest(session,"application/x-amf");
+        _response = new InMemoryResponse();
+
+        ActionMessage ack = broker.exchange(_request,_response,AMFPayloads.ping());
+        String flexClientId = (String)((Message)ack.getBody(0).getData()).getHeader(Message.FLEX_CLIENT_ID_HEADER);
+        broker.exchange(_request,_response,AMFPayloads.subscribe(flexClientId));
+
+        _smallRpc = AMFPayloads.remoting(flexClientId,1,AMFPayloads.text(64));
+        _legacyRpc = AMFPayloads.legacy(AMFPayloads.text(64));
+        _largeBatch = AMFPayloads.remoting(flexClientId,LARGE_BATCH,AMFPayloads.text(256));
+        _poll = AMFPayloads.poll(flexClientId);
+    }
+
+    @Benchmark
+    public int smallRpcAmf3(BrokerState state)
+    {
+        return state._broker.service(_request,_response,_smallRpc);
+    }
+
+    @Benchmark
+    public int smallRpcAmf0Legacy(BrokerState state)
+    {
+        return state._broker.service(_request,_response,_legacyRpc);
+    }
+
+    @Benchmark
+    public int largeBatchAmf3(BrokerState state)
+    {
+        return state._broker.service(_request,_response,_largeBatch);
+    }
+
+    @Benchmark
+    public int pollWithNoData(BrokerState state)
+    {
+        return state._broker.service(_request,_response,_poll);
+    }
+}
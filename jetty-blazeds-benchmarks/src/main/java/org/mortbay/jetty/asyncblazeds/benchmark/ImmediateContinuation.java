@@ -0,0 +1,114 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.mortbay.jetty.asyncblazeds.benchmark;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+
+/* ------------------------------------------------------------ */
+/**
+ * ImmediateContinuation
+ *
+ * A continuation that is always in its initial dispatch. The benchmark
+ * endpoint is configured so that polls never wait, hence suspending
+ * is reported as an error rather than silently measured.
+ */
+public class ImmediateContinuation implements Continuation
+{
+    private final ServletRequest _request;
+
+    public ImmediateContinuation(ServletRequest request)
+    {
+        _request = request;
+    }
+
+    public void setTimeout(long timeoutMs)
+    {
+    }
+
+    public void suspend()
+    {
+        throw new IllegalStateException("Benchmark requests cannot be suspended");
+    }
+
+    public void suspend(ServletResponse response)
+    {
+        suspend();
+    }
+
+    public void resume()
+    {
+    }
+
+    public void complete()
+    {
+    }
+
+    public boolean isSuspended()
+    {
+        return false;
+    }
+
+    public boolean isResumed()
+    {
+        return false;
+    }
+
+    public boolean isExpired()
+    {
+        return false;
+    }
+
+    public boolean isInitial()
+    {
+        return true;
+    }
+
+    public boolean isResponseWrapped()
+    {
+        return false;
+    }
+
+    public ServletResponse getServletResponse()
+    {
+        return null;
+    }
+
+    public void addContinuationListener(ContinuationListener listener)
+    {
+    }
+
+    public void setAttribute(String name, Object attribute)
+    {
+        _request.setAttribute(name,attribute);
+    }
+
+    public Object getAttribute(String name)
+    {
+        return _request.getAttribute(name);
+    }
+
+    public void removeAttribute(String name)
+    {
+        _request.removeAttribute(name);
+    }
+
+    public void undispatch()
+    {
+        throw new IllegalStateException("Benchmark requests cannot be suspended");
+    }
+}
@@ -0,0 +1,386 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.mortbay.jetty.asyncblazeds.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.eclipse.jetty.continuation.Continuation;
+
+/* ------------------------------------------------------------ */
+/**
+ * InMemoryRequest
+ *
+ * A reusable POST request whose content is a canned AMF payload.
+ * {@link #recycle(byte[])} prepares the request for the next invocation
+ * without allocating, so that the benchmarks only measure the endpoint.
+ */
+public class InMemoryRequest implements HttpServletRequest
+{
+    private final Map<String,Object> _attributes = new HashMap<String,Object>();
+    private final Map<String,String> _headers = new HashMap<String,String>();
+    private final ByteArrayServletInputStream _in = new ByteArrayServletInputStream();
+    private final HttpSession _session;
+    private final Continuation _continuation;
+    private final String _contentType;
+
+    public InMemoryRequest(HttpSession session, String contentType)
+    {
+        _session = session;
+        _contentType = contentType;
+        _continuation = new ImmediateContinuation(this);
+        _headers.put("User-Agent","Shockwave Flash");
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Clear the attributes left by the previous invocation and replay the given content.
+     * @param content the request body
+     */
+    public void recycle(byte[] content)
+    {
+        _attributes.clear();
+        _attributes.put(Continuation.ATTRIBUTE,_continuation);
+        _in.setContent(content);
+    }
+
+    public Object getAttribute(String name)
+    {
+        return _attributes.get(name);
+    }
+
+    public Enumeration getAttributeNames()
+    {
+        return Collections.enumeration(_attributes.keySet());
+    }
+
+    public void setAttribute(String name, Object value)
+    {
+        if (value == null)
+            _attributes.remove(name);
+        else
+            _attributes.put(name,value);
+    }
+
+    public void removeAttribute(String name)
+    {
+        _attributes.remove(name);
+    }
+
+    public String getCharacterEncoding()
+    {
+        return null;
+    }
+
+    public void setCharacterEncoding(String encoding)
+    {
+    }
+
+    public int getContentLength()
+    {
+        return _in.getLength();
+    }
+
+    public String getContentType()
+    {
+        return _contentType;
+    }
+
+    public ServletInputStream getInputStream() throws IOException
+    {
+        return _in;
+    }
+
+    public BufferedReader getReader() throws IOException
+    {
+        return new BufferedReader(new InputStreamReader(_in,"UTF-8"));
+    }
+
+    public String getParameter(String name)
+    {
+        return null;
+    }
+
+    public Enumeration getParameterNames()
+    {
+        return Collections.enumeration(Collections.emptyList());
+    }
+
+    public String[] getParameterValues(String name)
+    {
+        return null;
+    }
+
+    public Map getParameterMap()
+    {
+        return Collections.emptyMap();
+    }
+
+    public String getProtocol()
+    {
+        return "HTTP/1.1";
+    }
+
+    public String getScheme()
+    {
+        return "http";
+    }
+
+    public String getServerName()
+    {
+        return "localhost";
+    }
+
+    public int getServerPort()
+    {
+        return 8080;
+    }
+
+    public String getRemoteAddr()
+    {
+        return "127.0.0.1";
+    }
+
+    public String getRemoteHost()
+    {
+        return "localhost";
+    }
+
+    public int getRemotePort()
+    {
+        return 0;
+    }
+
+    public String getLocalName()
+    {
+        return "localhost";
+    }
+
+    public String getLocalAddr()
+    {
+        return "127.0.0.1";
+    }
+
+    public int getLocalPort()
+    {
+        return 8080;
+    }
+
+    public Locale getLocale()
+    {
+        return Locale.getDefault();
+    }
+
+    public Enumeration getLocales()
+    {
+        return Collections.enumeration(Collections.singletonList(Locale.getDefault()));
+    }
+
+    public boolean isSecure()
+    {
+        return false;
+    }
+
+    public RequestDispatcher getRequestDispatcher(String path)
+    {
+        return null;
+    }
+
+    public String getRealPath(String path)
+    {
+        return null;
+    }
+
+    public String getAuthType()
+    {
+        return null;
+    }
+
+    public Cookie[] getCookies()
+    {
+        return null;
+    }
+
+    public long getDateHeader(String name)
+    {
+        return -1;
+    }
+
+    public String getHeader(String name)
+    {
+        return _headers.get(name);
+    }
+
+    public Enumeration getHeaders(String name)
+    {
+        String value = _headers.get(name);
+        if (value == null)
+            return Collections.enumeration(Collections.emptyList());
+        return Collections.enumeration(Collections.singletonList(value));
+    }
+
+    public Enumeration getHeaderNames()
+    {
+        return Collections.enumeration(_headers.keySet());
+    }
+
+    public int getIntHeader(String name)
+    {
+        String value = _headers.get(name);
+        return value == null ? -1 : Integer.parseInt(value);
+    }
+
+    public String getMethod()
+    {
+        return "POST";
+    }
+
+    public String getPathInfo()
+    {
+        return null;
+    }
+
+    public String getPathTranslated()
+    {
+        return null;
+    }
+
+    public String getContextPath()
+    {
+        return "/benchmark";
+    }
+
+    public String getQueryString()
+    {
+        return null;
+    }
+
+    public String getRemoteUser()
+    {
+        return null;
+    }
+
+    public boolean isUserInRole(String role)
+    {
+        return false;
+    }
+
+    public Principal getUserPrincipal()
+    {
+        return null;
+    }
+
+    public String getRequestedSessionId()
+    {
+        return _session.getId();
+    }
+
+    public String getRequestURI()
+    {
+        return "/benchmark/messagebroker/amfasync";
+    }
+
+    public StringBuffer getRequestURL()
+    {
+        return new StringBuffer("http://localhost:8080").append(getRequestURI());
+    }
+
+    public String getServletPath()
+    {
+        return "/messagebroker";
+    }
+
+    public HttpSession getSession(boolean create)
+    {
+        return _session;
+    }
+
+    public HttpSession getSession()
+    {
+        return _session;
+    }
+
+    public boolean isRequestedSessionIdValid()
+    {
+        return true;
+    }
+
+    public boolean isRequestedSessionIdFromCookie()
+    {
+        return true;
+    }
+
+    public boolean isRequestedSessionIdFromURL()
+    {
+        return false;
+    }
+
+    public boolean isRequestedSessionIdFromUrl()
+    {
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class ByteArrayServletInputStream extends ServletInputStream
+    {
+        private byte[] _content = new byte[0];
+        private int _position;
+
+        void setContent(byte[] content)
+        {
+            _content = content;
+            _position = 0;
+        }
+
+        int getLength()
+        {
+            return _content.length;
+        }
+
+        public int read() throws IOException
+        {
+            if (_position >= _content.length)
+                return -1;
+            return _content[_position++] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (_position >= _content.length)
+                return -1;
+            int count = Math.min(len,_content.length - _position);
+            System.arraycopy(_content,_position,b,off,count);
+            _position += count;
+            return count;
+        }
+
+        public int available() throws IOException
+        {
+            return _content.length - _position;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.mortbay.jetty.asyncblazeds.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/* ------------------------------------------------------------ */
+/**
+ * InMemoryResponse
+ *
+ * A reusable response that buffers the content written by the endpoint,
+ * so that benchmarks can consume it and check its size.
+ */
+public class InMemoryResponse implements HttpServletResponse
+{
+    private final ByteArrayOutputStream _buffer = new ByteArrayOutputStream(4096);
+    private final ServletOutputStream _out = new ServletOutputStream()
+    {
+        public void write(int b) throws IOException
+        {
+            _buffer.write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            _buffer.write(b,off,len);
+        }
+    };
+    private int _status;
+    private int _contentLength;
+    private String _contentType;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Discard the content and status of the previous invocation.
+     */
+    public void recycle()
+    {
+        _buffer.reset();
+        _status = SC_OK;
+        _contentLength = -1;
+        _contentType = null;
+    }
+
+    public int getStatus()
+    {
+        return _status;
+    }
+
+    public int getContentLength()
+    {
+        return _contentLength;
+    }
+
+    public int getContentSize()
+    {
+        return _buffer.size();
+    }
+
+    public byte[] getContent()
+    {
+        return _buffer.toByteArray();
+    }
+
+    public void addCookie(Cookie cookie)
+    {
+    }
+
+    public boolean containsHeader(String name)
+    {
+        return false;
+    }
+
+    public String encodeURL(String url)
+    {
+        return url;
+    }
+
+    public String encodeRedirectURL(String url)
+    {
+        return url;
+    }
+
+    public String encodeUrl(String url)
+    {
+        return url;
+    }
+
+    public String encodeRedirectUrl(String url)
+    {
+        return url;
+    }
+
+    public void sendError(int status, String message) throws IOException
+    {
+        _status = status;
+    }
+
+    public void sendError(int status) throws IOException
+    {
+        _status = status;
+    }
+
+    public void sendRedirect(String location) throws IOException
+    {
+        _status = SC_MOVED_TEMPORARILY;
+    }
+
+    public void setDateHeader(String name, long date)
+    {
+    }
+
+    public void addDateHeader(String name, long date)
+    {
+    }
+
+    public void setHeader(String name, String value)
+    {
+    }
+
+    public void addHeader(String name, String value)
+    {
+    }
+
+    public void setIntHeader(String name, int value)
+    {
+    }
+
+    public void addIntHeader(String name, int value)
+    {
+    }
+
+    public void setStatus(int status)
+    {
+        _status = status;
+    }
+
+    public void setStatus(int status, String message)
+    {
+        _status = status;
+    }
+
+    public String getCharacterEncoding()
+    {
+        return "UTF-8";
+    }
+
+    public String getContentType()
+    {
+        return _contentType;
+    }
+
+    public ServletOutputStream getOutputStream() throws IOException
+    {
+        return _out;
+    }
+
+    public PrintWriter getWriter() throws IOException
+    {
+        return new PrintWriter(new OutputStreamWriter(_out,"UTF-8"));
+    }
+
+    public void setCharacterEncoding(String encoding)
+    {
+    }
+
+    public void setContentLength(int length)
+    {
+        _contentLength = length;
+    }
+
+    public void setContentType(String type)
+    {
+        _contentType = type;
+    }
+
+    public void setBufferSize(int size)
+    {
+    }
+
+    public int getBufferSize()
+    {
+        return _buffer.size();
+    }
+
+    public void flushBuffer() throws IOException
+    {
+    }
+
+    public void resetBuffer()
+    {
+        _buffer.reset();
+    }
+
+    public boolean isCommitted()
+    {
+        return false;
+    }
+
+    public void reset()
+    {
+        recycle();
+    }
+
+    public void setLocale(Locale locale)
+    {
+    }
+
+    public Locale getLocale()
+    {
+        return Locale.getDefault();
+    }
+}
@@ -0,0 +1,141 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.mortbay.jetty.asyncblazeds.benchmark;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import javax.servlet.http.HttpSessionContext;
+
+/* ------------------------------------------------------------ */
+/**
+ * InMemorySession
+ *
+ * A never expiring session shared by the requests of one benchmark client,
+ * so that the FlexSession and FlexClient are created once during setup.
+ */
+public class InMemorySession implements HttpSession
+{
+    private final Map<String,Object> _attributes = new ConcurrentHashMap<String,Object>();
+    private final long _created = System.currentTimeMillis();
+    private final String _id;
+    private final ServletContext _context;
+
+    public InMemorySession(String id, ServletContext context)
+    {
+        _id = id;
+        _context = context;
+    }
+
+    public long getCreationTime()
+    {
+        return _created;
+    }
+
+    public String getId()
+    {
+        return _id;
+    }
+
+    public long getLastAccessedTime()
+    {
+        return System.currentTimeMillis();
+    }
+
+    public ServletContext getServletContext()
+    {
+        return _context;
+    }
+
+    public void setMaxInactiveInterval(int interval)
+    {
+    }
+
+    public int getMaxInactiveInterval()
+    {
+        return -1;
+    }
+
+    @SuppressWarnings("deprecation")
+    public HttpSessionContext getSessionContext()
+    {
+        return null;
+    }
+
+    public Object getAttribute(String name)
+    {
+        return _attributes.get(name);
+    }
+
+    public Object getValue(String name)
+    {
+        return getAttribute(name);
+    }
+
+    public Enumeration getAttributeNames()
+    {
+        return Collections.enumeration(_attributes.keySet());
+    }
+
+    public String[] getValueNames()
+    {
+        return _attributes.keySet().toArray(new String[0]);
+    }
+
+    public void setAttribute(String name, Object value)
+    {
+        if (value == null)
+        {
+            removeAttribute(name);
+            return;
+        }
+        Object old = _attributes.put(name,value);
+        if (old != value && value instanceof HttpSessionBindingListener)
+            ((HttpSessionBindingListener)value).valueBound(new HttpSessionBindingEvent(this,name,value));
+    }
+
+    public void putValue(String name, Object value)
+    {
+        setAttribute(name,value);
+    }
+
+    public void removeAttribute(String name)
+    {
+        Object old = _attributes.remove(name);
+        if (old instanceof HttpSessionBindingListener)
+            ((HttpSessionBindingListener)old).valueUnbound(new HttpSessionBindingEvent(this,name,old));
+    }
+
+    public void removeValue(String name)
+    {
+        removeAttribute(name);
+    }
+
+    public void invalidate()
+    {
+        for (String name : getValueNames())
+            removeAttribute(name);
+    }
+
+    public boolean isNew()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,43 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+package org.mortbay.jetty.asyncblazeds.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/* ------------------------------------------------------------ */
+/**
+ * Main
+ *
+ * Runs the benchmarks with the GC profiler enabled, so that the report
+ * includes the allocation rate per request (<code>gc.alloc.rate.norm</code>)
+ * next to the throughput and the sampled latency percentiles.
+ * Any JMH command line option may be given, eg a benchmark name regexp
+ * or <code>-t 4</code> for four client threads.
+ */
+public class Main
+{
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        if (commandLine.getIncludes().isEmpty())
+            builder.include(FilterChainBenchmark.class.getSimpleName());
+        Options options = builder.parent(commandLine).addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
@@ -79,7 +79,7 @@ public class AsyncAMFEndpoint extends BaseAsyncHTTPEndpoint
      */
     protected AMFFilter createFilterChain()
     {
-        AMFFilter serializationFilter = new AsyncSerializationFilter(getLogCategory());
+        AMFFilter serializationFilter = new AsyncSerializationFilter(getLogCategory(),metrics);
         AMFFilter batchFilter = new AsyncBatchProcessFilter();
         AMFFilter sessionFilter = new AsyncSessionFilter();
         AMFFilter envelopeFilter = new AsyncLegacyFilter(this);
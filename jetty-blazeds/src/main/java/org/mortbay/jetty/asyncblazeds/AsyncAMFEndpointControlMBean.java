@@ -0,0 +1,9 @@
+package org.mortbay.jetty.asyncblazeds;
+
+/**
+ * Defines the runtime monitoring and management interface for managed
+ * <code>AsyncAMFEndpoint</code>s.
+ */
+public interface AsyncAMFEndpointControlMBean extends AsyncEndpointControlMBean
+{
+}
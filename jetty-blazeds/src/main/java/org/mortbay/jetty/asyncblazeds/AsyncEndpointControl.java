@@ -0,0 +1,173 @@
+package org.mortbay.jetty.asyncblazeds;
+
+import flex.management.BaseControl;
+import flex.management.runtime.messaging.endpoints.EndpointControl;
+
+/**
+ * Base MBean control for the asynchronous endpoints, exposing the
+ * {@link AsyncEndpointMetrics} of the managed endpoint.
+ */
+public abstract class AsyncEndpointControl extends EndpointControl implements AsyncEndpointControlMBean
+{
+    private final BaseAsyncHTTPEndpoint asyncEndpoint;
+
+    /**
+     * Constructs a <code>AsyncEndpointControl</code>, assigning managed
+     * message endpoint and parent MBean.
+     *
+     * @param endpoint
+     *            The <code>BaseAsyncHTTPEndpoint</code> managed by this MBean.
+     * @param parent
+     *            The parent MBean in the management hierarchy.
+     */
+    public AsyncEndpointControl(BaseAsyncHTTPEndpoint endpoint, BaseControl parent)
+    {
+        super(endpoint,parent);
+        asyncEndpoint = endpoint;
+    }
+
+    /** {@inheritDoc} */
+    public Integer getMaxWaitingPollRequests()
+    {
+        return Integer.valueOf(asyncEndpoint.getMaxWaitingPollRequests());
+    }
+
+    /** {@inheritDoc} */
+    public Integer getWaitingPollRequestsCount()
+    {
+        return Integer.valueOf(asyncEndpoint.getWaitingPollRequestsCount());
+    }
+
+    /** {@inheritDoc} */
+    public Long getSuspendedPollCount()
+    {
+        return Long.valueOf(getMetrics().getSuspendedPolls());
+    }
+
+    /** {@inheritDoc} */
+    public Integer getCurrentSuspendedPollCount()
+    {
+        return Integer.valueOf(getMetrics().getCurrentSuspendedPolls());
+    }
+
+    /** {@inheritDoc} */
+    public Long getImmediatePollCount()
+    {
+        return Long.valueOf(getMetrics().getImmediatePolls());
+    }
+
+    /** {@inheritDoc} */
+    public Long getWaitedPollCount()
+    {
+        return Long.valueOf(getMetrics().getWaitedPolls());
+    }
+
+    /** {@inheritDoc} */
+    public Long getTimedOutPollCount()
+    {
+        return Long.valueOf(getMetrics().getTimedOutPolls());
+    }
+
+    /** {@inheritDoc} */
+    public Long getExcessPollRejectionCount()
+    {
+        return Long.valueOf(getMetrics().getExcessPollRejections());
+    }
+
+    /** {@inheritDoc} */
+    public Long getSuspendTime50thPercentile()
+    {
+        return Long.valueOf(getMetrics().getSuspendTime().getPercentile(50));
+    }
+
+    /** {@inheritDoc} */
+    public Long getSuspendTime99thPercentile()
+    {
+        return Long.valueOf(getMetrics().getSuspendTime().getPercentile(99));
+    }
+
+    /** {@inheritDoc} */
+    public Long getSuspendTimeMax()
+    {
+        return Long.valueOf(getMetrics().getSuspendTime().getMax());
+    }
+
+    /** {@inheritDoc} */
+    public Long[] getSuspendTimeHistogram()
+    {
+        return box(getMetrics().getSuspendTime().getBuckets());
+    }
+
+    /** {@inheritDoc} */
+    public Double getSerializationTimeMean()
+    {
+        return Double.valueOf(getMetrics().getSerializationTime().getMean());
+    }
+
+    /** {@inheritDoc} */
+    public Long getSerializationTime99thPercentile()
+    {
+        return Long.valueOf(getMetrics().getSerializationTime().getPercentile(99));
+    }
+
+    /** {@inheritDoc} */
+    public Long getSerializationTimeMax()
+    {
+        return Long.valueOf(getMetrics().getSerializationTime().getMax());
+    }
+
+    /** {@inheritDoc} */
+    public Long[] getSerializationTimeHistogram()
+    {
+        return box(getMetrics().getSerializationTime().getBuckets());
+    }
+
+    /** {@inheritDoc} */
+    public Double getResponseSizeMean()
+    {
+        return Double.valueOf(getMetrics().getResponseSize().getMean());
+    }
+
+    /** {@inheritDoc} */
+    public Long getResponseSize50thPercentile()
+    {
+        return Long.valueOf(getMetrics().getResponseSize().getPercentile(50));
+    }
+
+    /** {@inheritDoc} */
+    public Long getResponseSize99thPercentile()
+    {
+        return Long.valueOf(getMetrics().getResponseSize().getPercentile(99));
+    }
+
+    /** {@inheritDoc} */
+    public Long getResponseSizeMax()
+    {
+        return Long.valueOf(getMetrics().getResponseSize().getMax());
+    }
+
+    /** {@inheritDoc} */
+    public Long[] getResponseSizeHistogram()
+    {
+        return box(getMetrics().getResponseSize().getBuckets());
+    }
+
+    /** {@inheritDoc} */
+    public void resetMetrics()
+    {
+        getMetrics().reset();
+    }
+
+    private AsyncEndpointMetrics getMetrics()
+    {
+        return asyncEndpoint.getMetrics();
+    }
+
+    private static Long[] box(long[] values)
+    {
+        Long[] boxed = new Long[values.length];
+        for (int i = 0; i < values.length; i++)
+            boxed[i] = Long.valueOf(values[i]);
+        return boxed;
+    }
+}
@@ -0,0 +1,61 @@
+package org.mortbay.jetty.asyncblazeds;
+
+import java.io.IOException;
+
+import flex.management.runtime.messaging.endpoints.EndpointControlMBean;
+
+/**
+ * Defines the runtime monitoring and management interface shared by the
+ * asynchronous endpoints.
+ * <p>
+ * Suspend times are in milliseconds, serialization times in microseconds and
+ * response sizes in bytes. Histogram attributes return the bucket counts, where
+ * bucket 0 counts zero and bucket <code>i</code> counts the values in
+ * <code>[2<sup>i-1</sup>, 2<sup>i</sup>)</code>.
+ */
+public interface AsyncEndpointControlMBean extends EndpointControlMBean
+{
+    Integer getMaxWaitingPollRequests() throws IOException;
+
+    Integer getWaitingPollRequestsCount() throws IOException;
+
+    Long getSuspendedPollCount() throws IOException;
+
+    Integer getCurrentSuspendedPollCount() throws IOException;
+
+    Long getImmediatePollCount() throws IOException;
+
+    Long getWaitedPollCount() throws IOException;
+
+    Long getTimedOutPollCount() throws IOException;
+
+    Long getExcessPollRejectionCount() throws IOException;
+
+    Long getSuspendTime50thPercentile() throws IOException;
+
+    Long getSuspendTime99thPercentile() throws IOException;
+
+    Long getSuspendTimeMax() throws IOException;
+
+    Long[] getSuspendTimeHistogram() throws IOException;
+
+    Double getSerializationTimeMean() throws IOException;
+
+    Long getSerializationTime99thPercentile() throws IOException;
+
+    Long getSerializationTimeMax() throws IOException;
+
+    Long[] getSerializationTimeHistogram() throws IOException;
+
+    Double getResponseSizeMean() throws IOException;
+
+    Long getResponseSize50thPercentile() throws IOException;
+
+    Long getResponseSize99thPercentile() throws IOException;
+
+    Long getResponseSizeMax() throws IOException;
+
+    Long[] getResponseSizeHistogram() throws IOException;
+
+    void resetMetrics() throws IOException;
+}
@@ -0,0 +1,276 @@
+package org.mortbay.jetty.asyncblazeds;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runtime statistics of a {@link BaseAsyncHTTPEndpoint}.
+ * <p>
+ * Every value is maintained with atomic operations only, so recording never takes a lock
+ * and can be left on in production. The statistics are exposed over JMX by
+ * {@link AsyncEndpointControl} when the endpoint is managed.
+ */
+public class AsyncEndpointMetrics
+{
+    private final AtomicLong suspendedPolls = new AtomicLong();
+    private final AtomicInteger currentSuspendedPolls = new AtomicInteger();
+    private final AtomicLong immediatePolls = new AtomicLong();
+    private final AtomicLong waitedPolls = new AtomicLong();
+    private final AtomicLong timedOutPolls = new AtomicLong();
+    private final AtomicLong excessPollRejections = new AtomicLong();
+
+    private final Histogram suspendTime = new Histogram();
+    private final Histogram serializationTime = new Histogram();
+    private final Histogram responseSize = new Histogram();
+
+    /**
+     * Records that a poll request has been suspended waiting for messages.
+     */
+    public void pollSuspended()
+    {
+        suspendedPolls.incrementAndGet();
+        currentSuspendedPolls.incrementAndGet();
+    }
+
+    /**
+     * Records that a suspended poll request has been redispatched.
+     *
+     * @param suspendedNanos the time the request spent suspended, in nanoseconds
+     */
+    public void pollResumed(long suspendedNanos)
+    {
+        currentSuspendedPolls.decrementAndGet();
+        suspendTime.record(TimeUnit.NANOSECONDS.toMillis(suspendedNanos));
+    }
+
+    /**
+     * Records a poll that was answered without waiting.
+     */
+    public void pollServedImmediately()
+    {
+        immediatePolls.incrementAndGet();
+    }
+
+    /**
+     * Records a poll that waited and was answered with messages.
+     */
+    public void pollServedAfterWait()
+    {
+        waitedPolls.incrementAndGet();
+    }
+
+    /**
+     * Records a poll that waited and was answered without messages.
+     */
+    public void pollTimedOut()
+    {
+        timedOutPolls.incrementAndGet();
+    }
+
+    /**
+     * Records a poll that wanted to wait but was refused a wait slot, either because
+     * <code>max-waiting-poll-requests</code> or the per session connection limit was reached.
+     */
+    public void excessPollRejected()
+    {
+        excessPollRejections.incrementAndGet();
+    }
+
+    /**
+     * Records the time spent serializing a response.
+     *
+     * @param nanos the serialization time, in nanoseconds
+     */
+    public void responseSerialized(long nanos)
+    {
+        serializationTime.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records the size of a response written to the client.
+     *
+     * @param bytes the response size, in bytes
+     */
+    public void responseWritten(int bytes)
+    {
+        responseSize.record(bytes);
+    }
+
+    public long getSuspendedPolls()
+    {
+        return suspendedPolls.get();
+    }
+
+    public int getCurrentSuspendedPolls()
+    {
+        return currentSuspendedPolls.get();
+    }
+
+    public long getImmediatePolls()
+    {
+        return immediatePolls.get();
+    }
+
+    public long getWaitedPolls()
+    {
+        return waitedPolls.get();
+    }
+
+    public long getTimedOutPolls()
+    {
+        return timedOutPolls.get();
+    }
+
+    public long getExcessPollRejections()
+    {
+        return excessPollRejections.get();
+    }
+
+    /**
+     * @return the distribution of the time polls spent suspended, in milliseconds
+     */
+    public Histogram getSuspendTime()
+    {
+        return suspendTime;
+    }
+
+    /**
+     * @return the distribution of the response serialization time, in microseconds
+     */
+    public Histogram getSerializationTime()
+    {
+        return serializationTime;
+    }
+
+    /**
+     * @return the distribution of the response sizes, in bytes
+     */
+    public Histogram getResponseSize()
+    {
+        return responseSize;
+    }
+
+    /**
+     * Resets all the counters and histograms, except the number of currently suspended polls.
+     */
+    public void reset()
+    {
+        suspendedPolls.set(0);
+        immediatePolls.set(0);
+        waitedPolls.set(0);
+        timedOutPolls.set(0);
+        excessPollRejections.set(0);
+        suspendTime.reset();
+        serializationTime.reset();
+        responseSize.reset();
+    }
+
+    /**
+     * A fixed size histogram of non negative values with power of two buckets.
+     * <p>
+     * Bucket 0 counts the value 0, and bucket <code>i</code> counts the values in
+     * <code>[2<sup>i-1</sup>, 2<sup>i</sup>)</code>. Percentiles are therefore reported as the
+     * upper bound of the bucket they fall in, which is accurate within a factor of two.
+     */
+    public static class Histogram
+    {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value)
+        {
+            if (value < 0)
+                value = 0;
+            buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            total.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current,value))
+                current = max.get();
+        }
+
+        public long getCount()
+        {
+            return count.get();
+        }
+
+        public long getMax()
+        {
+            return max.get();
+        }
+
+        public double getMean()
+        {
+            long samples = count.get();
+            return samples == 0 ? 0.0 : (double)total.get() / samples;
+        }
+
+        /**
+         * @param percentile the percentile to compute, between 0 and 100
+         * @return the upper bound of the bucket containing the given percentile, capped at the maximum recorded value
+         */
+        public long getPercentile(double percentile)
+        {
+            long[] counts = getBuckets();
+            long samples = 0;
+            for (long c : counts)
+                samples += c;
+            if (samples == 0)
+                return 0;
+
+            long rank = (long)Math.ceil(samples * percentile / 100.0);
+            if (rank < 1)
+                rank = 1;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(upperBound(i),max.get());
+            }
+            return max.get();
+        }
+
+        /**
+         * @return a snapshot of the bucket counts, trimmed after the last non empty bucket
+         */
+        public long[] getBuckets()
+        {
+            int last = -1;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                counts[i] = buckets.get(i);
+                if (counts[i] > 0)
+                    last = i;
+            }
+            long[] trimmed = new long[last + 1];
+            System.arraycopy(counts,0,trimmed,0,trimmed.length);
+            return trimmed;
+        }
+
+        public void reset()
+        {
+            for (int i = 0; i < BUCKETS; i++)
+                buckets.set(i,0);
+            count.set(0);
+            total.set(0);
+            max.set(0);
+        }
+
+        private static long upperBound(int bucket)
+        {
+            if (bucket == 0)
+                return 0;
+            if (bucket >= 63)
+                return Long.MAX_VALUE;
+            return (1L << bucket) - 1;
+        }
+    }
+}
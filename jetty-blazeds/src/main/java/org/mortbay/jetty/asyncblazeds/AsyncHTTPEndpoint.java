@@ -84,7 +84,7 @@ public class AsyncHTTPEndpoint extends BaseAsyncHTTPEndpoint
      */
     protected AMFFilter createFilterChain()
     {
-        AMFFilter serializationFilter = new AsyncSerializationFilter(getLogCategory());
+        AMFFilter serializationFilter = new AsyncSerializationFilter(getLogCategory(),metrics);
         AMFFilter batchFilter = new AsyncBatchProcessFilter();
         AMFFilter sessionFilter = new AsyncSessionFilter();
         AMFFilter messageBrokerFilter = new AsyncMessageBrokerFilter(this);
@@ -79,9 +79,20 @@ public class AsyncSerializationFilter extends AMFFilter
 
     private boolean isDebug;
     private Logger logger;
+    private AsyncEndpointMetrics metrics;
 
     public AsyncSerializationFilter(String logCategory)
     {
+        this(logCategory,null);
+    }
+
+    /**
+     * @param logCategory The log category of the endpoint.
+     * @param metrics The statistics to record the serialization time in, or null.
+     */
+    public AsyncSerializationFilter(String logCategory, AsyncEndpointMetrics metrics)
+    {
+        this.metrics = metrics;
         isDebug = Log.isDebug();
         if (logCategory == null)
             logCategory = LogCategories.ENDPOINT_GENERAL;
@@ -193,6 +204,7 @@ public class AsyncSerializationFilter extends AMFFilter
                     debugTrace = new AmfTrace();
                 }
 
+                long serializationStart = System.nanoTime();
                 try
                 {
                     // overhead calculation is only necessary when MPI is enabled
@@ -247,6 +259,8 @@ public class AsyncSerializationFilter extends AMFFilter
                 }
                 finally
                 {
+                    if (metrics != null)
+                        metrics.responseSerialized(System.nanoTime() - serializationStart);
                     if (isDebug)
                         logger.debug(debugTrace.toString());
                 }
@@ -94,6 +94,8 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
     // This matches the default polling interval defined in the client
     // PollingChannel.
     private static final int DEFAULT_WAIT_FOR_EXCESS_POLL_WAIT_CLIENTS = 3000;
+    // Request attribute holding the System.nanoTime() at which a poll was suspended.
+    private static final String ASYNC_SUSPENDED_AT = "AsyncSuspendedAt";
 
     // User Agent based settings manager
     private UserAgentManager userAgentManager = new UserAgentManager();
@@ -147,6 +149,13 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
             request.set(req);
             setThreadLocals();
 
+            Long suspendedAt = (Long)req.getAttribute(ASYNC_SUSPENDED_AT);
+            if (suspendedAt != null)
+            {
+                req.removeAttribute(ASYNC_SUSPENDED_AT);
+                metrics.pollResumed(System.nanoTime() - suspendedAt.longValue());
+            }
+
             if (context==null)
             {
                 validateRequestProtocol(req);
@@ -184,6 +193,7 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
                     res.setContentLength(outBuffer.size());
                     outBuffer.writeTo(res.getOutputStream());
                     res.flushBuffer();
+                    metrics.responseWritten(outBuffer.size());
                 }
                 else
                 {
@@ -314,6 +324,11 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
      */
     private ConcurrentHashMap currentWaitedRequests;
 
+    /**
+     * Lock-free statistics of the polls and responses handled by this endpoint.
+     */
+    protected final AsyncEndpointMetrics metrics = new AsyncEndpointMetrics();
+
     // --------------------------------------------------------------------------
     //
     // Properties
@@ -396,6 +411,19 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
         }
     }
 
+    // ----------------------------------
+    // metrics
+    // ----------------------------------
+
+    /**
+     * Returns the runtime statistics of this endpoint. They are recorded whether
+     * or not the endpoint is managed.
+     */
+    public AsyncEndpointMetrics getMetrics()
+    {
+        return metrics;
+    }
+
     // ----------------------------------
     // pollingEnabled
     // ----------------------------------
@@ -423,6 +451,22 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
      */
     protected long pollingIntervalMillis;
 
+    // ----------------------------------
+    // waitingPollRequestsCount
+    // ----------------------------------
+
+    /**
+     * Returns the number of poll requests currently waiting for messages to
+     * arrive for their client.
+     */
+    public int getWaitingPollRequestsCount()
+    {
+        synchronized (lock)
+        {
+            return waitingPollRequestsCount;
+        }
+    }
+
     // ----------------------------------
     // waitInterval
     // ----------------------------------
@@ -599,6 +643,7 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
     protected FlushResult handleFlexClientPoll(FlexClient flexClient, CommandMessage pollCommand)
     {
         FlushResult flushResult = null;
+        boolean pollRecorded = false;
         if (canWait && !pollCommand.headerExists(CommandMessage.SUPPRESS_POLL_WAIT_HEADER))
         {
             FlexSession session = FlexContext.getFlexSession();
@@ -612,6 +657,7 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
             // one wait spot remains; one thread will win and the other needs to
             // revert to a non-waitable poll.
             boolean thisThreadCanWait;
+            int waitingCount;
             synchronized (lock)
             {
                 ++waitingPollRequestsCount;
@@ -637,8 +683,12 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
                     // We haven't hit the limit yet, allow this thread to wait.
                     thisThreadCanWait = true;
                 }
+                waitingCount = waitingPollRequestsCount;
             }
 
+            if (!thisThreadCanWait)
+                metrics.excessPollRejected();
+
             // Check the max waiting connections per session count
             if (thisThreadCanWait)
             {
@@ -668,6 +718,7 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
 
                 if (!thisThreadCanWait)
                 {
+                    metrics.excessPollRejected();
                     // Decrement the waiting poll count, since this poll isn't
                     // going to wait.
                     synchronized (lock)
@@ -688,12 +739,14 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
             if (thisThreadCanWait)
             {
                 if (Log.isDebug())
-                    log.debug("Number of waiting threads for endpoint with id '" + getId() + "' is " + waitingPollRequestsCount + ".");
+                    log.debug("Number of waiting threads for endpoint with id '" + getId() + "' is " + waitingCount + ".");
 
                 try
                 {
                     // Do we have async results?
                     final HttpServletRequest req = request.get();
+                    final Continuation continuation = ContinuationSupport.getContinuation(req);
+                    boolean waited = !continuation.isInitial();
                     flushResult = (FlushResult)req.getAttribute("AsyncFlushResults");
 
                     if (flushResult == null)
@@ -704,15 +757,17 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
                         if (flushResult == null)
                         {
                             // Nothing available. Have we suspended before?
-                            final Continuation continuation = ContinuationSupport.getContinuation(req);
                             if (waitInterval <= 0)
                             {
+                                waited = true;
                                 flushResult = flexClient.pollWithWait(getId(),FlexContext.getFlexSession(),this,waitInterval);
                             }
                             else if (continuation.isInitial())
                             {
                                 continuation.setTimeout(waitInterval * 2);
                                 continuation.suspend();
+                                req.setAttribute(ASYNC_SUSPENDED_AT,System.nanoTime());
+                                metrics.pollSuspended();
                                 flexClient.pollAsync(getId(),new AsyncPollHandler()
                                 {
                                     public void asyncPollComplete(FlushResult flushResult)
@@ -730,6 +785,14 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
                         }
                     }
 
+                    if (!waited)
+                        metrics.pollServedImmediately();
+                    else if (hasMessages(flushResult))
+                        metrics.pollServedAfterWait();
+                    else
+                        metrics.pollTimedOut();
+                    pollRecorded = true;
+
                     if (flushResult != null)
                     {
                         // Prevent busy-polling due to multiple clients sharing
@@ -759,6 +822,7 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
                         --waitingPollRequestsCount;
                         if (waitingPollRequestsCount < maxWaitingPollRequests)
                             canWait = true;
+                        waitingCount = waitingPollRequestsCount;
                     }
                     synchronized (session)
                     {
@@ -766,17 +830,24 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
                     }
 
                     if (Log.isDebug())
-                        log.debug("Number of waiting threads for endpoint with id '" + getId() + "' is " + waitingPollRequestsCount + ".");
+                        log.debug("Number of waiting threads for endpoint with id '" + getId() + "' is " + waitingCount + ".");
                 }
             }
         }
-        else if (Log.isDebug() && waitEnabled)
+        else if (waitEnabled)
         {
             if (pollCommand.headerExists(CommandMessage.SUPPRESS_POLL_WAIT_HEADER))
-                log.debug("Suppressing poll wait for this request because it is part of a batch of messages to process.");
+            {
+                if (Log.isDebug())
+                    log.debug("Suppressing poll wait for this request because it is part of a batch of messages to process.");
+            }
             else
-                log.debug("Max waiting poll requests limit '" + maxWaitingPollRequests + "' has been reached for endpoint '" + getId()
-                        + "'. FlexClient with id '" + flexClient.getId() + "' will poll with no wait.");
+            {
+                metrics.excessPollRejected();
+                if (Log.isDebug())
+                    log.debug("Max waiting poll requests limit '" + maxWaitingPollRequests + "' has been reached for endpoint '" + getId()
+                            + "'. FlexClient with id '" + flexClient.getId() + "' will poll with no wait.");
+            }
         }
 
         // If we weren't able to do a poll with wait above for any reason just
@@ -784,6 +855,8 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
         if (flushResult == null)
         {
             flushResult = super.handleFlexClientPoll(flexClient,pollCommand);
+            if (!pollRecorded)
+                metrics.pollServedImmediately();
             // If this is an excess poll request that we couldn't wait on, make
             // sure the client doesn't poll the endpoint too aggressively.
             // In this case, force a client wait to match the default polling
@@ -800,4 +873,16 @@ public abstract class BaseAsyncHTTPEndpoint extends BaseHTTPEndpoint implements
 
         return flushResult;
     }
+
+    /**
+     * @param flushResult The result of a poll, may be null.
+     * @return true if the result carries messages for the client.
+     */
+    private static boolean hasMessages(FlushResult flushResult)
+    {
+        if (flushResult == null)
+            return false;
+        List messages = flushResult.getMessages();
+        return messages != null && !messages.isEmpty();
+    }
 }
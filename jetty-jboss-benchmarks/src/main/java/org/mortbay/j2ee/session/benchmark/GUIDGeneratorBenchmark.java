@@ -0,0 +1,92 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mortbay.j2ee.session.GUIDGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* ------------------------------------------------------------ */
+/**
+ * GUIDGeneratorBenchmark
+ *
+ * Generates session ids from one shared {@link GUIDGenerator} on 1, 4 and
+ * 16 threads. With <code>stripes=1</code> every thread contends for the
+ * one generator, as they did when nextId was synchronized; with
+ * <code>stripes=0</code> the generator uses its default number of stripes
+ * and throughput should grow with the threads, up to the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GUIDGeneratorBenchmark
+{
+    @Param({"1", "0"})
+    int stripes;
+
+    @Param({"false", "true"})
+    boolean prefixed;
+
+    GUIDGenerator _generator;
+
+    @Setup
+    public void setUp()
+    {
+        _generator = new GUIDGenerator();
+        if (stripes > 0)
+            _generator.setStripeCount(stripes);
+        if (prefixed)
+        {
+            _generator.setNodeId("node1");
+            _generator.setCounterPrefix(true);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String nextId_1()
+    {
+        return _generator.nextId(null);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String nextId_4()
+    {
+        return _generator.nextId(null);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String nextId_16()
+    {
+        return _generator.nextId(null);
+    }
+}
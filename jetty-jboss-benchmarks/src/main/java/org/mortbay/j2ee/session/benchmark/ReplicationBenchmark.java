@@ -0,0 +1,182 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mortbay.j2ee.session.LoopbackTransport;
+import org.mortbay.j2ee.session.Manager;
+import org.mortbay.j2ee.session.TransportReplicatedStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* ------------------------------------------------------------ */
+/**
+ * ReplicationBenchmark
+ *
+ * Replicates session updates between <code>nodes</code> Managers, each
+ * with a {@link TransportReplicatedStore}, over a {@link LoopbackTransport}
+ * simulating a <code>network</code> that is:
+ * <ul>
+ * <li>perfect - no latency, loss or reordering</li>
+ * <li>lan - 200us latency and up to 100us jitter</li>
+ * <li>lossy - as lan, losing and reordering 1% of deliveries</li>
+ * </ul>
+ * <code>replicate</code> publishes one update and waits until every other
+ * node has applied it, so its sample time is the convergence lag.
+ * <code>replicateBatch</code> does the same for a burst of updates, so its
+ * throughput is replication messages per second. At the end of every
+ * iteration every other node must hold the last update published or the run
+ * fails. Only an update that the lossy network actually dropped is
+ * republished - reordering alone must never keep the nodes apart. Transport
+ * statistics for each trial are printed at its end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(1)
+@Fork(1)
+public class ReplicationBenchmark
+{
+    public static final int BATCH = 100;
+
+    public static final String SESSION_ID = "benchmark";
+
+    // times the last update is republished before a lossy run gives up...
+    public static final int RETRIES = 10;
+
+    @Param({"2", "4"})
+    int nodes;
+
+    @Param({"perfect", "lan", "lossy"})
+    String network;
+
+    LoopbackTransport _transport;
+
+    Manager[] _managers;
+
+    TransportReplicatedStore[] _stores;
+
+    long _time;
+
+    // the deliveries dropped when the nodes last converged...
+    long _dropped;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception
+    {
+        _transport = new LoopbackTransport();
+        _transport.setSeed(0);
+        if (!"perfect".equals(network))
+        {
+            _transport.setLatency(200);
+            _transport.setJitter(100);
+        }
+        if ("lossy".equals(network))
+        {
+            _transport.setLossRate(0.01);
+            _transport.setReorderRate(0.01);
+        }
+
+        _managers = new Manager[nodes];
+        _stores = new TransportReplicatedStore[nodes];
+        for (int i = 0; i < nodes; i++)
+        {
+            _managers[i] = new Manager();
+            _stores[i] = new TransportReplicatedStore();
+            _stores[i].setTransport(_transport);
+            _managers[i].setStore(_stores[i]);
+            _managers[i].start(); // starts the store
+            if (_managers[i].getStore() != _stores[i])
+                throw new IllegalStateException("could not start store " + i);
+        }
+
+        _time = _stores[0].newState(SESSION_ID, 60 * 30).getLastAccessedTime();
+        converge();
+        _transport.resetStatistics();
+        _dropped = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void converge() throws Exception
+    {
+        for (int attempt = 0; !converged(); attempt++)
+        {
+            // the update, or a later one, may have been lost - but not merely reordered...
+            long dropped = _transport.getDropped();
+            if (attempt == RETRIES || dropped == _dropped)
+                throw new IllegalStateException("nodes did not converge on "
+                        + _time + " - " + _transport);
+            _dropped = dropped;
+            _stores[0].publishLastAccessedTime(SESSION_ID, _time);
+        }
+        _dropped = _transport.getDropped();
+    }
+
+    // every other node holds the last update published ? The publisher
+    // does not apply its own...
+    protected boolean converged() throws Exception
+    {
+        if (!_transport.awaitDelivery(10000))
+            return false;
+        for (int i = 1; i < _stores.length; i++)
+        {
+            org.mortbay.j2ee.session.State state = _stores[i].loadState(SESSION_ID);
+            if (state == null || state.getLastAccessedTime() != _time)
+                return false;
+        }
+        return true;
+    }
+
+    @TearDown(Level.Trial)
+    public void stop()
+    {
+        System.out.println();
+        System.out.println(_transport);
+        for (int i = 0; i < _managers.length; i++)
+            _managers[i].stop(); // stops and destroys the store
+    }
+
+    @Benchmark
+    public void replicate() throws Exception
+    {
+        _stores[0].publishLastAccessedTime(SESSION_ID, ++_time);
+        _transport.awaitDelivery(10000);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void replicateBatch() throws Exception
+    {
+        for (int i = 0; i < BATCH; i++)
+            _stores[0].publishLastAccessedTime(SESSION_ID, ++_time);
+        _transport.awaitDelivery(10000);
+    }
+}
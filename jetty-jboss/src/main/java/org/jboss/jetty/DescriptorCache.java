@@ -0,0 +1,207 @@
+//========================================================================
+//Copyright 2013 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under LGPL.
+//See license terms at http://www.gnu.org/licenses/lgpl.html
+//========================================================================
+
+package org.jboss.jetty;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.webapp.WebDescriptor;
+import org.eclipse.jetty.xml.XmlParser;
+import org.jboss.logging.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * DescriptorCache
+ *
+ * An XmlParser for web descriptors that remembers what it has parsed, keyed
+ * by a hash of the bytes, so that the webdefault.xml every webapp shares -
+ * and the web.xml of an archive redeployed unchanged - are parsed once.
+ * 
+ * The parsed trees are shared between webapps, which is safe as long as
+ * nothing writes to them: jetty's descriptor processors only read.
+ * 
+ * jboss-web.xml is parsed by JBoss itself, before the deployer is called,
+ * so it is not cached here.
+ */
+public class DescriptorCache extends XmlParser
+{
+    protected static final Logger _log = Logger.getLogger("org.jboss.jetty");
+
+    public static final int DEFAULT_SIZE = 64;
+
+    protected final XmlParser _parser;
+    protected final Map _cache;
+    // the DTD of the last descriptor each thread parsed, for getDTD()
+    protected final ThreadLocal _dtd = new ThreadLocal();
+    protected long _hits;
+    protected long _misses;
+
+    /**
+     * @param parser the parser to use on a miss
+     * @param size how many parsed descriptors to keep
+     */
+    public DescriptorCache(XmlParser parser, final int size)
+    {
+        _parser = parser;
+        _cache = new LinkedHashMap(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry eldest)
+            {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Make every non-validating WebDescriptor parse through a cache.
+     */
+    public static DescriptorCache install(int size) throws ClassNotFoundException
+    {
+        return Installer.install(size);
+    }
+
+    /**
+     * Go back to parsing every descriptor afresh.
+     */
+    public static void uninstall()
+    {
+        Installer.uninstall();
+    }
+
+    public synchronized long getHits()
+    {
+        return _hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return _misses;
+    }
+
+    public synchronized void clear()
+    {
+        _cache.clear();
+    }
+
+    /**
+     * The only parse jetty's Descriptor uses.
+     * @see org.eclipse.jetty.xml.XmlParser#parse(java.io.InputStream)
+     */
+    public Node parse(InputStream in) throws IOException, SAXException
+    {
+        byte[] bytes = IO.readBytes(in);
+        String key = hash(bytes);
+
+        synchronized (this)
+        {
+            Parsed parsed = (Parsed)_cache.get(key);
+            if (parsed != null)
+            {
+                _hits++;
+                _dtd.set(parsed._dtd);
+                return parsed._node;
+            }
+            _misses++;
+        }
+
+        Parsed parsed;
+        synchronized (_parser)
+        {
+            // the parser keeps the DTD of its last parse, so read it
+            // before anyone else parses
+            Node node = _parser.parse(new ByteArrayInputStream(bytes));
+            parsed = new Parsed(node, _parser.getDTD());
+        }
+        synchronized (this)
+        {
+            _cache.put(key, parsed);
+        }
+        _dtd.set(parsed._dtd);
+        if (_log.isDebugEnabled())
+            _log.debug("parsed descriptor " + key + " (" + bytes.length + " bytes)");
+        return parsed._node;
+    }
+
+    /**
+     * WebDescriptor tells a 2.2 web.xml from a 2.3 one by its DTD, so
+     * this is the DTD of the descriptor the calling thread parsed last,
+     * whether it came from the cache or not.
+     * @see org.eclipse.jetty.xml.XmlParser#getDTD()
+     */
+    public String getDTD()
+    {
+        return (String)_dtd.get();
+    }
+
+    protected static String hash(byte[] bytes) throws IOException
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            StringBuffer hex = new StringBuffer(digest.length * 2);
+            for (int i = 0; i < digest.length; i++)
+            {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException(e.toString());
+        }
+    }
+
+    /**
+     * A parsed descriptor, and the DTD it declared.
+     */
+    protected static class Parsed
+    {
+        final Node _node;
+        final String _dtd;
+
+        Parsed(Node node, String dtd)
+        {
+            _node = node;
+            _dtd = dtd;
+        }
+    }
+
+    /**
+     * Gets at the parser WebDescriptors share.
+     */
+    private static class Installer extends WebDescriptor
+    {
+        private Installer()
+        {
+            super((Resource)null);
+        }
+
+        static synchronized DescriptorCache install(int size) throws ClassNotFoundException
+        {
+            if (_parserSingleton instanceof DescriptorCache)
+                return (DescriptorCache)_parserSingleton;
+            DescriptorCache cache = new DescriptorCache(new Installer().newParser(), size);
+            _parserSingleton = cache;
+            return cache;
+        }
+
+        static synchronized void uninstall()
+        {
+            if (_parserSingleton instanceof DescriptorCache)
+                _parserSingleton = ((DescriptorCache)_parserSingleton)._parser;
+        }
+    }
+}
@@ -8,6 +8,7 @@
 
 package org.jboss.jetty;
 
+import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Hashtable;
@@ -58,6 +59,11 @@ public class JettyDeployer extends AbstractWebDeployer
      */
     Hashtable _deployed = new Hashtable();
 
+    /**
+     * warUrl:directory the cache unpacked it to
+     */
+    Hashtable _unpacked = new Hashtable();
+
     public JettyDeployer(Jetty jetty, DeploymentInfo di)
     {
         _jetty = jetty;
@@ -97,6 +103,16 @@ public class JettyDeployer extends AbstractWebDeployer
             app.setContextPath(contextPath);
             app.setConfigurationClasses (__dftConfigurationClasses);
             app.setExtractWAR(getUnpackWars());
+
+            //unpack the war ourselves if we can, so an unchanged archive is
+            //not extracted again, and the other wars beside it are unpacked
+            //in the background ready for when jboss asks for them
+            File unpacked = unpack(warUrl);
+            if (unpacked != null)
+            {
+                app.setWar(unpacked.toURI().toURL().toString());
+                app.setExtractWAR(false);
+            }
             app.setParentLoaderPriority(getJava2ClassLoadingCompliance());
             
             if (webApp.getMetaData().getSecurityDomain() != null)
@@ -212,6 +228,33 @@ public class JettyDeployer extends AbstractWebDeployer
                 _deployed.remove(warUrl);
             }
         }
+
+        File unpacked = (File)_unpacked.remove(warUrl);
+        if (unpacked != null)
+            _configData.getWarCache().release(unpacked);
+    }
+
+
+    /**
+     * Unpack a war archive through the WarCache, if there is one.
+     * @param warUrl
+     * @return the directory it is unpacked in, or null if jetty should 
+     * deal with the war as usual
+     */
+    protected File unpack(String warUrl) throws Exception
+    {
+        WarCache cache = _configData.getWarCache();
+        if (cache == null || !getUnpackWars() || !warUrl.startsWith("file:"))
+            return null;
+
+        File war = new File(new URL(warUrl).toURI());
+        if (!war.isFile())
+            return null;
+
+        cache.prefetch(war.getParentFile());
+        File unpacked = cache.unpack(war);
+        _unpacked.put(warUrl, unpacked);
+        return unpacked;
     }
    
     
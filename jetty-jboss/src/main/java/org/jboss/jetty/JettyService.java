@@ -8,6 +8,7 @@
 package org.jboss.jetty;
 
 
+import java.io.File;
 import java.lang.reflect.Method;
 
 import javax.management.MBeanRegistration;
@@ -47,6 +48,9 @@ public class JettyService extends AbstractWebContainer implements JettyServiceMB
     protected boolean _supportJSR77;
     protected String _webDefaultResource;
     protected SubDeployerExt subDeployerProxy = null;
+    protected int _deploymentThreads = Runtime.getRuntime().availableProcessors();
+    protected String _warCacheDirectory;
+    protected WarCache _warCache = null;
     
     /**
      * ConfigurationData
@@ -66,6 +70,7 @@ public class JettyService extends AbstractWebContainer implements JettyServiceMB
         private String _webDefaultResource;
         private boolean _supportJSR77;
         private String _mbeanDomain;
+        private WarCache _warCache;
         
         /**
          * @return the _webDefaultResource
@@ -189,6 +194,22 @@ public class JettyService extends AbstractWebContainer implements JettyServiceMB
         {
             _mbeanDomain = domain;
         }
+
+        /**
+         * @return the cache of unpacked wars, or null
+         */
+        public WarCache getWarCache()
+        {
+            return _warCache;
+        }
+
+        /**
+         * @param warCache the cache of unpacked wars to use
+         */
+        public void setWarCache(WarCache warCache)
+        {
+            _warCache = warCache;
+        }
     }
 
     
@@ -278,6 +299,19 @@ public class JettyService extends AbstractWebContainer implements JettyServiceMB
         //we register instead a proxy to oursevles so we can support dynamic addition of interceptors
         subDeployerProxy = (SubDeployerExt)MBeanProxyExt.create(SubDeployerExt.class, super.getServiceName(), super.getServer());
         mainDeployer.addDeployer(subDeployerProxy);
+
+        if (getUnpackWars() && _deploymentThreads > 0)
+        {
+            File directory;
+            if (_warCacheDirectory != null)
+                directory = new File(_warCacheDirectory);
+            else
+                directory = new File(System.getProperty("jboss.server.temp.dir", System.getProperty("java.io.tmpdir")), "jetty-war-cache");
+            _warCache = new WarCache(directory, _deploymentThreads);
+            log.debug("Unpacking wars to " + directory);
+        }
+        DescriptorCache.install(DescriptorCache.DEFAULT_SIZE);
+
         _jetty.start();
     }
 
@@ -285,6 +319,11 @@ public class JettyService extends AbstractWebContainer implements JettyServiceMB
     {
         mainDeployer.removeDeployer(subDeployerProxy);
         _jetty.stop();
+
+        if (_warCache != null)
+            _warCache.stop();
+        _warCache = null;
+        DescriptorCache.uninstall();
     }
 
     public void destroyService() throws Exception
@@ -313,6 +352,48 @@ public class JettyService extends AbstractWebContainer implements JettyServiceMB
         _supportJSR77=supportJSR77;
     }
 
+    /**
+     * @jmx:managed-attribute
+     */
+    public int getDeploymentThreads()
+    {
+        return _deploymentThreads;
+    }
+
+    /**
+     * Set how many war archives may be unpacked at once, ahead of
+     * being deployed. 0 leaves unpacking to jetty, as each war is deployed.
+     * @jmx:managed-attribute
+     */
+    public void setDeploymentThreads(int deploymentThreads)
+    {
+        if (log.isDebugEnabled())
+            log.debug("set DeploymentThreads to " + deploymentThreads);
+
+        _deploymentThreads=deploymentThreads;
+    }
+
+    /**
+     * @jmx:managed-attribute
+     */
+    public String getWarCacheDirectory()
+    {
+        return _warCacheDirectory;
+    }
+
+    /**
+     * Set where unpacked wars are kept between deployments - by default
+     * jetty-war-cache in the server's temp directory.
+     * @jmx:managed-attribute
+     */
+    public void setWarCacheDirectory(String warCacheDirectory)
+    {
+        if (log.isDebugEnabled())
+            log.debug("set WarCacheDirectory to " + warCacheDirectory);
+
+        _warCacheDirectory=warCacheDirectory;
+    }
+
     /**
      * Get the custom webdefault.xml file.
      * @jmx:managed-attribute
@@ -404,6 +485,7 @@ public class JettyService extends AbstractWebContainer implements JettyServiceMB
         configData.setSupportJSR77(getSupportJSR77());
         configData.setUnpackWars(getUnpackWars());
         configData.setWebDefaultResource(getWebDefaultResource());
+        configData.setWarCache(_warCache);
         //defaultSecurityDomain was added at a certain point, so do it
         //this way so we have backwards compatibility
         try
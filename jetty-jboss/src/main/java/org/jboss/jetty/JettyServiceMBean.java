@@ -24,6 +24,14 @@ public interface JettyServiceMBean extends org.jboss.web.AbstractWebContainerMBe
 
   void setSupportJSR77(boolean supportJSR77) ;
 
+  int getDeploymentThreads() ;
+
+  void setDeploymentThreads(int deploymentThreads) ;
+
+  java.lang.String getWarCacheDirectory() ;
+
+  void setWarCacheDirectory(java.lang.String warCacheDirectory) ;
+
   java.lang.String getWebDefaultResource() ;
 
   void setWebDefaultResource(java.lang.String webDefaultResource) ;
@@ -0,0 +1,413 @@
+//========================================================================
+//Copyright 2013 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under LGPL.
+//See license terms at http://www.gnu.org/licenses/lgpl.html
+//========================================================================
+
+package org.jboss.jetty;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.resource.JarResource;
+import org.eclipse.jetty.util.resource.Resource;
+import org.jboss.logging.Logger;
+
+/**
+ * WarCache
+ *
+ * Unpacks WAR archives into a cache directory, keyed by the canonical path
+ * of the archive and a hash of its content, so that redeploying - or
+ * rebooting with - an unchanged archive reuses the unpacked copy instead of
+ * extracting it again. A note of what was unpacked is kept beside each
+ * copy, and a copy that no longer matches it - because a webapp wrote into
+ * it - is unpacked afresh.
+ * 
+ * JBoss hands the deployer one WAR at a time, so to get independent WARs
+ * unpacked concurrently the deployer can also ask for every other archive
+ * in the same directory to be prepared ahead, on a bounded pool of threads.
+ * By the time JBoss gets round to deploying them, they are ready - or
+ * being got ready, in which case the deployer waits for that rather than
+ * starting again.
+ */
+public class WarCache
+{
+    protected static final Logger _log = Logger.getLogger("org.jboss.jetty");
+
+    protected final File _directory;
+    protected final ExecutorService _executor;
+
+    /**
+     * canonical archive path:FutureTask of its unpacked directory, for the
+     * archive as it was when last looked at
+     */
+    protected final ConcurrentMap _unpacked = new ConcurrentHashMap();
+
+    /**
+     * canonical archive path:the latest directory it was unpacked in.
+     * Guarded by this, with _inUse, so that a directory is never deleted
+     * while it is current or in use.
+     */
+    protected final Map _current = new HashMap();
+
+    /**
+     * unpacked directories that a deployed webapp is using
+     */
+    protected final Set _inUse = new HashSet();
+
+    /**
+     * @param directory where to keep unpacked archives
+     * @param threads how many archives may be prepared at once
+     */
+    public WarCache(File directory, int threads)
+    {
+        _directory = directory;
+        final AtomicInteger count = new AtomicInteger();
+        // the threads are kept until stop() - java 5 cannot time out core
+        // threads, and a pool with none would only ever start one...
+        _executor = new ThreadPoolExecutor(threads, threads, 
+                0, TimeUnit.SECONDS, new LinkedBlockingQueue(),
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable runnable)
+                    {
+                        Thread thread = new Thread(runnable, "JettyDeployer-unpack-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    public File getDirectory()
+    {
+        return _directory;
+    }
+
+    public void stop()
+    {
+        _executor.shutdownNow();
+        _unpacked.clear();
+    }
+
+    /**
+     * Get an archive unpacked, from the cache if it is there.
+     * @param archive a WAR file
+     * @return the directory it is unpacked in
+     */
+    public File unpack(File archive) throws IOException
+    {
+        archive = archive.getCanonicalFile();
+        while (true)
+        {
+            FutureTask task = taskFor(archive);
+            task.run(); // does nothing if it has been run already
+            File unpacked = get(archive, task);
+            synchronized (this)
+            {
+                // a newer version may have been unpacked, and this one
+                // deleted, since the task finished...
+                if (unpacked.isDirectory())
+                {
+                    _inUse.add(unpacked);
+                    return unpacked;
+                }
+            }
+            _unpacked.remove(archive.getPath(), task);
+        }
+    }
+
+    protected File get(File archive, FutureTask task) throws IOException
+    {
+        try
+        {
+            return (File)task.get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new IOException("interrupted unpacking " + archive);
+        }
+        catch (ExecutionException e)
+        {
+            // forget the failure, so that a later attempt may succeed
+            _unpacked.remove(archive.getPath(), task);
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            IOException ioe = new IOException("could not unpack " + archive);
+            ioe.initCause(e.getCause());
+            throw ioe;
+        }
+    }
+
+    /**
+     * Note that a webapp no longer uses an unpacked directory, so that it
+     * may be deleted once a newer version of the archive is unpacked.
+     */
+    public synchronized void release(File unpacked)
+    {
+        _inUse.remove(unpacked);
+        if (!_current.containsValue(unpacked))
+            delete(unpacked);
+    }
+
+    /**
+     * Unpack, in the background, every WAR archive in a directory that is
+     * not already unpacked.
+     */
+    public void prefetch(File directory)
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (int i = 0; i < files.length; i++)
+        {
+            if (files[i].isFile() && files[i].getName().toLowerCase().endsWith(".war"))
+            {
+                try
+                {
+                    FutureTask task = taskFor(files[i].getCanonicalFile());
+                    if (!task.isDone())
+                        _executor.execute(task);
+                }
+                catch (IOException e)
+                {
+                    _log.debug("not prefetching " + files[i], e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param archive the canonical archive
+     */
+    protected FutureTask taskFor(final File archive)
+    {
+        String key = archive.getPath();
+        final long length = archive.length();
+        final long lastModified = archive.lastModified();
+        while (true)
+        {
+            Unpacking task = (Unpacking)_unpacked.get(key);
+            if (task != null && task._length == length && task._lastModified == lastModified)
+                return task;
+
+            Unpacking fresh = new Unpacking(archive, length, lastModified);
+            if (task == null ? _unpacked.putIfAbsent(key, fresh) == null : _unpacked.replace(key, task, fresh))
+                return fresh;
+        }
+    }
+
+    /**
+     * Hash the archive and unpack it, unless that has been done before and
+     * the copy is as it was unpacked.
+     */
+    protected File doUnpack(File archive) throws Exception
+    {
+        String name = archive.getName();
+        name = name.substring(0, name.length() - 4);
+        // same named archives in different places each have their own
+        // directory, so that they neither share nor delete each other's
+        // copies...
+        File versions = new File(_directory, name + "-" + hash(archive.getPath()).substring(0, 8));
+        File unpacked = new File(versions, name + "-" + hash(archive));
+        File note = new File(versions, unpacked.getName() + ".unpacked");
+        if (unpacked.isDirectory() && note.isFile() && describe(unpacked).equals(read(note)))
+        {
+            if (_log.isDebugEnabled())
+                _log.debug("reusing " + unpacked + " for unchanged " + archive);
+            current(archive, unpacked);
+            return unpacked;
+        }
+
+        synchronized (this)
+        {
+            if (_inUse.contains(unpacked))
+            {
+                // a webapp is running from it, and has written into it
+                _log.warn("reusing " + unpacked + ", changed by the webapp using it");
+                current(archive, unpacked);
+                return unpacked;
+            }
+            delete(unpacked);
+        }
+
+        // extract beside the final place, then move it there in one go, so
+        // that a half unpacked archive is never mistaken for a whole one
+        long start = System.currentTimeMillis();
+        versions.mkdirs();
+        File tmp = new File(versions, unpacked.getName() + ".tmp-" + Thread.currentThread().getId());
+        IO.delete(tmp);
+        JarResource.newJarResource(Resource.newResource(archive)).copyTo(tmp);
+        if (!tmp.renameTo(unpacked))
+        {
+            IO.delete(tmp);
+            throw new IOException("could not move " + tmp + " to " + unpacked);
+        }
+        OutputStream out = new FileOutputStream(note);
+        try
+        {
+            out.write(describe(unpacked).getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+        if (_log.isDebugEnabled())
+            _log.debug("unpacked " + archive + " to " + unpacked + " in " + (System.currentTimeMillis() - start) + "ms");
+
+        current(archive, unpacked);
+        return unpacked;
+    }
+
+    /**
+     * Make a directory the current copy of an archive, and delete the
+     * older copies that no webapp is using.
+     */
+    protected synchronized void current(File archive, File unpacked)
+    {
+        _current.put(archive.getPath(), unpacked);
+
+        File[] files = unpacked.getParentFile().listFiles();
+        if (files == null)
+            return;
+        for (int i = 0; i < files.length; i++)
+        {
+            if (files[i].isDirectory() && !files[i].equals(unpacked) && !_inUse.contains(files[i])
+                && files[i].getName().indexOf(".tmp-") < 0)
+                delete(files[i]);
+        }
+    }
+
+    /**
+     * Delete an unpacked copy, and the note of what was in it.
+     */
+    protected void delete(File unpacked)
+    {
+        if (_log.isDebugEnabled())
+            _log.debug("deleting stale " + unpacked);
+        IO.delete(new File(unpacked.getParentFile(), unpacked.getName() + ".unpacked"));
+        IO.delete(unpacked);
+    }
+
+    protected static String read(File note) throws IOException
+    {
+        InputStream in = new FileInputStream(note);
+        try
+        {
+            return IO.toString(in, "UTF-8");
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Describe a directory tree by the number of files in it, their total
+     * length and the latest of their modification times - enough to tell
+     * whether anything has been written into it.
+     */
+    protected static String describe(File directory)
+    {
+        long[] totals = new long[3];
+        describe(directory, totals);
+        return totals[0] + " " + totals[1] + " " + totals[2];
+    }
+
+    private static void describe(File directory, long[] totals)
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (int i = 0; i < files.length; i++)
+        {
+            totals[0]++;
+            if (files[i].isDirectory())
+                describe(files[i], totals);
+            else
+            {
+                totals[1] += files[i].length();
+                totals[2] = Math.max(totals[2], files[i].lastModified());
+            }
+        }
+    }
+
+    protected static String hash(String text) throws Exception
+    {
+        return hex(MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8")));
+    }
+
+    protected static String hash(File file) throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                digest.update(buffer, 0, n);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return hex(digest.digest());
+    }
+
+    protected static String hex(byte[] bytes)
+    {
+        StringBuffer hex = new StringBuffer(bytes.length * 2);
+        for (int i = 0; i < bytes.length; i++)
+        {
+            hex.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * An archive being, or having been, unpacked - as it was at a given
+     * length and modification time.
+     */
+    protected class Unpacking extends FutureTask
+    {
+        final long _length;
+        final long _lastModified;
+
+        Unpacking(final File archive, long length, long lastModified)
+        {
+            super(new Callable()
+            {
+                public Object call() throws Exception
+                {
+                    return doUnpack(archive);
+                }
+            });
+            _length = length;
+            _lastModified = lastModified;
+        }
+    }
+}
@@ -17,12 +17,17 @@ package org.mortbay.j2ee.session;
 
 //----------------------------------------
 
-import java.lang.reflect.Method;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jboss.logging.Logger;
 
@@ -87,10 +92,18 @@ abstract public class AbstractReplicatedStore extends AbstractStore
     {
         AbstractReplicatedStore ars = (AbstractReplicatedStore) super.clone();
         ars.setLoader(getLoader());
+        ars.setTouchFlushPeriod(getTouchFlushPeriod());
+        ars.setTouchBatchSize(getTouchBatchSize());
         return ars;
     }
 
-    protected Map _sessions = new HashMap();
+    // id:State - read on every request and by every replicated message, so
+    // lookups must not serialise on a single monitor...
+    protected Map _sessions = new ConcurrentHashMap();
+
+    // the ids in _sessions, by the time at which they are next due to be
+    // scavenged - so that the scavenger need only look at those...
+    protected ExpiryIndex _expiryIndex = new ExpiryIndex();
 
     public int getSessions()
     {
@@ -100,11 +113,26 @@ abstract public class AbstractReplicatedStore extends AbstractStore
     // ----------------------------------------
     // Store API - Store LifeCycle
 
+    public void start() throws Exception
+    {
+        super.start();
+        if (_touchFlushPeriod > 0)
+            _scavenger.scheduleAtFixedRate(new TouchFlusher(),
+                    _touchFlushPeriod, _touchFlushPeriod);
+    }
+
+    public void stop()
+    {
+        flushTouches();
+        super.stop();
+    }
+
     public void destroy() // corresponds to ctor
     {
         _log.trace("destroying...");
         _sessions.clear();
         _sessions = null;
+        _expiryIndex.clear();
         setManager(null);
         super.destroy();
         _log.trace("...destroyed");
@@ -117,13 +145,8 @@ abstract public class AbstractReplicatedStore extends AbstractStore
     {
         long creationTime = System.currentTimeMillis();
 
-        if (!AbstractReplicatedStore.getReplicating())
-        {
-            Object[] argInstances = { id, new Long(creationTime),
-                    new Integer(maxInactiveInterval),
-                    new Integer(_actualMaxInactiveInterval) };
-            publish(null, CREATE_SESSION, argInstances);
-        }
+        publishCreateSession(id, creationTime, maxInactiveInterval,
+                _actualMaxInactiveInterval);
 
         createSession(id, creationTime, maxInactiveInterval,
                 _actualMaxInactiveInterval);
@@ -138,12 +161,7 @@ abstract public class AbstractReplicatedStore extends AbstractStore
         // pull it out of our cache - if it is not there, it doesn't
         // exist/hasn't been distributed...
 
-        Object tmp;
-        synchronized (_sessions)
-        {
-            tmp = _sessions.get(id);
-        }
-        return (State) tmp;
+        return (State) _sessions.get(id);
     }
 
     public void storeState(State state)
@@ -151,10 +169,8 @@ abstract public class AbstractReplicatedStore extends AbstractStore
         try
         {
             String id = state.getId();
-            synchronized (_sessions)
-            {
-                _sessions.put(id, state);
-            }
+            if (_sessions.put(id, state) == null && state instanceof LocalState)
+                _expiryIndex.schedule(id, getScavengeTime((LocalState) state));
         }
         catch (Exception e)
         {
@@ -166,11 +182,7 @@ abstract public class AbstractReplicatedStore extends AbstractStore
     {
         String id = state.getId();
 
-        if (!AbstractReplicatedStore.getReplicating())
-        {
-            Object[] argInstances = { id };
-            publish(null, DESTROY_SESSION, argInstances);
-        }
+        publishDestroySession(id);
 
         destroySession(id);
     }
@@ -181,32 +193,31 @@ abstract public class AbstractReplicatedStore extends AbstractStore
     public void scavenge() throws Exception
     {
         _log.trace("starting distributed scavenging...");
-        Collection copy;
-        synchronized (_sessions)
-        {
-            copy = new ArrayList(_sessions.values());
-        }
+        // we only look at the sessions that the index thinks are due. Those
+        // which have been touched since they were indexed are simply put
+        // back, under their new expiry time...
+        long now = System.currentTimeMillis();
+        List due = _expiryIndex.takeDue(now);
         if (_log.isTraceEnabled())
-        {
-            int n;
-            synchronized (_subscribers)
-            {
-                n = _subscribers.size();
-            }
-            _log.trace(copy.size() + " distributed sessions, " + n
+            _log.trace(due.size() + " of " + _sessions.size()
+                    + " distributed sessions due, " + _subscribers.size()
                     + " subscribers");
-        }
         int n = 0;
-        for (Iterator i = copy.iterator(); i.hasNext();)
+        for (int i = 0; i < due.size(); i++)
         {
-            LocalState state = (LocalState) i.next();
-            if (!state.isValid(_scavengerExtraTime))
+            String id = (String) due.get(i);
+            LocalState state = (LocalState) _sessions.get(id);
+            if (state == null)
+                continue; // already destroyed
+
+            long scavengeTime = getScavengeTime(state);
+            if (scavengeTime > now)
+                _expiryIndex.schedule(id, scavengeTime);
+            else
             {
-                String id = state.getId();
                 if (_log.isDebugEnabled())
                     _log.debug("scavenging distributed session " + id);
                 destroySession(id);
-                i.remove();
                 ++n;
             }
         }
@@ -215,6 +226,15 @@ abstract public class AbstractReplicatedStore extends AbstractStore
         _log.trace("...finished distributed scavenging");
     }
 
+    // we give the local scavenger _scavengerExtraTime to get there first...
+    protected long getScavengeTime(LocalState state)
+    {
+        long expiryTime = state.getExpiryTime();
+        long extraTime = _scavengerExtraTime * 1000L;
+        return expiryTime > Long.MAX_VALUE - extraTime ? Long.MAX_VALUE
+                : expiryTime + extraTime;
+    }
+
     // ----------------------------------------
     // Store API - hacks... - NYI/TODO
 
@@ -238,131 +258,572 @@ abstract public class AbstractReplicatedStore extends AbstractStore
     // ----------------------------------------
     // change notification API
 
-    protected static Map _methodToInteger = new HashMap();
+    // changes are published as compact binary messages - see
+    // ReplicationCodec for the format. Each store is a node with its own
+    // sequence, so that receivers can drop duplicates and notice any that
+    // went missing. Messages from one node may arrive out of order - they
+    // are published from many threads, and the transport may reorder them
+    // - so a receiver only drops a sequence number it has actually seen,
+    // and never lets an older write from a node replace a newer one...
+
+    protected final long _node = new Random().nextLong();
+
+    protected final AtomicLong _sequence = new AtomicLong();
+
+    // node:SequenceWindow - the sequence numbers received from each node
+    protected final ConcurrentMap _received = new ConcurrentHashMap();
+
+    // id:(name:Long) - a fingerprint of the serialized form of each
+    // attribute value that we last published or applied from another node,
+    // so that rewriting an unchanged value costs nothing on the wire...
+    protected final ConcurrentMap _published = new ConcurrentHashMap();
+
+    // id:Versions - the sequence of the last write applied from each node,
+    // for each attribute of each session...
+    protected final ConcurrentMap _applied = new ConcurrentHashMap();
+
+    public long getNode()
+    {
+        return _node;
+    }
+
+    /**
+     * Hand a message to the transport, for delivery to the other stores in
+     * the cluster - which pass it to {@link #dispatch(byte[])}.
+     */
+    abstract protected void publish(byte[] message);
+
+    protected ReplicationCodec.Encoder newMessage(int op)
+    {
+        return new ReplicationCodec.Encoder(op, _node, _sequence.incrementAndGet());
+    }
+
+    public void publishCreateSession(String id, long creationTime,
+            int maxInactiveInterval, int actualMaxInactiveInterval)
+    {
+        if (AbstractReplicatedStore.getReplicating())
+            return;
+        publish(newMessage(ReplicationCodec.OP_CREATE_SESSION)
+                .writeString(id)
+                .writeVarLong(creationTime)
+                .writeSignedVarInt(maxInactiveInterval)
+                .writeSignedVarInt(actualMaxInactiveInterval)
+                .toByteArray());
+    }
+
+    public void publishDestroySession(String id)
+    {
+        if (AbstractReplicatedStore.getReplicating())
+            return;
+        publish(newMessage(ReplicationCodec.OP_DESTROY_SESSION)
+                .writeString(id)
+                .toByteArray());
+    }
+
+    public void publishTouchSessions(String[] ids, long time)
+    {
+        if (AbstractReplicatedStore.getReplicating() || ids.length == 0)
+            return;
+        ReplicationCodec.Encoder message = newMessage(ReplicationCodec.OP_TOUCH_SESSIONS)
+                .writeVarLong(time)
+                .writeVarInt(ids.length);
+        for (int i = 0; i < ids.length; i++)
+            message.writeString(ids[i]);
+        publish(message.toByteArray());
+    }
+
+    /**
+     * Publish a batch of touches, each with its own time, as deltas from
+     * the earliest.
+     */
+    public void publishTouchBatch(String[] ids, long[] times, int count)
+    {
+        if (AbstractReplicatedStore.getReplicating() || count == 0)
+            return;
+        long base = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++)
+            base = Math.min(base, times[i]);
+        ReplicationCodec.Encoder message = newMessage(ReplicationCodec.OP_TOUCH_BATCH)
+                .writeVarLong(base)
+                .writeVarInt(count);
+        for (int i = 0; i < count; i++)
+            message.writeString(ids[i]).writeVarLong(times[i] - base);
+        publish(message.toByteArray());
+    }
+
+    public void publishLastAccessedTime(String id, long time)
+    {
+        if (AbstractReplicatedStore.getReplicating())
+            return;
+        publish(newMessage(ReplicationCodec.OP_SET_LAST_ACCESSED_TIME)
+                .writeString(id)
+                .writeVarLong(time)
+                .toByteArray());
+    }
+
+    public void publishMaxInactiveInterval(String id, int interval)
+    {
+        if (AbstractReplicatedStore.getReplicating())
+            return;
+        publish(newMessage(ReplicationCodec.OP_SET_MAX_INACTIVE_INTERVAL)
+                .writeString(id)
+                .writeSignedVarInt(interval)
+                .toByteArray());
+    }
+
+    /**
+     * Publish a new attribute value - unless it serializes to exactly what
+     * we published last time.
+     */
+    public void publishAttribute(String id, String name, Object value)
+    {
+        if (AbstractReplicatedStore.getReplicating())
+            return;
 
-    protected static Method[] _integerToMethod = new Method[8];
+        byte[] bytes = serialize(id, name, value);
+        if (bytes == null || !changed(id, name, bytes))
+            return;
+
+        publish(newMessage(ReplicationCodec.OP_SET_ATTRIBUTE)
+                .writeString(id)
+                .writeString(name)
+                .writeBytes(bytes)
+                .toByteArray());
+    }
 
-    protected static Method CREATE_SESSION;
+    public void publishAttributeRemoved(String id, String name)
+    {
+        if (AbstractReplicatedStore.getReplicating())
+            return;
+
+        Map fingerprints = (Map) _published.get(id);
+        if (fingerprints != null)
+            fingerprints.remove(name);
+
+        publish(newMessage(ReplicationCodec.OP_REMOVE_ATTRIBUTE)
+                .writeString(id)
+                .writeString(name)
+                .toByteArray());
+    }
+
+    /**
+     * Publish a whole new set of attributes, as the difference between it
+     * and what we last published - only the values that have changed, and
+     * the names that have gone.
+     */
+    public void publishAttributes(String id, Map attributes)
+    {
+        if (AbstractReplicatedStore.getReplicating())
+            return;
 
-    protected static Method DESTROY_SESSION;
+        List changedNames = new ArrayList();
+        List changedValues = new ArrayList();
+        for (Iterator i = attributes.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            String name = (String) entry.getKey();
+            byte[] bytes = serialize(id, name, entry.getValue());
+            if (bytes != null && changed(id, name, bytes))
+            {
+                changedNames.add(name);
+                changedValues.add(bytes);
+            }
+        }
 
-    protected static Method TOUCH_SESSIONS;
+        List removedNames = new ArrayList();
+        Map fingerprints = (Map) _published.get(id);
+        if (fingerprints != null)
+        {
+            for (Iterator i = fingerprints.keySet().iterator(); i.hasNext();)
+            {
+                String name = (String) i.next();
+                if (!attributes.containsKey(name))
+                {
+                    removedNames.add(name);
+                    i.remove();
+                }
+            }
+        }
 
-    protected static Method SET_LAST_ACCESSED_TIME;
+        if (changedNames.isEmpty() && removedNames.isEmpty())
+            return;
+
+        ReplicationCodec.Encoder message = newMessage(ReplicationCodec.OP_ATTRIBUTES_DELTA)
+                .writeString(id)
+                .writeVarInt(changedNames.size());
+        for (int i = 0; i < changedNames.size(); i++)
+            message.writeString((String) changedNames.get(i))
+                    .writeBytes((byte[]) changedValues.get(i));
+        message.writeVarInt(removedNames.size());
+        for (int i = 0; i < removedNames.size(); i++)
+            message.writeString((String) removedNames.get(i));
+        publish(message.toByteArray());
+    }
 
-    static
+    protected byte[] serialize(String id, String name, Object value)
     {
-        // this is absolutely horrible and will break if anyone changes
-        // the shape of the interface - but it is a quick, easy and
-        // efficient hack - so I am using it while I think of a better
-        // way...
         try
         {
-            int index = 0;
-            Method m = null;
-
-            // class methods...
-            m = CREATE_SESSION = AbstractReplicatedStore.class.getMethod(
-                    "createSession", new Class[] { String.class, Long.TYPE,
-                            Integer.TYPE, Integer.TYPE });
-            _integerToMethod[index] = m;
-            _methodToInteger.put(m.getName(), new Integer(index));
-            index++;
-
-            m = DESTROY_SESSION = AbstractReplicatedStore.class.getMethod(
-                    "destroySession", new Class[] { String.class });
-            _integerToMethod[index] = m;
-            _methodToInteger.put(m.getName(), new Integer(index));
-            index++;
-
-            m = TOUCH_SESSIONS = AbstractReplicatedStore.class.getMethod(
-                    "touchSessions", new Class[] { String[].class, Long.TYPE });
-            _integerToMethod[index] = m;
-            _methodToInteger.put(m.getName(), new Integer(index));
-            index++;
-
-            // instance methods...
-            m = SET_LAST_ACCESSED_TIME = State.class.getMethod(
-                    "setLastAccessedTime", new Class[] { Long.TYPE });
-            _integerToMethod[index] = m;
-            _methodToInteger.put(m.getName(), new Integer(index));
-            index++;
-
-            m = State.class.getMethod("setMaxInactiveInterval",
-                    new Class[] { Integer.TYPE });
-            _integerToMethod[index] = m;
-            _methodToInteger.put(m.getName(), new Integer(index));
-            index++;
-
-            m = State.class.getMethod("setAttribute", new Class[] {
-                    String.class, Object.class, Boolean.TYPE });
-            _integerToMethod[index] = m;
-            _methodToInteger.put(m.getName(), new Integer(index));
-            index++;
-
-            m = State.class.getMethod("setAttributes",
-                    new Class[] { Map.class });
-            _integerToMethod[index] = m;
-            _methodToInteger.put(m.getName(), new Integer(index));
-            index++;
-
-            m = State.class.getMethod("removeAttribute", new Class[] {
-                    String.class, Boolean.TYPE });
-            _integerToMethod[index] = m;
-            _methodToInteger.put(m.getName(), new Integer(index));
-            index++;
+            return ReplicationCodec.serialize(value);
         }
-        catch (Exception e)
+        catch (IOException e)
         {
-            System.err
-                    .println("AbstractReplicatedStore: something went wrong building dispatch tables");
-            e.printStackTrace(System.err);
+            _log.error("could not replicate attribute " + name
+                    + " of session " + id, e);
+            return null;
         }
     }
 
-    abstract protected void publish(String id, Method method,
-            Object[] argInstances);
+    // remember what we are about to publish or have just applied, and
+    // whether it is news...
+    protected boolean changed(String id, String name, byte[] bytes)
+    {
+        Map fingerprints = (Map) _published.get(id);
+        if (fingerprints == null)
+        {
+            fingerprints = new ConcurrentHashMap();
+            Map existing = (Map) _published.putIfAbsent(id, fingerprints);
+            if (existing != null)
+                fingerprints = existing;
+        }
+
+        Long fingerprint = new Long(ReplicationCodec.fingerprint(bytes));
+        return !fingerprint.equals(fingerprints.put(name, fingerprint));
+    }
 
-    protected void dispatch(String id, Integer methodId, Object[] argInstances)
+    /**
+     * Apply a message published by another store in the cluster.
+     *
+     * @return false if the message was dropped - as our own, a duplicate,
+     *         unreadable or not applicable - rather than applied
+     */
+    protected boolean dispatch(byte[] message)
     {
+        ReplicationCodec.Decoder in;
+        try
+        {
+            in = new ReplicationCodec.Decoder(message);
+        }
+        catch (IOException e)
+        {
+            _log.error("could not read replication message", e);
+            return false;
+        }
+
+        if (in.getNode() == _node || !inSequence(in.getNode(), in.getSequence()))
+            return false;
+
         try
         {
             AbstractReplicatedStore.setReplicating(true);
 
-            Object target = null;
-            if (id == null)
+            switch (in.getOp())
             {
-                // either this is a class method
-                target = this;
-            }
-            else
-            {
-                // or an instance method..
-                synchronized (_subscribers)
+                case ReplicationCodec.OP_CREATE_SESSION:
+                {
+                    String id = in.readString();
+                    long creationTime = in.readVarLong();
+                    int maxInactiveInterval = in.readSignedVarInt();
+                    int actualMaxInactiveInterval = in.readSignedVarInt();
+                    createSession(id, creationTime, maxInactiveInterval,
+                            actualMaxInactiveInterval);
+                    break;
+                }
+                case ReplicationCodec.OP_DESTROY_SESSION:
+                {
+                    destroySession(in.readString());
+                    break;
+                }
+                case ReplicationCodec.OP_TOUCH_SESSIONS:
+                {
+                    long time = in.readVarLong();
+                    String[] ids = new String[in.readVarInt()];
+                    for (int i = 0; i < ids.length; i++)
+                        ids[i] = in.readString();
+                    touchSessions(ids, time);
+                    break;
+                }
+                case ReplicationCodec.OP_TOUCH_BATCH:
+                {
+                    long base = in.readVarLong();
+                    int count = in.readVarInt();
+                    for (int i = 0; i < count; i++)
+                    {
+                        String id = in.readString();
+                        touchSession(id, base + in.readVarLong());
+                    }
+                    break;
+                }
+                case ReplicationCodec.OP_SET_LAST_ACCESSED_TIME:
+                {
+                    String id = in.readString();
+                    touchSession(id, in.readVarLong());
+                    break;
+                }
+                case ReplicationCodec.OP_SET_MAX_INACTIVE_INTERVAL:
+                {
+                    String id = in.readString();
+                    State target = getTarget(id);
+                    int interval = in.readSignedVarInt();
+                    if (target == null || !newer(id, null, in))
+                        return false;
+                    target.setMaxInactiveInterval(interval);
+                    break;
+                }
+                case ReplicationCodec.OP_SET_ATTRIBUTE:
+                {
+                    String id = in.readString();
+                    State target = getTarget(id);
+                    String name = in.readString();
+                    byte[] value = in.readBytes();
+                    if (target == null || !newer(id, name, in))
+                        return false;
+                    applyAttribute(id, target, name, value);
+                    break;
+                }
+                case ReplicationCodec.OP_REMOVE_ATTRIBUTE:
+                {
+                    String id = in.readString();
+                    State target = getTarget(id);
+                    String name = in.readString();
+                    if (target == null || !newer(id, name, in))
+                        return false;
+                    applyAttributeRemoved(id, target, name);
+                    break;
+                }
+                case ReplicationCodec.OP_ATTRIBUTES_DELTA:
                 {
-                    target = _subscribers.get(id);
+                    String id = in.readString();
+                    State target = getTarget(id);
+                    int changed = in.readVarInt();
+                    for (int i = 0; i < changed; i++)
+                    {
+                        String name = in.readString();
+                        byte[] value = in.readBytes();
+                        if (target != null && newer(id, name, in))
+                            applyAttribute(id, target, name, value);
+                    }
+                    int removed = in.readVarInt();
+                    for (int i = 0; i < removed; i++)
+                    {
+                        String name = in.readString();
+                        if (target != null && newer(id, name, in))
+                            applyAttributeRemoved(id, target, name);
+                    }
+                    break;
                 }
+                default:
+                    _log.error("unknown replication op " + in.getOp()
+                            + " - code version mismatch ?");
+                    return false;
             }
+            return true;
+        }
+        catch (Exception e)
+        {
+            _log.error("could not apply replication message " + in.getOp()
+                    + " from node " + in.getNode(), e);
+            return false;
+        }
+        finally
+        {
+            AbstractReplicatedStore.setReplicating(false);
+        }
+    }
 
-            try
+    // instance ops are applied to the subscriber for the session...
+    protected State getTarget(String id)
+    {
+        State target = (State) _subscribers.get(id);
+        if (target == null)
+            _log.warn("null target for session " + id);
+        return target;
+    }
+
+    // is the message the latest write to the attribute (or, for a null name,
+    // to the session's own settings) from its node ? If so, it is recorded
+    // as such - otherwise a later one has been applied already, and this
+    // one would replace it with a stale value...
+    protected boolean newer(String id, String name, ReplicationCodec.Decoder in)
+    {
+        Versions versions = (Versions) _applied.get(id);
+        if (versions == null)
+        {
+            Versions first = new Versions();
+            versions = (Versions) _applied.putIfAbsent(id, first);
+            if (versions == null)
+                versions = first;
+        }
+        if (versions.advance(name, in.getNode(), in.getSequence()))
+            return true;
+        if (_log.isDebugEnabled())
+            _log.debug("dropping stale write " + in.getSequence() + " of "
+                    + (name == null ? "session " : "attribute " + name + " of session ")
+                    + id + " from node " + in.getNode());
+        return false;
+    }
+
+    /**
+     * The sequence of the last write applied from each node, to each
+     * attribute of one session - and, under the null name, to its max
+     * inactive interval. A removed attribute keeps its versions, so that a
+     * late write of it cannot bring it back.
+     */
+    protected static class Versions
+    {
+        // name:(node:sequence)
+        protected final Map _versions = new HashMap();
+
+        synchronized boolean advance(String name, long node, long sequence)
+        {
+            Map nodes = (Map) _versions.get(name);
+            if (nodes == null)
             {
-                Method method = _integerToMethod[methodId.intValue()];
-                if (target == null)
-                    _log.warn("null target for " + method);
-                else
-                    method.invoke(target, argInstances);
+                nodes = new HashMap(4);
+                _versions.put(name, nodes);
             }
-            catch (Exception e)
+            Long key = new Long(node);
+            Long last = (Long) nodes.get(key);
+            if (last != null && last.longValue() >= sequence)
+                return false;
+            nodes.put(key, new Long(sequence));
+            return true;
+        }
+    }
+
+    // applying a value from another node means that it is what every node
+    // now holds - so a later local write of the same value is no news, and
+    // one of the value we last published is...
+    protected void applyAttribute(String id, State target, String name, byte[] value)
+            throws Exception
+    {
+        target.setAttribute(name, ReplicationCodec.deserialize(value, _loader), false);
+        changed(id, name, value);
+    }
+
+    protected void applyAttributeRemoved(String id, State target, String name)
+            throws Exception
+    {
+        target.removeAttribute(name, false);
+        Map fingerprints = (Map) _published.get(id);
+        if (fingerprints != null)
+            fingerprints.remove(name);
+    }
+
+    // drop anything we have already seen from this node, and complain
+    // about anything we seem to have missed...
+    protected boolean inSequence(long node, long sequence)
+    {
+        Long key = new Long(node);
+        SequenceWindow window = (SequenceWindow) _received.get(key);
+        if (window == null)
+        {
+            SequenceWindow first = new SequenceWindow();
+            window = (SequenceWindow) _received.putIfAbsent(key, first);
+            if (window == null)
+                window = first;
+        }
+
+        int lost;
+        synchronized (window)
+        {
+            if (!window.accept(sequence))
             {
-                _log
-                        .error(
-                                "this should never happen - code version mismatch ?",
-                                e);
+                if (_log.isDebugEnabled())
+                    _log.debug("dropping duplicate or late replication message "
+                            + sequence + " from node " + node);
+                return false;
             }
+            lost = window.takeLost();
         }
-        finally
+
+        if (lost > 0)
+            _log.warn(lost + " replication messages lost from node " + node);
+        return true;
+    }
+
+    /**
+     * The sequence numbers received from one node: exactly which, for the
+     * last {@link #SIZE}, so that a message arriving late but within that
+     * window is still considered, and only a true duplicate is dropped. A
+     * message older than the window is dropped too - it was counted as lost
+     * when the window passed it, and whatever it carried may well have been
+     * overwritten since.
+     * <p>
+     * Not thread safe - callers synchronize on it.
+     */
+    protected static class SequenceWindow
+    {
+        static final int SIZE = 1024;
+
+        // the highest sequence received - 0 before the first...
+        long _highest;
+
+        // a bit for each of (_highest - SIZE, _highest], at sequence % SIZE
+        final long[] _seen = new long[SIZE / 64];
+
+        int _lost;
+
+        boolean accept(long sequence)
         {
-            AbstractReplicatedStore.setReplicating(false);
+            if (_highest == 0)
+            {
+                // we may have joined late - nothing before this is missing
+                _highest = sequence;
+                set(sequence);
+                return true;
+            }
+
+            if (sequence > _highest)
+            {
+                // anything unseen that slides out of the window is lost...
+                long evictTo = sequence - SIZE;
+                for (long e = Math.max(1, _highest - SIZE + 1); e <= Math.min(evictTo, _highest); e++)
+                    if (!isSet(e))
+                        _lost++;
+                if (evictTo > _highest)
+                    _lost += (int) Math.min(Integer.MAX_VALUE, evictTo - _highest);
+
+                long from = Math.max(_highest + 1, sequence - SIZE + 1);
+                for (long s = from; s <= sequence; s++)
+                    clear(s);
+                _highest = sequence;
+                set(sequence);
+                return true;
+            }
+
+            if (sequence <= _highest - SIZE)
+                return false; // too late, and reported lost already
+
+            if (isSet(sequence))
+                return false;
+            set(sequence);
+            return true;
+        }
+
+        int takeLost()
+        {
+            int lost = _lost;
+            _lost = 0;
+            return lost;
+        }
+
+        boolean isSet(long sequence)
+        {
+            int bit = (int) (sequence % SIZE);
+            return (_seen[bit >> 6] & (1L << (bit & 63))) != 0;
+        }
+
+        void set(long sequence)
+        {
+            int bit = (int) (sequence % SIZE);
+            _seen[bit >> 6] |= 1L << (bit & 63);
+        }
+
+        void clear(long sequence)
+        {
+            int bit = (int) (sequence % SIZE);
+            _seen[bit >> 6] &= ~(1L << (bit & 63));
         }
     }
 
@@ -373,10 +834,8 @@ abstract public class AbstractReplicatedStore extends AbstractStore
             _log.trace("creating replicated session: " + id);
         State state = new LocalState(id, creationTime, maxInactiveInterval,
                 actualMaxInactiveInterval);
-        synchronized (_sessions)
-        {
-            _sessions.put(id, state);
-        }
+        _sessions.put(id, state);
+        _expiryIndex.schedule(id, getScavengeTime((LocalState) state));
 
         if (AbstractReplicatedStore.getReplicating())
         {
@@ -391,33 +850,128 @@ abstract public class AbstractReplicatedStore extends AbstractStore
             _log.trace("destroying replicated session: " + id);
         if (getManager().sessionExists(id))
             getManager().destroySession(getManager().getHttpSession(id));
-        synchronized (_sessions)
-        {
-            _sessions.remove(id);
-        }
+        _sessions.remove(id);
+        _published.remove(id);
+        _applied.remove(id);
     }
 
     public void touchSessions(String[] ids, long time)
     {
-        //      _log.info("touching sessions...: "+ids);
         for (int i = 0; i < ids.length; i++)
+            touchSession(ids[i], time);
+    }
+
+    public void touchSession(String id, long time)
+    {
+        // go through the container if there is one, otherwise straight to
+        // the State, so that we scavenge it at the right time. Touches from
+        // one node may arrive out of order, so one never winds the time
+        // back...
+        Object target = _subscribers.get(id);
+        if (target == null)
+            target = _sessions.get(id);
+        try
+        {
+            if (((State) target).getLastAccessedTime() < time)
+                ((State) target).setLastAccessedTime(time);
+        }
+        catch (Exception e)
+        {
+            _log.warn("unable to touch session: " + id
+                    + " probably already removed");
+        }
+    }
+
+    //----------------------------------------
+    // touch coalescing...
+
+    // sessions are touched on every request. Rather than replicate each
+    // touch, we remember the latest for each session and publish them
+    // all together every _touchFlushPeriod...
+
+    protected int _touchFlushPeriod = 1000; // 1 sec
+
+    protected int _touchBatchSize = 1024;
+
+    protected TouchAggregator _touches = new TouchAggregator();
+
+    public int getTouchFlushPeriod()
+    {
+        return _touchFlushPeriod;
+    }
+
+    /**
+     * @param millis how often coalesced touches are published. 0 or less
+     *            publishes every touch as it happens. Takes effect at start.
+     */
+    public void setTouchFlushPeriod(int millis)
+    {
+        _touchFlushPeriod = millis;
+    }
+
+    public int getTouchBatchSize()
+    {
+        return _touchBatchSize;
+    }
+
+    /**
+     * @param size the most touches published in a single message
+     */
+    public void setTouchBatchSize(int size)
+    {
+        _touchBatchSize = size;
+    }
+
+    /**
+     * Record that a session has been accessed locally.
+     */
+    public void touch(String id, long time)
+    {
+        if (AbstractReplicatedStore.getReplicating())
+            return;
+        if (_touchFlushPeriod <= 0 || !_touches.touch(id, time))
+            publishLastAccessedTime(id, time);
+    }
+
+    /**
+     * Publish all the touches recorded since the last flush.
+     */
+    public void flushTouches()
+    {
+        final String[] ids = new String[Math.max(1, _touchBatchSize)];
+        final long[] times = new long[ids.length];
+        final int[] count = new int[1];
+
+        int n = _touches.flush(new TouchAggregator.Callback()
         {
-            String id = ids[i];
-            Object target;
-            // I could synch the whole block. This is slower, but will not
-            // hold up everything else...
-            synchronized (_subscribers)
+            public void touched(String id, long time)
             {
-                target = _subscribers.get(id);
+                ids[count[0]] = id;
+                times[count[0]] = time;
+                if (++count[0] == ids.length)
+                {
+                    publishTouchBatch(ids, times, count[0]);
+                    count[0] = 0;
+                }
             }
+        });
+        publishTouchBatch(ids, times, count[0]);
+
+        if (_log.isTraceEnabled())
+            _log.trace("flushed " + n + " coalesced touches");
+    }
+
+    class TouchFlusher extends TimerTask
+    {
+        public void run()
+        {
             try
             {
-                ((StateInterceptor) target).setLastAccessedTime(time);
+                flushTouches();
             }
-            catch (Exception e)
+            catch (Throwable e)
             {
-                _log.warn("unable to touch session: " + id
-                        + " probably already removed");
+                _log.warn("could not publish session touches", e);
             }
         }
     }
@@ -425,23 +979,17 @@ abstract public class AbstractReplicatedStore extends AbstractStore
     //----------------------------------------
     // subscription - Listener management...
 
-    protected Map _subscribers = new HashMap();
+    protected Map _subscribers = new ConcurrentHashMap();
 
     public void subscribe(String id, Object o)
     {
         _log.trace("subscribing: " + id);
-        synchronized (_subscribers)
-        {
-            _subscribers.put(id, o);
-        }
+        _subscribers.put(id, o);
     }
 
     public void unsubscribe(String id)
     {
         _log.trace("unsubscribing: " + id);
-        synchronized (_subscribers)
-        {
-            _subscribers.remove(id);
-        }
+        _subscribers.remove(id);
     }
 }
@@ -84,23 +84,15 @@ public class Container extends ArrayList implements Cloneable
         StateAdaptor adp = new StateAdaptor(id, manager, maxInactiveInterval,
                 currentSecond);
 
+        // compile the interceptor stack into a single State for this
+        // session, rather than chaining a copy of each interceptor...
         State last = state;
         try
         {
-            Class[] ctorParams = {};
-            // for (int i=interceptors.length; i>0; i--)
-            // {
-            // StateInterceptor si=interceptors[i-1];
-            // // if (_log.isDebugEnabled()) _log.debug("adding interceptor
-            // instance: "+name);
-            // StateInterceptor interceptor=(StateInterceptor)si.clone();
-            // si.setManager(manager); // overkill - but safe
-            // si.setSession(adp); // overkill - but safe
-            // interceptor.setState(last); // this is also passed into ctor -
-            // make up your mind - TODO
-            // interceptor.start();
-            // last=interceptor;
-            // }
+            FusedInterceptor fused = FusedInterceptor.compile(manager, adp,
+                    state, interceptors);
+            fused.start();
+            last = fused;
         }
         catch (Exception e)
         {
@@ -121,7 +113,10 @@ public class Container extends ArrayList implements Cloneable
         State last = sa.getState();
         sa.setState(null);
 
-        for (int i = interceptors.length; i > 0; i--)
+        if (last instanceof FusedInterceptor)
+            return ((FusedInterceptor) last).dismantle();
+
+        while (last instanceof StateInterceptor)
         {
             StateInterceptor si = (StateInterceptor) last;
             si.stop();
@@ -0,0 +1,281 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session;
+
+//----------------------------------------
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+//----------------------------------------
+
+/**
+ * A hashed timing wheel of session ids, keyed by the time at which each
+ * session is due to expire.
+ * <p>
+ * Scavengers use it to visit only the sessions whose indexed expiry time has
+ * passed, rather than copying and examining every session each period. The
+ * index is lazy: touching a session does not move it, so there is no cost on
+ * the request path. Instead, the scavenger recomputes the real expiry time
+ * of each due id and either expires the session or calls
+ * {@link #schedule(String, long)} again with the later time.
+ * <p>
+ * Each wheel slot has its own lock, so concurrent session creation only
+ * contends when two sessions fall in the same slot. An id is indexed at
+ * most once: scheduling it again replaces its earlier time. Ids are held by
+ * value, so a session which is destroyed before it is due is simply dropped
+ * when its slot comes round and the caller fails to find it.
+ *
+ * @version 1.0
+ */
+public class ExpiryIndex
+{
+    public static final long DEFAULT_TICK = 1000; // 1 sec
+
+    public static final int DEFAULT_WHEEL_SIZE = 1024;
+
+    protected final long _tick;
+
+    protected final Slot[] _wheel;
+
+    // id:Long - the tick each id is currently indexed under. A slot entry
+    // whose tick no longer matches is a leftover of a replaced schedule...
+    protected final ConcurrentMap _ticks = new ConcurrentHashMap();
+
+    // the last tick that has been swept - everything due at or before it
+    // has already been handed out...
+    protected volatile long _swept;
+
+    public ExpiryIndex()
+    {
+        this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    public ExpiryIndex(long tickMillis, int wheelSize)
+    {
+        if (tickMillis < 1 || wheelSize < 1)
+            throw new IllegalArgumentException("tick and wheel size must be positive");
+
+        _tick = tickMillis;
+        _wheel = new Slot[wheelSize];
+        for (int i = 0; i < wheelSize; i++)
+            _wheel[i] = new Slot();
+        _swept = toTick(System.currentTimeMillis()) - 1;
+    }
+
+    /**
+     * Index a session id, replacing any time it was indexed under before.
+     *
+     * @param id the session id
+     * @param expiryTime the time (ms) after which the session will have
+     *            timed out, or <code>Long.MAX_VALUE</code> for never. An id
+     *            scheduled for a time which has already been swept is due
+     *            at the next sweep.
+     */
+    public void schedule(String id, long expiryTime)
+    {
+        long tick = toTick(expiryTime);
+        long earliest = _swept + 1;
+        if (tick < earliest)
+            tick = earliest;
+
+        Long previous;
+        while (true)
+        {
+            Slot slot = _wheel[(int) (tick % _wheel.length)];
+            synchronized (slot)
+            {
+                // the sweep may have passed this slot since we read _swept -
+                // if so, we would wait a whole revolution, so go round again
+                // with the next tick it has yet to sweep...
+                if (tick <= slot._sweptTo)
+                {
+                    tick = slot._sweptTo + 1;
+                    continue;
+                }
+
+                Long ticks = new Long(tick);
+                previous = (Long) _ticks.put(id, ticks);
+                if (ticks.equals(previous))
+                    return;
+                slot.add(id, tick);
+                break;
+            }
+        }
+
+        // drop the entry we replaced, rather than leave it for the sweep...
+        if (previous != null)
+        {
+            Slot slot = _wheel[(int) (previous.longValue() % _wheel.length)];
+            synchronized (slot)
+            {
+                slot.remove(id, previous.longValue());
+            }
+        }
+    }
+
+    /**
+     * Stop indexing a session id.
+     */
+    public void remove(String id)
+    {
+        Long tick = (Long) _ticks.remove(id);
+        if (tick != null)
+        {
+            Slot slot = _wheel[(int) (tick.longValue() % _wheel.length)];
+            synchronized (slot)
+            {
+                slot.remove(id, tick.longValue());
+            }
+        }
+    }
+
+    /**
+     * Remove and return the ids of all sessions indexed to expire at or
+     * before the given time. Only one thread should call this at a time -
+     * the scavenger.
+     *
+     * @param now the current time (ms)
+     * @return the due session ids - possibly empty, never null
+     */
+    public List takeDue(long now)
+    {
+        long to = toTick(now);
+        long from = _swept + 1;
+        List due = new ArrayList();
+        if (to < from)
+            return due;
+
+        // after a full revolution every slot has been visited...
+        long last = Math.min(to, from + _wheel.length - 1);
+        for (long t = from; t <= last; t++)
+        {
+            Slot slot = _wheel[(int) (t % _wheel.length)];
+            synchronized (slot)
+            {
+                slot.takeDue(to, due, _ticks);
+                slot._sweptTo = to;
+            }
+        }
+        _swept = to;
+
+        return due;
+    }
+
+    public int size()
+    {
+        return _ticks.size();
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < _wheel.length; i++)
+        {
+            Slot slot = _wheel[i];
+            synchronized (slot)
+            {
+                slot.clear();
+            }
+        }
+        _ticks.clear();
+    }
+
+    protected long toTick(long time)
+    {
+        // never...
+        if (time > Long.MAX_VALUE - _tick)
+            return Long.MAX_VALUE / _tick;
+        // round up, so that nothing is handed out before it is due...
+        return (time + _tick - 1) / _tick;
+    }
+
+    // ids scheduled on later revolutions of the wheel share a slot with
+    // those due now, so each id carries its own tick. Parallel arrays
+    // keep this to two allocations per slot, rather than one per id...
+    protected static class Slot
+    {
+        String[] _ids = new String[4];
+
+        long[] _ticks = new long[4];
+
+        int _size;
+
+        // everything due at or before this tick has been taken...
+        long _sweptTo = Long.MIN_VALUE;
+
+        void add(String id, long tick)
+        {
+            if (_size == _ids.length)
+            {
+                String[] ids = new String[_size * 2];
+                long[] ticks = new long[_size * 2];
+                System.arraycopy(_ids, 0, ids, 0, _size);
+                System.arraycopy(_ticks, 0, ticks, 0, _size);
+                _ids = ids;
+                _ticks = ticks;
+            }
+            _ids[_size] = id;
+            _ticks[_size] = tick;
+            _size++;
+        }
+
+        void remove(String id, long tick)
+        {
+            for (int i = 0; i < _size; i++)
+            {
+                if (_ticks[i] == tick && _ids[i].equals(id))
+                {
+                    _size--;
+                    _ids[i] = _ids[_size];
+                    _ticks[i] = _ticks[_size];
+                    _ids[_size] = null;
+                    return;
+                }
+            }
+        }
+
+        void takeDue(long tick, List due, ConcurrentMap current)
+        {
+            int kept = 0;
+            for (int i = 0; i < _size; i++)
+            {
+                if (_ticks[i] <= tick)
+                {
+                    // only if it has not been scheduled again since...
+                    if (current.remove(_ids[i], new Long(_ticks[i])))
+                        due.add(_ids[i]);
+                }
+                else
+                {
+                    _ids[kept] = _ids[i];
+                    _ticks[kept] = _ticks[i];
+                    kept++;
+                }
+            }
+            for (int i = kept; i < _size; i++)
+                _ids[i] = null;
+            _size = kept;
+        }
+
+        void clear()
+        {
+            for (int i = 0; i < _size; i++)
+                _ids[i] = null;
+            _size = 0;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session;
+
+//----------------------------------------
+
+import java.lang.reflect.Method;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpSession;
+
+import org.jboss.logging.Logger;
+
+//----------------------------------------
+
+/**
+ * A Manager's interceptor stack, compiled into a single State for one
+ * session.
+ * <p>
+ * Rather than chaining a fresh instance of every configured interceptor and
+ * walking the chain - setting the manager and session ThreadLocals on each
+ * layer - on every call, {@link #compile} folds the stack into this one
+ * object when the container is built:
+ * <ul>
+ * <li>plain StateInterceptors only delegate, so they are dropped.</li>
+ * <li>ValidatingInterceptors become an inline timeout check, against the
+ * manager and session held in our own fields.</li>
+ * <li>AroundInterceptors which only implement before()/after() have them
+ * called from a flat array.</li>
+ * <li>the first interceptor of any other kind - including an
+ * AroundInterceptor which overrides a State method - and everything
+ * beneath it, is chained as before - we cannot know what it does.</li>
+ * </ul>
+ * The fused interceptors keep their places in the stack: the timeout check
+ * runs between the before() of the interceptors above and below it, and if
+ * it, or a before(), throws, the after() of those above still runs.
+ * The ThreadLocals are only set if something that may read them is left,
+ * so with the usual stacks an attribute access is one virtual call and a
+ * timestamp comparison away from the State.
+ *
+ * @version 1.0
+ */
+public class FusedInterceptor extends StateInterceptor
+{
+    protected static final Logger _log = Logger.getLogger(FusedInterceptor.class);
+
+    protected static final AroundInterceptor[] NO_INTERCEPTORS = new AroundInterceptor[0];
+
+    // Class:Boolean - whether an AroundInterceptor only has before()/after()
+    protected static final ConcurrentMap _fusible = new ConcurrentHashMap();
+
+    protected final Manager _fusedManager;
+
+    protected final HttpSession _fusedSession;
+
+    protected final boolean _validating;
+
+    // the number of around interceptors above the timeout check...
+    protected final int _validateAt;
+
+    protected final AroundInterceptor[] _around;
+
+    // whether anything beneath us may read the ThreadLocals...
+    protected final boolean _needsContext;
+
+    protected volatile boolean _running = false;
+
+    protected FusedInterceptor(Manager manager, HttpSession session,
+            int validateAt, AroundInterceptor[] around, State state)
+    {
+        _fusedManager = manager;
+        _fusedSession = session;
+        _validating = validateAt >= 0;
+        _validateAt = validateAt;
+        _around = around;
+        _needsContext = around.length > 0 || state instanceof StateInterceptor;
+        setState(state);
+    }
+
+    /**
+     * Compile an interceptor stack - outermost first, as returned by
+     * {@link Manager#getInterceptorStack()} - around a State.
+     */
+    public static FusedInterceptor compile(Manager manager,
+            HttpSession session, State state, StateInterceptor[] stack)
+            throws Exception
+    {
+        int validateAt = -1;
+        List around = new ArrayList();
+
+        int n = stack == null ? 0 : stack.length;
+        int fused = 0;
+        for (; fused < n; fused++)
+        {
+            StateInterceptor si = stack[fused];
+            if (si.getClass() == StateInterceptor.class)
+                continue;
+            else if (si.getClass() == ValidatingInterceptor.class)
+            {
+                if (validateAt < 0)
+                    validateAt = around.size();
+            }
+            else if (si instanceof AroundInterceptor && isFusible(si.getClass()))
+                around.add(si.getClass().newInstance());
+            else
+                break;
+        }
+
+        // chain whatever we could not fuse, innermost first...
+        State last = state;
+        for (int i = n; i > fused; i--)
+        {
+            StateInterceptor si = (StateInterceptor) stack[i - 1].getClass().newInstance();
+            si.setState(last);
+            last = si;
+        }
+
+        AroundInterceptor[] aroundArray = (AroundInterceptor[]) around
+                .toArray(new AroundInterceptor[around.size()]);
+        for (int i = 0; i < aroundArray.length; i++)
+            aroundArray[i].setState(last);
+
+        return new FusedInterceptor(manager, session, validateAt,
+                around.isEmpty() ? NO_INTERCEPTORS : aroundArray, last);
+    }
+
+    // an AroundInterceptor which overrides any State method does more than
+    // before()/after(), so must stay in the chain...
+    protected static boolean isFusible(Class c)
+    {
+        Boolean fusible = (Boolean) _fusible.get(c);
+        if (fusible == null)
+        {
+            fusible = Boolean.TRUE;
+            Method[] methods = State.class.getMethods();
+            for (Class k = c; k != AroundInterceptor.class && fusible.booleanValue(); k = k.getSuperclass())
+            {
+                for (int i = 0; i < methods.length; i++)
+                {
+                    try
+                    {
+                        k.getDeclaredMethod(methods[i].getName(), methods[i].getParameterTypes());
+                        fusible = Boolean.FALSE;
+                        break;
+                    }
+                    catch (NoSuchMethodException e)
+                    {
+                        // not overridden here
+                    }
+                }
+            }
+            _fusible.put(c, fusible);
+        }
+        return fusible.booleanValue();
+    }
+
+    //----------------------------------------
+    // lifecycle
+
+    public void start()
+    {
+        setContext();
+        for (int i = 0; i < _around.length; i++)
+            _around[i].start();
+        for (State s = getState(); s instanceof StateInterceptor; s = ((StateInterceptor) s).getState())
+            ((StateInterceptor) s).start();
+        _running = _validating;
+    }
+
+    public void stop()
+    {
+        stopValidating();
+        setContext();
+        for (int i = 0; i < _around.length; i++)
+            _around[i].stop();
+        for (State s = getState(); s instanceof StateInterceptor; s = ((StateInterceptor) s).getState())
+            ((StateInterceptor) s).stop();
+    }
+
+    /**
+     * Stop timing out, so that an expired session may be cleaned up.
+     */
+    public void stopValidating()
+    {
+        _running = false;
+    }
+
+    /**
+     * Stop everything and unlink it.
+     *
+     * @return the State at the bottom of the stack
+     */
+    public State dismantle()
+    {
+        stop();
+
+        State last = getState();
+        setState(null);
+        for (int i = 0; i < _around.length; i++)
+            _around[i].setState(null);
+        while (last instanceof StateInterceptor)
+        {
+            StateInterceptor si = (StateInterceptor) last;
+            last = si.getState();
+            si.setState(null);
+        }
+        return last;
+    }
+
+    //----------------------------------------
+
+    protected void setContext()
+    {
+        setManager(_fusedManager);
+        setSession(_fusedSession);
+    }
+
+    protected void before() throws IllegalStateException
+    {
+        if (_needsContext)
+            setContext();
+
+        int i = 0;
+        try
+        {
+            for (; i < _around.length; i++)
+            {
+                if (i == _validateAt && _running)
+                    checkValid();
+                _around[i].before();
+            }
+            if (_validateAt == _around.length && _running)
+                checkValid();
+        }
+        catch (RuntimeException e)
+        {
+            // unwind the interceptors above, as their finally blocks would...
+            while (i-- > 0)
+                _around[i].after();
+            throw e;
+        }
+    }
+
+    protected void after()
+    {
+        for (int i = _around.length; i-- > 0;)
+            _around[i].after();
+    }
+
+    // as ValidatingInterceptor...
+    protected void checkValid() throws IllegalStateException
+    {
+        boolean valid = false;
+        State state = getState();
+        try
+        {
+            int mii = state.getMaxInactiveInterval(); // secs
+            if (mii < 1)
+                mii = _fusedManager.getStore().getActualMaxInactiveInterval(); // secs
+            long lat = state.getLastAccessedTime(); // milisecs
+            long now = System.currentTimeMillis(); // milisecs
+
+            int age = (int) ((now - lat) / 1000); // secs
+
+            valid = (age < mii);
+        }
+        catch (java.rmi.NoSuchObjectException ignore)
+        {
+        }
+        catch (javax.ejb.NoSuchEntityException ignore)
+        {
+        }
+        catch (Exception e)
+        {
+            _log.error("couldn't determine validity of HttpSession", e);
+        }
+
+        if (!valid)
+            throw new IllegalStateException("invalid HttpSession - timed out");
+    }
+
+    //----------------------------------------
+    // State API
+
+    public long getCreationTime() throws RemoteException
+    {
+        before();
+        try
+        {
+            return getState().getCreationTime();
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public String getId() throws RemoteException
+    {
+        before();
+        try
+        {
+            return getState().getId();
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public void setLastAccessedTime(long time) throws RemoteException
+    {
+        before();
+        try
+        {
+            getState().setLastAccessedTime(time);
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public long getLastAccessedTime() throws RemoteException
+    {
+        before();
+        try
+        {
+            return getState().getLastAccessedTime();
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public void setMaxInactiveInterval(int interval) throws RemoteException
+    {
+        before();
+        try
+        {
+            getState().setMaxInactiveInterval(interval);
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public int getMaxInactiveInterval() throws RemoteException
+    {
+        before();
+        try
+        {
+            return getState().getMaxInactiveInterval();
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public Object getAttribute(String name) throws RemoteException
+    {
+        before();
+        try
+        {
+            return getState().getAttribute(name);
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public Enumeration getAttributeNameEnumeration() throws RemoteException
+    {
+        before();
+        try
+        {
+            return getState().getAttributeNameEnumeration();
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public String[] getAttributeNameStringArray() throws RemoteException
+    {
+        before();
+        try
+        {
+            return getState().getAttributeNameStringArray();
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public Object setAttribute(String name, Object value, boolean returnValue)
+            throws RemoteException
+    {
+        before();
+        try
+        {
+            return getState().setAttribute(name, value, returnValue);
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public Object removeAttribute(String name, boolean returnValue)
+            throws RemoteException
+    {
+        before();
+        try
+        {
+            return getState().removeAttribute(name, returnValue);
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public Map getAttributes() throws RemoteException
+    {
+        before();
+        try
+        {
+            return getState().getAttributes();
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public void setAttributes(Map attributes) throws RemoteException
+    {
+        before();
+        try
+        {
+            getState().setAttributes(attributes);
+        }
+        finally
+        {
+            after();
+        }
+    }
+
+    public String toString()
+    {
+        return "<" + getClass() + (_validating ? "(validating)" : "") + "->" + getState() + ">";
+    }
+}
@@ -23,11 +23,30 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.jboss.logging.Logger;
 
+/**
+ * Generates unguessable session ids: random bytes, hashed and rendered in a
+ * cookie safe variant of Base64.
+ * <p>
+ * Rather than one generator shared - and locked - by every request thread,
+ * ids are drawn from a number of stripes, each with its own random number
+ * generator and digest, picked by the calling thread. Each stripe mixes
+ * fresh entropy into its generator every <code>reseedInterval</code> ids.
+ * <p>
+ * Ids may optionally be prefixed with a node id and/or a per generator
+ * counter: <code>[nodeId.][epochcounter.]random</code>. The counter makes
+ * the ids of one generator unique by construction for as long as it runs.
+ * It starts again from zero on a restart, so it is preceded by a random
+ * epoch of six characters (36 bits), drawn afresh by each generator - ids
+ * from different runs, or from clones, then collide only if their epochs
+ * do as well as their random parts. The node id should not itself contain
+ * a '.'.
+ */
 public class GUIDGenerator implements IdGenerator
 {
     protected static final Logger _log = Logger.getLogger(GUIDGenerator.class);
@@ -41,37 +60,115 @@ public class GUIDGenerator implements IdGenerator
 
     protected final static String SESSION_ID_RANDOM_ALGORITHM_ALT = "IBMSecureRandom";
 
-    protected MessageDigest _digest = null;
+    protected final static char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+-*"
+            .toCharArray();
 
-    protected Random _random = null;
+    protected final static int DEFAULT_RESEED_INTERVAL = 100000;
+
+    protected int _stripeCount = Runtime.getRuntime().availableProcessors() * 2;
+
+    protected int _reseedInterval = DEFAULT_RESEED_INTERVAL;
+
+    protected String _nodeId = null;
+
+    protected boolean _counterPrefix = false;
+
+    // built on first use - and not shared by clones...
+    protected volatile Stripe[] _stripes = null;
+
+    protected AtomicLong _counter = new AtomicLong();
+
+    // this run of this generator - see the class comment...
+    protected long _epoch = newEpoch();
+
+    protected static final int EPOCH_CHARS = 6;
+
+    // ----------------------------------------
+    // configuration
+
+    public int getStripeCount()
+    {
+        return _stripeCount;
+    }
+
+    /**
+     * @param stripes the number of independent generators to spread
+     *            callers over - rounded up to a power of two
+     */
+    public void setStripeCount(int stripes)
+    {
+        _stripeCount = stripes;
+        _stripes = null;
+    }
+
+    public int getReseedInterval()
+    {
+        return _reseedInterval;
+    }
+
+    /**
+     * @param ids how many ids a stripe generates between reseeds - 0 never
+     *            to reseed
+     */
+    public void setReseedInterval(int ids)
+    {
+        _reseedInterval = ids;
+    }
+
+    public String getNodeId()
+    {
+        return _nodeId;
+    }
+
+    /**
+     * @param nodeId prefixed to every id - null for none
+     */
+    public void setNodeId(String nodeId)
+    {
+        _nodeId = nodeId;
+    }
+
+    public boolean getCounterPrefix()
+    {
+        return _counterPrefix;
+    }
+
+    /**
+     * @param counterPrefix whether to prefix every id with a sequence number
+     */
+    public void setCounterPrefix(boolean counterPrefix)
+    {
+        _counterPrefix = counterPrefix;
+    }
+
+    // ----------------------------------------
 
     /**
      * Generate a session-id that is not guessable
      * 
      * @return generated session-id
      */
-    public synchronized String nextId(HttpServletRequest request)
+    public String nextId(HttpServletRequest request)
     {
-        if (_digest == null)
-        {
-            _digest = getDigest();
-        }
-
-        if (_random == null)
-        {
-            _random = getRandom();
-        }
-
-        byte[] bytes = new byte[SESSION_ID_BYTES];
+        Stripe[] stripes = getStripes();
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
 
-        // get random bytes
-        _random.nextBytes(bytes);
+        // get random bytes, and hash them
+        byte[] bytes = stripe.next();
 
-        // Hash the random bytes
-        bytes = _digest.digest(bytes);
+        if (_nodeId == null && !_counterPrefix)
+            return encode(bytes);
 
-        // Render the result as a String of hexadecimal digits
-        return encode(bytes);
+        StringBuffer id = new StringBuffer(64);
+        if (_nodeId != null)
+            id.append(_nodeId).append('.');
+        if (_counterPrefix)
+        {
+            for (int shift = (EPOCH_CHARS - 1) * 6; shift >= 0; shift -= 6)
+                id.append(ALPHABET[(int) (_epoch >>> shift) & 0x3F]);
+            encode(_counter.incrementAndGet(), id).append('.');
+        }
+        return id.append(encode(bytes)).toString();
     }
 
     /**
@@ -85,8 +182,7 @@ public class GUIDGenerator implements IdGenerator
     protected String encode(byte[] data)
     {
         char[] out = new char[((data.length + 2) / 3) * 4];
-        char[] alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+-*"
-                .toCharArray();
+        char[] alphabet = ALPHABET;
 
         //
         // 3 bytes encode to 4 chars. Output is always an even
@@ -121,12 +217,53 @@ public class GUIDGenerator implements IdGenerator
         return new String(out);
     }
 
+    /**
+     * Append a number in the same alphabet, six bits a character.
+     */
+    protected StringBuffer encode(long value, StringBuffer out)
+    {
+        int shift = 0;
+        while (shift < 60 && (value >>> (shift + 6)) != 0)
+            shift += 6;
+        for (; shift >= 0; shift -= 6)
+            out.append(ALPHABET[(int) (value >>> shift) & 0x3F]);
+        return out;
+    }
+
+    protected static long newEpoch()
+    {
+        return new SecureRandom().nextLong() & ((1L << (EPOCH_CHARS * 6)) - 1);
+    }
+
+    protected Stripe[] getStripes()
+    {
+        Stripe[] stripes = _stripes;
+        if (stripes == null)
+        {
+            synchronized (this)
+            {
+                stripes = _stripes;
+                if (stripes == null)
+                {
+                    int n = 1;
+                    while (n < _stripeCount)
+                        n <<= 1;
+                    stripes = new Stripe[n];
+                    for (int i = 0; i < n; i++)
+                        stripes[i] = new Stripe(getRandom(), getDigest());
+                    _stripes = stripes;
+                }
+            }
+        }
+        return stripes;
+    }
+
     /**
      * get a random-number generator
      * 
      * @return a random-number generator
      */
-    protected synchronized Random getRandom()
+    protected Random getRandom()
     {
         long seed;
         Random random = null;
@@ -134,6 +271,7 @@ public class GUIDGenerator implements IdGenerator
         // Mix up the seed a bit
         seed = System.currentTimeMillis();
         seed ^= Runtime.getRuntime().freeMemory();
+        seed ^= System.nanoTime();
 
         try
         {
@@ -160,7 +298,9 @@ public class GUIDGenerator implements IdGenerator
             }
         }
 
-        // set the generated seed for this PRNG
+        // let the PRNG seed itself first - a seed set before then would
+        // replace, rather than add to, its own...
+        random.nextInt();
         random.setSeed(seed);
 
         return random;
@@ -170,7 +310,7 @@ public class GUIDGenerator implements IdGenerator
      get a MessageDigest hash-generator
      @return a hash generator
      */
-    protected synchronized MessageDigest getDigest()
+    protected MessageDigest getDigest()
     {
         MessageDigest digest = null;
 
@@ -193,7 +333,11 @@ public class GUIDGenerator implements IdGenerator
     {
         try
         {
-            return super.clone();
+            GUIDGenerator generator = (GUIDGenerator) super.clone();
+            generator._stripes = null;
+            generator._counter = new AtomicLong();
+            generator._epoch = newEpoch();
+            return generator;
         }
         catch (CloneNotSupportedException e)
         {
@@ -201,4 +345,39 @@ public class GUIDGenerator implements IdGenerator
             return null;
         }
     }
+
+    // ----------------------------------------
+
+    /**
+     * One generator and digest, and the lock that guards them.
+     */
+    protected class Stripe
+    {
+        protected final Random _random;
+
+        protected final MessageDigest _digest;
+
+        protected final byte[] _bytes = new byte[SESSION_ID_BYTES];
+
+        protected int _generated;
+
+        protected Stripe(Random random, MessageDigest digest)
+        {
+            _random = random;
+            _digest = digest;
+        }
+
+        protected synchronized byte[] next()
+        {
+            if (_reseedInterval > 0 && ++_generated >= _reseedInterval)
+            {
+                _generated = 0;
+                _random.setSeed(System.nanoTime() ^ Runtime.getRuntime().freeMemory()
+                        ^ ((long) System.identityHashCode(Thread.currentThread()) << 32));
+            }
+
+            _random.nextBytes(_bytes);
+            return _digest.digest(_bytes);
+        }
+    }
 }
@@ -186,11 +186,15 @@ public class LocalState implements State, java.io.Serializable
         }
     }
 
-    protected long remainingTime()
+    protected long getExpiryTime()
     {
         long maxInactiveInterval = _maxInactiveInterval < 1 ? _actualMaxInactiveInterval : _maxInactiveInterval;
-        return (_lastAccessedTime + (maxInactiveInterval * 1000L))
-                - System.currentTimeMillis();
+        return _lastAccessedTime + (maxInactiveInterval * 1000L);
+    }
+
+    protected long remainingTime()
+    {
+        return getExpiryTime() - System.currentTimeMillis();
     }
 
     public boolean isValid(int extraTime)
@@ -15,8 +15,8 @@
 
 package org.mortbay.j2ee.session;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -28,7 +28,7 @@ public class LocalStore implements Store
 {
     protected static final Logger _log = Logger.getLogger(LocalStore.class);
 
-    Map _sessions = new HashMap();
+    ConcurrentMap _sessions = new ConcurrentHashMap();
 
     protected Manager _manager;
 
@@ -64,20 +64,14 @@ public class LocalStore implements Store
 
     public State loadState(String id)
     {
-        synchronized (_sessions)
-        {
-            return (State) _sessions.get(id);
-        }
+        return (State) _sessions.get(id);
     }
 
     public void storeState(State state)
     {
         try
         {
-            synchronized (_sessions)
-            {
-                _sessions.put(state.getId(), state);
-            }
+            _sessions.put(state.getId(), state);
         }
         catch (Exception e)
         {
@@ -89,10 +83,7 @@ public class LocalStore implements Store
     {
         try
         {
-            synchronized (_sessions)
-            {
-                _sessions.remove(state.getId());
-            }
+            _sessions.remove(state.getId());
         }
         catch (Exception e)
         {
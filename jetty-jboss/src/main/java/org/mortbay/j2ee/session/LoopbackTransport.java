@@ -0,0 +1,483 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session;
+
+//----------------------------------------
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+
+//----------------------------------------
+
+/**
+ * An in-JVM {@link ReplicationTransport}, connecting any number of stores -
+ * typically one per Manager, each standing in for a node - without a
+ * network or a cluster.
+ * <p>
+ * Every member has a delivery thread of its own, which hands it the
+ * messages sent by the others once they fall due. The network between them
+ * can be made worse than a real one:
+ * <ul>
+ * <li><code>latency</code> and <code>jitter</code> delay every delivery
+ * by a fixed time plus a random one, without reordering.</li>
+ * <li><code>lossRate</code> is the probability that a member does not get
+ * a message at all.</li>
+ * <li><code>reorderRate</code> is the probability that a delivery is held
+ * back by a further <code>reorderDelay</code>, letting later messages
+ * overtake it.</li>
+ * </ul>
+ * Times are in microseconds. The transport counts what it sends, delivers
+ * and drops, and the lag from a send to the receiver having applied the
+ * message, so that it can be used to load test replication on one box.
+ * Deliveries that the receiver drops, or fails to apply, are counted as
+ * discarded and left out of the lag.
+ *
+ * @version 1.0
+ */
+public class LoopbackTransport implements ReplicationTransport
+{
+    protected static final Logger _log = Logger.getLogger(LoopbackTransport.class);
+
+    protected final List _endpoints = new CopyOnWriteArrayList();
+
+    protected final Random _random = new Random();
+
+    protected int _latency = 0;
+
+    protected int _jitter = 0;
+
+    protected double _lossRate = 0;
+
+    protected double _reorderRate = 0;
+
+    protected int _reorderDelay = 1000; // 1 msec
+
+    protected final AtomicLong _sent = new AtomicLong();
+
+    protected final AtomicLong _delivered = new AtomicLong();
+
+    protected final AtomicLong _dropped = new AtomicLong();
+
+    protected final AtomicLong _discarded = new AtomicLong();
+
+    protected final AtomicLong _reordered = new AtomicLong();
+
+    protected final AtomicLong _totalLag = new AtomicLong(); // nanosecs
+
+    protected final AtomicLong _maxLag = new AtomicLong(); // nanosecs
+
+    // deliveries queued but not yet made...
+    protected final AtomicLong _pending = new AtomicLong();
+
+    protected final Object _quiet = new Object();
+
+    // ----------------------------------------
+    // configuration
+
+    public int getLatency()
+    {
+        return _latency;
+    }
+
+    /**
+     * @param micros the minimum delay of every delivery
+     */
+    public void setLatency(int micros)
+    {
+        _latency = micros;
+    }
+
+    public int getJitter()
+    {
+        return _jitter;
+    }
+
+    /**
+     * @param micros the most, uniformly distributed, random delay added to
+     *            the latency
+     */
+    public void setJitter(int micros)
+    {
+        _jitter = micros;
+    }
+
+    public double getLossRate()
+    {
+        return _lossRate;
+    }
+
+    /**
+     * @param rate the probability, from 0 to 1, of a delivery being lost
+     */
+    public void setLossRate(double rate)
+    {
+        _lossRate = rate;
+    }
+
+    public double getReorderRate()
+    {
+        return _reorderRate;
+    }
+
+    /**
+     * @param rate the probability, from 0 to 1, of a delivery being held
+     *            back for <code>reorderDelay</code>
+     */
+    public void setReorderRate(double rate)
+    {
+        _reorderRate = rate;
+    }
+
+    public int getReorderDelay()
+    {
+        return _reorderDelay;
+    }
+
+    public void setReorderDelay(int micros)
+    {
+        _reorderDelay = micros;
+    }
+
+    /**
+     * Seed the random choices, to make a run repeatable.
+     */
+    public void setSeed(long seed)
+    {
+        _random.setSeed(seed);
+    }
+
+    // ----------------------------------------
+    // statistics
+
+    /**
+     * @return the number of messages sent, whatever became of them
+     */
+    public long getSent()
+    {
+        return _sent.get();
+    }
+
+    /**
+     * @return the number of deliveries made and applied - up to members-1
+     *         per message
+     */
+    public long getDelivered()
+    {
+        return _delivered.get();
+    }
+
+    public long getDropped()
+    {
+        return _dropped.get();
+    }
+
+    /**
+     * @return the number of deliveries made but not applied by the receiver
+     */
+    public long getDiscarded()
+    {
+        return _discarded.get();
+    }
+
+    public long getReordered()
+    {
+        return _reordered.get();
+    }
+
+    public long getPending()
+    {
+        return _pending.get();
+    }
+
+    /**
+     * @return the mean time in microseconds from a send to the receiver
+     *         having applied the message
+     */
+    public long getMeanLag()
+    {
+        long delivered = _delivered.get();
+        return delivered == 0 ? 0 : _totalLag.get() / delivered / 1000;
+    }
+
+    /**
+     * @return the longest time in microseconds from a send to the receiver
+     *         having applied the message
+     */
+    public long getMaxLag()
+    {
+        return _maxLag.get() / 1000;
+    }
+
+    public void resetStatistics()
+    {
+        _sent.set(0);
+        _delivered.set(0);
+        _dropped.set(0);
+        _discarded.set(0);
+        _reordered.set(0);
+        _totalLag.set(0);
+        _maxLag.set(0);
+    }
+
+    /**
+     * Wait until every delivery queued so far has been made.
+     *
+     * @return false if there were still deliveries pending after the timeout
+     */
+    public boolean awaitDelivery(long timeoutMillis) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        synchronized (_quiet)
+        {
+            while (_pending.get() > 0)
+            {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                _quiet.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    public String toString()
+    {
+        return "LoopbackTransport[" + _endpoints.size() + " members, sent="
+                + _sent + ", delivered=" + _delivered + ", dropped="
+                + _dropped + ", discarded=" + _discarded + ", reordered=" + _reordered + ", pending="
+                + _pending + ", meanLag=" + getMeanLag() + "us, maxLag="
+                + getMaxLag() + "us]";
+    }
+
+    // ----------------------------------------
+    // ReplicationTransport API
+
+    public void join(Receiver receiver)
+    {
+        Endpoint endpoint = new Endpoint(receiver);
+        _endpoints.add(endpoint);
+        endpoint.start();
+    }
+
+    public void leave(Receiver receiver)
+    {
+        for (Iterator i = _endpoints.iterator(); i.hasNext();)
+        {
+            Endpoint endpoint = (Endpoint) i.next();
+            if (endpoint._receiver == receiver)
+            {
+                _endpoints.remove(endpoint);
+                endpoint.stop();
+            }
+        }
+    }
+
+    public void send(Receiver sender, byte[] message)
+    {
+        _sent.incrementAndGet();
+        long now = System.nanoTime();
+
+        for (Iterator i = _endpoints.iterator(); i.hasNext();)
+        {
+            Endpoint endpoint = (Endpoint) i.next();
+            if (endpoint._receiver == sender)
+                continue;
+
+            if (_lossRate > 0 && _random.nextDouble() < _lossRate)
+            {
+                _dropped.incrementAndGet();
+                continue;
+            }
+
+            long delay = _latency * 1000L;
+            if (_jitter > 0)
+                delay += (long) (_random.nextDouble() * _jitter * 1000L);
+            boolean reorder = _reorderRate > 0 && _random.nextDouble() < _reorderRate;
+            if (reorder)
+            {
+                delay += _reorderDelay * 1000L;
+                _reordered.incrementAndGet();
+            }
+
+            endpoint.enqueue(message, now, now + delay, reorder);
+        }
+    }
+
+    // ----------------------------------------
+
+    protected void delivered(long sent)
+    {
+        long lag = System.nanoTime() - sent;
+        _delivered.incrementAndGet();
+        _totalLag.addAndGet(lag);
+        long max = _maxLag.get();
+        while (lag > max && !_maxLag.compareAndSet(max, lag))
+            max = _maxLag.get();
+        settled(1);
+    }
+
+    protected void discarded()
+    {
+        _discarded.incrementAndGet();
+        settled(1);
+    }
+
+    protected void settled(long deliveries)
+    {
+        if (_pending.addAndGet(-deliveries) == 0)
+        {
+            synchronized (_quiet)
+            {
+                _quiet.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A member, and the deliveries queued for it.
+     */
+    protected class Endpoint implements Runnable
+    {
+        protected final Receiver _receiver;
+
+        protected final DelayQueue _queue = new DelayQueue();
+
+        protected Thread _thread;
+
+        protected volatile boolean _running;
+
+        // guarded by this - so that jitter does not reorder...
+        protected long _lastDue;
+
+        protected long _sequence;
+
+        protected Endpoint(Receiver receiver)
+        {
+            _receiver = receiver;
+        }
+
+        protected void enqueue(byte[] message, long sent, long due, boolean reorder)
+        {
+            if (!_running)
+                return; // left
+
+            Delivery delivery;
+            synchronized (this)
+            {
+                if (!reorder)
+                {
+                    due = Math.max(due, _lastDue);
+                    _lastDue = due;
+                }
+                delivery = new Delivery(message, sent, due, _sequence++);
+            }
+            _pending.incrementAndGet();
+            _queue.put(delivery);
+        }
+
+        protected void start()
+        {
+            _running = true;
+            _thread = new Thread(this, "LoopbackTransport-" + _endpoints.size());
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+
+        protected void stop()
+        {
+            _running = false;
+            _thread.interrupt();
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (_running)
+                {
+                    Delivery delivery = (Delivery) _queue.take();
+                    boolean applied = false;
+                    try
+                    {
+                        applied = _receiver.receive(delivery._message);
+                    }
+                    catch (Throwable e)
+                    {
+                        _log.warn("could not deliver replication message", e);
+                    }
+                    finally
+                    {
+                        if (applied)
+                            delivered(delivery._sent);
+                        else
+                            discarded();
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // stopped...
+            }
+            finally
+            {
+                // whatever is left will never be delivered...
+                int left = _queue.size();
+                _queue.clear();
+                if (left > 0)
+                    settled(left);
+            }
+        }
+    }
+
+    protected static class Delivery implements Delayed
+    {
+        protected final byte[] _message;
+
+        protected final long _sent;
+
+        protected final long _due;
+
+        protected final long _sequence;
+
+        protected Delivery(byte[] message, long sent, long due, long sequence)
+        {
+            _message = message;
+            _sent = sent;
+            _due = due;
+            _sequence = sequence;
+        }
+
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(_due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed o)
+        {
+            Delivery that = (Delivery) o;
+            if (_due != that._due)
+                return _due < that._due ? -1 : 1;
+            return _sequence < that._sequence ? -1 : _sequence > that._sequence ? 1 : 0;
+        }
+    }
+}
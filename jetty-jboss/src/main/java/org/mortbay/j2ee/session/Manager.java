@@ -19,18 +19,19 @@ package org.mortbay.j2ee.session;
 
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.EventListener;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionActivationListener;
 import javax.servlet.http.HttpSessionAttributeListener;
 import javax.servlet.http.HttpSessionBindingEvent;
 import javax.servlet.http.HttpSessionContext;
@@ -219,7 +220,13 @@ public class Manager implements org.eclipse.jetty.server.SessionManager
 
     // ----------------------------------------
 
-    final Map _sessions = new HashMap();
+    // id:container - lookups never block, and concurrent updates only
+    // contend on the segment holding the id, not on the whole map...
+    final ConcurrentMap _sessions = new ConcurrentHashMap();
+
+    // the ids in _sessions, by the time at which they are next due to
+    // expire - so that the scavenger need only look at those...
+    final ExpiryIndex _expiryIndex = new ExpiryIndex();
 
     public String getContextPath()
     {
@@ -325,14 +332,11 @@ public class Manager implements org.eclipse.jetty.server.SessionManager
             // I guess we will have to ask the store for a list of sessions
             // to migrate... - TODO
 
-            synchronized (_sessions)
-            {
-                List copy = new ArrayList(_sessions.values());
-                for (Iterator i = copy.iterator(); i.hasNext();)
-                    ((StateAdaptor) i.next()).migrate();
+            for (Iterator i = _sessions.values().iterator(); i.hasNext();)
+                ((StateAdaptor) i.next()).migrate();
 
-                _sessions.clear();
-            }
+            _sessions.clear();
+            _expiryIndex.clear();
 
             LOG.debug("stopping local scavenger thread...");
             _scavenger.cancel();
@@ -507,10 +511,10 @@ public class Manager implements org.eclipse.jetty.server.SessionManager
         if (LOG.isDebugEnabled())
             LOG.debug("remembering session - " + id);
 
-        synchronized (_sessions)
-        {
-            _sessions.put(id, session);
-        }
+        // the request creating it is using it - and will complete() it...
+        ((StateAdaptor) session).enter();
+        _sessions.put(id, session);
+        scheduleExpiry((StateAdaptor) session);
 
         notifySessionCreated(session);
 
@@ -527,12 +531,8 @@ public class Manager implements org.eclipse.jetty.server.SessionManager
         String id = container.getId();
         if (LOG.isDebugEnabled())
             LOG.debug("forgetting session - " + id);
-        Object tmp;
-        synchronized (_sessions)
-        {
-            tmp = _sessions.remove(id);
-        }
-        container = (HttpSession) tmp;
+        container = (HttpSession) _sessions.remove(id);
+        _expiryIndex.remove(id);
         if (LOG.isDebugEnabled())
             LOG.debug("forgetting session - " + container);
 
@@ -572,6 +572,8 @@ public class Manager implements org.eclipse.jetty.server.SessionManager
                     s = si.getState(); // next interceptor
                     if (si instanceof ValidatingInterceptor)
                         si.stop();
+                    else if (si instanceof FusedInterceptor)
+                        ((FusedInterceptor) si).stopValidating();
                 }
             }
 
@@ -612,6 +614,77 @@ public class Manager implements org.eclipse.jetty.server.SessionManager
         }
     }
 
+    // the container of a session, if it has one just now...
+    protected StateAdaptor getContainer(String id)
+    {
+        return (StateAdaptor) _sessions.get(id);
+    }
+
+    // drop the container of a session that the Store is passivating, and
+    // has closed, without destroying the session - the next findSession()
+    // will bring the State back and build a new one...
+    protected void passivateContainer(String id, StateAdaptor container)
+    {
+        if (_sessions.remove(id, container))
+            destroyContainer(container);
+    }
+
+    // tell the attributes of a session which implement
+    // HttpSessionActivationListener that it is being passivated or has
+    // been activated. If the session has no container just now, they are
+    // given one for the occasion...
+    protected void notifyActivationListeners(String id, State state, boolean passivating)
+    {
+        try
+        {
+            Map attributes = state.getAttributes();
+            List listeners = new ArrayList();
+            for (Iterator i = attributes.values().iterator(); i.hasNext();)
+            {
+                Object value = i.next();
+                if (value instanceof HttpSessionActivationListener)
+                    listeners.add(value);
+            }
+            if (listeners.isEmpty())
+                return;
+
+            HttpSession session = getContainer(id);
+            boolean temporary = session == null;
+            if (temporary)
+                session = newContainer(id, state);
+            try
+            {
+                HttpSessionEvent event = new HttpSessionEvent(session);
+                for (int i = 0; i < listeners.size(); i++)
+                {
+                    HttpSessionActivationListener listener = (HttpSessionActivationListener) listeners.get(i);
+                    if (passivating)
+                        listener.sessionWillPassivate(event);
+                    else
+                        listener.sessionDidActivate(event);
+                }
+            }
+            finally
+            {
+                if (temporary)
+                    destroyContainer(session);
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.warn("could not notify activation listeners of session - " + id, e);
+        }
+    }
+
+    // a session that the Store had passivated has timed out - give it a
+    // container just long enough to destroy it properly...
+    protected void expirePassivatedSession(String id, State state)
+    {
+        HttpSession container = newContainer(id, state);
+        if (_sessions.putIfAbsent(id, container) == null)
+            destroySession(container);
+    }
+
     protected HttpSession findSession(String id, boolean create)
     {
         HttpSession container = null;
@@ -628,28 +701,27 @@ public class Manager implements org.eclipse.jetty.server.SessionManager
             // if so
             if (state != null)
             {
+                // do we have an existing container ?
+                container = (HttpSession) _sessions.get(id);
 
-                // this looks slow - but to be 100% safe we need to make sure
-                // that no-one can enter another container for the same id,
-                // whilst we are thinking about it...
-
-                // is there a container already available ?
-                synchronized (_sessions)
+                // if not...
+                if (container == null && create)
                 {
-                    // do we have an existing container ?
-                    container = (HttpSession) _sessions.get(id);
-
-                    // if not...
-                    if (container == null && create)
+                    // make a new one - without holding any lock. If
+                    // another thread beats us to it, we use its container
+                    // and take ours apart again - its interceptors have
+                    // been started, but it was never published, so
+                    // no-one can ever enter two containers for the same
+                    // id...
+                    HttpSession candidate = newContainer(id, state);
+                    container = (HttpSession) _sessions.putIfAbsent(id, candidate);
+                    if (container == null)
                     {
-                        // make a new one...
-                        container = newContainer(id, state);// we could lower
-                        // contention by
-                        // preconstructing
-                        // containers... -
-                        // TODO
-                        _sessions.put(id, container);
+                        container = candidate;
+                        scheduleExpiry((StateAdaptor) container);
                     }
+                    else
+                        destroyContainer(candidate);
                 }
             }
         }
@@ -754,6 +826,23 @@ public class Manager implements org.eclipse.jetty.server.SessionManager
         return System.currentTimeMillis();
     }
 
+    // (re)index a container by the time at which it is next due to
+    // expire. If we can't tell, we look at it again on the next scavenge...
+    protected void scheduleExpiry(StateAdaptor sa)
+    {
+        long expiryTime;
+        try
+        {
+            expiryTime = sa.getExpiryTime();
+        }
+        catch (RemoteException e)
+        {
+            LOG.debug("could not determine expiry time of session - " + sa._id, e);
+            expiryTime = currentSecond();
+        }
+        _expiryIndex.schedule(sa._id, expiryTime);
+    }
+
     // ensure that this code is run with the correct ContextClassLoader...
     protected void scavenge()
     {
@@ -765,37 +854,41 @@ public class Manager implements org.eclipse.jetty.server.SessionManager
             // Let them scavenge locally instead.
             AbstractReplicatedStore.setReplicating(true);
             //
-            // take a quick copy...
-            Collection copy;
-            synchronized (_sessions)
-            {
-                copy = new ArrayList(_sessions.values());
-            }
+            // we only look at the sessions that the index thinks are due.
+            // Those which have been accessed since they were indexed are
+            // simply put back, under their new expiry time...
+            long now = currentSecond();
+            List due = _expiryIndex.takeDue(now);
             if (LOG.isDebugEnabled())
-                LOG.debug(copy.size() + " local sessions");
-            //
-            // iterate over it at our leisure...
+                LOG.debug(due.size() + " of " + _sessions.size() + " local sessions due");
+
             int n = 0;
-            for (Iterator i = copy.iterator(); i.hasNext();)
+            for (int i = 0; i < due.size(); i++)
             {
-                // all we have to do is check if a session isValid() to force it
-                // to examine itself and invalidate() itself if necessary... -
-                // because it has a local cache of the necessary details, it
-                // will only go to the Stored State if it really thinks that it
-                // is invalid...
-                StateAdaptor sa = null;
+                String id = (String) due.get(i);
+                StateAdaptor sa = (StateAdaptor) _sessions.get(id);
+                if (sa == null)
+                    continue; // already destroyed
+
+                long expiryTime;
                 try
                 {
-                    sa = (StateAdaptor) i.next();
-                    // the ValidationInterceptor should pick this up and throw an IllegalStateException
-                    long lat = sa.getLastAccessedTime();
+                    expiryTime = sa.getExpiryTime();
+                }
+                catch (RemoteException e)
+                {
+                    LOG.debug("could not determine expiry time of session - " + id, e);
+                    _expiryIndex.schedule(id, now);
+                    continue;
                 }
-                catch (IllegalStateException ignore)
+
+                if (expiryTime > now)
+                    _expiryIndex.schedule(id, expiryTime);
+                else
                 {
                     if (LOG.isDebugEnabled())
-                        LOG.debug("scavenging local session " + sa.getId());
+                        LOG.debug("scavenging local session " + id);
                     destroySession(sa);
-                    i.remove();
                     ++n;
                 }
             }
@@ -905,16 +998,28 @@ public class Manager implements org.eclipse.jetty.server.SessionManager
         return null;
     }
 
-    public HttpCookie access(HttpSession arg0,boolean secure)
+    public HttpCookie access(HttpSession session,boolean secure)
     {
-        // TODO Auto-generated method stub
+        if (session instanceof StateAdaptor)
+        {
+            StateAdaptor sa = (StateAdaptor) session;
+            sa.enter();
+            try
+            {
+                sa.access();
+            }
+            catch (IllegalStateException e)
+            {
+                LOG.debug("accessed invalid session - " + sa._id, e);
+            }
+        }
         return null;
     }
 
-    public void complete(HttpSession arg0)
+    public void complete(HttpSession session)
     {
-        // TODO Auto-generated method stub
-        
+        if (session instanceof StateAdaptor)
+            ((StateAdaptor) session).leave();
     }
 
     public boolean getHttpOnly()
@@ -0,0 +1,385 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session;
+
+//----------------------------------------
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+
+//----------------------------------------
+
+/**
+ * An append-only log of byte records, keyed by id, in memory-mapped
+ * segment files - with the index of where each record lives held in
+ * memory.
+ * <p>
+ * Records are only ever appended. Replacing or removing one just marks the
+ * old copy dead; {@link #compact(double)} copies the live records out of
+ * mostly dead segments and deletes them. Reads need no lock: a location,
+ * once published in the index, always points at bytes that are never
+ * overwritten - and a segment is never unmapped explicitly, so its mapping
+ * lives for as long as any reader can still reach it, and is released by
+ * the collector after that.
+ * <p>
+ * The log is scratch space for the life of one store - it is emptied on
+ * open and close, and nothing is recovered from it after a restart.
+ *
+ * @version 1.0
+ */
+public class MappedSegmentLog
+{
+    protected static final Logger _log = Logger.getLogger(MappedSegmentLog.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024; // 64MB
+
+    protected final File _directory;
+
+    protected final int _segmentSize;
+
+    // id:Location
+    protected final ConcurrentMap _index = new ConcurrentHashMap();
+
+    // sealed segments, oldest first - guarded by this
+    protected final List _sealed = new ArrayList();
+
+    // compacted segments whose files could not be deleted yet - as on
+    // platforms which keep a mapped file until it is collected - to be
+    // tried again at the next compaction - guarded by this
+    protected final List _retired = new ArrayList();
+
+    // the segment being appended to - guarded by this
+    protected Segment _current;
+
+    protected int _nextSegment;
+
+    public MappedSegmentLog(File directory, int segmentSize)
+    {
+        _directory = directory;
+        _segmentSize = segmentSize;
+    }
+
+    public File getDirectory()
+    {
+        return _directory;
+    }
+
+    public synchronized void open() throws IOException
+    {
+        if (!_directory.exists() && !_directory.mkdirs())
+            throw new IOException("could not create " + _directory);
+        deleteSegmentFiles();
+        _current = newSegment(_segmentSize);
+    }
+
+    public synchronized void close()
+    {
+        _index.clear();
+        for (Iterator i = _sealed.iterator(); i.hasNext();)
+            ((Segment) i.next()).dispose();
+        _sealed.clear();
+        _retired.clear();
+        if (_current != null)
+            _current.dispose();
+        _current = null;
+        deleteSegmentFiles();
+    }
+
+    //----------------------------------------
+
+    /**
+     * Append a record, replacing any earlier one for the same id.
+     *
+     * @param stamp a value kept with the record in the index - see
+     *            {@link #getStamp(String)}
+     */
+    public void put(String id, byte[] bytes, long stamp) throws IOException
+    {
+        Location location = append(bytes, stamp);
+        Location old = (Location) _index.put(id, location);
+        if (old != null)
+            old.release();
+    }
+
+    /**
+     * @return the record for the id, or null
+     */
+    public byte[] get(String id)
+    {
+        Location location = (Location) _index.get(id);
+        return location == null ? null : location.read();
+    }
+
+    public boolean contains(String id)
+    {
+        return _index.containsKey(id);
+    }
+
+    /**
+     * @return the stamp the record for the id was put with, or
+     *         <code>Long.MIN_VALUE</code> if there is none
+     */
+    public long getStamp(String id)
+    {
+        Location location = (Location) _index.get(id);
+        return location == null ? Long.MIN_VALUE : location._stamp;
+    }
+
+    public boolean remove(String id)
+    {
+        Location location = (Location) _index.remove(id);
+        if (location == null)
+            return false;
+        location.release();
+        return true;
+    }
+
+    public int size()
+    {
+        return _index.size();
+    }
+
+    public synchronized int getSegmentCount()
+    {
+        return _sealed.size() + (_current == null ? 0 : 1);
+    }
+
+    /**
+     * @return the bytes of live records, across all segments
+     */
+    public synchronized long getLiveBytes()
+    {
+        long live = _current == null ? 0 : _current._live.get();
+        for (Iterator i = _sealed.iterator(); i.hasNext();)
+            live += ((Segment) i.next())._live.get();
+        return live;
+    }
+
+    //----------------------------------------
+
+    /**
+     * Rewrite the live records of every sealed segment that is less than
+     * <code>threshold</code> live, and delete those segments.
+     *
+     * @return the number of segments deleted
+     */
+    public int compact(double threshold) throws IOException
+    {
+        Set candidates = new HashSet();
+        synchronized (this)
+        {
+            for (Iterator i = _retired.iterator(); i.hasNext();)
+                if (((Segment) i.next()).delete())
+                    i.remove();
+
+            for (Iterator i = _sealed.iterator(); i.hasNext();)
+            {
+                Segment segment = (Segment) i.next();
+                if (segment._live.get() < segment._limit * threshold)
+                    candidates.add(segment);
+            }
+        }
+        if (candidates.isEmpty())
+            return 0;
+
+        // move the live records out - anything replaced or removed while
+        // we do so simply stays where its owner put it...
+        int moved = 0;
+        for (Iterator i = _index.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            Location location = (Location) entry.getValue();
+            if (!candidates.contains(location._segment))
+                continue;
+
+            String id = (String) entry.getKey();
+            Location copy = append(location.read(), location._stamp);
+            if (_index.replace(id, location, copy))
+            {
+                location.release();
+                moved++;
+            }
+            else
+                copy.release();
+        }
+
+        int deleted = 0;
+        synchronized (this)
+        {
+            for (Iterator i = candidates.iterator(); i.hasNext();)
+            {
+                Segment segment = (Segment) i.next();
+                if (segment._live.get() == 0)
+                {
+                    _sealed.remove(segment);
+                    if (!segment.dispose())
+                        _retired.add(segment);
+                    deleted++;
+                }
+            }
+        }
+
+        if (_log.isDebugEnabled())
+            _log.debug("compacted " + deleted + " segments, moving " + moved + " records");
+        return deleted;
+    }
+
+    //----------------------------------------
+
+    protected synchronized Location append(byte[] bytes, long stamp)
+            throws IOException
+    {
+        int length = 4 + bytes.length;
+        if (_current._position + length > _current._limit)
+        {
+            _sealed.add(_current);
+            _current = newSegment(Math.max(_segmentSize, length));
+        }
+
+        Segment segment = _current;
+        int offset = segment._position;
+        ByteBuffer buffer = segment._buffer.duplicate();
+        buffer.position(offset);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        segment._position += length;
+        segment._live.addAndGet(length);
+
+        return new Location(segment, offset, bytes.length, stamp);
+    }
+
+    protected Segment newSegment(int size) throws IOException
+    {
+        File file = new File(_directory, "segment-" + (_nextSegment++) + ".dat");
+        return new Segment(file, size);
+    }
+
+    protected void deleteSegmentFiles()
+    {
+        File[] files = _directory.listFiles();
+        if (files == null)
+            return;
+        for (int i = 0; i < files.length; i++)
+        {
+            String name = files[i].getName();
+            if (name.startsWith("segment-") && name.endsWith(".dat"))
+                files[i].delete();
+        }
+    }
+
+    //----------------------------------------
+
+    protected static class Segment
+    {
+        final File _file;
+
+        final FileChannel _channel;
+
+        final MappedByteBuffer _buffer;
+
+        final int _limit;
+
+        // guarded by the log
+        int _position;
+
+        final AtomicLong _live = new AtomicLong();
+
+        Segment(File file, int size) throws IOException
+        {
+            _file = file;
+            _limit = size;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(size);
+            _channel = raf.getChannel();
+            _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        // close the file and delete it. The mapping is left to the
+        // collector, so a reader still holding a Location can finish...
+        boolean dispose()
+        {
+            try
+            {
+                _channel.close();
+            }
+            catch (IOException e)
+            {
+                _log.debug("could not close " + _file, e);
+            }
+            return delete();
+        }
+
+        boolean delete()
+        {
+            if (!_file.exists() || _file.delete())
+                return true;
+            _log.debug("could not delete " + _file + " yet");
+            return false;
+        }
+
+        public String toString()
+        {
+            return _file.getName() + "(" + _live + "/" + _position + ")";
+        }
+    }
+
+    protected static class Location
+    {
+        final Segment _segment;
+
+        final int _offset;
+
+        final int _length;
+
+        final long _stamp;
+
+        Location(Segment segment, int offset, int length, long stamp)
+        {
+            _segment = segment;
+            _offset = offset;
+            _length = length;
+            _stamp = stamp;
+        }
+
+        byte[] read()
+        {
+            ByteBuffer buffer = _segment._buffer.duplicate();
+            buffer.position(_offset + 4);
+            byte[] bytes = new byte[_length];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        void release()
+        {
+            _segment._live.addAndGet(-(4 + _length));
+        }
+    }
+}
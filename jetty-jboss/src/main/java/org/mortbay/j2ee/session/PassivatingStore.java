@@ -0,0 +1,503 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session;
+
+//----------------------------------------
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+//----------------------------------------
+
+/**
+ * A local Store that moves idle sessions out of the heap.
+ * <p>
+ * A session which has not been accessed for <code>passivateAfter</code>
+ * seconds has its container dropped and its State serialized into a
+ * {@link MappedSegmentLog}. The next {@link #loadState(String)} for it
+ * brings it back, so the Manager simply rebuilds the container as if
+ * nothing had happened. Passivated sessions that time out are brought back
+ * just long enough for the Manager to destroy them, so listeners see them
+ * go as usual.
+ * <p>
+ * A session is never passivated while a request is using it, and
+ * attributes implementing HttpSessionActivationListener are told before
+ * it is passivated and after it is brought back. Sessions whose attributes
+ * cannot be serialized stay in memory.
+ *
+ * @version 1.0
+ */
+public class PassivatingStore extends LocalStore
+{
+    protected File _directory;
+
+    protected int _segmentSize = MappedSegmentLog.DEFAULT_SEGMENT_SIZE;
+
+    protected int _passivateAfter = 60 * 10; // 10 mins
+
+    protected int _passivationPeriod = 60; // 1 min
+
+    protected double _compactionThreshold = 0.5;
+
+    protected MappedSegmentLog _segments;
+
+    // in-memory ids by the time they become idle enough to passivate...
+    protected final ExpiryIndex _idle = new ExpiryIndex();
+
+    // ...and passivated ids by the time they expire
+    protected final ExpiryIndex _expiry = new ExpiryIndex();
+
+    // passivation and reactivation of an id are serialised on one of these
+    protected final Object[] _locks = new Object[64];
+
+    protected Timer _passivator;
+
+    public PassivatingStore()
+    {
+        for (int i = 0; i < _locks.length; i++)
+            _locks[i] = new Object();
+    }
+
+    // ----------------------------------------
+    // configuration
+
+    public File getDirectory()
+    {
+        return _directory;
+    }
+
+    /**
+     * @param directory where to keep the segment files - each store, and so
+     *            each webapp, gets a new directory of its own under it. By
+     *            default <code>java.io.tmpdir</code>
+     */
+    public void setDirectory(File directory)
+    {
+        _directory = directory;
+    }
+
+    public int getSegmentSize()
+    {
+        return _segmentSize;
+    }
+
+    public void setSegmentSize(int bytes)
+    {
+        _segmentSize = bytes;
+    }
+
+    public int getPassivateAfter()
+    {
+        return _passivateAfter;
+    }
+
+    /**
+     * @param secs how long a session must be idle before it is passivated
+     */
+    public void setPassivateAfter(int secs)
+    {
+        _passivateAfter = secs;
+    }
+
+    public int getPassivationPeriod()
+    {
+        return _passivationPeriod;
+    }
+
+    /**
+     * @param secs how often to look for idle sessions and compact segments
+     */
+    public void setPassivationPeriod(int secs)
+    {
+        _passivationPeriod = secs;
+    }
+
+    public double getCompactionThreshold()
+    {
+        return _compactionThreshold;
+    }
+
+    /**
+     * @param threshold the fraction of a segment which must still be live
+     *            for it to escape compaction
+     */
+    public void setCompactionThreshold(double threshold)
+    {
+        _compactionThreshold = threshold;
+    }
+
+    public int getPassivatedSessions()
+    {
+        return _segments == null ? 0 : _segments.size();
+    }
+
+    public int getActiveSessions()
+    {
+        return _sessions.size();
+    }
+
+    // ----------------------------------------
+    // Store LifeCycle
+
+    public void start()
+    {
+        File directory = _directory;
+        try
+        {
+            if (_directory != null && !_directory.exists() && !_directory.mkdirs())
+                throw new IOException("could not create " + _directory);
+            directory = File.createTempFile("jetty-sessions-", "", _directory);
+            directory.delete();
+            _segments = new MappedSegmentLog(directory, _segmentSize);
+            _segments.open();
+        }
+        catch (IOException e)
+        {
+            // the Manager will fall back to a LocalStore...
+            throw new IllegalStateException("could not open passivation segments in " + directory, e);
+        }
+
+        _passivator = new Timer(true);
+        long period = _passivationPeriod * 1000L;
+        _passivator.scheduleAtFixedRate(new Passivator(), period, period);
+        if (_log.isDebugEnabled())
+            _log.debug("passivating sessions idle for " + _passivateAfter
+                    + " secs into " + directory);
+    }
+
+    public void stop()
+    {
+        if (_passivator != null)
+            _passivator.cancel();
+        _passivator = null;
+    }
+
+    public void destroy()
+    {
+        if (_segments != null)
+        {
+            _segments.close();
+            _segments.getDirectory().delete();
+        }
+        _segments = null;
+        _idle.clear();
+        _expiry.clear();
+        _sessions.clear();
+    }
+
+    // ----------------------------------------
+    // State LifeCycle
+
+    public State newState(String id, int maxInactiveInterval)
+    {
+        LocalState state = (LocalState) super.newState(id, maxInactiveInterval);
+        _sessions.put(id, state);
+        scheduleIdle(id, state);
+        return state;
+    }
+
+    public State loadState(String id)
+    {
+        State state = (State) _sessions.get(id);
+        if (state != null || _segments == null || !_segments.contains(id))
+            return state;
+
+        synchronized (lockFor(id))
+        {
+            state = (State) _sessions.get(id);
+            return state != null ? state : reactivate(id);
+        }
+    }
+
+    public void storeState(State state)
+    {
+        if (!(state instanceof LocalState))
+        {
+            super.storeState(state);
+            return;
+        }
+
+        LocalState ls = (LocalState) state;
+        if (_sessions.put(ls.getId(), ls) == null)
+            scheduleIdle(ls.getId(), ls);
+    }
+
+    public void removeState(State state)
+    {
+        super.removeState(state);
+        try
+        {
+            if (_segments != null)
+                _segments.remove(state.getId());
+        }
+        catch (Exception e)
+        {
+            _log.error("could not remove passivated session", e);
+        }
+    }
+
+    public void passivateSession(StateAdaptor sa)
+    {
+        String id = sa.getId();
+        State state = (State) _sessions.get(id);
+        if (state instanceof LocalState)
+            passivate(id, (LocalState) state, false);
+    }
+
+    public Object clone()
+    {
+        PassivatingStore ps = new PassivatingStore();
+        ps.setActualMaxInactiveInterval(_actualMaxInactiveInterval);
+        ps.setSegmentSize(_segmentSize);
+        ps.setPassivateAfter(_passivateAfter);
+        ps.setPassivationPeriod(_passivationPeriod);
+        ps.setCompactionThreshold(_compactionThreshold);
+        // it makes a directory of its own under this at start...
+        ps.setDirectory(_directory);
+        return ps;
+    }
+
+    // ----------------------------------------
+    // passivation
+
+    /**
+     * Passivate the sessions that have become idle, expire passivated
+     * sessions that have timed out, and compact the segments.
+     */
+    public void passivateIdleSessions()
+    {
+        long now = System.currentTimeMillis();
+
+        int passivated = 0;
+        List idle = _idle.takeDue(now);
+        for (int i = 0; i < idle.size(); i++)
+        {
+            String id = (String) idle.get(i);
+            Object state = _sessions.get(id);
+            if (!(state instanceof LocalState))
+                continue; // gone, or already passivated
+
+            if (passivate(id, (LocalState) state, true))
+                passivated++;
+        }
+
+        int expired = 0;
+        List due = _expiry.takeDue(now);
+        for (int i = 0; i < due.size(); i++)
+        {
+            String id = (String) due.get(i);
+            // reactivated and passivated again since, if it has moved...
+            if (_segments.getStamp(id) > now)
+                continue;
+            if (expire(id))
+                expired++;
+        }
+
+        try
+        {
+            _segments.compact(_compactionThreshold);
+        }
+        catch (IOException e)
+        {
+            _log.warn("could not compact passivated sessions", e);
+        }
+
+        if (_log.isDebugEnabled())
+            _log.debug("passivated " + passivated + ", expired " + expired
+                    + ", " + _sessions.size() + " active, "
+                    + _segments.size() + " passivated sessions");
+    }
+
+    /**
+     * @param whenIdle only if it has not been used for passivateAfter - it
+     *            may have been, since it was indexed
+     */
+    protected boolean passivate(String id, LocalState state, boolean whenIdle)
+    {
+        synchronized (lockFor(id))
+        {
+            if (_sessions.get(id) != state)
+                return false; // gone, or passivated meanwhile
+
+            // put back anything that has been used since it was indexed
+            if (whenIdle)
+            {
+                long idleTime = getIdleTime(state);
+                if (idleTime > System.currentTimeMillis())
+                {
+                    _idle.schedule(id, idleTime);
+                    return false;
+                }
+            }
+
+            // keep any more requests out of the container - unless one is
+            // in it now, in which case the session is not idle after all
+            Manager manager = getManager();
+            StateAdaptor container = manager == null ? null : manager.getContainer(id);
+            if (container != null && !container.close())
+            {
+                scheduleIdle(id, state);
+                return false;
+            }
+
+            if (manager != null)
+                manager.notifyActivationListeners(id, state, true);
+
+            byte[] bytes;
+            try
+            {
+                bytes = ReplicationCodec.serialize(state);
+            }
+            catch (IOException e)
+            {
+                if (_log.isDebugEnabled())
+                    _log.debug("keeping unserializable session " + id + " in memory", e);
+                keep(id, state, container, manager);
+                return false;
+            }
+
+            try
+            {
+                long expiryTime = state.getExpiryTime();
+                _segments.put(id, bytes, expiryTime);
+                _sessions.remove(id, state);
+                _expiry.schedule(id, expiryTime);
+            }
+            catch (IOException e)
+            {
+                _log.warn("could not passivate session " + id, e);
+                keep(id, state, container, manager);
+                return false;
+            }
+
+            if (container != null)
+                manager.passivateContainer(id, container);
+
+            // a request may have picked this State up, and built a new
+            // container on it, just before we took it - if so, it is
+            // still in use...
+            if (manager != null && manager.getContainer(id) != null)
+            {
+                _segments.remove(id);
+                _sessions.put(id, state);
+                scheduleIdle(id, state);
+                manager.notifyActivationListeners(id, state, false);
+                return false;
+            }
+
+            if (_log.isTraceEnabled())
+                _log.trace("passivated session " + id + " (" + bytes.length + " bytes)");
+            return true;
+        }
+    }
+
+    // we are not passivating after all...
+    protected void keep(String id, LocalState state, StateAdaptor container, Manager manager)
+    {
+        if (container != null)
+            container.reopen();
+        if (manager != null)
+            manager.notifyActivationListeners(id, state, false);
+        scheduleIdle(id, state);
+    }
+
+    // call with the lock for the id held...
+    protected State reactivate(String id)
+    {
+        byte[] bytes = _segments.get(id);
+        if (bytes == null)
+            return null;
+
+        LocalState state;
+        try
+        {
+            state = (LocalState) ReplicationCodec.deserialize(bytes,
+                    Thread.currentThread().getContextClassLoader());
+        }
+        catch (Exception e)
+        {
+            _log.warn("could not reactivate session " + id + " - dropping it", e);
+            _segments.remove(id);
+            return null;
+        }
+
+        _sessions.put(id, state);
+        _segments.remove(id);
+        scheduleIdle(id, state);
+
+        Manager manager = getManager();
+        if (manager != null)
+            manager.notifyActivationListeners(id, state, false);
+
+        if (_log.isTraceEnabled())
+            _log.trace("reactivated session " + id);
+        return state;
+    }
+
+    protected boolean expire(String id)
+    {
+        State state;
+        synchronized (lockFor(id))
+        {
+            if (_sessions.containsKey(id))
+                return false; // reactivated meanwhile
+            state = reactivate(id);
+        }
+        if (state == null)
+            return false;
+
+        if (_log.isDebugEnabled())
+            _log.debug("expiring passivated session " + id);
+        Manager manager = getManager();
+        if (manager != null)
+            manager.expirePassivatedSession(id, state);
+        else
+            removeState(state);
+        return true;
+    }
+
+    protected void scheduleIdle(String id, LocalState state)
+    {
+        _idle.schedule(id, getIdleTime(state));
+    }
+
+    protected long getIdleTime(LocalState state)
+    {
+        return state.getLastAccessedTime() + (_passivateAfter * 1000L);
+    }
+
+    protected Object lockFor(String id)
+    {
+        return _locks[(id.hashCode() & 0x7fffffff) % _locks.length];
+    }
+
+    class Passivator extends TimerTask
+    {
+        public void run()
+        {
+            try
+            {
+                passivateIdleSessions();
+            }
+            catch (Throwable e)
+            {
+                _log.warn("could not passivate idle sessions", e);
+            }
+        }
+    }
+}
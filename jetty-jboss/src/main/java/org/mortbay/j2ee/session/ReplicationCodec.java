@@ -0,0 +1,322 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session;
+
+//----------------------------------------
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.UnsupportedEncodingException;
+
+//----------------------------------------
+
+/**
+ * The wire format used by {@link AbstractReplicatedStore} to replicate
+ * session changes.
+ * <p>
+ * Every message starts with a header:
+ *
+ * <pre>
+ *   byte    version        - VERSION
+ *   byte    op             - one of the OP_ constants
+ *   varlong node           - the publishing store's node id
+ *   varlong sequence       - per node, starting at 1
+ * </pre>
+ *
+ * followed by the arguments of the op. Numbers are written as varints
+ * (zig-zag encoded where they may be negative), strings as a varint byte
+ * count followed by UTF-8, and attribute values as a varint byte count
+ * followed by their java serialization - which the publisher produces once
+ * and also uses to decide whether a value has changed at all.
+ *
+ * @version 1.0
+ */
+public class ReplicationCodec
+{
+    public static final int VERSION = 1;
+
+    // class ops...
+    public static final int OP_CREATE_SESSION = 1; // id, creationTime, maxInactiveInterval, actualMaxInactiveInterval
+
+    public static final int OP_DESTROY_SESSION = 2; // id
+
+    public static final int OP_TOUCH_SESSIONS = 3; // time, count, id*
+
+    // instance ops...
+    public static final int OP_SET_LAST_ACCESSED_TIME = 4; // id, time
+
+    public static final int OP_SET_MAX_INACTIVE_INTERVAL = 5; // id, interval
+
+    public static final int OP_SET_ATTRIBUTE = 6; // id, name, value
+
+    public static final int OP_REMOVE_ATTRIBUTE = 7; // id, name
+
+    public static final int OP_ATTRIBUTES_DELTA = 8; // id, count, (name, value)*, count, name*
+
+    // class ops...
+    public static final int OP_TOUCH_BATCH = 9; // baseTime, count, (id, time - baseTime)*
+
+    /**
+     * Serialize an attribute value.
+     */
+    public static byte[] serialize(Object value) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserialize an attribute value, resolving classes against the given
+     * loader - normally that of the webapp.
+     */
+    public static Object deserialize(byte[] value, final ClassLoader loader)
+            throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(value))
+        {
+            protected Class resolveClass(ObjectStreamClass desc)
+                    throws IOException, ClassNotFoundException
+            {
+                if (loader == null)
+                    return super.resolveClass(desc);
+                try
+                {
+                    return Class.forName(desc.getName(), false, loader);
+                }
+                catch (ClassNotFoundException e)
+                {
+                    return super.resolveClass(desc);
+                }
+            }
+        };
+        try
+        {
+            return in.readObject();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of a serialized value - enough to tell, with
+     * overwhelming probability, whether it has changed since it was last
+     * published, without keeping the bytes themselves.
+     */
+    public static long fingerprint(byte[] value)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length; i++)
+        {
+            hash ^= (value[i] & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    //----------------------------------------
+
+    /**
+     * Writes a message into a growable buffer.
+     */
+    public static class Encoder
+    {
+        protected byte[] _buffer;
+
+        protected int _length;
+
+        public Encoder(int op, long node, long sequence)
+        {
+            _buffer = new byte[64];
+            writeByte(VERSION);
+            writeByte(op);
+            writeVarLong(node);
+            writeVarLong(sequence);
+        }
+
+        public Encoder writeByte(int b)
+        {
+            ensure(1);
+            _buffer[_length++] = (byte) b;
+            return this;
+        }
+
+        public Encoder writeVarLong(long value)
+        {
+            ensure(10);
+            while ((value & ~0x7FL) != 0)
+            {
+                _buffer[_length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            _buffer[_length++] = (byte) value;
+            return this;
+        }
+
+        public Encoder writeVarInt(int value)
+        {
+            return writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        public Encoder writeSignedVarInt(int value)
+        {
+            return writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        public Encoder writeBytes(byte[] bytes)
+        {
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, _buffer, _length, bytes.length);
+            _length += bytes.length;
+            return this;
+        }
+
+        public Encoder writeString(String s)
+        {
+            try
+            {
+                return writeBytes(s.getBytes("UTF-8"));
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new IllegalStateException(e.toString());
+            }
+        }
+
+        public byte[] toByteArray()
+        {
+            byte[] message = new byte[_length];
+            System.arraycopy(_buffer, 0, message, 0, _length);
+            return message;
+        }
+
+        protected void ensure(int n)
+        {
+            if (_length + n > _buffer.length)
+            {
+                byte[] buffer = new byte[Math.max(_buffer.length * 2, _length + n)];
+                System.arraycopy(_buffer, 0, buffer, 0, _length);
+                _buffer = buffer;
+            }
+        }
+    }
+
+    //----------------------------------------
+
+    /**
+     * Reads a message. The header is read on construction.
+     */
+    public static class Decoder
+    {
+        protected final byte[] _buffer;
+
+        protected int _position;
+
+        protected final int _version;
+
+        protected final int _op;
+
+        protected final long _node;
+
+        protected final long _sequence;
+
+        public Decoder(byte[] message) throws IOException
+        {
+            _buffer = message;
+            _version = readByte();
+            if (_version != VERSION)
+                throw new IOException("unsupported replication message version: " + _version);
+            _op = readByte();
+            _node = readVarLong();
+            _sequence = readVarLong();
+        }
+
+        public int getOp()
+        {
+            return _op;
+        }
+
+        public long getNode()
+        {
+            return _node;
+        }
+
+        public long getSequence()
+        {
+            return _sequence;
+        }
+
+        public int readByte() throws IOException
+        {
+            if (_position >= _buffer.length)
+                throw new IOException("truncated replication message");
+            return _buffer[_position++] & 0xFF;
+        }
+
+        public long readVarLong() throws IOException
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7)
+            {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("malformed varint in replication message");
+        }
+
+        public int readVarInt() throws IOException
+        {
+            return (int) readVarLong();
+        }
+
+        public int readSignedVarInt() throws IOException
+        {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public byte[] readBytes() throws IOException
+        {
+            int length = readVarInt();
+            if (length < 0 || length > _buffer.length - _position)
+                throw new IOException("truncated replication message");
+            byte[] bytes = new byte[length];
+            System.arraycopy(_buffer, _position, bytes, 0, length);
+            _position += length;
+            return bytes;
+        }
+
+        public String readString() throws IOException
+        {
+            int length = readVarInt();
+            if (length < 0 || length > _buffer.length - _position)
+                throw new IOException("truncated replication message");
+            String s = new String(_buffer, _position, length, "UTF-8");
+            _position += length;
+            return s;
+        }
+    }
+}
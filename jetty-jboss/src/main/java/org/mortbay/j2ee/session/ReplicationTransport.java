@@ -0,0 +1,56 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session;
+
+/**
+ * Carries replication messages between the {@link AbstractReplicatedStore}s
+ * of a cluster.
+ * <p>
+ * A transport instance stands for one group of stores - normally those of a
+ * single webapp on every node - and delivers each message sent by one member
+ * to all of the others, which pass it to their
+ * {@link AbstractReplicatedStore#dispatch(byte[])}. Delivery may be
+ * asynchronous, and a transport need not guarantee it: messages carry a
+ * per node sequence number, so receivers drop duplicates and log any that
+ * went missing. Messages that arrive out of order are still applied.
+ *
+ * @version 1.0
+ */
+public interface ReplicationTransport
+{
+    /**
+     * Start delivering messages sent by the other members to this receiver.
+     */
+    public void join(Receiver receiver) throws Exception;
+
+    /**
+     * Stop delivering messages to this receiver.
+     */
+    public void leave(Receiver receiver);
+
+    /**
+     * Deliver a message to every member but the sender.
+     */
+    public void send(Receiver sender, byte[] message);
+
+    public interface Receiver
+    {
+        /**
+         * @return true if the message was applied, false if it was
+         *         dropped
+         */
+        public boolean receive(byte[] message);
+    }
+}
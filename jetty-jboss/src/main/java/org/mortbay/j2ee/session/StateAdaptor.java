@@ -19,6 +19,7 @@ package org.mortbay.j2ee.session;
 
 import java.rmi.RemoteException;
 import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpSessionContext;
@@ -49,6 +50,12 @@ public class StateAdaptor implements Manager.Session
     // we cache these for speed...
     final String _id;
 
+    // the requests using this container - see Manager.access() and
+    // complete() - or CLOSED once the Store has passivated it...
+    final AtomicInteger _requests = new AtomicInteger();
+
+    static final int CLOSED = -1;
+
     StateAdaptor(String id, Manager manager, int maxInactiveInterval,
             long lastAccessedTime)
     {
@@ -73,9 +80,7 @@ public class StateAdaptor implements Manager.Session
     {
         if (_state == null) return false;
 
-        StateInterceptor si = (StateInterceptor) _state;
-        si.setManager(_manager);
-        si.setSession(this);
+        checkState();
 
         try
         {
@@ -93,6 +98,59 @@ public class StateAdaptor implements Manager.Session
         }
     }
 
+    // the time (ms) after which this session will have timed out - read
+    // straight from the underlying State, so that no ValidatingInterceptor
+    // gets the chance to throw at us. Used by the Manager's scavenger...
+    long getExpiryTime() throws RemoteException
+    {
+        State state = _state;
+        while (state instanceof StateInterceptor)
+            state = ((StateInterceptor) state).getState();
+
+        if (state == null)
+            return 0; // already destroyed
+
+        int mii = state.getMaxInactiveInterval(); // secs
+        if (mii < 1)
+            mii = _manager.getStore().getActualMaxInactiveInterval();
+        if (mii < 1)
+            return Long.MAX_VALUE; // never
+        return state.getLastAccessedTime() + (mii * 1000L);
+    }
+
+    // a request has started to use us...
+    void enter()
+    {
+        int requests = _requests.get();
+        while (requests != CLOSED && !_requests.compareAndSet(requests, requests + 1))
+            requests = _requests.get();
+    }
+
+    // ...and finished
+    void leave()
+    {
+        int requests = _requests.get();
+        while (requests > 0 && !_requests.compareAndSet(requests, requests - 1))
+            requests = _requests.get();
+    }
+
+    int getRequests()
+    {
+        return _requests.get();
+    }
+
+    // stop any more requests from entering - only if none is in here now...
+    boolean close()
+    {
+        return _requests.compareAndSet(0, CLOSED);
+    }
+
+    // ...and let them in again, if we did not go after all
+    void reopen()
+    {
+        _requests.compareAndSet(CLOSED, 0);
+    }
+
     // HttpSession API
 
     public long getCreationTime() throws IllegalStateException
@@ -141,6 +199,8 @@ public class StateAdaptor implements Manager.Session
         try
         {
             _state.setMaxInactiveInterval(interval);
+            // we may now expire sooner than we are indexed for...
+            _manager.scheduleExpiry(this);
         }
         catch (RemoteException e)
         {
@@ -349,6 +409,11 @@ public class StateAdaptor implements Manager.Session
         long time = System.currentTimeMillis(); // we could get this from Manager - less accurate
         setLastAccessedTime(time);
 
+        // let the rest of the cluster know - eventually...
+        Store store = _manager.getStore();
+        if (store instanceof AbstractReplicatedStore)
+            ((AbstractReplicatedStore) store).touch(_id, time);
+
         _new = false; // synchronise - TODO
     }
 
@@ -0,0 +1,230 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session;
+
+//----------------------------------------
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+//----------------------------------------
+
+/**
+ * Coalesces session touches between flushes, so that a session accessed by
+ * many requests costs one replicated update per flush period rather than
+ * one per request.
+ * <p>
+ * Touches are recorded in an open addressed table of slots, each holding a
+ * session id and its last accessed time, using compare-and-set only. A
+ * session keeps its slot while it is busy, so steady traffic allocates
+ * nothing; a slot is given up when a flush finds that its session has not
+ * been touched since the last one. If a touch cannot find a slot the table
+ * is full, and the caller is told, so that it can publish that touch
+ * directly.
+ * <p>
+ * A slot is given up by swapping its time from 0 to a retired marker, so a
+ * touch either lands before that swap - and the flush sees it - or finds
+ * the slot retired and starts again. No touch is lost, or credited to
+ * another session.
+ * <p>
+ * A touch looks through the whole probe window for its session before it
+ * takes an empty slot, as a slot given up in front of the session's own
+ * leaves a gap. Should two touches of a new session still take a slot
+ * each, the first in the window is kept, and the other's time moved into
+ * it - so a session is flushed once.
+ *
+ * @version 1.0
+ */
+public class TouchAggregator
+{
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // how far we look for a slot before giving up...
+    protected static final int MAX_PROBES = 16;
+
+    // the time of a slot that a flush has given up...
+    protected static final long RETIRED = -1;
+
+    protected final AtomicReferenceArray _slots;
+
+    protected final int _mask;
+
+    protected final int _shift;
+
+    protected final int _probes;
+
+    public TouchAggregator()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of distinct sessions that can be touched
+     *            between flushes - rounded up to a power of two
+     */
+    public TouchAggregator(int capacity)
+    {
+        int bits = 1;
+        while ((1 << bits) < capacity)
+            bits++;
+        int size = 1 << bits;
+        _slots = new AtomicReferenceArray(size);
+        _mask = size - 1;
+        _shift = 32 - bits;
+        _probes = Math.min(MAX_PROBES, size);
+    }
+
+    /**
+     * Record that a session was accessed.
+     *
+     * @return false if there was no room to record the touch
+     */
+    public boolean touch(String id, long time)
+    {
+        // session ids tend to share long prefixes - spread them out...
+        int hash = (id.hashCode() * 0x9E3779B9) >>> _shift;
+        while (true)
+        {
+            // look for the session's slot in the whole window first, as
+            // the first empty slot may be in front of it...
+            int free = -1;
+            for (int probe = 0; probe < _probes; probe++)
+            {
+                int index = (hash + probe) & _mask;
+                Slot slot = (Slot) _slots.get(index);
+                if (slot != null && id.equals(slot._id))
+                {
+                    if (update(slot, time))
+                        return true;
+                    // the slot was given up under us - help clear it...
+                    _slots.compareAndSet(index, slot, null);
+                    slot = (Slot) _slots.get(index);
+                }
+                if (slot == null && free < 0)
+                    free = index;
+            }
+            if (free < 0)
+                return false;
+
+            if (!_slots.compareAndSet(free, null, new Slot(id, time)))
+                continue; // someone else got there first - look again
+
+            // another touch of the session may have taken another slot
+            // meanwhile - if so, carry its time over to the first...
+            time = merge(hash, id);
+            if (time == 0)
+                return true;
+        }
+    }
+
+    /**
+     * Keep the first live slot of a session in its window, giving up any
+     * others.
+     *
+     * @return the latest time the slots given up held, or 0 if none
+     */
+    protected long merge(int hash, String id)
+    {
+        Slot first = null;
+        long latest = 0;
+        for (int probe = 0; probe < _probes; probe++)
+        {
+            int index = (hash + probe) & _mask;
+            Slot slot = (Slot) _slots.get(index);
+            if (slot == null || slot == first || !id.equals(slot._id))
+                continue;
+            if (first == null && slot._time.get() != RETIRED)
+            {
+                first = slot;
+                continue;
+            }
+            long time = slot._time.getAndSet(RETIRED);
+            _slots.compareAndSet(index, slot, null);
+            if (time > latest)
+                latest = time;
+        }
+        return latest;
+    }
+
+    // keep the latest - touches may arrive out of order...
+    protected boolean update(Slot slot, long time)
+    {
+        long current = slot._time.get();
+        while (current != RETIRED && time > current
+                && !slot._time.compareAndSet(current, time))
+            current = slot._time.get();
+        return current != RETIRED;
+    }
+
+    /**
+     * Hand every session touched since the last flush to the given
+     * callback, once, with its latest access time - and forget them.
+     *
+     * @return the number of sessions flushed
+     */
+    public synchronized int flush(Callback callback)
+    {
+        int n = 0;
+        for (int index = 0; index <= _mask; index++)
+        {
+            Slot slot = (Slot) _slots.get(index);
+            if (slot == null)
+                continue;
+
+            long time = slot._time.get();
+            while (time > 0 && !slot._time.compareAndSet(time, 0))
+                time = slot._time.get();
+
+            if (time == 0)
+            {
+                // idle since the last flush - give up the slot, unless a
+                // touch sneaks in first, in which case it is busy after all
+                // and goes out next time...
+                if (slot._time.compareAndSet(0, RETIRED))
+                    time = RETIRED;
+            }
+            if (time == RETIRED)
+            {
+                _slots.compareAndSet(index, slot, null);
+                continue;
+            }
+            if (time == 0)
+                continue;
+
+            callback.touched(slot._id, time);
+            n++;
+        }
+        return n;
+    }
+
+    public interface Callback
+    {
+        void touched(String id, long time);
+    }
+
+    protected static class Slot
+    {
+        final String _id;
+
+        // the latest touch since the last flush, 0 for none, or RETIRED
+        final AtomicLong _time;
+
+        Slot(String id, long time)
+        {
+            _id = id;
+            _time = new AtomicLong(time);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+// ========================================================================
+// Copyright 2013 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// ========================================================================
+
+package org.mortbay.j2ee.session;
+
+//----------------------------------------
+
+/**
+ * A replicated Store that publishes its changes over a pluggable
+ * {@link ReplicationTransport}.
+ * <p>
+ * The transport is shared by clones of this store, so a Manager that is
+ * cloned for several webapps should each be given a transport of its own.
+ *
+ * @version 1.0
+ */
+public class TransportReplicatedStore extends AbstractReplicatedStore
+        implements ReplicationTransport.Receiver
+{
+    protected ReplicationTransport _transport;
+
+    public ReplicationTransport getTransport()
+    {
+        return _transport;
+    }
+
+    public void setTransport(ReplicationTransport transport)
+    {
+        _transport = transport;
+    }
+
+    public Object clone()
+    {
+        TransportReplicatedStore trs = (TransportReplicatedStore) super.clone();
+        trs.setTransport(getTransport());
+        return trs;
+    }
+
+    // ----------------------------------------
+    // Store API - Store LifeCycle
+
+    public void start() throws Exception
+    {
+        if (_transport == null)
+            throw new IllegalStateException("no ReplicationTransport configured");
+        super.start();
+        _transport.join(this);
+    }
+
+    public void stop()
+    {
+        // publish any outstanding touches before we go...
+        super.stop();
+        if (_transport != null)
+            _transport.leave(this);
+    }
+
+    // ----------------------------------------
+    // change notification API
+
+    protected void publish(byte[] message)
+    {
+        _transport.send(this, message);
+    }
+
+    public boolean receive(byte[] message)
+    {
+        return dispatch(message);
+    }
+}
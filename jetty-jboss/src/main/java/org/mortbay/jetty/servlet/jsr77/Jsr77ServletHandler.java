@@ -21,9 +21,39 @@ import org.eclipse.jetty.webapp.WebAppContext;
 public class Jsr77ServletHandler extends ServletHandler 
 {
     WebAppContext _webAppContext;
+    int _statisticsSlotSeconds = RollingStatistics.DEFAULT_SLOT_SECONDS;
+    int _statisticsWindowSeconds = RollingStatistics.DEFAULT_WINDOW_SECONDS;
     
     
  
+    /**
+     * @param seconds the resolution of the rolling statistics kept for
+     * each servlet
+     */
+    public void setStatisticsSlotSeconds(int seconds)
+    {
+        _statisticsSlotSeconds = seconds;
+    }
+    
+    public int getStatisticsSlotSeconds()
+    {
+        return _statisticsSlotSeconds;
+    }
+    
+    /**
+     * @param seconds the longest window of rolling statistics kept for
+     * each servlet
+     */
+    public void setStatisticsWindowSeconds(int seconds)
+    {
+        _statisticsWindowSeconds = seconds;
+    }
+    
+    public int getStatisticsWindowSeconds()
+    {
+        return _statisticsWindowSeconds;
+    }
+    
     public void setWebAppContext(WebAppContext wac)
     {
         _webAppContext = wac;
@@ -36,13 +66,19 @@ public class Jsr77ServletHandler extends ServletHandler
     public ServletHolder newServletHolder ()
     {
         Jsr77ServletHolder holder = new Jsr77ServletHolder();
-        holder.setWebAppContext(_webAppContext);
+        configure(holder);
         return holder;
     }
     public ServletHolder newServletHolder(Class servlet) 
     {
 	Jsr77ServletHolder holder = new Jsr77ServletHolder(servlet);
-        holder.setWebAppContext(_webAppContext);
+        configure(holder);
         return holder;
     }
+    protected void configure(Jsr77ServletHolder holder)
+    {
+        holder.setWebAppContext(_webAppContext);
+        holder.setStatisticsSlotSeconds(_statisticsSlotSeconds);
+        holder.setStatisticsWindowSeconds(_statisticsWindowSeconds);
+    }
 }
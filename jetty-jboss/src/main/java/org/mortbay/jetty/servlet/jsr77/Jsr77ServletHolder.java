@@ -33,6 +33,8 @@ public class Jsr77ServletHolder extends ServletHolder
 
 	private ServletStatsImpl _servletStats = null;
     private WebAppContext _webAppContext = null;
+    private int _statisticsSlotSeconds = RollingStatistics.DEFAULT_SLOT_SECONDS;
+    private int _statisticsWindowSeconds = RollingStatistics.DEFAULT_WINDOW_SECONDS;
 
 	public Jsr77ServletHolder() 
 	{
@@ -55,32 +57,47 @@ public class Jsr77ServletHolder extends ServletHolder
     public void setWebAppContext(WebAppContext wac)
     {
         _webAppContext = wac;
+    }
+    public int getStatisticsSlotSeconds()
+    {
+        return _statisticsSlotSeconds;
+    }
+    public void setStatisticsSlotSeconds(int seconds)
+    {
+        _statisticsSlotSeconds = seconds;
+    }
+    public int getStatisticsWindowSeconds()
+    {
+        return _statisticsWindowSeconds;
+    }
+    public void setStatisticsWindowSeconds(int seconds)
+    {
+        _statisticsWindowSeconds = seconds;
     }
 	public void doStart() throws Exception 
 	{
 		super.doStart();
-		_servletStats = new ServletStatsImpl(getName());
+		_servletStats = new ServletStatsImpl(getName(), new RollingStatistics(_statisticsSlotSeconds, _statisticsWindowSeconds));
 	}
 	
 	public void handle(Request baseRequest, ServletRequest request, ServletResponse response) 
 		throws ServletException, UnavailableException, IOException 
 	{
-        long startTime =0L;
-        long endTime = 0L;
+        ServletStatsImpl stats = _servletStats;
+        boolean error = true;
+        stats.requestStarted();
+        long startTime = System.nanoTime();
         try
         {
-            //start statistic gathering - get the name of Servlet for which this filter will apply, and therefore
-            //on whose behalf we are gathering statistics???
-            startTime = System.currentTimeMillis();
             super.handle(baseRequest,request, response);
+            error = baseRequest != null && baseRequest.getResponse().getStatus() >= 500;
         }
         finally
         {
-            //finish statistic gathering
-            endTime = System.currentTimeMillis();
-            TimeStatisticImpl statistic = (TimeStatisticImpl)_servletStats.getServiceTime();
-            statistic.addSample(endTime-startTime, endTime);
-
+            //finish statistic gathering - in nanoseconds, so that fast
+            //servlets do not all round down to nothing
+            long elapsed = System.nanoTime() - startTime;
+            stats.requestCompleted(elapsed, System.currentTimeMillis(), error);
         }
 	}
 	
@@ -0,0 +1,130 @@
+//========================================================================
+//Copyright 2013 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at 
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.jetty.servlet.jsr77;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram
+ *
+ * A fixed size histogram of durations in nanoseconds, from which
+ * percentiles can be read.
+ * <p>
+ * Values below 16ns have a bucket each; above that every power of two is
+ * split into 16 buckets, so a recorded value is known to within 1/16th
+ * (about 6%) of itself, up to 2^41ns - some 36 minutes - beyond which
+ * everything is counted in the last bucket. That is 608 buckets whatever
+ * the number of samples. Recording is a single atomic increment.
+ */
+public class LatencyHistogram implements Serializable
+{
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    public static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+
+    public void record (long nanos)
+    {
+        _counts.incrementAndGet(bucketFor(nanos));
+    }
+
+    /**
+     * @return a copy of the count in each bucket
+     */
+    public long[] getCounts ()
+    {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = _counts.get(i);
+        return counts;
+    }
+
+    public long getCount ()
+    {
+        return count(getCounts());
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the value, in nanoseconds, below which the given percentage
+     * of the samples fall - or 0 if there are none
+     */
+    public long getPercentile (double percentile)
+    {
+        return percentile(getCounts(), percentile);
+    }
+
+    public void clear ()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+            _counts.set(i, 0);
+    }
+
+    /* ------------------------------------------------------------ */
+    /* bucket arithmetic, for this and for copies of the counts */
+
+    public static int bucketFor (long nanos)
+    {
+        if (nanos < SUB_BUCKETS)
+            return nanos < 0 ? 0 : (int)nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int sub = (int)(nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the largest value that is counted in the bucket
+     */
+    public static long highestValueIn (int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return ((SUB_BUCKETS + sub) * width) + width - 1;
+    }
+
+    public static long count (long[] counts)
+    {
+        long count = 0;
+        for (int i = 0; i < counts.length; i++)
+            count += counts[i];
+        return count;
+    }
+
+    public static long percentile (long[] counts, double percentile)
+    {
+        long total = count(counts);
+        if (total == 0)
+            return 0;
+        long rank = (long)Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+                return highestValueIn(i);
+        }
+        return highestValueIn(counts.length - 1);
+    }
+}
@@ -0,0 +1,160 @@
+//========================================================================
+//Copyright 2013 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at 
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.jetty.servlet.jsr77;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * RollingStatistics
+ *
+ * Service times and errors over the last few minutes, rather than since
+ * the servlet started, so that a change in latency shows up while it is
+ * still news.
+ * <p>
+ * Time is cut into slots - 15 seconds by default - kept in a ring long
+ * enough to cover the longest window, 15 minutes by default. Each slot has
+ * its own {@link LatencyHistogram}, and a window is read by merging the
+ * slots it covers. A slot is recycled by swapping in a fresh one, so
+ * neither recording nor reading takes a lock, and a slot is never cleared
+ * under a reader.
+ */
+public class RollingStatistics implements Serializable
+{
+    public static final int DEFAULT_SLOT_SECONDS = 15;
+    public static final int DEFAULT_WINDOW_SECONDS = 15 * 60;
+
+    private final long _slotMillis;
+    private final int _windowSeconds;
+    private final AtomicReferenceArray _slots;
+
+    public RollingStatistics ()
+    {
+        this(DEFAULT_SLOT_SECONDS, DEFAULT_WINDOW_SECONDS);
+    }
+
+    /**
+     * @param slotSeconds the resolution of the windows
+     * @param windowSeconds the longest window that can be read
+     */
+    public RollingStatistics (int slotSeconds, int windowSeconds)
+    {
+        if (slotSeconds < 1 || windowSeconds < slotSeconds)
+            throw new IllegalArgumentException("slot "+slotSeconds+"s, window "+windowSeconds+"s");
+        _slotMillis = slotSeconds * 1000L;
+        _windowSeconds = windowSeconds;
+        // the whole window, and the slot being filled
+        _slots = new AtomicReferenceArray((windowSeconds + slotSeconds - 1) / slotSeconds + 1);
+    }
+
+    public int getSlotSeconds ()
+    {
+        return (int)(_slotMillis / 1000);
+    }
+
+    public int getWindowSeconds ()
+    {
+        return _windowSeconds;
+    }
+
+    /**
+     * @param nanos the service time
+     * @param error whether the request failed
+     * @param time when it finished, as milliseconds since the epoch
+     */
+    public void record (long nanos, boolean error, long time)
+    {
+        slotFor(time / _slotMillis).record(nanos, error);
+    }
+
+    /**
+     * Merge the slots covering the last <code>seconds</code>, plus the
+     * one being filled.
+     * @param seconds how far to look back, up to the window size
+     * @param now the current time, as milliseconds since the epoch
+     */
+    public StatisticsSnapshot snapshot (int seconds, long now)
+    {
+        long epoch = now / _slotMillis;
+        long slots = (Math.min(seconds, _windowSeconds) * 1000L + _slotMillis - 1) / _slotMillis;
+        long first = epoch - slots;
+
+        long count = 0;
+        long errors = 0;
+        long total = 0;
+        long max = 0;
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        for (int i = 0; i < _slots.length(); i++)
+        {
+            Slot slot = (Slot)_slots.get(i);
+            if (slot == null || slot._epoch < first || slot._epoch > epoch)
+                continue;
+
+            long[] c = slot._histogram.getCounts();
+            for (int b = 0; b < c.length; b++)
+            {
+                counts[b] += c[b];
+                count += c[b];
+            }
+            errors += slot._errors.sum();
+            total += slot._totalNanos.sum();
+            max = Math.max(max, slot._maxNanos.get());
+        }
+
+        return new StatisticsSnapshot(first * _slotMillis, now, count, errors, total, max, counts);
+    }
+
+    private Slot slotFor (long epoch)
+    {
+        int i = (int)(epoch % _slots.length());
+        Slot slot = (Slot)_slots.get(i);
+        while (slot == null || slot._epoch < epoch)
+        {
+            Slot fresh = new Slot(epoch);
+            if (_slots.compareAndSet(i, slot, fresh))
+                return fresh;
+            slot = (Slot)_slots.get(i);
+        }
+        // a sample from a little in the past can land in a slightly later
+        // slot, which is near enough...
+        return slot;
+    }
+
+    private static class Slot implements Serializable
+    {
+        final long _epoch;
+        final LatencyHistogram _histogram = new LatencyHistogram();
+        final StripedCounter _totalNanos = new StripedCounter();
+        final StripedCounter _errors = new StripedCounter();
+        final AtomicLong _maxNanos = new AtomicLong();
+
+        Slot (long epoch)
+        {
+            _epoch = epoch;
+        }
+
+        void record (long nanos, boolean error)
+        {
+            _histogram.record(nanos);
+            _totalNanos.add(nanos);
+            if (error)
+                _errors.increment();
+            long max = _maxNanos.get();
+            while (nanos > max && !_maxNanos.compareAndSet(max, nanos))
+                max = _maxNanos.get();
+        }
+    }
+}
@@ -26,6 +26,10 @@ import javax.management.j2ee.statistics.TimeStatistic;
  * 
  * Implementation of ServletStats from JSR77 specification.
  * 
+ * Beyond the JSR77 service time, we also count the requests in flight and
+ * those that failed, and keep {@link RollingStatistics} of the last few
+ * minutes.
+ * 
  * @author janb
  */
 public class ServletStatsImpl implements javax.management.j2ee.statistics.ServletStats, Serializable
@@ -34,12 +38,21 @@ public class ServletStatsImpl implements javax.management.j2ee.statistics.Servle
     private TimeStatisticImpl statistic = null;
     private TimeStatisticImpl[] statistics = new TimeStatisticImpl[1];
     private String name = null;
+    private StripedCounter inFlight = new StripedCounter();
+    private StripedCounter errors = new StripedCounter();
+    private RollingStatistics rolling = null;
 
     
     
     public ServletStatsImpl (String servletName)
+    {
+        this(servletName, new RollingStatistics());
+    }
+    
+    public ServletStatsImpl (String servletName, RollingStatistics rollingStatistics)
     {
         name = servletName;
+        rolling = rollingStatistics;
         statistic = new TimeStatisticImpl(this, statisticNames[0], "Servlet service method performance statistics", "MILLISECONDS");
         statistic.setStartTime();
         statistics[0] = statistic;
@@ -87,6 +100,58 @@ public class ServletStatsImpl implements javax.management.j2ee.statistics.Servle
         return name;
     }
     
+    /** Note that a request has started
+     */
+    public void requestStarted ()
+    {
+        inFlight.increment();
+    }
+    
+    /** Note that a request has finished
+     * @param nanos how long it took
+     * @param time when it finished, as milliseconds since the epoch
+     * @param error whether it failed
+     */
+    public void requestCompleted (long nanos, long time, boolean error)
+    {
+        inFlight.add(-1);
+        if (error)
+            errors.increment();
+        statistic.addNanoSample(nanos, time);
+        rolling.record(nanos, error, time);
+    }
+    
+    /**
+     * @return the number of requests being serviced right now
+     */
+    public long getInFlight ()
+    {
+        return inFlight.sum();
+    }
+    
+    /**
+     * @return the number of requests that have failed, with an exception
+     * or a 5xx status
+     */
+    public long getErrorCount ()
+    {
+        return errors.sum();
+    }
+    
+    public RollingStatistics getRollingStatistics ()
+    {
+        return rolling;
+    }
+    
+    /**
+     * @param seconds how far to look back
+     * @return a summary of the requests over the last <code>seconds</code>
+     */
+    public StatisticsSnapshot getSnapshot (int seconds)
+    {
+        return rolling.snapshot(seconds, System.currentTimeMillis());
+    }
+    
     public String toString ()
     {
         return statistic.toString();
@@ -0,0 +1,136 @@
+//========================================================================
+//Copyright 2013 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at 
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.jetty.servlet.jsr77;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * StatisticsSnapshot
+ *
+ * An immutable summary of the requests served over some period. The
+ * count and the percentiles come from the same copy of the histogram, so
+ * they always agree with each other.
+ */
+public class StatisticsSnapshot implements Serializable
+{
+    private final long startTime;
+    private final long endTime;
+    private final long count;
+    private final long errors;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] counts;
+
+    public StatisticsSnapshot (long startTime, long endTime, long count, long errors, long totalNanos, long maxNanos, long[] counts)
+    {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.count = count;
+        this.errors = errors;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.counts = counts;
+    }
+
+    /** Start of the period, as milliseconds since the epoch
+     */
+    public long getStartTime ()
+    {
+        return startTime;
+    }
+
+    /** End of the period, as milliseconds since the epoch
+     */
+    public long getEndTime ()
+    {
+        return endTime;
+    }
+
+    public long getCount ()
+    {
+        return count;
+    }
+
+    public long getErrors ()
+    {
+        return errors;
+    }
+
+    public long getTotalTimeNanos ()
+    {
+        return totalNanos;
+    }
+
+    public long getMaxTimeNanos ()
+    {
+        return maxNanos;
+    }
+
+    public long getMeanTimeNanos ()
+    {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     */
+    public long getPercentileNanos (double percentile)
+    {
+        // a bucket's highest value may be more than was ever recorded
+        return Math.min(LatencyHistogram.percentile(counts, percentile), maxNanos);
+    }
+
+    public double getRequestsPerSecond ()
+    {
+        return perSecond(count);
+    }
+
+    public double getErrorsPerSecond ()
+    {
+        return perSecond(errors);
+    }
+
+    private double perSecond (long n)
+    {
+        long millis = endTime - startTime;
+        return millis <= 0 ? 0 : n * 1000.0 / millis;
+    }
+
+    /**
+     * @return the figures, times in microseconds, for display over JMX
+     */
+    public Map toMap ()
+    {
+        Map map = new LinkedHashMap();
+        map.put("seconds", new Long((endTime - startTime) / 1000));
+        map.put("count", new Long(count));
+        map.put("errors", new Long(errors));
+        map.put("requestsPerSecond", new Double(getRequestsPerSecond()));
+        map.put("errorsPerSecond", new Double(getErrorsPerSecond()));
+        map.put("meanMicros", new Long(getMeanTimeNanos() / 1000));
+        map.put("p50Micros", new Long(getPercentileNanos(50) / 1000));
+        map.put("p90Micros", new Long(getPercentileNanos(90) / 1000));
+        map.put("p99Micros", new Long(getPercentileNanos(99) / 1000));
+        map.put("maxMicros", new Long(maxNanos / 1000));
+        return map;
+    }
+
+    public String toString ()
+    {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,74 @@
+//========================================================================
+//Copyright 2013 Mort Bay Consulting Pty. Ltd.
+//------------------------------------------------------------------------
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at 
+//http://www.apache.org/licenses/LICENSE-2.0
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//========================================================================
+
+package org.mortbay.jetty.servlet.jsr77;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * StripedCounter
+ *
+ * A sum that many threads can add to without contending: each thread adds
+ * to one of a number of cells, each on a cache line of its own, and the
+ * cells are only summed when the value is read. A counter keeps the number
+ * of cells it was made with, so that it can be read after being
+ * serialized to a JVM with a different number of processors.
+ */
+public class StripedCounter implements Serializable
+{
+    // longs between cells, so that each has a 64 byte cache line
+    private static final int PAD = 8;
+
+    private static final int STRIPES;
+    static
+    {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() * 2)
+            n <<= 1;
+        STRIPES = n;
+    }
+
+    private final int _stripes = STRIPES;
+
+    private final AtomicLongArray _cells = new AtomicLongArray(STRIPES * PAD);
+
+    public void add (long value)
+    {
+        int cell = ((int)Thread.currentThread().getId() & (_stripes - 1)) * PAD;
+        _cells.addAndGet(cell, value);
+    }
+
+    public void increment ()
+    {
+        add(1);
+    }
+
+    /**
+     * @return the sum of everything added so far - not an atomic snapshot
+     * if adds are in progress
+     */
+    public long sum ()
+    {
+        long sum = 0;
+        for (int i = 0; i < _stripes; i++)
+            sum += _cells.get(i * PAD);
+        return sum;
+    }
+
+    public String toString ()
+    {
+        return Long.toString(sum());
+    }
+}
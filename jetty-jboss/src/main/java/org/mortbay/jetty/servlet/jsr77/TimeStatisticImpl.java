@@ -14,16 +14,23 @@
 //========================================================================
 package org.mortbay.jetty.servlet.jsr77;
 
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * @author janb
  *
- * To change the template for this generated type comment go to
- * Window - Preferences - Java - Code Generation - Code and Comments
+ * TimeStatisticImpl
+ *
+ * Samples are recorded in nanoseconds, without locking: the count and
+ * total are striped, min and max are compare-and-set, and every sample also
+ * goes into a fixed size {@link LatencyHistogram} so that percentiles can
+ * be read. The JSR77 getters report in the statistic's unit, milliseconds,
+ * converted from the nanosecond totals.
  */
 public class TimeStatisticImpl implements
-        javax.management.j2ee.statistics.TimeStatistic
+        javax.management.j2ee.statistics.TimeStatistic, Serializable
 {
  
     private static final String HOUR = "HOUR";
@@ -32,13 +39,15 @@ public class TimeStatisticImpl implements
     private static final String MINUTE = "MINUTE";
     private static final String NANOSECOND = "NANOSECOND";
     private static final String SECOND = "SECOND";
+    private static final long NANOS_PER_MILLI = 1000000L;
     private ServletStatsImpl servletStats = null;
-    private long count = 0;
-    private long maxTime = 0;
-    private long minTime = 0; 
-    private long totalTime = 0; 
+    private final StripedCounter count = new StripedCounter();
+    private final AtomicLong maxNanos = new AtomicLong(0);
+    private final AtomicLong minNanos = new AtomicLong(Long.MAX_VALUE); 
+    private final StripedCounter totalNanos = new StripedCounter(); 
+    private final LatencyHistogram histogram = new LatencyHistogram();
     private long startTime = 0;
-    private long lastSampleTime = 0;
+    private volatile long lastSampleTime = 0;
     private String name = null;
     private String description = null;
     private String units = null;
@@ -57,7 +66,7 @@ public class TimeStatisticImpl implements
      */
     public long getCount ()
     {
-       return count;
+       return count.sum();
     }
 
     /** Return max value of statistic.
@@ -65,7 +74,7 @@ public class TimeStatisticImpl implements
      */
     public long getMaxTime ()
     {
-       return maxTime;
+       return getMaxTimeNanos() / NANOS_PER_MILLI;
     }
 
     /** Return min value of statistic.
@@ -73,7 +82,7 @@ public class TimeStatisticImpl implements
      */
     public long getMinTime ()
     {
-        return minTime;
+        return getMinTimeNanos() / NANOS_PER_MILLI;
     }
 
     /** Return total time of statistic
@@ -81,7 +90,48 @@ public class TimeStatisticImpl implements
      */
     public long getTotalTime ()
     {
-        return totalTime;
+        return getTotalTimeNanos() / NANOS_PER_MILLI;
+    }
+
+    public long getMaxTimeNanos ()
+    {
+        return maxNanos.get();
+    }
+
+    /** Return min value of statistic, or 0 if there have been no samples.
+     */
+    public long getMinTimeNanos ()
+    {
+        long min = minNanos.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    public long getTotalTimeNanos ()
+    {
+        return totalNanos.sum();
+    }
+
+    /** Return the mean of the samples, in nanoseconds
+     */
+    public long getMeanTimeNanos ()
+    {
+        long n = getCount();
+        return n == 0 ? 0 : getTotalTimeNanos() / n;
+    }
+
+    /** Return a percentile of the samples, in nanoseconds, to within
+     * about 6%.
+     * @param percentile from 0 to 100
+     */
+    public long getPercentileNanos (double percentile)
+    {
+        // a bucket's highest value may be more than was ever recorded
+        return Math.min(histogram.getPercentile(percentile), getMaxTimeNanos());
+    }
+
+    public LatencyHistogram getHistogram ()
+    {
+        return histogram;
     }
 
     /** Return name of statistic
@@ -152,15 +202,33 @@ public class TimeStatisticImpl implements
         servletStats = stats;
     }
     
-    public synchronized void addSample (long sample, long time)
+    /** Add a sample, in milliseconds.
+     * @param sample the sample
+     * @param time the time it was taken, as milliseconds since the epoch
+     */
+    public void addSample (long sample, long time)
     {
-        count ++;
-        if (sample > maxTime)
-            maxTime = sample;
-        if ((sample < minTime) || (minTime == 0))
-            minTime = sample;
+        addNanoSample(sample * NANOS_PER_MILLI, time);
+    }
+    
+    /** Add a sample, in nanoseconds.
+     * @param nanos the sample
+     * @param time the time it was taken, as milliseconds since the epoch
+     */
+    public void addNanoSample (long nanos, long time)
+    {
+        count.increment();
+        totalNanos.add(nanos);
+        histogram.record(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+            max = maxNanos.get();
+        long min = minNanos.get();
+        while (nanos < min && !minNanos.compareAndSet(min, nanos))
+            min = minNanos.get();
+
         lastSampleTime = time;
-        totalTime = totalTime + sample;
     }
     
     public String toString ()
@@ -173,7 +241,9 @@ public class TimeStatisticImpl implements
                ", MinTime="+getMinTime()+
                ", MaxTime="+getMaxTime()+
                ", TotalTime="+getTotalTime()+
-               ", LastSampleTime="+getLastSampleTime();
+               ", LastSampleTime="+getLastSampleTime()+
+               ", P50Nanos="+getPercentileNanos(50)+
+               ", P99Nanos="+getPercentileNanos(99);
     }
 
 }
@@ -15,12 +15,17 @@
 
 package org.mortbay.jetty.servlet.jsr77.management;
 
+import java.util.Collections;
+import java.util.Map;
+
 import javax.management.MBeanException;
 import javax.management.ObjectName;
 import javax.management.j2ee.statistics.ServletStats;
 
 import org.jboss.jetty.JBossWebAppContext;
 import org.mortbay.jetty.servlet.jsr77.Jsr77ServletHolder;
+import org.mortbay.jetty.servlet.jsr77.ServletStatsImpl;
+import org.mortbay.jetty.servlet.jsr77.TimeStatisticImpl;
 import org.eclipse.jetty.jmx.ObjectMBean;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -112,6 +117,129 @@ public class Jsr77ServletHolderMBean extends ObjectMBean
         return new Integer((int)getCount());
     }
     
+    /**MeanTime
+     * @return the mean service time in microseconds
+     */
+    public Long getMeanTimeMicros ()
+    {
+        TimeStatisticImpl statistic = getServiceTime();
+        if (null==statistic)
+            return new Long(0L);
+        
+        return new Long(statistic.getMeanTimeNanos()/1000);
+    }
+    
+    /**P50Time
+     * @return the median service time in microseconds
+     */
+    public Long getP50TimeMicros ()
+    {
+        return getPercentileMicros(50);
+    }
+    
+    /**P90Time
+     * @return the 90th percentile service time in microseconds
+     */
+    public Long getP90TimeMicros ()
+    {
+        return getPercentileMicros(90);
+    }
+    
+    /**P99Time
+     * @return the 99th percentile service time in microseconds
+     */
+    public Long getP99TimeMicros ()
+    {
+        return getPercentileMicros(99);
+    }
+    
+    /**P999Time
+     * @return the 99.9th percentile service time in microseconds
+     */
+    public Long getP999TimeMicros ()
+    {
+        return getPercentileMicros(99.9);
+    }
+    
+    private Long getPercentileMicros (double percentile)
+    {
+        TimeStatisticImpl statistic = getServiceTime();
+        if (null==statistic)
+            return new Long(0L);
+        
+        return new Long(statistic.getPercentileNanos(percentile)/1000);
+    }
+    
+    /**InFlight
+     * @return the number of requests the servlet is servicing now
+     */
+    public Long getInFlight ()
+    {
+        getJsr77Stats();
+        if (null==_stats)
+            return new Long(0L);
+        
+        return new Long(((ServletStatsImpl)_stats).getInFlight());
+    }
+    
+    /**ErrorCount
+     * @return the number of requests that have failed
+     */
+    public Long getErrorCount ()
+    {
+        getJsr77Stats();
+        if (null==_stats)
+            return new Long(0L);
+        
+        return new Long(((ServletStatsImpl)_stats).getErrorCount());
+    }
+    
+    /**LastMinute
+     * @return a summary of the requests over the last minute
+     */
+    public Map getLastMinute ()
+    {
+        return getWindow(60);
+    }
+    
+    /**LastFiveMinutes
+     * @return a summary of the requests over the last five minutes
+     */
+    public Map getLastFiveMinutes ()
+    {
+        return getWindow(5*60);
+    }
+    
+    /**LastFifteenMinutes
+     * @return a summary of the requests over the last fifteen minutes
+     */
+    public Map getLastFifteenMinutes ()
+    {
+        return getWindow(15*60);
+    }
+    
+    private Map getWindow (int seconds)
+    {
+        getJsr77Stats();
+        if (null==_stats)
+            return Collections.EMPTY_MAP;
+        
+        return ((ServletStatsImpl)_stats).getSnapshot(seconds).toMap();
+    }
+    
+    /**ServiceTime
+     * @return our own implementation of the service time statistic,
+     * which records in nanoseconds and keeps a histogram
+     */
+    private TimeStatisticImpl getServiceTime ()
+    {
+        getJsr77Stats();
+        if (null==_stats)
+            return null;
+        
+        return (TimeStatisticImpl)_stats.getServiceTime();
+    }
+    
     /**Count
      * Convenience method. Also helpful for JBoss's JSR77 impl.
      * @return the number of times the servlet service() method has been called.
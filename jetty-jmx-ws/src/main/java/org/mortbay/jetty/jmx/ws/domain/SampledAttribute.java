@@ -0,0 +1,72 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.domain;
+
+/* ------------------------------------------------------------ */
+/**
+ * A numeric attribute to sample, written
+ * <code>objectName/attributeName</code> - or
+ * <code>objectName/attributeName.key</code> for one item of a composite
+ * value, e.g. <code>java.lang:type=Memory/HeapMemoryUsage.used</code>.
+ */
+public class SampledAttribute
+{
+    private final String _name;
+    private final String _objectName;
+    private final String _attributeName;
+    private final String _key;
+
+    public SampledAttribute(String name)
+    {
+        int slash = name.lastIndexOf('/');
+        if (slash <= 0 || slash == name.length() - 1)
+            throw new IllegalArgumentException("Not objectName/attributeName[.key]: " + name);
+        _name = name;
+        _objectName = name.substring(0,slash);
+        String attribute = name.substring(slash + 1);
+        int dot = attribute.indexOf('.');
+        _attributeName = dot < 0?attribute:attribute.substring(0,dot);
+        _key = dot < 0?null:attribute.substring(dot + 1);
+    }
+
+    public String getName()
+    {
+        return _name;
+    }
+
+    public String getObjectName()
+    {
+        return _objectName;
+    }
+
+    public String getAttributeName()
+    {
+        return _attributeName;
+    }
+
+    /**
+     * @return the item of a composite value to sample, or null to sample the value itself
+     */
+    public String getKey()
+    {
+        return _key;
+    }
+
+    @Override
+    public String toString()
+    {
+        return _name;
+    }
+}
@@ -37,13 +37,15 @@ public class NodeJaxBean implements Comparable<NodeJaxBean>
     public Long heapCommitted;
     public Long heapMax;
     public String jmxServiceURL;
+    public boolean degraded;
+    public String error;
 
     public NodeJaxBean()
     {
     }
 
     private NodeJaxBean(String name, String jettyVersion, int threadCount, int peakThreadCount, Long heapUsed, Long init, Long committed, Long max,
-            JMXServiceURL jmxServiceURL)
+            JMXServiceURL jmxServiceURL, String error)
     {
         this.name = name;
         this.threadCount = threadCount;
@@ -54,6 +56,8 @@ public class NodeJaxBean implements Comparable<NodeJaxBean>
         this.heapCommitted = committed;
         this.heapMax = max;
         this.jmxServiceURL = jmxServiceURL.toString();
+        this.degraded = error != null;
+        this.error = error;
     }
 
     public static class NodeJaxBeanBuilder implements Builder<NodeJaxBean>
@@ -69,6 +73,7 @@ public class NodeJaxBean implements Comparable<NodeJaxBean>
         private Long init = 0L;
         private Long committed = 0L;
         private Long max = 0L;
+        private String error;
 
         public NodeJaxBeanBuilder(String name, String jettyVersion, JMXServiceURL jmxServiceURL)
         {
@@ -98,9 +103,18 @@ public class NodeJaxBean implements Comparable<NodeJaxBean>
             return this;
         }
 
+        /**
+         * Mark the node as degraded: it failed, or was too slow, to answer.
+         */
+        public NodeJaxBeanBuilder degraded(String error)
+        {
+            this.error = error;
+            return this;
+        }
+
         public NodeJaxBean build()
         {
-            return new NodeJaxBean(name,jettyVersion,threadCount,peakThreadCount,heapUsed,init,committed,max,jmxServiceURL);
+            return new NodeJaxBean(name,jettyVersion,threadCount,peakThreadCount,heapUsed,init,committed,max,jmxServiceURL,error);
         }
 
     }
@@ -150,6 +164,16 @@ public class NodeJaxBean implements Comparable<NodeJaxBean>
         return JMXServiceURLUtils.getJMXServiceURL(jmxServiceURL);
     }
 
+    public boolean isDegraded()
+    {
+        return degraded;
+    }
+
+    public String getError()
+    {
+        return error;
+    }
+
     @Override
     public int hashCode()
     {
@@ -164,6 +188,7 @@ public class NodeJaxBean implements Comparable<NodeJaxBean>
         result = prime * result + ((name == null)?0:name.hashCode());
         result = prime * result + peakThreadCount;
         result = prime * result + threadCount;
+        result = prime * result + (degraded?1231:1237);
         return result;
     }
 
@@ -230,6 +255,8 @@ public class NodeJaxBean implements Comparable<NodeJaxBean>
             return false;
         if (threadCount != other.threadCount)
             return false;
+        if (degraded != other.degraded)
+            return false;
         return true;
     }
 
@@ -255,6 +282,11 @@ public class NodeJaxBean implements Comparable<NodeJaxBean>
         builder.append(heapMax);
         builder.append(", jmxServiceURL=");
         builder.append(jmxServiceURL);
+        if (degraded)
+        {
+            builder.append(", error=");
+            builder.append(error);
+        }
         builder.append("]");
         return builder.toString();
     }
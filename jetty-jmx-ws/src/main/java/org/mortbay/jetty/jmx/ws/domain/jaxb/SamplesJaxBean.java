@@ -0,0 +1,77 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.domain.jaxb;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/* ------------------------------------------------------------ */
+/**
+ */
+@XmlRootElement(name = "Samples")
+public class SamplesJaxBean
+{
+    /**
+     * the time, in ms, between samples
+     */
+    @XmlElement(name = "Interval")
+    public long interval;
+
+    /**
+     * the latest time any sample was taken - pass it as "since" to get only newer ones next time
+     */
+    @XmlElement(name = "LastSampleTime")
+    public long lastSampleTime;
+
+    @XmlElement(name = "Series")
+    public Set<SeriesJaxBean> series = new TreeSet<SeriesJaxBean>();
+
+    /**
+     * the nodes whose last sample failed
+     */
+    @XmlElement(name = "DegradedNode")
+    public Set<String> degradedNodes = new TreeSet<String>();
+
+    public SamplesJaxBean()
+    {
+    }
+
+    public SamplesJaxBean(long interval)
+    {
+        this.interval = interval;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("SamplesJaxBean [interval=");
+        builder.append(interval);
+        builder.append(", lastSampleTime=");
+        builder.append(lastSampleTime);
+        builder.append(", series=");
+        builder.append(series);
+        if (!degradedNodes.isEmpty())
+        {
+            builder.append(", degradedNodes=");
+            builder.append(degradedNodes);
+        }
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,67 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.domain.jaxb;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/* ------------------------------------------------------------ */
+/**
+ * The samples of one attribute on one node, oldest first.
+ */
+@XmlRootElement(name = "Series")
+public class SeriesJaxBean implements Comparable<SeriesJaxBean>
+{
+    @XmlElement(name = "NodeName")
+    public String nodeName;
+    @XmlElement(name = "Name")
+    public String name;
+    @XmlElement(name = "Time")
+    public long[] times;
+    @XmlElement(name = "Sample")
+    public double[] values;
+
+    public SeriesJaxBean()
+    {
+    }
+
+    public SeriesJaxBean(String nodeName, String name, long[] times, double[] values)
+    {
+        this.nodeName = nodeName;
+        this.name = name;
+        this.times = times;
+        this.values = values;
+    }
+
+    public int compareTo(SeriesJaxBean o)
+    {
+        int result = nodeName.compareTo(o.nodeName);
+        return result != 0?result:name.compareTo(o.name);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("SeriesJaxBean [nodeName=");
+        builder.append(nodeName);
+        builder.append(", name=");
+        builder.append(name);
+        builder.append(", samples=");
+        builder.append(times.length);
+        builder.append("]");
+        return builder.toString();
+    }
+}
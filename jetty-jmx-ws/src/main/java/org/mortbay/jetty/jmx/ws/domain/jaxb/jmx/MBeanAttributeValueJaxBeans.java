@@ -28,6 +28,12 @@ public class MBeanAttributeValueJaxBeans
     @XmlElement(name = "Attribute")
     public Set<MBeanAttributeValueJaxBean> mBeanAttributeValueJaxBeans = new TreeSet<MBeanAttributeValueJaxBean>();
 
+    /**
+     * the nodes which failed, or were too slow, to answer - their values are missing
+     */
+    @XmlElement(name = "DegradedNode")
+    public Set<String> degradedNodes = new TreeSet<String>();
+
     public MBeanAttributeValueJaxBeans()
     {
     }
@@ -37,13 +43,61 @@ public class MBeanAttributeValueJaxBeans
         this.mBeanAttributeValueJaxBeans = mBeanAttributeValueJaxBeans;
     }
 
+    public MBeanAttributeValueJaxBeans(Set<MBeanAttributeValueJaxBean> mBeanAttributeValueJaxBeans, Set<String> degradedNodes)
+    {
+        this.mBeanAttributeValueJaxBeans = mBeanAttributeValueJaxBeans;
+        this.degradedNodes = degradedNodes;
+    }
+
     @Override
     public String toString()
     {
         StringBuilder builder = new StringBuilder();
         builder.append("MBeanAttributeValuesJaxBean [mBeanAttributeValueJaxBeans=");
         builder.append(mBeanAttributeValueJaxBeans);
+        if (!degradedNodes.isEmpty())
+        {
+            builder.append(", degradedNodes=");
+            builder.append(degradedNodes);
+        }
         builder.append("]");
         return builder.toString();
     }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((mBeanAttributeValueJaxBeans == null)?0:mBeanAttributeValueJaxBeans.hashCode());
+        result = prime * result + ((degradedNodes == null)?0:degradedNodes.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        MBeanAttributeValueJaxBeans other = (MBeanAttributeValueJaxBeans)obj;
+        if (mBeanAttributeValueJaxBeans == null)
+        {
+            if (other.mBeanAttributeValueJaxBeans != null)
+                return false;
+        }
+        else if (!mBeanAttributeValueJaxBeans.equals(other.mBeanAttributeValueJaxBeans))
+            return false;
+        if (degradedNodes == null)
+        {
+            if (other.degradedNodes != null)
+                return false;
+        }
+        else if (!degradedNodes.equals(other.degradedNodes))
+            return false;
+        return true;
+    }
 }
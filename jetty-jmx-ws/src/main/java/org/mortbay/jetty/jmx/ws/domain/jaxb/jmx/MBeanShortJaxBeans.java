@@ -15,9 +15,11 @@ package org.mortbay.jetty.jmx.ws.domain.jaxb.jmx;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 /* ------------------------------------------------------------ */
 /**
@@ -28,6 +30,13 @@ public class MBeanShortJaxBeans
     @XmlElement(name = "MBean")
     public Set<MBeanShortJaxBean> mbeans = new HashSet<MBeanShortJaxBean>();
 
+    /**
+     * the nodes which failed, or were too slow, to answer - the listing may
+     * have MBeans they don't
+     */
+    @XmlTransient
+    public Set<String> degradedNodes = new TreeSet<String>();
+
     public MBeanShortJaxBeans()
     {
     }
@@ -46,5 +55,25 @@ public class MBeanShortJaxBeans
         builder.append("]");
         return builder.toString();
     }
-    
+
+    @Override
+    public int hashCode()
+    {
+        return (mbeans == null)?0:mbeans.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        MBeanShortJaxBeans other = (MBeanShortJaxBeans)obj;
+        if (mbeans == null)
+            return other.mbeans == null;
+        return mbeans.equals(other.mbeans);
+    }
 }
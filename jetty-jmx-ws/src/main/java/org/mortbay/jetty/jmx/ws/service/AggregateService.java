@@ -34,4 +34,9 @@ public interface AggregateService
     public OperationReturnValueJaxBeans invokeOperation(Collection<JMXNode> jmxNodes, String objectName, String operationName);
 
     public OperationReturnValueJaxBeans invokeOperation(Collection<JMXNode> jmxNodes, String objectName, String operationName, Object[] params, String[] signature);
+
+    /**
+     * Stop the threads querying the nodes.
+     */
+    public void destroy();
 }
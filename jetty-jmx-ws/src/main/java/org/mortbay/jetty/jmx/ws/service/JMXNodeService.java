@@ -26,4 +26,9 @@ import org.mortbay.jetty.jmx.ws.domain.JMXNode;
 public interface JMXNodeService
 {
     Collection<JMXNode> getNodes();
+
+    /**
+     * @return the node of that name, or null if there is none
+     */
+    JMXNode getNode(String nodeName);
 }
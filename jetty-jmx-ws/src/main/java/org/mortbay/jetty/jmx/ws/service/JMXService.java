@@ -1,10 +1,12 @@
 package org.mortbay.jetty.jmx.ws.service;
 
+import java.util.Map;
 import java.util.Set;
 
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanOperationInfo;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 import javax.management.remote.JMXServiceURL;
 
@@ -23,4 +25,25 @@ public interface JMXService
 
     public abstract Object getAttribute(JMXServiceURL jmxServiceURL, String objectName, String attributeName) throws InstanceNotFoundException;
 
+    /**
+     * Get several attributes of an MBean in one remote call.
+     * @return the value of each attribute, by name - in the order asked for
+     */
+    public abstract Map<String, Object> getAttributeValues(JMXServiceURL jmxServiceURL, String objectName, String[] attributeNames)
+            throws InstanceNotFoundException;
+
+    /**
+     * Listen for an MBean's notifications. The listener stays registered
+     * until it is removed, across reconnects to the node.
+     */
+    public abstract void addNotificationListener(JMXServiceURL jmxServiceURL, String objectName, NotificationListener listener)
+            throws InstanceNotFoundException;
+
+    public abstract void removeNotificationListener(JMXServiceURL jmxServiceURL, String objectName, NotificationListener listener);
+
+    /**
+     * Close the connections to the nodes, and stop the thread evicting idle ones.
+     */
+    public abstract void destroy();
+
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+
+/* ------------------------------------------------------------ */
+/**
+ * Where the nodes come from. The node service asks for them again only when
+ * {@link #getLastModified()} changes, so that should be cheap.
+ */
+public interface NodeDiscovery
+{
+    Collection<JMXNode> discover() throws IOException;
+
+    /**
+     * @return a value which changes whenever the nodes may have - e.g. a
+     * file's modification time - or 0 if they never change
+     */
+    long getLastModified();
+}
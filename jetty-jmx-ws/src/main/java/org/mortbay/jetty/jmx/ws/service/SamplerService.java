@@ -0,0 +1,49 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.domain.SampledAttribute;
+import org.mortbay.jetty.jmx.ws.domain.jaxb.SamplesJaxBean;
+
+/* ------------------------------------------------------------ */
+/**
+ * Samples a fixed set of attributes of every node in the background, and
+ * answers from the samples it has kept - so that the load on the nodes does
+ * not depend on how many clients are watching.
+ */
+public interface SamplerService
+{
+    public List<SampledAttribute> getSampledAttributes();
+
+    /**
+     * @param attributeName the name of one sampled attribute, or null for all of them
+     * @param since only return samples taken after this time
+     */
+    public SamplesJaxBean getSamples(Collection<JMXNode> jmxNodes, String attributeName, long since);
+
+    /**
+     * @param attributeName the name of one sampled attribute, or null for all of them
+     */
+    public SamplesJaxBean getLatestSamples(Collection<JMXNode> jmxNodes, String attributeName);
+
+    /**
+     * Stop sampling, for good.
+     */
+    public void destroy();
+}
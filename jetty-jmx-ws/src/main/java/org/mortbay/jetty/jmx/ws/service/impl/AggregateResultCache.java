@@ -0,0 +1,209 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+
+/* ------------------------------------------------------------ */
+/**
+ * Keeps aggregate results for a short while, so that dashboards refreshing
+ * the same listing query the nodes and sort the result once per ttl rather
+ * than once per client. Concurrent requests for a result which is not cached
+ * wait for the one of them which loads it.
+ * <p>
+ * Every result carries an ETag, kept while reloading it gives an equal
+ * result, so that an unchanged result can be answered with 304 Not Modified
+ * even after it has been loaded again. A result some nodes failed to answer
+ * for is only shared with the requests which waited for it, and not kept.
+ */
+public class AggregateResultCache
+{
+    public static final long DEFAULT_TTL = Long.getLong("org.mortbay.jetty.jmx.ws.resultTtl",2000L);
+    public static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("org.mortbay.jetty.jmx.ws.resultCacheSize",1024);
+
+    // ETags are never reused, not even by another run of the webapp
+    private static final String ETAG_PREFIX = Long.toString(System.currentTimeMillis(),36) + "-";
+    private static final AtomicLong __versions = new AtomicLong();
+
+    private final ConcurrentMap<List<String>, Entry> _entries = new ConcurrentHashMap<List<String>, Entry>();
+    private final long _ttl;
+    private final int _maxEntries;
+
+    public AggregateResultCache()
+    {
+        this(DEFAULT_TTL,DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param ttl how long a result is used before it is loaded again, in ms; 0 not to keep them at all
+     */
+    public AggregateResultCache(long ttl, int maxEntries)
+    {
+        _ttl = ttl;
+        _maxEntries = maxEntries;
+    }
+
+    public long getTtl()
+    {
+        return _ttl;
+    }
+
+    /**
+     * @return a key for a result of that kind over those nodes - in whichever order they are given
+     */
+    public static List<String> key(String kind, Collection<JMXNode> jmxNodes, String... names)
+    {
+        Set<String> nodeNames = new TreeSet<String>();
+        for (JMXNode jmxNode : jmxNodes)
+            nodeNames.add(jmxNode.getNodeName());
+        List<String> key = new ArrayList<String>(names.length + 2);
+        key.add(kind);
+        key.add(nodeNames.toString());
+        key.addAll(Arrays.asList(names));
+        return key;
+    }
+
+    /**
+     * @return the cached result for the key, or the one the loader loads if there is none or it is too old
+     */
+    @SuppressWarnings("unchecked")
+    public <V, E extends Exception> CachedResult<V> get(List<String> key, Loader<V, E> loader) throws E
+    {
+        long arrived = System.currentTimeMillis();
+        Entry entry = _entries.get(key);
+        if (entry == null)
+        {
+            if (_entries.size() >= _maxEntries)
+                purge(System.currentTimeMillis());
+            Entry newEntry = new Entry();
+            entry = _entries.putIfAbsent(key,newEntry);
+            if (entry == null)
+                entry = newEntry;
+        }
+        synchronized (entry)
+        {
+            long now = System.currentTimeMillis();
+            CachedResult<?> result = entry._result;
+            if (result == null || now - result.getTime() >= _ttl || result._degraded && arrived > result._loaded)
+            {
+                V value = loader.load();
+                // an unchanged value keeps its ETag, so clients keep their copy
+                String eTag;
+                if (sameValue(result,value))
+                    eTag = result.getETag();
+                else
+                    eTag = ETAG_PREFIX + Long.toString(__versions.incrementAndGet(),36);
+                result = new CachedResult<V>(value,now,eTag,loader.isDegraded(value));
+                entry._result = result;
+            }
+            return (CachedResult<V>)result;
+        }
+    }
+
+    private static boolean sameValue(CachedResult<?> result, Object value)
+    {
+        if (result == null)
+            return false;
+        return value == null?result.getValue() == null:value.equals(result.getValue());
+    }
+
+    public void clear()
+    {
+        _entries.clear();
+    }
+
+    private void purge(long now)
+    {
+        for (Iterator<Entry> it = _entries.values().iterator(); it.hasNext();)
+        {
+            CachedResult<?> result = it.next()._result;
+            if (result != null && now - result.getTime() >= _ttl)
+                it.remove();
+        }
+        // all of them fresh: drop them rather than grow without bound
+        if (_entries.size() >= _maxEntries)
+            _entries.clear();
+    }
+
+    public static abstract class Loader<V, E extends Exception>
+    {
+        public abstract V load() throws E;
+
+        /**
+         * @return whether some nodes failed to answer for the value
+         */
+        public boolean isDegraded(V value)
+        {
+            return false;
+        }
+    }
+
+    private static class Entry
+    {
+        private volatile CachedResult<?> _result;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A result, when it was loaded and its ETag.
+     */
+    public static class CachedResult<V>
+    {
+        private final V _value;
+        private final long _time;
+        private final String _eTag;
+        private final boolean _degraded;
+        private final long _loaded = System.currentTimeMillis();
+
+        CachedResult(V value, long time, String eTag, boolean degraded)
+        {
+            _value = value;
+            _time = time;
+            _eTag = eTag;
+            _degraded = degraded;
+        }
+
+        public V getValue()
+        {
+            return _value;
+        }
+
+        public long getTime()
+        {
+            return _time;
+        }
+
+        /**
+         * @return the same for results equal to the one before, which is all
+         * that XML and JSON representations of them have in common - so use
+         * it as a weak ETag
+         */
+        public String getETag()
+        {
+            return _eTag;
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package org.mortbay.jetty.jmx.ws.service.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanAttributeInfo;
@@ -17,6 +21,8 @@ import javax.management.openmbean.CompositeData;
 import javax.management.remote.JMXServiceURL;
 import javax.ws.rs.core.UriInfo;
 
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import org.mortbay.jetty.jmx.ws.domain.JMXNode;
 import org.mortbay.jetty.jmx.ws.domain.jaxb.NodeJaxBean;
 import org.mortbay.jetty.jmx.ws.domain.jaxb.jmx.MBeanAttributeJaxBean;
@@ -32,47 +38,95 @@ import org.mortbay.jetty.jmx.ws.domain.jaxb.jmx.OperationReturnValueJaxBeans;
 import org.mortbay.jetty.jmx.ws.service.AggregateService;
 import org.mortbay.jetty.jmx.ws.service.JMXNodeService;
 import org.mortbay.jetty.jmx.ws.service.JMXService;
+import org.mortbay.jetty.jmx.ws.service.impl.NodeQueryExecutor.NodeQuery;
+import org.mortbay.jetty.jmx.ws.service.impl.NodeQueryExecutor.NodeResult;
 
 
 
 public class AggregateServiceImpl implements AggregateService
 {
+    private static final Logger LOG = Log.getLogger(AggregateServiceImpl.class);
+
     private static final String[] HEAP_MEMORY_KEYS = new String[]
     { "init", "used", "committed", "max" };
     public static final String ID_REPLACE_REGEX = ",id=\\d+";
+    // compiled once, rather than by String.replaceFirst for every ObjectName
+    private static final Pattern ID_PATTERN = Pattern.compile(ID_REPLACE_REGEX);
+    private static final Pattern ENDS_WITH_ID_PATTERN = Pattern.compile(".*?" + ID_REPLACE_REGEX);
 
     private JMXService _jmxService;
     // TODO: IOC
-    private JMXNodeService _jmxNodeService = new JMXNodeServiceImpl();
+    private JMXNodeService _jmxNodeService = JMXNodeServiceImpl.getInstance();
+    // nodes are queried concurrently, each within the same deadline
+    private NodeQueryExecutor _nodeQueryExecutor;
 
     public AggregateServiceImpl(JMXService jmxService)
+    {
+        this(jmxService,new NodeQueryExecutor());
+    }
+
+    public AggregateServiceImpl(JMXService jmxService, NodeQueryExecutor nodeQueryExecutor)
     {
         this._jmxService = jmxService;
+        this._nodeQueryExecutor = nodeQueryExecutor;
+    }
+
+    public void destroy()
+    {
+        _nodeQueryExecutor.destroy();
     }
 
     public Set<NodeJaxBean> getNodes()
     {
         Set<NodeJaxBean> nodes = new TreeSet<NodeJaxBean>();
-        for (JMXNode jmxNode : _jmxNodeService.getNodes())
+        List<NodeResult<NodeJaxBean>> results = _nodeQueryExecutor.invokeAll(_jmxNodeService.getNodes(),new NodeQuery<NodeJaxBean>()
         {
-            JMXServiceURL jmxServiceURL = jmxNode.getJmxServiceURL();
-            String jettyVersion;
-            try
+            public NodeJaxBean query(JMXNode jmxNode) throws Exception
             {
-                jettyVersion = getJettyVersions(jmxServiceURL);
+                JMXServiceURL jmxServiceURL = jmxNode.getJmxServiceURL();
+                String jettyVersion = getJettyVersions(jmxServiceURL);
                 Map<String, Long> nodeMemoryUsageMap = getMemoryByNode(jmxNode);
-                NodeJaxBean NodeJaxBean = new NodeJaxBean.NodeJaxBeanBuilder(jmxNode.getNodeName(),jettyVersion,jmxServiceURL).memory(nodeMemoryUsageMap)
+                return new NodeJaxBean.NodeJaxBeanBuilder(jmxNode.getNodeName(),jettyVersion,jmxServiceURL).memory(nodeMemoryUsageMap)
                         .threadCount(getThreadCount(jmxServiceURL)).peakThreadCount(getPeakThreadCount(jmxServiceURL)).build();
-                nodes.add(NodeJaxBean);
             }
-            catch (InstanceNotFoundException e)
+        });
+        for (NodeResult<NodeJaxBean> result : results)
+        {
+            if (result.isDegraded())
             {
-                throw new IllegalStateException("While fetching data for: " + jmxNode.getNodeName(),e);
+                JMXNode jmxNode = result.getJmxNode();
+                nodes.add(new NodeJaxBean.NodeJaxBeanBuilder(jmxNode.getNodeName(),null,jmxNode.getJmxServiceURL()).degraded(describe(result)).build());
             }
+            else
+                nodes.add(result.getValue());
         }
         return nodes;
     }
 
+    private String describe(NodeResult<?> result)
+    {
+        if (result.isTimedOut())
+            return "no answer within " + _nodeQueryExecutor.getTimeout() + "ms";
+        return String.valueOf(result.getFailure());
+    }
+
+    private void logDegraded(NodeResult<?> result, String objectName)
+    {
+        if (!result.isTimedOut())
+            LOG.warn("Couldn't query " + objectName + " on " + result.getJmxNode().getNodeName(),result.getFailure());
+    }
+
+    /**
+     * A node that does not have the MBean makes the whole aggregate fail, as
+     * it always has; any other failure only leaves that node out.
+     */
+    private void checkInstancesFound(List<? extends NodeResult<?>> results) throws InstanceNotFoundException
+    {
+        for (NodeResult<?> result : results)
+            if (result.getFailure() instanceof InstanceNotFoundException)
+                throw (InstanceNotFoundException)result.getFailure();
+    }
+
     private String getJettyVersions(JMXServiceURL jmxServiceURL) throws InstanceNotFoundException
     {
         return (String)_jmxService.getAttribute(jmxServiceURL,JMXServiceImpl.JETTY_SERVER_MBEAN,"version");
@@ -113,22 +167,39 @@ public class AggregateServiceImpl implements AggregateService
     public MBeanShortJaxBeans getMBeanShortJaxBeans(UriInfo uriInfo, Collection<JMXNode> jmxNodes)
     {
         Set<ObjectName> commonObjectNames = new HashSet<ObjectName>();
+        Set<String> degradedNodes = new TreeSet<String>();
 
-        Set<MBeanShortJaxBean> mBeanShortJaxBeans = new TreeSet<MBeanShortJaxBean>();
-        for (JMXNode jmxNode : jmxNodes)
+        List<NodeResult<Set<ObjectName>>> results = _nodeQueryExecutor.invokeAll(jmxNodes,new NodeQuery<Set<ObjectName>>()
         {
-            Set<ObjectName> nodeObjectNames = _jmxService.getObjectNames(jmxNode.getJmxServiceURL());
+            public Set<ObjectName> query(JMXNode jmxNode)
+            {
+                return _jmxService.getObjectNames(jmxNode.getJmxServiceURL());
+            }
+        });
+        for (NodeResult<Set<ObjectName>> result : results)
+        {
+            if (result.isDegraded())
+            {
+                logDegraded(result,"object names");
+                degradedNodes.add(result.getJmxNode().getNodeName());
+                continue;
+            }
+            Set<ObjectName> nodeObjectNames = result.getValue();
             if (commonObjectNames.isEmpty())
                 commonObjectNames.addAll(nodeObjectNames);
             else
                 removeObjectNamesWhichDoNotExistOnCurrentNode(commonObjectNames,nodeObjectNames);
 
         }
+        // already sorted, so keep their order rather than sort them again
+        Set<MBeanShortJaxBean> mBeanShortJaxBeans = new LinkedHashSet<MBeanShortJaxBean>();
         for (String objectNameString : getObjectNamesWithoutId(commonObjectNames))
         {
             mBeanShortJaxBeans.add(new MBeanShortJaxBean(uriInfo,objectNameString));
         }
-        return new MBeanShortJaxBeans(mBeanShortJaxBeans);
+        MBeanShortJaxBeans mBeans = new MBeanShortJaxBeans(mBeanShortJaxBeans);
+        mBeans.degradedNodes = degradedNodes;
+        return mBeans;
     }
 
     private void removeObjectNamesWhichDoNotExistOnCurrentNode(Set<ObjectName> commonObjectNames, Set<ObjectName> nodeObjectNames)
@@ -146,62 +217,133 @@ public class AggregateServiceImpl implements AggregateService
         Set<String> objectNameStrings = new TreeSet<String>();
         for (ObjectName objectName : objectNames)
         {
-            objectNameStrings.add(objectName.toString().replaceFirst(ID_REPLACE_REGEX,""));
+            objectNameStrings.add(removeId(objectName.toString()));
         }
         return objectNameStrings;
     }
 
-    public MBeanAttributeValueJaxBeans getAllAttributeValues(Collection<JMXNode> jmxNodes, String objectName) throws InstanceNotFoundException
+    static String removeId(String objectName)
     {
-        Set<MBeanAttributeValueJaxBean> mBeanAttributeValueJaxBeans = new TreeSet<MBeanAttributeValueJaxBean>();
-        Map<String, MBeanAttributeInfo> mBeanAttributeInfos = aggregateMBeanAttributeInfos(jmxNodes,objectName);
-        for (JMXNode jmxNode : jmxNodes)
+        if (objectName.indexOf(",id=") < 0)
+            return objectName;
+        return ID_PATTERN.matcher(objectName).replaceFirst("");
+    }
+
+    public MBeanAttributeValueJaxBeans getAllAttributeValues(Collection<JMXNode> jmxNodes, final String objectName) throws InstanceNotFoundException
+    {
+        // one query per node, for the attributes and their values together,
+        // so a slow node costs the timeout once
+        List<NodeResult<NodeAttributes>> results = _nodeQueryExecutor.invokeAll(jmxNodes,new NodeQuery<NodeAttributes>()
         {
-            JMXServiceURL jmxServiceURL = jmxNode.getJmxServiceURL();
-            Set<String> objectNames = parseObjectNameToAggregateMBeansWithMultipleIDs(objectName,jmxServiceURL);
-            try
+            public NodeAttributes query(JMXNode jmxNode) throws InstanceNotFoundException
             {
-                mBeanAttributeValueJaxBeans.addAll(getAttributeValues(objectNames,mBeanAttributeInfos,jmxNode));
+                JMXServiceURL jmxServiceURL = jmxNode.getJmxServiceURL();
+                Set<String> objectNames = parseObjectNameToAggregateMBeansWithMultipleIDs(objectName,jmxServiceURL);
+                try
+                {
+                    return getNodeAttributes(objectNames,jmxNode);
+                }
+                catch (InstanceNotFoundException e)
+                {
+                    objectNames = _jmxService.getObjectNamesByPrefix(jmxServiceURL,objectName);
+                    return getNodeAttributes(objectNames,jmxNode);
+                }
             }
-            catch (InstanceNotFoundException e)
+        });
+        checkInstancesFound(results);
+
+        List<List<MBeanAttributeInfo[]>> nodeAttributeInfos = new ArrayList<List<MBeanAttributeInfo[]>>(results.size());
+        for (NodeResult<NodeAttributes> result : results)
+            if (!result.isDegraded())
+                nodeAttributeInfos.add(result.getValue()._attributeInfos);
+        // only the attributes every node agrees on
+        Set<String> attributeNames = mergeMBeanAttributeInfos(nodeAttributeInfos).keySet();
+
+        List<NodeResult<Set<MBeanAttributeValueJaxBean>>> values = new ArrayList<NodeResult<Set<MBeanAttributeValueJaxBean>>>(results.size());
+        for (NodeResult<NodeAttributes> result : results)
+        {
+            Set<MBeanAttributeValueJaxBean> nodeValues = null;
+            if (!result.isDegraded())
             {
-                objectNames = _jmxService.getObjectNamesByPrefix(jmxServiceURL,objectName);
-                mBeanAttributeValueJaxBeans.addAll(getAttributeValues(objectNames,mBeanAttributeInfos,jmxNode));
+                nodeValues = new TreeSet<MBeanAttributeValueJaxBean>();
+                for (MBeanAttributeValueJaxBean value : result.getValue()._values)
+                    if (attributeNames.contains(value.attributeName))
+                        nodeValues.add(value);
             }
+            values.add(new NodeResult<Set<MBeanAttributeValueJaxBean>>(result.getJmxNode(),nodeValues,result.getFailure()));
         }
-        return new MBeanAttributeValueJaxBeans(mBeanAttributeValueJaxBeans);
+        return collectAttributeValues(values,objectName);
     }
 
-    private Set<MBeanAttributeValueJaxBean> getAttributeValues(Set<String> objectNames, Map<String, MBeanAttributeInfo> mBeanAttributeInfos,
-            JMXNode jmxNode) throws InstanceNotFoundException
+    private MBeanAttributeValueJaxBeans collectAttributeValues(List<NodeResult<Set<MBeanAttributeValueJaxBean>>> results, String objectName)
+            throws InstanceNotFoundException
     {
+        checkInstancesFound(results);
         Set<MBeanAttributeValueJaxBean> mBeanAttributeValueJaxBeans = new TreeSet<MBeanAttributeValueJaxBean>();
-        for (String attributeName : mBeanAttributeInfos.keySet())
+        Set<String> degradedNodes = new TreeSet<String>();
+        for (NodeResult<Set<MBeanAttributeValueJaxBean>> result : results)
         {
-            getAttributeValuesForNode(attributeName,mBeanAttributeValueJaxBeans,jmxNode,objectNames);
+            if (result.isDegraded())
+            {
+                logDegraded(result,objectName);
+                degradedNodes.add(result.getJmxNode().getNodeName());
+            }
+            else
+                mBeanAttributeValueJaxBeans.addAll(result.getValue());
         }
-        return mBeanAttributeValueJaxBeans;
+        return new MBeanAttributeValueJaxBeans(mBeanAttributeValueJaxBeans,degradedNodes);
     }
 
-    public MBeanAttributeValueJaxBeans getAttributeValues(Collection<JMXNode> jmxNodes, String objectName, String attributeName)
-            throws InstanceNotFoundException
+    /**
+     * @return the attributes of each of the objectNames on the node, and all their values
+     */
+    private NodeAttributes getNodeAttributes(Set<String> objectNames, JMXNode jmxNode) throws InstanceNotFoundException
     {
-        Set<MBeanAttributeValueJaxBean> mBeanAttributeValueJaxBeans = new TreeSet<MBeanAttributeValueJaxBean>();
-        for (JMXNode jmxNode : jmxNodes)
+        NodeAttributes nodeAttributes = new NodeAttributes();
+        nodeAttributes._attributeInfos = getMBeanAttributeInfosForNode(jmxNode.getJmxServiceURL(),objectNames);
+        if (nodeAttributes._attributeInfos == null)
+            return nodeAttributes;
+        Set<String> attributeNames = new LinkedHashSet<String>();
+        for (MBeanAttributeInfo[] mBeanAttributeInfoArray : nodeAttributes._attributeInfos)
+            for (MBeanAttributeInfo mBeanAttributeInfo : mBeanAttributeInfoArray)
+                attributeNames.add(mBeanAttributeInfo.getName());
+        if (attributeNames.isEmpty())
+            return nodeAttributes;
+        // one remote call per MBean, rather than one per attribute
+        String[] names = attributeNames.toArray(new String[attributeNames.size()]);
+        for (String aggregatedObjectName : objectNames)
         {
-            JMXServiceURL jmxServiceURL = jmxNode.getJmxServiceURL();
-            Set<String> objectNames = parseObjectNameToAggregateMBeansWithMultipleIDs(objectName,jmxServiceURL);
-            try
-            {
-                getAttributeValuesForNode(attributeName,mBeanAttributeValueJaxBeans,jmxNode,objectNames);
-            }
-            catch (InstanceNotFoundException e)
-            {
-                objectNames = _jmxService.getObjectNamesByPrefix(jmxServiceURL,objectName);
-                getAttributeValuesForNode(attributeName,mBeanAttributeValueJaxBeans,jmxNode,objectNames);
-            }
+            Map<String, Object> values = _jmxService.getAttributeValues(jmxNode.getJmxServiceURL(),aggregatedObjectName,names);
+            for (Map.Entry<String, Object> value : values.entrySet())
+                nodeAttributes._values.add(new MBeanAttributeValueJaxBean(value.getKey(),jmxNode.getNodeName(),aggregatedObjectName,value.getValue()));
         }
-        return new MBeanAttributeValueJaxBeans(mBeanAttributeValueJaxBeans);
+        return nodeAttributes;
+    }
+
+    public MBeanAttributeValueJaxBeans getAttributeValues(Collection<JMXNode> jmxNodes, final String objectName, final String attributeName)
+            throws InstanceNotFoundException
+    {
+        List<NodeResult<Set<MBeanAttributeValueJaxBean>>> results = _nodeQueryExecutor.invokeAll(jmxNodes,
+                new NodeQuery<Set<MBeanAttributeValueJaxBean>>()
+                {
+                    public Set<MBeanAttributeValueJaxBean> query(JMXNode jmxNode) throws InstanceNotFoundException
+                    {
+                        Set<MBeanAttributeValueJaxBean> mBeanAttributeValueJaxBeans = new TreeSet<MBeanAttributeValueJaxBean>();
+                        JMXServiceURL jmxServiceURL = jmxNode.getJmxServiceURL();
+                        Set<String> objectNames = parseObjectNameToAggregateMBeansWithMultipleIDs(objectName,jmxServiceURL);
+                        try
+                        {
+                            getAttributeValuesForNode(attributeName,mBeanAttributeValueJaxBeans,jmxNode,objectNames);
+                        }
+                        catch (InstanceNotFoundException e)
+                        {
+                            objectNames = _jmxService.getObjectNamesByPrefix(jmxServiceURL,objectName);
+                            getAttributeValuesForNode(attributeName,mBeanAttributeValueJaxBeans,jmxNode,objectNames);
+                        }
+                        return mBeanAttributeValueJaxBeans;
+                    }
+                });
+        return collectAttributeValues(results,objectName);
     }
 
     private void getAttributeValuesForNode(String attributeName, Set<MBeanAttributeValueJaxBean> mBeanAttributeValueJaxBeans,
@@ -226,27 +368,41 @@ public class AggregateServiceImpl implements AggregateService
         return new MBeanOperationJaxBeans(objectName,mBeanOperationJaxBeans);
     }
 
-    private Map<String, MBeanOperationInfo> aggregateOperations(Collection<JMXNode> jmxNodes, String objectName) throws InstanceNotFoundException
+    private Map<String, MBeanOperationInfo> aggregateOperations(Collection<JMXNode> jmxNodes, final String objectName) throws InstanceNotFoundException
     {
+        // fetch every node's operations at once, then merge them in node order
+        List<NodeResult<List<MBeanOperationInfo[]>>> results = _nodeQueryExecutor.invokeAll(jmxNodes,new NodeQuery<List<MBeanOperationInfo[]>>()
+        {
+            public List<MBeanOperationInfo[]> query(JMXNode jmxNode) throws InstanceNotFoundException
+            {
+                JMXServiceURL jmxServiceURL = jmxNode.getJmxServiceURL();
+                Set<String> objectNames = parseObjectNameToAggregateMBeansWithMultipleIDs(objectName,jmxServiceURL);
+                try
+                {
+                    return getMBeanOperationInfosForNode(objectNames,jmxServiceURL);
+                }
+                catch (InstanceNotFoundException e)
+                {
+                    objectNames = _jmxService.getObjectNamesByPrefix(jmxServiceURL,objectName);
+                    return getMBeanOperationInfosForNode(objectNames,jmxServiceURL);
+                }
+            }
+        });
+        checkInstancesFound(results);
 
         Map<String, MBeanOperationInfo> mBeanOperations = new HashMap<String, MBeanOperationInfo>();
         Set<MBeanOperationInfo> nonEqualOperationsToRemove = new HashSet<MBeanOperationInfo>();
-        // TODO: three nested for loops and some if clauses...too high cyclomatic complexity
-        for (JMXNode jmxNode : jmxNodes)
+        for (NodeResult<List<MBeanOperationInfo[]>> result : results)
         {
-            JMXServiceURL jmxServiceURL = jmxNode.getJmxServiceURL();
-            Set<String> objectNames = parseObjectNameToAggregateMBeansWithMultipleIDs(objectName,jmxServiceURL);
-            try
+            if (result.isDegraded())
             {
-                if (!aggregateMBeanOperationInfosForNode(objectNames,mBeanOperations,nonEqualOperationsToRemove,jmxServiceURL))
-                    return Collections.emptyMap();
-            }
-            catch (InstanceNotFoundException e)
-            {
-                objectNames = _jmxService.getObjectNamesByPrefix(jmxServiceURL,objectName);
-                if (!aggregateMBeanOperationInfosForNode(objectNames,mBeanOperations,nonEqualOperationsToRemove,jmxServiceURL))
-                    return Collections.emptyMap();
+                logDegraded(result,objectName);
+                continue;
             }
+            if (result.getValue() == null)
+                return Collections.emptyMap();
+            for (MBeanOperationInfo[] mBeanOperationInfoArray : result.getValue())
+                aggregateMBeanOperationInfos(mBeanOperationInfoArray,mBeanOperations,nonEqualOperationsToRemove);
         }
 
         removeNonEqualOperations(mBeanOperations,nonEqualOperationsToRemove);
@@ -254,25 +410,33 @@ public class AggregateServiceImpl implements AggregateService
         return mBeanOperations;
     }
 
-    private boolean aggregateMBeanOperationInfosForNode(Set<String> objectNames, Map<String, MBeanOperationInfo> mBeanOperations,
-            Set<MBeanOperationInfo> nonEqualOperationsToRemove, JMXServiceURL jmxServiceURL) throws InstanceNotFoundException
+    /**
+     * @return the operations of each of the objectNames, or null if one of them has none
+     */
+    private List<MBeanOperationInfo[]> getMBeanOperationInfosForNode(Set<String> objectNames, JMXServiceURL jmxServiceURL) throws InstanceNotFoundException
     {
+        List<MBeanOperationInfo[]> mBeanOperationInfoArrays = new ArrayList<MBeanOperationInfo[]>(objectNames.size());
         for (String aggregatedObjectName : objectNames)
         {
             MBeanOperationInfo[] mBeanOperationInfoArray = _jmxService.getOperations(jmxServiceURL,aggregatedObjectName);
-            if (mBeanOperationInfoArray != null)
-                for (MBeanOperationInfo mBeanOperationInfo : mBeanOperationInfoArray)
-                {
-                    if (mBeanOperations.containsKey(mBeanOperationInfo.getName())
-                            && !mBeanOperations.get(mBeanOperationInfo.getName()).equals(mBeanOperationInfo))
-                        nonEqualOperationsToRemove.add(mBeanOperationInfo);
-                    else
-                        mBeanOperations.put(mBeanOperationInfo.getName(),mBeanOperationInfo);
-                }
+            if (mBeanOperationInfoArray == null)
+                return null;
+            mBeanOperationInfoArrays.add(mBeanOperationInfoArray);
+        }
+        return mBeanOperationInfoArrays;
+    }
+
+    private void aggregateMBeanOperationInfos(MBeanOperationInfo[] mBeanOperationInfoArray, Map<String, MBeanOperationInfo> mBeanOperations,
+            Set<MBeanOperationInfo> nonEqualOperationsToRemove)
+    {
+        for (MBeanOperationInfo mBeanOperationInfo : mBeanOperationInfoArray)
+        {
+            if (mBeanOperations.containsKey(mBeanOperationInfo.getName())
+                    && !mBeanOperations.get(mBeanOperationInfo.getName()).equals(mBeanOperationInfo))
+                nonEqualOperationsToRemove.add(mBeanOperationInfo);
             else
-                return false;
+                mBeanOperations.put(mBeanOperationInfo.getName(),mBeanOperationInfo);
         }
-        return true;
     }
 
     private void removeNonEqualOperations(Map<String, MBeanOperationInfo> mBeanOperations, Set<MBeanOperationInfo> nonEqualOperationsToRemove)
@@ -295,27 +459,53 @@ public class AggregateServiceImpl implements AggregateService
         return new MBeanAttributeJaxBeans(mBeanAttributeJaxBeans);
     }
 
-    private Map<String, MBeanAttributeInfo> aggregateMBeanAttributeInfos(Collection<JMXNode> jmxNodes, String objectName)
+    private Map<String, MBeanAttributeInfo> aggregateMBeanAttributeInfos(Collection<JMXNode> jmxNodes, final String objectName)
             throws InstanceNotFoundException
     {
-        Map<String, MBeanAttributeInfo> mBeanAttributeInfos = new HashMap<String, MBeanAttributeInfo>();
-        Set<String> nonEqualAttributeNamesToRemove = new HashSet<String>();
-        for (JMXNode jmxNode : jmxNodes)
+        // fetch every node's attributes at once, then merge them in node order
+        List<NodeResult<List<MBeanAttributeInfo[]>>> results = _nodeQueryExecutor.invokeAll(jmxNodes,new NodeQuery<List<MBeanAttributeInfo[]>>()
         {
-            JMXServiceURL jmxServiceURL = jmxNode.getJmxServiceURL();
-            Set<String> objectNames = parseObjectNameToAggregateMBeansWithMultipleIDs(objectName,jmxServiceURL);
-
-            try
-            {
-                if (!aggregateMBeanAttributeInfosForNode(mBeanAttributeInfos,nonEqualAttributeNamesToRemove,jmxServiceURL,objectNames))
-                    return Collections.emptyMap();
-            }
-            catch (InstanceNotFoundException e)
+            public List<MBeanAttributeInfo[]> query(JMXNode jmxNode) throws InstanceNotFoundException
             {
-                objectNames = _jmxService.getObjectNamesByPrefix(jmxServiceURL,objectName);
-                if (!aggregateMBeanAttributeInfosForNode(mBeanAttributeInfos,nonEqualAttributeNamesToRemove,jmxServiceURL,objectNames))
-                    return Collections.emptyMap();
+                JMXServiceURL jmxServiceURL = jmxNode.getJmxServiceURL();
+                Set<String> objectNames = parseObjectNameToAggregateMBeansWithMultipleIDs(objectName,jmxServiceURL);
+                try
+                {
+                    return getMBeanAttributeInfosForNode(jmxServiceURL,objectNames);
+                }
+                catch (InstanceNotFoundException e)
+                {
+                    objectNames = _jmxService.getObjectNamesByPrefix(jmxServiceURL,objectName);
+                    return getMBeanAttributeInfosForNode(jmxServiceURL,objectNames);
+                }
             }
+        });
+        checkInstancesFound(results);
+
+        List<List<MBeanAttributeInfo[]>> nodeAttributeInfos = new ArrayList<List<MBeanAttributeInfo[]>>(results.size());
+        for (NodeResult<List<MBeanAttributeInfo[]>> result : results)
+        {
+            if (result.isDegraded())
+                logDegraded(result,objectName);
+            else
+                nodeAttributeInfos.add(result.getValue());
+        }
+        return mergeMBeanAttributeInfos(nodeAttributeInfos);
+    }
+
+    /**
+     * @return the attributes of the nodes, in node order, less those the nodes disagree on - or none if a node had none
+     */
+    private Map<String, MBeanAttributeInfo> mergeMBeanAttributeInfos(List<List<MBeanAttributeInfo[]>> nodeAttributeInfos)
+    {
+        Map<String, MBeanAttributeInfo> mBeanAttributeInfos = new HashMap<String, MBeanAttributeInfo>();
+        Set<String> nonEqualAttributeNamesToRemove = new HashSet<String>();
+        for (List<MBeanAttributeInfo[]> mBeanAttributeInfoArrays : nodeAttributeInfos)
+        {
+            if (mBeanAttributeInfoArrays == null)
+                return Collections.emptyMap();
+            for (MBeanAttributeInfo[] mBeanAttributeInfoArray : mBeanAttributeInfoArrays)
+                addAttributeInfosToMap(mBeanAttributeInfos,nonEqualAttributeNamesToRemove,mBeanAttributeInfoArray);
         }
 
         removeDuplicates(mBeanAttributeInfos,nonEqualAttributeNamesToRemove);
@@ -323,18 +513,20 @@ public class AggregateServiceImpl implements AggregateService
         return mBeanAttributeInfos;
     }
 
-    private boolean aggregateMBeanAttributeInfosForNode(Map<String, MBeanAttributeInfo> mBeanAttributeInfos, Set<String> nonEqualAttributeNamesToRemove,
-            JMXServiceURL jmxServiceURL, Set<String> objectNames) throws InstanceNotFoundException
+    /**
+     * @return the attributes of each of the objectNames, or null if one of them has none
+     */
+    private List<MBeanAttributeInfo[]> getMBeanAttributeInfosForNode(JMXServiceURL jmxServiceURL, Set<String> objectNames) throws InstanceNotFoundException
     {
+        List<MBeanAttributeInfo[]> mBeanAttributeInfoArrays = new ArrayList<MBeanAttributeInfo[]>(objectNames.size());
         for (String aggregatedObjectName : objectNames)
         {
             MBeanAttributeInfo[] mBeanAttributeInfoArray = _jmxService.getAttributes(jmxServiceURL,aggregatedObjectName);
-            if (mBeanAttributeInfoArray != null)
-                addAttributeInfosToMap(mBeanAttributeInfos,nonEqualAttributeNamesToRemove,mBeanAttributeInfoArray);
-            else
-                return false;
+            if (mBeanAttributeInfoArray == null)
+                return null;
+            mBeanAttributeInfoArrays.add(mBeanAttributeInfoArray);
         }
-        return true;
+        return mBeanAttributeInfoArrays;
     }
 
     Set<String> parseObjectNameToAggregateMBeansWithMultipleIDs(String objectName, JMXServiceURL jmxServiceURL)
@@ -342,12 +534,9 @@ public class AggregateServiceImpl implements AggregateService
         Set<String> objectNames = new TreeSet<String>();
         objectNames.add(objectName);
 
-        String string = objectName.toString();
-        String idMatchRegex = ".*?" + ID_REPLACE_REGEX;
-
-        if (string.matches(idMatchRegex))
+        if (ENDS_WITH_ID_PATTERN.matcher(objectName).matches())
         {
-            String objectNamePrefix = objectName.replaceFirst(ID_REPLACE_REGEX,"");
+            String objectNamePrefix = removeId(objectName);
             objectNames = _jmxService.getObjectNamesByPrefix(jmxServiceURL,objectNamePrefix);
         }
         return objectNames;
@@ -374,24 +563,37 @@ public class AggregateServiceImpl implements AggregateService
 
     public OperationReturnValueJaxBeans invokeOperation(Collection<JMXNode> jmxNodes, String objectName, String operationName)
     {
-        Set<OperationReturnValueJaxBean> operationReturnValueJaxBeans = new TreeSet<OperationReturnValueJaxBean>();
-        for (JMXNode jmxNode : jmxNodes)
-        {
-            Object returnValue = _jmxService.invoke(jmxNode.getJmxServiceURL(),objectName,operationName,null,null);
-            operationReturnValueJaxBeans.add(new OperationReturnValueJaxBean(jmxNode.getNodeName(),returnValue));
-        }
-        return new OperationReturnValueJaxBeans(operationReturnValueJaxBeans);
+        return invokeOperation(jmxNodes,objectName,operationName,null,null);
     }
 
-    public OperationReturnValueJaxBeans invokeOperation(Collection<JMXNode> jmxNodes, String objectName, String operationName, Object[] params,
-            String[] signature)
+    public OperationReturnValueJaxBeans invokeOperation(Collection<JMXNode> jmxNodes, final String objectName, final String operationName,
+            final Object[] params, final String[] signature)
     {
+        List<NodeResult<Object>> results = _nodeQueryExecutor.invokeAll(jmxNodes,new NodeQuery<Object>()
+        {
+            public Object query(JMXNode jmxNode)
+            {
+                return _jmxService.invoke(jmxNode.getJmxServiceURL(),objectName,operationName,params,signature);
+            }
+        });
         Set<OperationReturnValueJaxBean> operationReturnValueJaxBeans = new TreeSet<OperationReturnValueJaxBean>();
-        for (JMXNode jmxNode : jmxNodes)
+        for (NodeResult<Object> result : results)
         {
-            Object returnValue = _jmxService.invoke(jmxNode.getJmxServiceURL(),objectName,operationName,params,signature);
-            operationReturnValueJaxBeans.add(new OperationReturnValueJaxBean(jmxNode.getNodeName(),returnValue));
+            // the operation may yet complete on a node which was too slow to answer
+            Object returnValue = result.isDegraded()?describe(result):result.getValue();
+            operationReturnValueJaxBeans.add(new OperationReturnValueJaxBean(result.getJmxNode().getNodeName(),returnValue));
         }
         return new OperationReturnValueJaxBeans(operationReturnValueJaxBeans);
     }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * What getAllAttributeValues learns from one node.
+     */
+    private static class NodeAttributes
+    {
+        // null if one of the MBeans has no attributes
+        List<MBeanAttributeInfo[]> _attributeInfos;
+        final Set<MBeanAttributeValueJaxBean> _values = new TreeSet<MBeanAttributeValueJaxBean>();
+    }
 }
@@ -0,0 +1,108 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.service.NodeDiscovery;
+
+/* ------------------------------------------------------------ */
+/**
+ * Reads the nodes from every <code>*.properties</code> file in a directory,
+ * each as for {@link PropertiesNodeDiscovery} - so that nodes can be added
+ * and removed by dropping files in and out, e.g. one per cluster.
+ */
+public class DirectoryNodeDiscovery implements NodeDiscovery
+{
+    private static final FilenameFilter PROPERTIES = new FilenameFilter()
+    {
+        public boolean accept(File dir, String name)
+        {
+            return name.endsWith(".properties");
+        }
+    };
+
+    private final File _directory;
+
+    public DirectoryNodeDiscovery(File directory)
+    {
+        _directory = directory;
+    }
+
+    public List<JMXNode> discover() throws IOException
+    {
+        File[] files = listFiles();
+        if (files == null)
+            throw new FileNotFoundException(_directory.toString());
+        List<JMXNode> jmxNodes = new ArrayList<JMXNode>();
+        for (File file : files)
+        {
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                Properties properties = new Properties();
+                properties.load(in);
+                jmxNodes.addAll(PropertiesNodeDiscovery.parseNodes(properties));
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        return jmxNodes;
+    }
+
+    /**
+     * A file coming or going changes the directory's time, a file being
+     * edited only its own - so take the latest of them all.
+     */
+    public long getLastModified()
+    {
+        long lastModified = _directory.lastModified();
+        File[] files = listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+                lastModified = Math.max(lastModified,file.lastModified());
+            // a file replaced by an older one changes neither, but does change the sum
+            lastModified += files.length;
+        }
+        return lastModified;
+    }
+
+    private File[] listFiles()
+    {
+        File[] files = _directory.listFiles(PROPERTIES);
+        if (files != null)
+            Arrays.sort(files);
+        return files;
+    }
+
+    @Override
+    public String toString()
+    {
+        return _directory.toString();
+    }
+}
@@ -0,0 +1,811 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.eclipse.jetty.util.ajax.JSON;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.service.JMXService;
+import org.mortbay.jetty.jmx.ws.service.impl.NodeQueryExecutor.NodeQuery;
+import org.mortbay.jetty.jmx.ws.service.impl.NodeQueryExecutor.NodeResult;
+
+/* ------------------------------------------------------------ */
+/**
+ * Turns the attributes and notifications of MBeans into a stream of events
+ * that any number of clients can follow.
+ * 
+ * Clients declare an {@link Interest} - nodes, MBeans, attributes and
+ * whether they want notifications. Clients with the same interest share it,
+ * and the attributes of every MBean some interest covers are polled once
+ * per interval, all nodes at once. Only the attributes which changed since
+ * the last poll become events - and of a changed composite value only the
+ * items which changed. Notifications become events as they arrive.
+ * 
+ * Events are encoded to JSON once, and kept in a bounded log which clients
+ * read from their own position. A client which has seen everything
+ * registers a {@link Waiter} and is told when there is more, so no thread
+ * is needed per client. A client which is new, or has fallen so far behind
+ * that its events have left the log, is given a snapshot of the current
+ * values instead.
+ * 
+ * An interest no client has asked about for a while is dropped, and with it
+ * the polling it caused.
+ */
+public class EventHub
+{
+    private static final Logger LOG = Log.getLogger(EventHub.class);
+
+    public static final long DEFAULT_INTERVAL = Long.getLong("org.mortbay.jetty.jmx.ws.streamInterval",1000L);
+    public static final int DEFAULT_BACKLOG = Integer.getInteger("org.mortbay.jetty.jmx.ws.streamBacklog",4096);
+    public static final long DEFAULT_INTEREST_TIMEOUT = Long.getLong("org.mortbay.jetty.jmx.ws.streamInterestTimeout",120000L);
+
+    public static final String ATTRIBUTE = "attribute";
+    public static final String NOTIFICATION = "notification";
+
+    private final JMXService _jmxService;
+    private final NodeQueryExecutor _nodeQueryExecutor;
+    private final long _interval;
+    private final long _interestTimeout;
+    private final ConcurrentMap<String, Interest> _interests = new ConcurrentHashMap<String, Interest>();
+    // node name and object name : Watch - guarded by this
+    private final Map<String, Watch> _watches = new HashMap<String, Watch>();
+    // the log, and those waiting for it to grow - guarded by this
+    private final Event[] _events;
+    private long _lastId;
+    private final List<Waiter> _waiters = new ArrayList<Waiter>();
+    private ScheduledExecutorService _scheduler;
+
+    public EventHub(JMXService jmxService)
+    {
+        this(jmxService,new NodeQueryExecutor(),DEFAULT_INTERVAL,DEFAULT_BACKLOG,DEFAULT_INTEREST_TIMEOUT);
+    }
+
+    /**
+     * @param interval the time, in ms, between polls of the attributes
+     * @param backlog how many events to keep for clients to catch up with
+     * @param interestTimeout how long, in ms, to keep an interest no client has asked about
+     */
+    public EventHub(JMXService jmxService, NodeQueryExecutor nodeQueryExecutor, long interval, int backlog, long interestTimeout)
+    {
+        _jmxService = jmxService;
+        _nodeQueryExecutor = nodeQueryExecutor;
+        _interval = interval;
+        _events = new Event[backlog];
+        _interestTimeout = interestTimeout;
+    }
+
+    public synchronized void start()
+    {
+        if (_scheduler != null)
+            return;
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable,"jmx-ws-event-hub");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // with a fixed delay, a slow poll cannot make polls pile up
+        _scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    poll(System.currentTimeMillis());
+                }
+                catch (RuntimeException e)
+                {
+                    LOG.warn("Couldn't poll attributes: ",e);
+                }
+            }
+        },_interval,_interval,TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy()
+    {
+        List<Waiter> waiters;
+        synchronized (this)
+        {
+            if (_scheduler != null)
+                _scheduler.shutdownNow();
+            _scheduler = null;
+            for (Watch watch : _watches.values())
+                watch.stopListening();
+            _watches.clear();
+            waiters = new ArrayList<Waiter>(_waiters);
+            _waiters.clear();
+        }
+        _interests.clear();
+        _nodeQueryExecutor.destroy();
+        for (Waiter waiter : waiters)
+            waiter.eventsAvailable();
+    }
+
+    /**
+     * @param attributes the attributes to follow, or null for all of them
+     * @return the interest - shared with every other client asking for the same
+     */
+    public Interest getInterest(Collection<JMXNode> jmxNodes, Collection<String> objectNames, Collection<String> attributes, boolean notifications)
+    {
+        Interest interest = new Interest(jmxNodes,objectNames,attributes,notifications);
+        Interest existing = _interests.get(interest._key);
+        if (existing == null)
+        {
+            synchronized (this)
+            {
+                existing = _interests.get(interest._key);
+                if (existing == null)
+                {
+                    for (JMXNode jmxNode : jmxNodes)
+                    {
+                        for (String objectName : objectNames)
+                        {
+                            String key = jmxNode.getNodeName() + "|" + objectName;
+                            Watch watch = _watches.get(key);
+                            if (watch == null)
+                            {
+                                watch = new Watch(jmxNode,objectName);
+                                _watches.put(key,watch);
+                            }
+                            watch.retain(interest);
+                            interest._watches.add(watch);
+                        }
+                    }
+                    _interests.put(interest._key,interest);
+                    existing = interest;
+                }
+            }
+        }
+        existing._lastUsed = System.currentTimeMillis();
+        return existing;
+    }
+
+    /**
+     * @return the id of the latest event
+     */
+    public synchronized long getLastId()
+    {
+        return _lastId;
+    }
+
+    /**
+     * Read the events after the given one.
+     * 
+     * @param lastId the id of the last event the client has seen, or -1 if it is new
+     */
+    public Events getEvents(long lastId, Interest interest)
+    {
+        interest._lastUsed = System.currentTimeMillis();
+        List<Event> events = new ArrayList<Event>();
+        long last;
+        synchronized (this)
+        {
+            last = _lastId;
+            if (!isInLog(lastId))
+                return new Events(snapshot(interest),last,true);
+            for (long id = lastId + 1; id <= _lastId; id++)
+            {
+                Event event = _events[(int)(id % _events.length)];
+                if (interest.matches(event))
+                    events.add(event);
+            }
+        }
+        return new Events(events,last,false);
+    }
+
+    /**
+     * Wait for events after the given one. If there are some already, the
+     * waiter is not registered - read them straight away.
+     * 
+     * @return whether the waiter was registered
+     */
+    public boolean await(long lastId, Interest interest, Waiter waiter)
+    {
+        synchronized (this)
+        {
+            if (!isInLog(lastId))
+                return false;
+            for (long id = lastId + 1; id <= _lastId; id++)
+            {
+                if (interest.matches(_events[(int)(id % _events.length)]))
+                    return false;
+            }
+            waiter._interest = interest;
+            _waiters.add(waiter);
+        }
+        return true;
+    }
+
+    /**
+     * Stop waiting - e.g. because the client gave up.
+     */
+    public synchronized void cancel(Waiter waiter)
+    {
+        _waiters.remove(waiter);
+    }
+
+    private boolean isInLog(long lastId)
+    {
+        return lastId >= 0 && lastId <= _lastId && _lastId - lastId < _events.length;
+    }
+
+    // called with the lock held
+    private List<Event> snapshot(Interest interest)
+    {
+        List<Event> events = new ArrayList<Event>();
+        for (Watch watch : interest._watches)
+        {
+            for (Map.Entry<String, Object> entry : watch._values.entrySet())
+            {
+                if (interest._attributes == null || interest._attributes.contains(entry.getKey()))
+                    events.add(new Event(ATTRIBUTE,watch._jmxNode.getNodeName(),watch._objectName,entry.getKey(),attributeData(watch,entry.getKey(),entry.getValue(),false)));
+            }
+        }
+        return events;
+    }
+
+    private void publish(List<Event> events)
+    {
+        publish(events,Collections.<Poll>emptyList());
+    }
+
+    /**
+     * Publish events, together with the polls they came from: a poll's
+     * values become what snapshots see at the moment its events are
+     * published, and a poll which can no longer be committed publishes
+     * nothing.
+     */
+    private void publish(List<Event> events, List<Poll> polls)
+    {
+        if (events.isEmpty() && polls.isEmpty())
+            return;
+        List<Waiter> ready = new ArrayList<Waiter>();
+        synchronized (this)
+        {
+            if (!polls.isEmpty())
+            {
+                events = new ArrayList<Event>(events);
+                for (Poll poll : polls)
+                {
+                    if (poll.commit())
+                        events.addAll(poll._events);
+                }
+            }
+            for (Event event : events)
+            {
+                event._id = ++_lastId;
+                _events[(int)(_lastId % _events.length)] = event;
+            }
+            for (Iterator<Waiter> i = _waiters.iterator(); i.hasNext();)
+            {
+                Waiter waiter = i.next();
+                for (Event event : events)
+                {
+                    if (waiter._interest.matches(event))
+                    {
+                        ready.add(waiter);
+                        i.remove();
+                        break;
+                    }
+                }
+            }
+        }
+        for (Waiter waiter : ready)
+            waiter.eventsAvailable();
+    }
+
+    /**
+     * Poll every watched attribute once, publishing the changes - and drop
+     * the interests nobody has asked about lately.
+     */
+    public void poll(long now)
+    {
+        Map<JMXNode, List<Watch>> watchesByNode = new LinkedHashMap<JMXNode, List<Watch>>();
+        Map<String, JMXNode> nodes = new HashMap<String, JMXNode>();
+        List<Watch> released = new ArrayList<Watch>();
+        synchronized (this)
+        {
+            for (Iterator<Interest> i = _interests.values().iterator(); i.hasNext();)
+            {
+                Interest interest = i.next();
+                if (interest._lastUsed < now - _interestTimeout)
+                {
+                    i.remove();
+                    for (Watch watch : interest._watches)
+                    {
+                        if (watch.release(interest))
+                        {
+                            _watches.remove(watch._jmxNode.getNodeName() + "|" + watch._objectName);
+                            released.add(watch);
+                        }
+                    }
+                }
+            }
+            for (Watch watch : _watches.values())
+            {
+                // one node object per name, however many interests it came from
+                JMXNode jmxNode = nodes.get(watch._jmxNode.getNodeName());
+                if (jmxNode == null)
+                {
+                    jmxNode = watch._jmxNode;
+                    nodes.put(jmxNode.getNodeName(),jmxNode);
+                    watchesByNode.put(jmxNode,new ArrayList<Watch>());
+                }
+                watchesByNode.get(jmxNode).add(watch);
+            }
+        }
+
+        for (Watch watch : released)
+            watch.stopListening();
+
+        // a poll which times out may still be running at the next tick -
+        // its watches are skipped until it finishes, and what it found is
+        // never committed, so the next poll finds the same changes...
+        final Map<JMXNode, List<Watch>> watches = watchesByNode;
+        List<NodeResult<List<Poll>>> results = _nodeQueryExecutor.invokeAll(watches.keySet(),new NodeQuery<List<Poll>>()
+        {
+            public List<Poll> query(JMXNode jmxNode) throws Exception
+            {
+                List<Poll> polls = new ArrayList<Poll>();
+                for (Watch watch : watches.get(jmxNode))
+                {
+                    if (!watch._polling.compareAndSet(false,true))
+                        continue;
+                    try
+                    {
+                        Poll poll = watch.poll();
+                        if (poll != null)
+                            polls.add(poll);
+                    }
+                    finally
+                    {
+                        watch._polling.set(false);
+                    }
+                }
+                return polls;
+            }
+        });
+        List<Poll> polls = new ArrayList<Poll>();
+        for (NodeResult<List<Poll>> result : results)
+        {
+            if (result.isDegraded())
+                LOG.debug("Couldn't poll " + result.getJmxNode().getNodeName() + ": " + (result.isTimedOut()?"timed out":result.getFailure()));
+            else
+                polls.addAll(result.getValue());
+        }
+        publish(Collections.<Event>emptyList(),polls);
+    }
+
+    private static String attributeData(Watch watch, String attribute, Object value, boolean delta)
+    {
+        StringBuilder data = new StringBuilder(64);
+        data.append("{\"type\":\"").append(ATTRIBUTE).append("\",\"node\":");
+        JSON.getDefault().appendString(data,watch._jmxNode.getNodeName());
+        data.append(",\"objectName\":");
+        JSON.getDefault().appendString(data,watch._objectName);
+        data.append(",\"attribute\":");
+        JSON.getDefault().appendString(data,attribute);
+        if (delta)
+            data.append(",\"delta\":true");
+        data.append(",\"value\":");
+        JSON.getDefault().append(data,value);
+        return data.append('}').toString();
+    }
+
+    private static String notificationData(Watch watch, Notification notification)
+    {
+        StringBuilder data = new StringBuilder(128);
+        data.append("{\"type\":\"").append(NOTIFICATION).append("\",\"node\":");
+        JSON.getDefault().appendString(data,watch._jmxNode.getNodeName());
+        data.append(",\"objectName\":");
+        JSON.getDefault().appendString(data,watch._objectName);
+        data.append(",\"notificationType\":");
+        JSON.getDefault().appendString(data,notification.getType());
+        data.append(",\"sequenceNumber\":");
+        data.append(notification.getSequenceNumber()).append(",\"timeStamp\":").append(notification.getTimeStamp());
+        data.append(",\"message\":");
+        JSON.getDefault().append(data,notification.getMessage());
+        data.append(",\"userData\":");
+        JSON.getDefault().append(data,notification.getUserData() == null?null:String.valueOf(notification.getUserData()));
+        return data.append('}').toString();
+    }
+
+    /**
+     * Values are compared as plain java objects: composite data as a map of
+     * its items, and arrays as lists. Numbers JSON cannot hold are strings.
+     */
+    static Object normalize(Object value)
+    {
+        if (value instanceof Double && (((Double)value).isNaN() || ((Double)value).isInfinite()) || value instanceof Float
+                && (((Float)value).isNaN() || ((Float)value).isInfinite()))
+            return value.toString();
+        if (value instanceof CompositeData)
+        {
+            CompositeData compositeData = (CompositeData)value;
+            Map<String, Object> items = new LinkedHashMap<String, Object>();
+            for (Object key : new TreeSet<Object>(compositeData.getCompositeType().keySet()))
+                items.put((String)key,normalize(compositeData.get((String)key)));
+            return items;
+        }
+        if (value != null && value.getClass().isArray())
+        {
+            List<Object> items = new ArrayList<Object>();
+            for (int i = 0; i < Array.getLength(value); i++)
+                items.add(normalize(Array.get(value,i)));
+            return items;
+        }
+        return value;
+    }
+
+    /**
+     * @return the items of a composite value which changed, or null if it
+     * is not worth sending less than the whole value
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> delta(Object previous, Object value)
+    {
+        if (!(previous instanceof Map) || !(value instanceof Map))
+            return null;
+        Map<String, Object> before = (Map<String, Object>)previous;
+        Map<String, Object> after = (Map<String, Object>)value;
+        if (!before.keySet().equals(after.keySet()))
+            return null;
+        Map<String, Object> delta = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : after.entrySet())
+        {
+            Object old = before.get(entry.getKey());
+            if (old == null?entry.getValue() != null:!old.equals(entry.getValue()))
+                delta.put(entry.getKey(),entry.getValue());
+        }
+        return delta.size() < after.size()?delta:null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * An event, encoded as JSON.
+     */
+    public static class Event
+    {
+        private long _id;
+        private final String _type;
+        private final String _nodeName;
+        private final String _objectName;
+        private final String _attribute;
+        private final String _data;
+
+        Event(String type, String nodeName, String objectName, String attribute, String data)
+        {
+            _type = type;
+            _nodeName = nodeName;
+            _objectName = objectName;
+            _attribute = attribute;
+            _data = data;
+        }
+
+        /**
+         * @return the event's place in the log, or 0 for a snapshot
+         */
+        public long getId()
+        {
+            return _id;
+        }
+
+        public String getType()
+        {
+            return _type;
+        }
+
+        public String getData()
+        {
+            return _data;
+        }
+
+        @Override
+        public String toString()
+        {
+            return _id + ":" + _data;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    public static class Events
+    {
+        private final List<Event> _events;
+        private final long _lastId;
+        private final boolean _snapshot;
+
+        Events(List<Event> events, long lastId, boolean snapshot)
+        {
+            _events = events;
+            _lastId = lastId;
+            _snapshot = snapshot;
+        }
+
+        public List<Event> getEvents()
+        {
+            return _events;
+        }
+
+        /**
+         * @return the id to read on from
+         */
+        public long getLastId()
+        {
+            return _lastId;
+        }
+
+        /**
+         * @return whether the events are a snapshot of the current values, rather than changes
+         */
+        public boolean isSnapshot()
+        {
+            return _snapshot;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Told, once, when there are events for it to read.
+     */
+    public static abstract class Waiter
+    {
+        private Interest _interest;
+
+        protected abstract void eventsAvailable();
+    }
+
+    /* ------------------------------------------------------------ */
+    public static class Interest
+    {
+        private final String _key;
+        private final Set<String> _nodeNames = new HashSet<String>();
+        private final Set<String> _objectNames;
+        private final Set<String> _attributes;
+        private final boolean _notifications;
+        private final List<Watch> _watches = new ArrayList<Watch>();
+        private volatile long _lastUsed;
+
+        Interest(Collection<JMXNode> jmxNodes, Collection<String> objectNames, Collection<String> attributes, boolean notifications)
+        {
+            for (JMXNode jmxNode : jmxNodes)
+                _nodeNames.add(jmxNode.getNodeName());
+            _objectNames = new TreeSet<String>(objectNames);
+            _attributes = attributes == null?null:Collections.unmodifiableSet(new TreeSet<String>(attributes));
+            _notifications = notifications;
+            _key = new TreeSet<String>(_nodeNames) + "|" + _objectNames + "|" + _attributes + "|" + _notifications;
+        }
+
+        boolean matches(Event event)
+        {
+            if (!_nodeNames.contains(event._nodeName) || !_objectNames.contains(event._objectName))
+                return false;
+            if (NOTIFICATION.equals(event._type))
+                return _notifications;
+            return _attributes == null || _attributes.contains(event._attribute);
+        }
+
+        @Override
+        public String toString()
+        {
+            return _key;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * One MBean of one node, polled on behalf of all the interests in it.
+     */
+    private class Watch implements NotificationListener
+    {
+        private final JMXNode _jmxNode;
+        private final String _objectName;
+        // the interests, and what they want - guarded by the hub
+        private final List<Interest> _interests = new ArrayList<Interest>();
+        private volatile Set<String> _attributes = Collections.emptySet();
+        private volatile boolean _allAttributes;
+        private volatile boolean _notifications;
+        // the values last published - replaced with the hub locked
+        private volatile Map<String, Object> _values = Collections.emptyMap();
+        // set while a poll - perhaps one that timed out - is running
+        private final AtomicBoolean _polling = new AtomicBoolean();
+        // guarded by this watch
+        private boolean _listening;
+        private boolean _stopped;
+
+        Watch(JMXNode jmxNode, String objectName)
+        {
+            _jmxNode = jmxNode;
+            _objectName = objectName;
+        }
+
+        void retain(Interest interest)
+        {
+            _interests.add(interest);
+            update();
+        }
+
+        /**
+         * @return whether nobody is interested any more
+         */
+        boolean release(Interest interest)
+        {
+            _interests.remove(interest);
+            update();
+            if (!_interests.isEmpty())
+                return false;
+            // forget the values, so the next interest starts with a full set
+            _values = Collections.emptyMap();
+            return true;
+        }
+
+        private void update()
+        {
+            Set<String> attributes = new TreeSet<String>();
+            boolean all = false;
+            boolean notifications = false;
+            for (Interest interest : _interests)
+            {
+                if (interest._attributes == null)
+                    all = true;
+                else
+                    attributes.addAll(interest._attributes);
+                notifications |= interest._notifications;
+            }
+            _attributes = attributes;
+            _allAttributes = all;
+            _notifications = notifications;
+        }
+
+        /**
+         * Read the attributes, and work out what has changed since the
+         * values last published.
+         * 
+         * @return the values and events, to be committed together, or null
+         * if there is nothing to read
+         */
+        Poll poll() throws Exception
+        {
+            listen();
+
+            String[] attributeNames;
+            if (_allAttributes)
+            {
+                List<String> readable = new ArrayList<String>();
+                for (MBeanAttributeInfo info : _jmxService.getAttributes(_jmxNode.getJmxServiceURL(),_objectName))
+                {
+                    if (info.isReadable())
+                        readable.add(info.getName());
+                }
+                attributeNames = readable.toArray(new String[readable.size()]);
+            }
+            else
+                attributeNames = _attributes.toArray(new String[_attributes.size()]);
+            if (attributeNames.length == 0)
+                return null;
+
+            Map<String, Object> previous = _values;
+            Map<String, Object> values = new HashMap<String, Object>();
+            List<Event> events = new ArrayList<Event>();
+            for (Map.Entry<String, Object> entry : _jmxService.getAttributeValues(_jmxNode.getJmxServiceURL(),_objectName,attributeNames).entrySet())
+            {
+                String attribute = entry.getKey();
+                Object value = normalize(entry.getValue());
+                values.put(attribute,value);
+                Object old = previous.get(attribute);
+                if (previous.containsKey(attribute) && (old == null?value == null:old.equals(value)))
+                    continue;
+                Map<String, Object> delta = previous.containsKey(attribute)?delta(old,value):null;
+                String data = delta != null?attributeData(this,attribute,delta,true):attributeData(this,attribute,value,false);
+                events.add(new Event(ATTRIBUTE,_jmxNode.getNodeName(),_objectName,attribute,data));
+            }
+            return new Poll(this,previous,Collections.unmodifiableMap(values),events);
+        }
+
+        /**
+         * Start or stop listening for notifications, as the interests want.
+         */
+        synchronized void listen() throws Exception
+        {
+            boolean listen = _notifications && !_stopped;
+            if (listen == _listening)
+                return;
+            if (listen)
+                _jmxService.addNotificationListener(_jmxNode.getJmxServiceURL(),_objectName,this);
+            else
+                _jmxService.removeNotificationListener(_jmxNode.getJmxServiceURL(),_objectName,this);
+            _listening = listen;
+        }
+
+        /**
+         * Stop listening for good - a poll still running won't start again.
+         */
+        synchronized void stopListening()
+        {
+            _stopped = true;
+            if (_listening)
+                _jmxService.removeNotificationListener(_jmxNode.getJmxServiceURL(),_objectName,this);
+            _listening = false;
+        }
+
+        public void handleNotification(Notification notification, Object handback)
+        {
+            publish(Collections.singletonList(new Event(NOTIFICATION,_jmxNode.getNodeName(),_objectName,null,notificationData(this,notification))));
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * What one poll of a watch found: the values, and the events that take
+     * the published values to them.
+     */
+    private static class Poll
+    {
+        private final Watch _watch;
+        private final Map<String, Object> _previous;
+        private final Map<String, Object> _values;
+        private final List<Event> _events;
+
+        Poll(Watch watch, Map<String, Object> previous, Map<String, Object> values, List<Event> events)
+        {
+            _watch = watch;
+            _previous = previous;
+            _values = values;
+            _events = events;
+        }
+
+        /**
+         * Make the values the published ones - called with the hub locked.
+         * 
+         * @return false if the watch was released, or its values changed,
+         * since the poll began
+         */
+        boolean commit()
+        {
+            if (_watch._interests.isEmpty() || _watch._values != _previous)
+                return false;
+            _watch._values = _values;
+            return true;
+        }
+    }
+}
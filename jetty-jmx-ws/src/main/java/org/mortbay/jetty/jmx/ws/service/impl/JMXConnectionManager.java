@@ -0,0 +1,411 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/**
+ * Keeps one JMX connection per node, shared by every request.
+ * 
+ * Concurrent requests for a node that is not yet connected wait for a single
+ * connect, rather than each opening a connector of their own. A connection
+ * is dropped as soon as its connector reports it closed or failed - or a
+ * caller reports an I/O error on it - and the next request reconnects.
+ * 
+ * A node that cannot be reached is not tried again straight away: each
+ * failed connect doubles the time before the next attempt, up to a limit,
+ * and requests made meanwhile fail at once rather than waiting on another
+ * connect timeout. Calls that fail count too: the first connection a node
+ * loses is reopened at once, but one that is lost again before it has been
+ * up for the longest retry delay backs off like a failed connect - so a
+ * node that accepts connections but fails every call is not reconnected to
+ * for every request. Connections which have not been used for a while are
+ * closed in the background.
+ */
+public class JMXConnectionManager
+{
+    private static final Logger LOG = Log.getLogger(JMXConnectionManager.class);
+
+    public static final long DEFAULT_RETRY_DELAY = Long.getLong("org.mortbay.jetty.jmx.ws.retryDelay",1000L);
+    public static final long DEFAULT_MAX_RETRY_DELAY = Long.getLong("org.mortbay.jetty.jmx.ws.maxRetryDelay",60000L);
+    public static final long DEFAULT_IDLE_TIMEOUT = Long.getLong("org.mortbay.jetty.jmx.ws.idleTimeout",300000L);
+
+    private final ConcurrentMap<JMXServiceURL, NodeConnection> _nodes = new ConcurrentHashMap<JMXServiceURL, NodeConnection>();
+    private final CopyOnWriteArrayList<Listener> _listeners = new CopyOnWriteArrayList<Listener>();
+    private final long _retryDelay;
+    private final long _maxRetryDelay;
+    private final long _idleTimeout;
+    private final Timer _timer;
+
+    public JMXConnectionManager()
+    {
+        this(DEFAULT_RETRY_DELAY,DEFAULT_MAX_RETRY_DELAY,DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param retryDelay how long, in ms, to wait before reconnecting to a node after its first failed connect
+     * @param maxRetryDelay the longest, in ms, to wait before reconnecting to a node
+     * @param idleTimeout how long, in ms, a connection may go unused before it is closed, or 0 to keep it open
+     */
+    public JMXConnectionManager(long retryDelay, long maxRetryDelay, long idleTimeout)
+    {
+        _retryDelay = retryDelay;
+        _maxRetryDelay = maxRetryDelay;
+        _idleTimeout = idleTimeout;
+        if (idleTimeout > 0)
+        {
+            _timer = new Timer("jmx-ws-connection-evictor",true);
+            long period = Math.max(1000L,idleTimeout / 2);
+            _timer.schedule(new TimerTask()
+            {
+                public void run()
+                {
+                    evictIdle(System.currentTimeMillis());
+                }
+            },period,period);
+        }
+        else
+            _timer = null;
+    }
+
+    public void addListener(Listener listener)
+    {
+        _listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener)
+    {
+        _listeners.remove(listener);
+    }
+
+    /**
+     * @return the node's connection, connecting to it if need be
+     * @throws IOException if the node could not be connected to, or if it
+     * could not be the last time and it is too soon to try again
+     */
+    public MBeanServerConnection getConnection(JMXServiceURL jmxServiceURL) throws IOException
+    {
+        while (true)
+        {
+            NodeConnection node = getNode(jmxServiceURL);
+            MBeanServerConnection connection = node.getConnection();
+            if (connection != null)
+                return connection;
+            // evicted while we were getting it - use its replacement
+            _nodes.remove(jmxServiceURL,node);
+        }
+    }
+
+    /**
+     * Drop a node's connection after an I/O error on it, so that the next
+     * request reconnects - or, if it keeps failing, so that requests fail at
+     * once for a while. Does nothing if the connection has been replaced
+     * already.
+     */
+    public void connectionFailed(JMXServiceURL jmxServiceURL, MBeanServerConnection connection)
+    {
+        NodeConnection node = _nodes.get(jmxServiceURL);
+        if (node != null)
+            node.failed(connection);
+    }
+
+    /**
+     * @return whether the node is connected right now
+     */
+    public boolean isConnected(JMXServiceURL jmxServiceURL)
+    {
+        NodeConnection node = _nodes.get(jmxServiceURL);
+        return node != null && node.isConnected();
+    }
+
+    /**
+     * Close the connections which have not been used since
+     * <code>now - idleTimeout</code>.
+     * 
+     * @return the number of connections closed
+     */
+    public int evictIdle(long now)
+    {
+        int evicted = 0;
+        for (Map.Entry<JMXServiceURL, NodeConnection> entry : _nodes.entrySet())
+        {
+            NodeConnection node = entry.getValue();
+            if (node.closeIfIdle(now - _idleTimeout))
+                evicted++;
+            // forget nodes which are neither connected nor failing
+            if (node.evict())
+                _nodes.remove(entry.getKey(),node);
+        }
+        return evicted;
+    }
+
+    public void destroy()
+    {
+        if (_timer != null)
+            _timer.cancel();
+        for (NodeConnection node : _nodes.values())
+            node.close(null,"destroyed");
+        _nodes.clear();
+    }
+
+    /**
+     * Open a connector to a node. Called with the node's lock held, so
+     * there is never more than one connect in flight for a node.
+     */
+    protected JMXConnector connect(JMXServiceURL jmxServiceURL) throws IOException
+    {
+        return JMXConnectorFactory.connect(jmxServiceURL,null);
+    }
+
+    private NodeConnection getNode(JMXServiceURL jmxServiceURL)
+    {
+        NodeConnection node = _nodes.get(jmxServiceURL);
+        if (node == null)
+        {
+            NodeConnection newNode = new NodeConnection(jmxServiceURL);
+            node = _nodes.putIfAbsent(jmxServiceURL,newNode);
+            if (node == null)
+                node = newNode;
+        }
+        return node;
+    }
+
+    private static void closeQuietly(JMXConnector connector)
+    {
+        try
+        {
+            connector.close();
+        }
+        catch (Exception e)
+        {
+            LOG.ignore(e);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Told when a node is connected to, and when its connection goes away.
+     */
+    public interface Listener
+    {
+        void connectionOpened(JMXServiceURL jmxServiceURL, MBeanServerConnection connection);
+
+        void connectionClosed(JMXServiceURL jmxServiceURL);
+
+        /**
+         * The connection is still open, but notifications from the node -
+         * eg of MBeans registered - may have been missed.
+         */
+        void notificationsLost(JMXServiceURL jmxServiceURL);
+    }
+
+    /* ------------------------------------------------------------ */
+    private class NodeConnection implements NotificationListener
+    {
+        private final JMXServiceURL _jmxServiceURL;
+        private JMXConnector _connector;
+        private volatile MBeanServerConnection _connection;
+        private volatile long _lastUsed = System.currentTimeMillis();
+        private long _openedAt;
+        private int _failures;
+        private long _retryAt;
+        private boolean _evicted;
+
+        NodeConnection(JMXServiceURL jmxServiceURL)
+        {
+            _jmxServiceURL = jmxServiceURL;
+        }
+
+        MBeanServerConnection getConnection() throws IOException
+        {
+            _lastUsed = System.currentTimeMillis();
+            MBeanServerConnection connection = _connection;
+            if (connection != null)
+                return connection;
+
+            MBeanServerConnection opened;
+            synchronized (this)
+            {
+                if (_connection != null)
+                    return _connection;
+                if (_evicted)
+                    return null;
+
+                long now = System.currentTimeMillis();
+                if (now < _retryAt)
+                    throw new IOException("Not reconnecting to " + _jmxServiceURL + " for another " + (_retryAt - now) + "ms after " + _failures + " failed attempt(s)");
+
+                LOG.debug("getConnection: opening jmx connection to: " + _jmxServiceURL);
+                JMXConnector connector = null;
+                try
+                {
+                    connector = connect(_jmxServiceURL);
+                    connector.addConnectionNotificationListener(this,null,connector);
+                    opened = connector.getMBeanServerConnection();
+                }
+                catch (IOException e)
+                {
+                    if (connector != null)
+                        closeQuietly(connector);
+                    backOff(now,++_failures);
+                    LOG.warn("Couldn't connect to " + _jmxServiceURL + " (" + _failures + " failed attempt(s)), retrying in " + (_retryAt - now) + "ms: " + e);
+                    throw e;
+                }
+                _connector = connector;
+                _openedAt = now;
+                _retryAt = 0;
+                // tell the listeners before anyone else can use it
+                for (Listener listener : _listeners)
+                    listener.connectionOpened(_jmxServiceURL,opened);
+                _connection = opened;
+            }
+            return opened;
+        }
+
+        boolean isConnected()
+        {
+            return _connection != null;
+        }
+
+        /**
+         * Mark the node evicted if it is neither connected nor failing, so
+         * that no-one connects to it once it has been forgotten.
+         */
+        synchronized boolean evict()
+        {
+            if (_connection == null && _failures == 0)
+                _evicted = true;
+            return _evicted;
+        }
+
+        /**
+         * Wait before reconnecting, for the retry delay doubled for every
+         * failure but the first.
+         */
+        private void backOff(long now, int failures)
+        {
+            long delay = _retryDelay << Math.min(failures - 1,30);
+            _retryAt = now + Math.min(delay <= 0?_maxRetryDelay:delay,_maxRetryDelay);
+        }
+
+        void failed(MBeanServerConnection connection)
+        {
+            synchronized (this)
+            {
+                if (_connection == null || connection != _connection)
+                    return;
+                long now = System.currentTimeMillis();
+                // a connection that stayed up a good while clears the record
+                if (now - _openedAt >= _maxRetryDelay)
+                    _failures = 0;
+                if (++_failures > 1)
+                {
+                    backOff(now,_failures - 1);
+                    LOG.warn("Connection to " + _jmxServiceURL + " failed again (" + _failures + " failure(s)), reconnecting in " + (_retryAt - now) + "ms");
+                }
+            }
+            close(connection,"failed");
+        }
+
+        /**
+         * @param connection the connection to close, or null for whichever is open
+         */
+        void close(MBeanServerConnection connection, String why)
+        {
+            JMXConnector connector;
+            synchronized (this)
+            {
+                if (_connection == null || (connection != null && connection != _connection))
+                    return;
+                connector = _connector;
+                _connector = null;
+                _connection = null;
+            }
+            LOG.debug("Closing jmx connection to " + _jmxServiceURL + ": " + why);
+            for (Listener listener : _listeners)
+                listener.connectionClosed(_jmxServiceURL);
+            try
+            {
+                connector.removeConnectionNotificationListener(this);
+            }
+            catch (Exception e)
+            {
+                LOG.ignore(e);
+            }
+            closeQuietly(connector);
+        }
+
+        boolean closeIfIdle(long idleSince)
+        {
+            MBeanServerConnection connection = _connection;
+            if (connection == null || _lastUsed >= idleSince)
+                return false;
+            synchronized (this)
+            {
+                // it has not failed lately, or it would not be idle
+                if (connection == _connection)
+                    _failures = 0;
+            }
+            close(connection,"idle");
+            return true;
+        }
+
+        public void handleNotification(Notification notification, Object handback)
+        {
+            String type = notification.getType();
+            if (JMXConnectionNotification.CLOSED.equals(type) || JMXConnectionNotification.FAILED.equals(type))
+            {
+                MBeanServerConnection connection;
+                synchronized (this)
+                {
+                    // ignore the death throes of a connector we replaced already
+                    if (handback != _connector)
+                        return;
+                    connection = _connection;
+                }
+                close(connection,type);
+            }
+            else if (JMXConnectionNotification.NOTIFS_LOST.equals(type))
+            {
+                // MBean registrations may have been missed
+                synchronized (this)
+                {
+                    if (handback != _connector)
+                        return;
+                }
+                for (Listener listener : _listeners)
+                    listener.notificationsLost(_jmxServiceURL);
+            }
+        }
+    }
+}
@@ -13,63 +13,152 @@
 
 package org.mortbay.jetty.jmx.ws.service.impl;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.util.HashSet;
-import java.util.Properties;
-import java.util.Set;
-
-import javax.management.remote.JMXServiceURL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.mortbay.jetty.jmx.ws.domain.JMXNode;
 import org.mortbay.jetty.jmx.ws.service.JMXNodeService;
+import org.mortbay.jetty.jmx.ws.service.NodeDiscovery;
 
 /* ------------------------------------------------------------ */
 /**
+ * Keeps the nodes found by a {@link NodeDiscovery} as an immutable snapshot,
+ * which every request shares. The discovery is asked whether anything has
+ * changed at most once per check interval, and the nodes are only read
+ * again when it has; if reading them fails, the last good snapshot stays.
  */
 public class JMXNodeServiceImpl implements JMXNodeService
 {
     private static final Logger LOG = Log.getLogger(JMXNodeServiceImpl.class);
 
-    private Properties _properties = new Properties();
+    /** a properties file or a directory of them; jmxNodes.properties from the classpath if not set */
+    public static final String DEFAULT_NODES = System.getProperty("org.mortbay.jetty.jmx.ws.nodes");
+    public static final long DEFAULT_CHECK_INTERVAL = Long.getLong("org.mortbay.jetty.jmx.ws.nodesCheckInterval",5000L);
+
+    private final NodeDiscovery _discovery;
+    private final long _checkInterval;
+    private final Object _lock = new Object();
+    private volatile Registry _registry;
+    private volatile long _nextCheck;
 
-    public Set<JMXNode> getNodes()
+    public JMXNodeServiceImpl()
     {
-        @SuppressWarnings("static-access")
-        InputStream propertyInputStream = this.getClass().getClassLoader().getResourceAsStream("jmxNodes.properties");
-        if(propertyInputStream==null)
-            throw new IllegalStateException("Couldn't read jmxNodes.properties file!");
-        Set<JMXNode> jmxNodes = new HashSet<JMXNode>();
-        try
+        this(newDefaultDiscovery(),DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * @param checkInterval how long to go on using the nodes before asking the
+     * discovery whether they have changed, in ms; 0 to ask every time
+     */
+    public JMXNodeServiceImpl(NodeDiscovery discovery, long checkInterval)
+    {
+        _discovery = discovery;
+        _checkInterval = checkInterval;
+    }
+
+    public static JMXNodeService getInstance()
+    {
+        return Holder.INSTANCE;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Creates the instance on first use, so every caller shares one
+     * snapshot of the nodes.
+     */
+    private static class Holder
+    {
+        private static final JMXNodeService INSTANCE = new JMXNodeServiceImpl();
+    }
+
+    public Collection<JMXNode> getNodes()
+    {
+        return getRegistry()._nodes;
+    }
+
+    public JMXNode getNode(String nodeName)
+    {
+        return getRegistry()._nodesByName.get(nodeName);
+    }
+
+    private Registry getRegistry()
+    {
+        Registry registry = _registry;
+        if (registry != null && System.currentTimeMillis() < _nextCheck)
+            return registry;
+        synchronized (_lock)
         {
-            _properties.load(propertyInputStream);
-            String nodeString = (String)_properties.get("nodes");
-            String[] nodes = nodeString.split(",");
-            for (String string : nodes)
+            registry = _registry;
+            long now = System.currentTimeMillis();
+            if (registry != null && now < _nextCheck)
+                return registry;
+
+            long lastModified = _discovery.getLastModified();
+            if (registry == null || lastModified != registry._lastModified)
             {
-                String jmxServiceURL = "service:jmx:rmi:///jndi/rmi://" + string + "/jettyjmx";
-                jmxNodes.add(new JMXNode(string,new JMXServiceURL(jmxServiceURL)));
+                try
+                {
+                    registry = new Registry(_discovery.discover(),lastModified);
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("getRegistry: {} nodes from {}",registry._nodes.size(),_discovery);
+                }
+                catch (IOException e)
+                {
+                    if (registry == null)
+                        throw new IllegalStateException("Couldn't read nodes from " + _discovery,e);
+                    LOG.warn("getRegistry: Couldn't read nodes from " + _discovery + ", keeping the previous ones: ",e);
+                }
+                _registry = registry;
             }
+            _nextCheck = now + _checkInterval;
+            return registry;
         }
-        catch (IOException e)
+    }
+
+    private static NodeDiscovery newDefaultDiscovery()
+    {
+        if (DEFAULT_NODES == null)
+            return new PropertiesNodeDiscovery();
+        File file = new File(DEFAULT_NODES);
+        if (file.isDirectory())
+            return new DirectoryNodeDiscovery(file);
+        try
         {
-            LOG.warn(e);
+            return new PropertiesNodeDiscovery(file);
         }
-        finally
+        catch (IOException e)
         {
-            try
-            {
-                propertyInputStream.close();
-            }
-            catch (IOException e)
-            {
-                LOG.warn("getNodes: Couldn't close InputStream. This might lead to a file descriptor leak: ",e);
-            }
+            throw new IllegalStateException("Couldn't read nodes from " + file,e);
         }
-        return jmxNodes;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * One immutable snapshot of the nodes, indexed by name.
+     */
+    private static class Registry
+    {
+        private final Collection<JMXNode> _nodes;
+        private final Map<String, JMXNode> _nodesByName;
+        private final long _lastModified;
+
+        private Registry(Collection<JMXNode> nodes, long lastModified)
+        {
+            Map<String, JMXNode> nodesByName = new LinkedHashMap<String, JMXNode>();
+            for (JMXNode node : nodes)
+                nodesByName.put(node.getNodeName(),node);
+            List<JMXNode> unique = new ArrayList<JMXNode>(nodesByName.values());
+            _nodes = Collections.unmodifiableList(unique);
+            _nodesByName = Collections.unmodifiableMap(nodesByName);
+            _lastModified = lastModified;
+        }
+    }
 }
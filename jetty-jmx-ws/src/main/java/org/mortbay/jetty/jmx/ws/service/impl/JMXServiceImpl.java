@@ -17,16 +17,22 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanOperationInfo;
 import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
-import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 
 import org.eclipse.jetty.util.log.Log;
@@ -47,31 +53,71 @@ public class JMXServiceImpl implements JMXService
     public static final String MEMORY_MXBEAN_OBJECT_PENDING_FINALIZATION = "ObjectPendingFinalizationCount";
     public static final String MEMORY_MXBEAN_VERBOSE = "Verbose";
 
-    private static Map<JMXServiceURL, MBeanServerConnection> connections = new HashMap<JMXServiceURL, MBeanServerConnection>();
+    private final MBeanMetaDataCache _metaDataCache = new MBeanMetaDataCache();
 
-    private static JMXService jmxService;
+    private final JMXConnectionManager _connectionManager;
+
+    // the notification listeners to add again whenever a node is reconnected
+    private final ConcurrentMap<JMXServiceURL, Set<NotificationRegistration>> _notificationRegistrations = new ConcurrentHashMap<JMXServiceURL, Set<NotificationRegistration>>();
 
     private JMXServiceImpl()
     {
+        this(new JMXConnectionManager());
     }
 
-    public static JMXService getInstance()
+    JMXServiceImpl(JMXConnectionManager connectionManager)
     {
-        if (jmxService == null)
+        _connectionManager = connectionManager;
+        _connectionManager.addListener(new JMXConnectionManager.Listener()
         {
-            jmxService = new JMXServiceImpl();
-        }
-        return jmxService;
+            public void connectionOpened(JMXServiceURL jmxServiceURL, MBeanServerConnection connection)
+            {
+                _metaDataCache.invalidate(jmxServiceURL);
+                _metaDataCache.watch(jmxServiceURL,connection);
+                for (NotificationRegistration registration : getNotificationRegistrations(jmxServiceURL))
+                    registration.register(connection);
+            }
+
+            public void connectionClosed(JMXServiceURL jmxServiceURL)
+            {
+                _metaDataCache.invalidate(jmxServiceURL);
+            }
+
+            public void notificationsLost(JMXServiceURL jmxServiceURL)
+            {
+                // the cache is still watching, but may have missed MBeans
+                // coming and going
+                _metaDataCache.clear(jmxServiceURL);
+            }
+        });
+    }
+
+    public static JMXService getInstance()
+    {
+        return Holder.INSTANCE;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Creates the instance on first use; class initialisation publishes
+     * it safely to every thread.
+     */
+    private static class Holder
+    {
+        private static final JMXService INSTANCE = new JMXServiceImpl();
     }
     
     public Set<ObjectName> getObjectNames(JMXServiceURL jmxServiceURL)
     {
+        MBeanServerConnection connection = null;
         try
         {
-            return getConnection(jmxServiceURL).queryNames(null,null);
+            connection = getConnection(jmxServiceURL);
+            return _metaDataCache.queryNames(jmxServiceURL,connection,null);
         }
         catch (IOException e)
         {
+            checkConnection(jmxServiceURL,connection,e);
             LOG.warn("getObjectNames: ",e);
         }
         return Collections.emptySet();
@@ -79,7 +125,20 @@ public class JMXServiceImpl implements JMXService
 
     public Set<String> getObjectNamesByPrefix(JMXServiceURL jmxServiceURL, String prefix)
     {
-        Set<ObjectName> objectNames = getObjectNames(jmxServiceURL);
+        Set<ObjectName> objectNames;
+        MBeanServerConnection connection = null;
+        try
+        {
+            connection = getConnection(jmxServiceURL);
+            // let the node narrow the names down, rather than shipping them all here
+            objectNames = _metaDataCache.queryNames(jmxServiceURL,connection,toPattern(prefix));
+        }
+        catch (IOException e)
+        {
+            checkConnection(jmxServiceURL,connection,e);
+            LOG.warn("getObjectNamesByPrefix: ",e);
+            return Collections.emptySet();
+        }
         Set<String> filteredObjectNames = new HashSet<String>();
         for (ObjectName objectName : objectNames)
         {
@@ -90,11 +149,42 @@ public class JMXServiceImpl implements JMXService
         return filteredObjectNames;
     }
 
+    /**
+     * @return an ObjectName pattern which matches at least every name that
+     * starts with the prefix, or null to match all names
+     */
+    static ObjectName toPattern(String prefix)
+    {
+        int colon = prefix.indexOf(':');
+        if (colon < 0)
+            return newPattern(prefix + "*:*");
+
+        // eg "domain:type=serv" becomes "domain:type=serv*,*" - failing
+        // which, eg part way through a key, the domain alone will do
+        String properties = prefix.endsWith(":") || prefix.endsWith(",")?prefix + "*":prefix + "*,*";
+        ObjectName pattern = newPattern(properties);
+        return pattern != null?pattern:newPattern(prefix.substring(0,colon) + ":*");
+    }
+
+    private static ObjectName newPattern(String pattern)
+    {
+        try
+        {
+            return new ObjectName(pattern);
+        }
+        catch (MalformedObjectNameException e)
+        {
+            return null;
+        }
+    }
+
     public MBeanAttributeInfo[] getAttributes(JMXServiceURL jmxServiceURL, String objectName) throws InstanceNotFoundException
     {
+        MBeanServerConnection connection = null;
         try
         {
-            return getConnection(jmxServiceURL).getMBeanInfo(new ObjectName(objectName)).getAttributes();
+            connection = getConnection(jmxServiceURL);
+            return _metaDataCache.getMBeanInfo(jmxServiceURL,connection,new ObjectName(objectName)).getAttributes();
         }
         catch (InstanceNotFoundException e)
         {
@@ -102,6 +192,7 @@ public class JMXServiceImpl implements JMXService
         }
         catch (Exception e)
         {
+            checkConnection(jmxServiceURL,connection,e);
             LOG.warn("getAttributes: ",e);
         }
         return new MBeanAttributeInfo[] {};
@@ -109,9 +200,11 @@ public class JMXServiceImpl implements JMXService
 
     public MBeanOperationInfo[] getOperations(JMXServiceURL jmxServiceURL, String objectName) throws InstanceNotFoundException
     {
+        MBeanServerConnection connection = null;
         try
         {
-            return getConnection(jmxServiceURL).getMBeanInfo(new ObjectName(objectName)).getOperations();
+            connection = getConnection(jmxServiceURL);
+            return _metaDataCache.getMBeanInfo(jmxServiceURL,connection,new ObjectName(objectName)).getOperations();
         }
         catch (InstanceNotFoundException e)
         {
@@ -119,6 +212,7 @@ public class JMXServiceImpl implements JMXService
         }
         catch (Exception e)
         {
+            checkConnection(jmxServiceURL,connection,e);
             LOG.warn("getOperations: ",e);
         }
         return new MBeanOperationInfo[] {};
@@ -126,13 +220,16 @@ public class JMXServiceImpl implements JMXService
 
     public Object invoke(JMXServiceURL jmxServiceURL, String objectName, String operationName, Object[] params, String[] signature)
     {
+        MBeanServerConnection connection = null;
         try
         {
             LOG.debug("invoke: jmxServiceURL: " + jmxServiceURL.toString() + ", objectName: " + objectName + ", operationName: " + operationName); //TODO: remove me
-            return getConnection(jmxServiceURL).invoke(new ObjectName(objectName),operationName,params,signature);
+            connection = getConnection(jmxServiceURL);
+            return connection.invoke(new ObjectName(objectName),operationName,params,signature);
         }
         catch (Exception e)
         {
+            checkConnection(jmxServiceURL,connection,e);
             LOG.warn("invoke: jmxServiceURL: " + jmxServiceURL.toString() + ", objectName: " + objectName + ", operationName: " + operationName,e);
             return e.toString();
         }
@@ -140,9 +237,11 @@ public class JMXServiceImpl implements JMXService
 
     public Object getAttribute(JMXServiceURL jmxServiceURL, String objectName, String attribute) throws InstanceNotFoundException
     {
+        MBeanServerConnection connection = null;
         try
         {
-            return getConnection(jmxServiceURL).getAttribute(new ObjectName(objectName),attribute);
+            connection = getConnection(jmxServiceURL);
+            return connection.getAttribute(new ObjectName(objectName),attribute);
         }
         catch (InstanceNotFoundException e)
         {
@@ -150,21 +249,166 @@ public class JMXServiceImpl implements JMXService
         }
         catch (Exception e)
         {
+            checkConnection(jmxServiceURL,connection,e);
             LOG.warn("Couldn't get attribute: " + attribute,e);
             return e.toString();
         }
 
     }
 
-    private MBeanServerConnection getConnection(JMXServiceURL jmxServiceURL) throws IOException
+    public Map<String, Object> getAttributeValues(JMXServiceURL jmxServiceURL, String objectName, String[] attributeNames) throws InstanceNotFoundException
+    {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        MBeanServerConnection connection = null;
+        try
+        {
+            connection = getConnection(jmxServiceURL);
+            AttributeList attributes = connection.getAttributes(new ObjectName(objectName),attributeNames);
+            Map<String, Object> fetched = new HashMap<String, Object>();
+            for (Object attribute : attributes)
+                fetched.put(((Attribute)attribute).getName(),((Attribute)attribute).getValue());
+            for (String attributeName : attributeNames)
+            {
+                // an attribute which could not be read is left out of the
+                // list - ask for it alone, to find out why
+                if (fetched.containsKey(attributeName))
+                    values.put(attributeName,fetched.get(attributeName));
+                else
+                    values.put(attributeName,getAttribute(jmxServiceURL,objectName,attributeName));
+            }
+        }
+        catch (InstanceNotFoundException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            checkConnection(jmxServiceURL,connection,e);
+            LOG.warn("Couldn't get attributes of: " + objectName,e);
+            for (String attributeName : attributeNames)
+                values.put(attributeName,e.toString());
+        }
+        return values;
+    }
+
+    public void addNotificationListener(JMXServiceURL jmxServiceURL, String objectName, NotificationListener listener) throws InstanceNotFoundException
+    {
+        NotificationRegistration registration = new NotificationRegistration(objectName,listener);
+        MBeanServerConnection connection = null;
+        try
+        {
+            connection = getConnection(jmxServiceURL);
+            registration.add(connection);
+        }
+        catch (InstanceNotFoundException e)
+        {
+            throw e;
+        }
+        catch (IOException e)
+        {
+            // added when the node is reconnected
+            checkConnection(jmxServiceURL,connection,e);
+            LOG.debug("addNotificationListener: " + jmxServiceURL + " is unreachable, will listen to " + objectName + " once it is back: " + e);
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Couldn't listen to notifications of " + objectName + " on " + jmxServiceURL + ": ",e);
+            return;
+        }
+        getNotificationRegistrations(jmxServiceURL).add(registration);
+    }
+
+    public void removeNotificationListener(JMXServiceURL jmxServiceURL, String objectName, NotificationListener listener)
+    {
+        NotificationRegistration registration = new NotificationRegistration(objectName,listener);
+        if (!getNotificationRegistrations(jmxServiceURL).remove(registration))
+            return;
+        try
+        {
+            getConnection(jmxServiceURL).removeNotificationListener(new ObjectName(objectName),listener);
+        }
+        catch (Exception e)
+        {
+            LOG.debug("removeNotificationListener: ",e);
+        }
+    }
+
+    public void destroy()
+    {
+        _connectionManager.destroy();
+        _notificationRegistrations.clear();
+    }
+
+    private Set<NotificationRegistration> getNotificationRegistrations(JMXServiceURL jmxServiceURL)
     {
-        if (connections.get(jmxServiceURL) == null)
+        Set<NotificationRegistration> registrations = _notificationRegistrations.get(jmxServiceURL);
+        if (registrations == null)
         {
-            LOG.debug("getConnection: opening jmx connection to: " + jmxServiceURL.toString());
-            JMXConnector jmxConnector = JMXConnectorFactory.connect(jmxServiceURL,null);
-            connections.put(jmxServiceURL,jmxConnector.getMBeanServerConnection());
+            Set<NotificationRegistration> newRegistrations = new CopyOnWriteArraySet<NotificationRegistration>();
+            registrations = _notificationRegistrations.putIfAbsent(jmxServiceURL,newRegistrations);
+            if (registrations == null)
+                registrations = newRegistrations;
         }
-        return connections.get(jmxServiceURL);
+        return registrations;
     }
 
+    private MBeanServerConnection getConnection(JMXServiceURL jmxServiceURL) throws IOException
+    {
+        return _connectionManager.getConnection(jmxServiceURL);
+    }
+
+    /**
+     * Drop the node's connection if the failure says it is broken, so that
+     * the next request reconnects rather than failing the same way.
+     */
+    private void checkConnection(JMXServiceURL jmxServiceURL, MBeanServerConnection connection, Exception failure)
+    {
+        if (connection != null && failure instanceof IOException)
+            _connectionManager.connectionFailed(jmxServiceURL,connection);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class NotificationRegistration
+    {
+        private final String _objectName;
+        private final NotificationListener _listener;
+
+        NotificationRegistration(String objectName, NotificationListener listener)
+        {
+            _objectName = objectName;
+            _listener = listener;
+        }
+
+        void add(MBeanServerConnection connection) throws Exception
+        {
+            connection.addNotificationListener(new ObjectName(_objectName),_listener,null,null);
+        }
+
+        void register(MBeanServerConnection connection)
+        {
+            try
+            {
+                add(connection);
+            }
+            catch (Exception e)
+            {
+                LOG.warn("Couldn't listen to notifications of " + _objectName + " again: " + e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof NotificationRegistration))
+                return false;
+            NotificationRegistration other = (NotificationRegistration)o;
+            return _objectName.equals(other._objectName) && _listener == other._listener;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _objectName.hashCode() * 31 + System.identityHashCode(_listener);
+        }
+    }
 }
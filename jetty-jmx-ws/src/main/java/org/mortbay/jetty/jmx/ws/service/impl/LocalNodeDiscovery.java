@@ -0,0 +1,80 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.remote.JMXServiceURL;
+
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.service.NodeDiscovery;
+import org.mortbay.jetty.jmx.ws.util.JMXServiceURLUtils;
+
+/* ------------------------------------------------------------ */
+/**
+ * Nodes registered in memory - a stand-in for a real registry, for tests
+ * and for a webapp watching the server it runs in.
+ */
+public class LocalNodeDiscovery implements NodeDiscovery
+{
+    private final Map<String, JMXNode> _nodes = new LinkedHashMap<String, JMXNode>();
+    private long _version;
+
+    public LocalNodeDiscovery()
+    {
+    }
+
+    /**
+     * @return a registry of the one node this JVM is - as found through its
+     * org.eclipse.jetty:name=rmiconnectorserver MBean
+     */
+    public static LocalNodeDiscovery getLocalNode()
+    {
+        LocalNodeDiscovery discovery = new LocalNodeDiscovery();
+        discovery.addNode("localhost",JMXServiceURLUtils.getLocalJMXServiceURL());
+        return discovery;
+    }
+
+    public synchronized void addNode(String nodeName, JMXServiceURL jmxServiceURL)
+    {
+        _nodes.put(nodeName,new JMXNode(nodeName,jmxServiceURL));
+        _version++;
+    }
+
+    public synchronized void removeNode(String nodeName)
+    {
+        if (_nodes.remove(nodeName) != null)
+            _version++;
+    }
+
+    public synchronized Collection<JMXNode> discover()
+    {
+        return new ArrayList<JMXNode>(_nodes.values());
+    }
+
+    public synchronized long getLastModified()
+    {
+        return _version;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "local" + _nodes.keySet();
+    }
+}
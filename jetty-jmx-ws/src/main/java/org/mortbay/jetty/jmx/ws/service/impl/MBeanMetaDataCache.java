@@ -0,0 +1,197 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.remote.JMXServiceURL;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/**
+ * Remembers, per node, the MBeanInfo of each MBean and the results of name
+ * queries, so that rendering a page does not fetch the same metadata from
+ * the node over and over.
+ * 
+ * Entries live for a fixed time. Once {@link #watch(JMXServiceURL, MBeanServerConnection)}
+ * has subscribed to a node's MBean registration notifications they are
+ * also dropped as soon as an MBean comes or goes, so the time to live only
+ * bounds how stale the cache can get if a notification is lost.
+ */
+public class MBeanMetaDataCache
+{
+    private static final Logger LOG = Log.getLogger(MBeanMetaDataCache.class);
+
+    public static final long DEFAULT_TTL = Long.getLong("org.mortbay.jetty.jmx.ws.metaDataTtl",60000L);
+
+    private final long _ttl;
+    private final ConcurrentMap<JMXServiceURL, NodeMetaData> _nodes = new ConcurrentHashMap<JMXServiceURL, NodeMetaData>();
+
+    public MBeanMetaDataCache()
+    {
+        this(DEFAULT_TTL);
+    }
+
+    /**
+     * @param ttl how long, in ms, to keep an entry
+     */
+    public MBeanMetaDataCache(long ttl)
+    {
+        _ttl = ttl;
+    }
+
+    public MBeanInfo getMBeanInfo(JMXServiceURL jmxServiceURL, MBeanServerConnection connection, ObjectName objectName) throws InstanceNotFoundException,
+            IntrospectionException, ReflectionException, IOException
+    {
+        NodeMetaData node = getNode(jmxServiceURL);
+        Entry<MBeanInfo> entry = node._mBeanInfos.get(objectName);
+        if (entry != null && !entry.isExpired())
+            return entry._value;
+
+        MBeanInfo mBeanInfo = connection.getMBeanInfo(objectName);
+        node._mBeanInfos.put(objectName,new Entry<MBeanInfo>(mBeanInfo,_ttl));
+        return mBeanInfo;
+    }
+
+    /**
+     * @param pattern the ObjectName pattern to query, or null for all names
+     */
+    public Set<ObjectName> queryNames(JMXServiceURL jmxServiceURL, MBeanServerConnection connection, ObjectName pattern) throws IOException
+    {
+        NodeMetaData node = getNode(jmxServiceURL);
+        String key = pattern == null?"":pattern.getCanonicalName();
+        Entry<Set<ObjectName>> entry = node._names.get(key);
+        if (entry != null && !entry.isExpired())
+            return entry._value;
+
+        // read the generation first: if an MBean comes or goes while we
+        // query, the answer may already be stale, so do not keep it
+        long generation = node._generation;
+        Set<ObjectName> objectNames = Collections.unmodifiableSet(connection.queryNames(pattern,null));
+        if (generation == node._generation)
+            node._names.put(key,new Entry<Set<ObjectName>>(objectNames,_ttl));
+        return objectNames;
+    }
+
+    /**
+     * Subscribe to a node's MBean registration notifications, so that
+     * entries are dropped as soon as they change.
+     */
+    public void watch(JMXServiceURL jmxServiceURL, MBeanServerConnection connection)
+    {
+        final NodeMetaData node = getNode(jmxServiceURL);
+        try
+        {
+            connection.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME,node,null,null);
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Couldn't listen for MBean registrations on " + jmxServiceURL + ", relying on a " + _ttl + "ms ttl: ",e);
+        }
+    }
+
+    /**
+     * Forget everything about a node - e.g. because its connection was lost.
+     */
+    public void invalidate(JMXServiceURL jmxServiceURL)
+    {
+        NodeMetaData node = _nodes.remove(jmxServiceURL);
+        if (node != null)
+            node.clear();
+    }
+
+    /**
+     * Forget what is known about a node's MBeans, but keep watching it -
+     * e.g. because some of its notifications were lost.
+     */
+    public void clear(JMXServiceURL jmxServiceURL)
+    {
+        NodeMetaData node = _nodes.get(jmxServiceURL);
+        if (node != null)
+            node.clear();
+    }
+
+    private NodeMetaData getNode(JMXServiceURL jmxServiceURL)
+    {
+        NodeMetaData node = _nodes.get(jmxServiceURL);
+        if (node == null)
+        {
+            NodeMetaData newNode = new NodeMetaData();
+            node = _nodes.putIfAbsent(jmxServiceURL,newNode);
+            if (node == null)
+                node = newNode;
+        }
+        return node;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class NodeMetaData implements NotificationListener
+    {
+        private final ConcurrentMap<ObjectName, Entry<MBeanInfo>> _mBeanInfos = new ConcurrentHashMap<ObjectName, Entry<MBeanInfo>>();
+        private final ConcurrentMap<String, Entry<Set<ObjectName>>> _names = new ConcurrentHashMap<String, Entry<Set<ObjectName>>>();
+        private volatile long _generation;
+
+        public void handleNotification(Notification notification, Object handback)
+        {
+            if (notification instanceof MBeanServerNotification)
+            {
+                _generation++;
+                _names.clear();
+                _mBeanInfos.remove(((MBeanServerNotification)notification).getMBeanName());
+            }
+        }
+
+        void clear()
+        {
+            _generation++;
+            _names.clear();
+            _mBeanInfos.clear();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class Entry<T>
+    {
+        private final T _value;
+        private final long _expires;
+
+        Entry(T value, long ttl)
+        {
+            _value = value;
+            _expires = System.currentTimeMillis() + ttl;
+        }
+
+        boolean isExpired()
+        {
+            return System.currentTimeMillis() > _expires;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+
+/* ------------------------------------------------------------ */
+/**
+ * Runs a query against many nodes at once, on a bounded pool of threads.
+ * 
+ * Every node gets the same deadline. A node that fails, or has not answered
+ * by then, is reported as degraded rather than failing or stalling the whole
+ * aggregate, so a response costs the slowest live node's round trip - capped
+ * at the timeout - rather than the sum of all of them.
+ * 
+ * A query that times out is cancelled, but a thread blocked in an RMI call
+ * cannot be interrupted, so it stays busy until the call returns. To stop a
+ * hung node from taking every thread, each node may only have a few queries
+ * in flight: once it has that many, it is reported as degraded straight away
+ * until some of them return. The queue of waiting queries is bounded too.
+ */
+public class NodeQueryExecutor
+{
+    private static final Logger LOG = Log.getLogger(NodeQueryExecutor.class);
+
+    public static final int DEFAULT_THREADS = Integer.getInteger("org.mortbay.jetty.jmx.ws.threads",16);
+    public static final long DEFAULT_TIMEOUT = Long.getLong("org.mortbay.jetty.jmx.ws.timeout",5000L);
+    public static final int DEFAULT_QUERIES_PER_NODE = Integer.getInteger("org.mortbay.jetty.jmx.ws.queriesPerNode",4);
+
+    private final ThreadPoolExecutor _executor;
+    private final long _timeout;
+    private final int _queriesPerNode;
+    // node name:queries submitted for it that have not yet returned
+    private final ConcurrentMap<String, AtomicInteger> _inFlight = new ConcurrentHashMap<String, AtomicInteger>();
+
+    public NodeQueryExecutor()
+    {
+        this(DEFAULT_THREADS,DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param threads the most queries to run at once
+     * @param timeout how long, in ms, to wait for the nodes to answer
+     */
+    public NodeQueryExecutor(int threads, long timeout)
+    {
+        this(threads,timeout,Math.min(threads,DEFAULT_QUERIES_PER_NODE));
+    }
+
+    /**
+     * @param threads the most queries to run at once
+     * @param timeout how long, in ms, to wait for the nodes to answer
+     * @param queriesPerNode the most queries that may be in flight for one node
+     */
+    public NodeQueryExecutor(int threads, long timeout, int queriesPerNode)
+    {
+        final AtomicInteger count = new AtomicInteger();
+        // the threads live until destroy() - allowCoreThreadTimeOut is java 6
+        _executor = new ThreadPoolExecutor(threads,threads,0,TimeUnit.SECONDS,new ArrayBlockingQueue<Runnable>(threads * 4),new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable,"jmx-ws-node-query-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _timeout = timeout;
+        _queriesPerNode = queriesPerNode;
+    }
+
+    public long getTimeout()
+    {
+        return _timeout;
+    }
+
+    public void destroy()
+    {
+        _executor.shutdownNow();
+    }
+
+    /**
+     * Query every node, and wait for the answers until the timeout.
+     * 
+     * @return a result for every node, in the order of the nodes given
+     */
+    public <T> List<NodeResult<T>> invokeAll(Collection<JMXNode> jmxNodes, NodeQuery<T> query)
+    {
+        return invokeAll(jmxNodes,query,_timeout);
+    }
+
+    /**
+     * Query every node, and wait for the answers until the given timeout.
+     * 
+     * @param timeout how long, in ms, to wait for the nodes to answer
+     * @return a result for every node, in the order of the nodes given
+     */
+    public <T> List<NodeResult<T>> invokeAll(Collection<JMXNode> jmxNodes, final NodeQuery<T> query, long timeout)
+    {
+        List<Future<T>> futures = new ArrayList<Future<T>>(jmxNodes.size());
+        List<RejectedExecutionException> rejections = new ArrayList<RejectedExecutionException>(jmxNodes.size());
+        for (final JMXNode jmxNode : jmxNodes)
+        {
+            // a query is no longer in flight once it returns - or once it is
+            // cancelled, if it never started...
+            final AtomicInteger inFlight = inFlight(jmxNode);
+            final AtomicBoolean started = new AtomicBoolean();
+            FutureTask<T> task = new FutureTask<T>(new Callable<T>()
+            {
+                public T call() throws Exception
+                {
+                    if (!started.compareAndSet(false,true))
+                        return null;
+                    try
+                    {
+                        return query.query(jmxNode);
+                    }
+                    finally
+                    {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            })
+            {
+                @Override
+                protected void done()
+                {
+                    if (started.compareAndSet(false,true))
+                        inFlight.decrementAndGet();
+                }
+            };
+            if (inFlight.incrementAndGet() > _queriesPerNode)
+            {
+                inFlight.decrementAndGet();
+                futures.add(null);
+                rejections.add(new RejectedExecutionException("node " + jmxNode.getNodeName() + " has " + _queriesPerNode + " queries outstanding"));
+                continue;
+            }
+            try
+            {
+                _executor.execute(task);
+                futures.add(task);
+                rejections.add(null);
+            }
+            catch (RejectedExecutionException e)
+            {
+                inFlight.decrementAndGet();
+                futures.add(null);
+                rejections.add(new RejectedExecutionException(_executor.isShutdown()?"node query executor is shut down":"node query executor is busy"));
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+        List<NodeResult<T>> results = new ArrayList<NodeResult<T>>(futures.size());
+        int i = 0;
+        for (JMXNode jmxNode : jmxNodes)
+        {
+            Future<T> future = futures.get(i);
+            RejectedExecutionException rejection = rejections.get(i++);
+            if (future == null)
+            {
+                results.add(new NodeResult<T>(jmxNode,null,rejection));
+                continue;
+            }
+            try
+            {
+                long wait = Math.max(0,deadline - System.currentTimeMillis());
+                results.add(new NodeResult<T>(jmxNode,future.get(wait,TimeUnit.MILLISECONDS),null));
+            }
+            catch (TimeoutException e)
+            {
+                future.cancel(true);
+                LOG.warn("node " + jmxNode.getNodeName() + " did not answer within " + timeout + "ms");
+                results.add(new NodeResult<T>(jmxNode,null,e));
+            }
+            catch (ExecutionException e)
+            {
+                results.add(new NodeResult<T>(jmxNode,null,e.getCause()));
+            }
+            catch (InterruptedException e)
+            {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                results.add(new NodeResult<T>(jmxNode,null,e));
+            }
+        }
+        return results;
+    }
+
+    private AtomicInteger inFlight(JMXNode jmxNode)
+    {
+        AtomicInteger inFlight = _inFlight.get(jmxNode.getNodeName());
+        if (inFlight == null)
+        {
+            inFlight = new AtomicInteger();
+            AtomicInteger existing = _inFlight.putIfAbsent(jmxNode.getNodeName(),inFlight);
+            if (existing != null)
+                inFlight = existing;
+        }
+        return inFlight;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A query to run against one node.
+     */
+    public interface NodeQuery<T>
+    {
+        T query(JMXNode jmxNode) throws Exception;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * What one node answered - or why it did not.
+     */
+    public static class NodeResult<T>
+    {
+        private final JMXNode _jmxNode;
+        private final T _value;
+        private final Throwable _failure;
+
+        public NodeResult(JMXNode jmxNode, T value, Throwable failure)
+        {
+            _jmxNode = jmxNode;
+            _value = value;
+            _failure = failure;
+        }
+
+        public JMXNode getJmxNode()
+        {
+            return _jmxNode;
+        }
+
+        public T getValue()
+        {
+            return _value;
+        }
+
+        public Throwable getFailure()
+        {
+            return _failure;
+        }
+
+        public boolean isDegraded()
+        {
+            return _failure != null;
+        }
+
+        public boolean isTimedOut()
+        {
+            return _failure instanceof TimeoutException;
+        }
+    }
+}
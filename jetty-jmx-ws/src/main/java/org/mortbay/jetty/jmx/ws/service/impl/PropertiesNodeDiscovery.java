@@ -0,0 +1,138 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.management.remote.JMXServiceURL;
+
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.service.NodeDiscovery;
+
+/* ------------------------------------------------------------ */
+/**
+ * Reads the nodes from a properties file, whose <code>nodes</code> property
+ * lists them as comma separated <code>host:port</code> pairs of their RMI
+ * registries.
+ */
+public class PropertiesNodeDiscovery implements NodeDiscovery
+{
+    public static final String DEFAULT_RESOURCE = "jmxNodes.properties";
+
+    private final URL _url;
+    private final File _file;
+
+    /**
+     * Read jmxNodes.properties from the classpath.
+     */
+    public PropertiesNodeDiscovery()
+    {
+        this(PropertiesNodeDiscovery.class.getClassLoader().getResource(DEFAULT_RESOURCE));
+    }
+
+    public PropertiesNodeDiscovery(File file) throws IOException
+    {
+        this(file.toURI().toURL());
+    }
+
+    public PropertiesNodeDiscovery(URL url)
+    {
+        if (url == null)
+            throw new IllegalStateException("Couldn't read jmxNodes.properties file!");
+        _url = url;
+        _file = toFile(url);
+    }
+
+    public List<JMXNode> discover() throws IOException
+    {
+        InputStream in = _url.openStream();
+        try
+        {
+            Properties properties = new Properties();
+            properties.load(in);
+            return parseNodes(properties);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public long getLastModified()
+    {
+        if (_file != null)
+            return _file.lastModified();
+        try
+        {
+            // e.g. in a jar - which does not change while we run
+            URLConnection connection = _url.openConnection();
+            connection.setUseCaches(false);
+            long lastModified = connection.getLastModified();
+            connection.getInputStream().close();
+            return lastModified;
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return _url.toString();
+    }
+
+    /**
+     * @return the nodes listed by the <code>nodes</code> property
+     */
+    public static List<JMXNode> parseNodes(Properties properties) throws IOException
+    {
+        List<JMXNode> jmxNodes = new ArrayList<JMXNode>();
+        String nodes = properties.getProperty("nodes");
+        if (nodes == null)
+            return jmxNodes;
+        for (String node : nodes.split(","))
+        {
+            node = node.trim();
+            if (node.length() == 0)
+                continue;
+            jmxNodes.add(new JMXNode(node,new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + node + "/jettyjmx")));
+        }
+        return jmxNodes;
+    }
+
+    private static File toFile(URL url)
+    {
+        if (!"file".equals(url.getProtocol()))
+            return null;
+        try
+        {
+            return new File(url.toURI());
+        }
+        catch (URISyntaxException e)
+        {
+            return new File(url.getPath());
+        }
+    }
+}
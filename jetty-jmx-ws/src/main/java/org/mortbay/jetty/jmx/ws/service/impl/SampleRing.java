@@ -0,0 +1,124 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+/* ------------------------------------------------------------ */
+/**
+ * A fixed number of the latest samples of one attribute, held in primitive
+ * arrays so that keeping a long history costs no garbage per sample.
+ * 
+ * Samples must be added in time order.
+ */
+public class SampleRing
+{
+    private final long[] _times;
+    private final double[] _values;
+    private int _next;
+    private int _size;
+
+    public SampleRing(int capacity)
+    {
+        _times = new long[capacity];
+        _values = new double[capacity];
+    }
+
+    public int getCapacity()
+    {
+        return _times.length;
+    }
+
+    public synchronized int size()
+    {
+        return _size;
+    }
+
+    /**
+     * Add a sample, overwriting the oldest if the ring is full.
+     */
+    public synchronized void add(long time, double value)
+    {
+        _times[_next] = time;
+        _values[_next] = value;
+        _next = (_next + 1) % _times.length;
+        if (_size < _times.length)
+            _size++;
+    }
+
+    /**
+     * @return the samples taken after the given time, oldest first
+     */
+    public synchronized Snapshot since(long since)
+    {
+        // walk back from the newest, as callers mostly want the last few
+        int count = 0;
+        while (count < _size && _times[index(_size - 1 - count)] > since)
+            count++;
+        return copy(_size - count,count);
+    }
+
+    /**
+     * @return the newest sample, if there is one
+     */
+    public synchronized Snapshot latest()
+    {
+        return copy(_size - Math.min(_size,1),Math.min(_size,1));
+    }
+
+    // the index of the nth oldest sample
+    private int index(int n)
+    {
+        return (_next - _size + n + _times.length) % _times.length;
+    }
+
+    private Snapshot copy(int from, int count)
+    {
+        long[] times = new long[count];
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++)
+        {
+            times[i] = _times[index(from + i)];
+            values[i] = _values[index(from + i)];
+        }
+        return new Snapshot(times,values);
+    }
+
+    /* ------------------------------------------------------------ */
+    public static class Snapshot
+    {
+        private final long[] _times;
+        private final double[] _values;
+
+        Snapshot(long[] times, double[] values)
+        {
+            _times = times;
+            _values = values;
+        }
+
+        public long[] getTimes()
+        {
+            return _times;
+        }
+
+        public double[] getValues()
+        {
+            return _values;
+        }
+
+        public int size()
+        {
+            return _times.length;
+        }
+    }
+}
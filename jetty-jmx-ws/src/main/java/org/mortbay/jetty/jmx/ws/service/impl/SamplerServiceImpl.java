@@ -0,0 +1,340 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.openmbean.CompositeData;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.domain.SampledAttribute;
+import org.mortbay.jetty.jmx.ws.domain.jaxb.SamplesJaxBean;
+import org.mortbay.jetty.jmx.ws.domain.jaxb.SeriesJaxBean;
+import org.mortbay.jetty.jmx.ws.service.JMXNodeService;
+import org.mortbay.jetty.jmx.ws.service.JMXService;
+import org.mortbay.jetty.jmx.ws.service.SamplerService;
+import org.mortbay.jetty.jmx.ws.service.impl.NodeQueryExecutor.NodeQuery;
+import org.mortbay.jetty.jmx.ws.service.impl.NodeQueryExecutor.NodeResult;
+
+/* ------------------------------------------------------------ */
+/**
+ * Samples the configured attributes of every node at a fixed interval, all
+ * nodes at once, into a {@link SampleRing} per node and attribute.
+ * 
+ * Sampling starts with the first request for samples. Each tick costs every
+ * node one bulk attribute read per MBean sampled, however many clients are
+ * watching. A tick waits for the nodes no longer than the interval, so a
+ * slow node misses samples rather than delaying the next tick for the
+ * others.
+ */
+public class SamplerServiceImpl implements SamplerService
+{
+    private static final Logger LOG = Log.getLogger(SamplerServiceImpl.class);
+
+    public static final String DEFAULT_SAMPLED_ATTRIBUTES = System.getProperty("org.mortbay.jetty.jmx.ws.samples",
+            "java.lang:type=Memory/HeapMemoryUsage.used;java.lang:type=Memory/HeapMemoryUsage.committed;java.lang:type=Memory/HeapMemoryUsage.max;"
+                    + "java.lang:type=Memory/NonHeapMemoryUsage.used;java.lang:type=Threading/ThreadCount;java.lang:type=Threading/PeakThreadCount");
+    public static final long DEFAULT_INTERVAL = Long.getLong("org.mortbay.jetty.jmx.ws.sampleInterval",1000L);
+    public static final int DEFAULT_HISTORY = Integer.getInteger("org.mortbay.jetty.jmx.ws.sampleHistory",300);
+
+    private final JMXService _jmxService;
+    private final JMXNodeService _jmxNodeService;
+    private final NodeQueryExecutor _nodeQueryExecutor;
+    private final List<SampledAttribute> _attributes;
+    // the attributes to read from each MBean, and where each goes in a node's samples
+    private final Map<String, String[]> _attributeNames = new LinkedHashMap<String, String[]>();
+    private final Map<String, int[]> _indexes = new LinkedHashMap<String, int[]>();
+    private final long _interval;
+    private final int _history;
+    private final ConcurrentMap<String, NodeSamples> _nodes = new ConcurrentHashMap<String, NodeSamples>();
+    private ScheduledExecutorService _scheduler;
+    private boolean _destroyed;
+
+    public SamplerServiceImpl()
+    {
+        this(JMXServiceImpl.getInstance(),JMXNodeServiceImpl.getInstance(),new NodeQueryExecutor(),parse(DEFAULT_SAMPLED_ATTRIBUTES),DEFAULT_INTERVAL,DEFAULT_HISTORY);
+    }
+
+    /**
+     * @param interval the time, in ms, between samples
+     * @param history how many samples of each attribute to keep per node
+     */
+    public SamplerServiceImpl(JMXService jmxService, JMXNodeService jmxNodeService, NodeQueryExecutor nodeQueryExecutor, List<SampledAttribute> attributes,
+            long interval, int history)
+    {
+        _jmxService = jmxService;
+        _jmxNodeService = jmxNodeService;
+        _nodeQueryExecutor = nodeQueryExecutor;
+        _attributes = Collections.unmodifiableList(new ArrayList<SampledAttribute>(attributes));
+        _interval = interval;
+        _history = history;
+
+        Map<String, List<Integer>> byObjectName = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < _attributes.size(); i++)
+        {
+            String objectName = _attributes.get(i).getObjectName();
+            if (!byObjectName.containsKey(objectName))
+                byObjectName.put(objectName,new ArrayList<Integer>());
+            byObjectName.get(objectName).add(i);
+        }
+        for (Map.Entry<String, List<Integer>> entry : byObjectName.entrySet())
+        {
+            Set<String> names = new LinkedHashSet<String>();
+            int[] indexes = new int[entry.getValue().size()];
+            for (int i = 0; i < indexes.length; i++)
+            {
+                indexes[i] = entry.getValue().get(i);
+                names.add(_attributes.get(indexes[i]).getAttributeName());
+            }
+            _attributeNames.put(entry.getKey(),names.toArray(new String[names.size()]));
+            _indexes.put(entry.getKey(),indexes);
+        }
+    }
+
+    /**
+     * @param attributes sampled attribute names, separated by ';'
+     */
+    public static List<SampledAttribute> parse(String attributes)
+    {
+        List<SampledAttribute> sampledAttributes = new ArrayList<SampledAttribute>();
+        for (String name : attributes.split(";"))
+        {
+            if (name.trim().length() > 0)
+                sampledAttributes.add(new SampledAttribute(name.trim()));
+        }
+        return sampledAttributes;
+    }
+
+    public List<SampledAttribute> getSampledAttributes()
+    {
+        return _attributes;
+    }
+
+    public long getInterval()
+    {
+        return _interval;
+    }
+
+    /**
+     * @return how long, in ms, a tick waits for the nodes
+     */
+    public long getTimeout()
+    {
+        return Math.min(_interval,_nodeQueryExecutor.getTimeout());
+    }
+
+    public synchronized void start()
+    {
+        if (_scheduler != null || _destroyed)
+            return;
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable,"jmx-ws-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _scheduler.scheduleAtFixedRate(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    sample(System.currentTimeMillis());
+                }
+                catch (RuntimeException e)
+                {
+                    LOG.warn("Couldn't sample nodes: ",e);
+                }
+            }
+        },0,_interval,TimeUnit.MILLISECONDS);
+        LOG.info("Sampling " + _attributes + " every " + _interval + "ms");
+    }
+
+    public synchronized void destroy()
+    {
+        _destroyed = true;
+        if (_scheduler != null)
+            _scheduler.shutdownNow();
+        _scheduler = null;
+        _nodeQueryExecutor.destroy();
+    }
+
+    /**
+     * Sample every node once, recording the samples as taken at the given time.
+     */
+    public void sample(long time)
+    {
+        Collection<JMXNode> jmxNodes = _jmxNodeService.getNodes();
+        long timeout = getTimeout();
+        List<NodeResult<double[]>> results = _nodeQueryExecutor.invokeAll(jmxNodes,new NodeQuery<double[]>()
+        {
+            public double[] query(JMXNode jmxNode) throws Exception
+            {
+                return sampleNode(jmxNode);
+            }
+        },timeout);
+
+        Set<String> nodeNames = new HashSet<String>();
+        for (NodeResult<double[]> result : results)
+        {
+            String nodeName = result.getJmxNode().getNodeName();
+            nodeNames.add(nodeName);
+            NodeSamples node = getNode(nodeName);
+            if (result.isDegraded())
+            {
+                node._error = result.isTimedOut()?"no answer within " + timeout + "ms":String.valueOf(result.getFailure());
+                continue;
+            }
+            node._error = null;
+            double[] values = result.getValue();
+            for (int i = 0; i < values.length; i++)
+            {
+                if (!Double.isNaN(values[i]))
+                    node._rings[i].add(time,values[i]);
+            }
+        }
+        // forget the nodes which have gone away
+        _nodes.keySet().retainAll(nodeNames);
+    }
+
+    private double[] sampleNode(JMXNode jmxNode)
+    {
+        double[] values = new double[_attributes.size()];
+        Arrays.fill(values,Double.NaN);
+        String failure = null;
+        boolean sampled = false;
+        for (Map.Entry<String, String[]> entry : _attributeNames.entrySet())
+        {
+            String objectName = entry.getKey();
+            Map<String, Object> attributeValues;
+            try
+            {
+                attributeValues = _jmxService.getAttributeValues(jmxNode.getJmxServiceURL(),objectName,entry.getValue());
+            }
+            catch (InstanceNotFoundException e)
+            {
+                // not every node need have every MBean
+                continue;
+            }
+            for (int index : _indexes.get(objectName))
+            {
+                SampledAttribute attribute = _attributes.get(index);
+                Object value = attributeValues.get(attribute.getAttributeName());
+                if (value instanceof CompositeData && attribute.getKey() != null)
+                    value = ((CompositeData)value).get(attribute.getKey());
+                if (value instanceof Number)
+                {
+                    values[index] = ((Number)value).doubleValue();
+                    sampled = true;
+                }
+                else if (value instanceof Boolean)
+                {
+                    values[index] = ((Boolean)value)?1:0;
+                    sampled = true;
+                }
+                else if (failure == null)
+                    failure = attribute + ": " + value;
+            }
+        }
+        // JMXService reports errors as values - if nothing could be read, the node is in trouble
+        if (!sampled && failure != null)
+            throw new IllegalStateException(failure);
+        return values;
+    }
+
+    public SamplesJaxBean getSamples(Collection<JMXNode> jmxNodes, String attributeName, long since)
+    {
+        return collect(jmxNodes,attributeName,since,false);
+    }
+
+    public SamplesJaxBean getLatestSamples(Collection<JMXNode> jmxNodes, String attributeName)
+    {
+        return collect(jmxNodes,attributeName,0,true);
+    }
+
+    private SamplesJaxBean collect(Collection<JMXNode> jmxNodes, String attributeName, long since, boolean latest)
+    {
+        start();
+        SamplesJaxBean samples = new SamplesJaxBean(_interval);
+        for (JMXNode jmxNode : jmxNodes)
+        {
+            NodeSamples node = _nodes.get(jmxNode.getNodeName());
+            if (node == null)
+                continue;
+            if (node._error != null)
+                samples.degradedNodes.add(jmxNode.getNodeName());
+            for (int i = 0; i < _attributes.size(); i++)
+            {
+                String name = _attributes.get(i).getName();
+                if (attributeName != null && !attributeName.equals(name))
+                    continue;
+                SampleRing.Snapshot snapshot = latest?node._rings[i].latest():node._rings[i].since(since);
+                if (snapshot.size() == 0)
+                    continue;
+                samples.series.add(new SeriesJaxBean(jmxNode.getNodeName(),name,snapshot.getTimes(),snapshot.getValues()));
+                samples.lastSampleTime = Math.max(samples.lastSampleTime,snapshot.getTimes()[snapshot.size() - 1]);
+            }
+        }
+        return samples;
+    }
+
+    private NodeSamples getNode(String nodeName)
+    {
+        NodeSamples node = _nodes.get(nodeName);
+        if (node == null)
+        {
+            NodeSamples newNode = new NodeSamples(_attributes.size(),_history);
+            node = _nodes.putIfAbsent(nodeName,newNode);
+            if (node == null)
+                node = newNode;
+        }
+        return node;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class NodeSamples
+    {
+        private final SampleRing[] _rings;
+        private volatile String _error;
+
+        NodeSamples(int attributes, int history)
+        {
+            _rings = new SampleRing[attributes];
+            for (int i = 0; i < attributes; i++)
+                _rings[i] = new SampleRing(history);
+        }
+    }
+}
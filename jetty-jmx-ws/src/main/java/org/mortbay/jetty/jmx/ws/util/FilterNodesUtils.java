@@ -13,10 +13,8 @@
 
 package org.mortbay.jetty.jmx.ws.util;
 
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
+import java.util.LinkedHashSet;
 
 import org.mortbay.jetty.jmx.ws.domain.JMXNode;
 import org.mortbay.jetty.jmx.ws.service.JMXNodeService;
@@ -30,25 +28,24 @@ import org.mortbay.jetty.jmx.ws.service.impl.JMXNodeServiceImpl;
 public class FilterNodesUtils
 {
     //TODO: IOC
-    private static JMXNodeService jmxNodeService = new JMXNodeServiceImpl();
+    private static JMXNodeService jmxNodeService = JMXNodeServiceImpl.getInstance();
     
     /**
      * @return all known nodes if nodes param == null, otherwise filters known nodes by nodeNames in nodes param
      */
     public static Collection<JMXNode> getNodesToAggregate(String nodes)
     {
-        Collection<JMXNode> jmxNodes = jmxNodeService.getNodes();
         if (nodes != null)
         {
-            List<String> nodeList = Arrays.asList(nodes.split(","));
-            Collection<JMXNode> nodesToCollect = new HashSet<JMXNode>();
-            for (JMXNode jmxNode : jmxNodes)
+            Collection<JMXNode> nodesToCollect = new LinkedHashSet<JMXNode>();
+            for (String nodeName : nodes.split(","))
             {
-                if (nodeList.contains(jmxNode.getNodeName()))
+                JMXNode jmxNode = jmxNodeService.getNode(nodeName.trim());
+                if (jmxNode != null)
                     nodesToCollect.add(jmxNode);
             }
             return nodesToCollect;
         }
-        return jmxNodes;
+        return jmxNodeService.getNodes();
     }
 }
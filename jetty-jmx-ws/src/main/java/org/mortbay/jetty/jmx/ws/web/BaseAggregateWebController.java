@@ -1,15 +1,69 @@
 package org.mortbay.jetty.jmx.ws.web;
 
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
 import org.mortbay.jetty.jmx.ws.service.AggregateService;
+import org.mortbay.jetty.jmx.ws.service.JMXService;
+import org.mortbay.jetty.jmx.ws.service.SamplerService;
+import org.mortbay.jetty.jmx.ws.service.impl.AggregateResultCache;
 import org.mortbay.jetty.jmx.ws.service.impl.AggregateServiceImpl;
 import org.mortbay.jetty.jmx.ws.service.impl.JMXServiceImpl;
+import org.mortbay.jetty.jmx.ws.service.impl.SamplerServiceImpl;
 
 public class BaseAggregateWebController
 {
-    protected static AggregateService aggregateService = new AggregateServiceImpl(JMXServiceImpl.getInstance());
+    protected static JMXService jmxService = JMXServiceImpl.getInstance();
+    protected static AggregateService aggregateService = new AggregateServiceImpl(jmxService);
+    protected static SamplerService samplerService = new SamplerServiceImpl();
+    protected static AggregateResultCache resultCache = new AggregateResultCache();
 
     public void setAggregateService(AggregateService aggregateService)
     {
         BaseAggregateWebController.aggregateService = aggregateService;
     }
+
+    public void setJmxService(JMXService jmxService)
+    {
+        BaseAggregateWebController.jmxService = jmxService;
+    }
+
+    public void setSamplerService(SamplerService samplerService)
+    {
+        BaseAggregateWebController.samplerService = samplerService;
+    }
+
+    public void setResultCache(AggregateResultCache resultCache)
+    {
+        BaseAggregateWebController.resultCache = resultCache;
+    }
+
+    /**
+     * Stop the threads of the shared services, when the webapp stops.
+     */
+    public static void destroyServices()
+    {
+        aggregateService.destroy();
+        samplerService.destroy();
+        // last, once nothing queries the nodes any more
+        jmxService.destroy();
+    }
+
+    /**
+     * @return 304 Not Modified if the client already has the result, otherwise the result and its ETag
+     */
+    protected static Response conditionalResponse(Request request, AggregateResultCache.CachedResult<?> result)
+    {
+        EntityTag entityTag = new EntityTag(result.getETag(),true);
+        ResponseBuilder builder = request.evaluatePreconditions(entityTag);
+        if (builder == null)
+            builder = Response.ok(result.getValue()).tag(entityTag);
+        // the client may keep it, but must ask whether it is still current
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoCache(true);
+        return builder.cacheControl(cacheControl).build();
+    }
 }
@@ -0,0 +1,224 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.web;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.service.impl.EventHub;
+import org.mortbay.jetty.jmx.ws.service.impl.EventHub.Event;
+import org.mortbay.jetty.jmx.ws.service.impl.EventHub.Events;
+import org.mortbay.jetty.jmx.ws.service.impl.EventHub.Interest;
+import org.mortbay.jetty.jmx.ws.service.impl.JMXServiceImpl;
+import org.mortbay.jetty.jmx.ws.util.FilterNodesUtils;
+
+/* ------------------------------------------------------------ */
+/**
+ * Streams attribute changes and notifications of the selected MBeans on
+ * the selected nodes, e.g.
+ * <code>/stream?objectName=java.lang:type=Memory&amp;attribute=HeapMemoryUsage&amp;notifications=true</code>.
+ * 
+ * Parameters are objectName (repeatable), attribute (repeatable, all
+ * attributes if absent), nodes (comma separated, all nodes if absent) and
+ * notifications.
+ * 
+ * A client which accepts <code>text/event-stream</code> gets Server-Sent
+ * Events, until the timeout - then EventSource reconnects, resuming from
+ * its Last-Event-ID. Any other client gets long polling: one JSON object
+ * <code>{"lastId":n,"snapshot":b,"events":[...]}</code> as soon as there
+ * are events, or after the timeout if there are none, and passes lastId as
+ * "since" in its next request.
+ * 
+ * While there is nothing to send the request is suspended, so waiting
+ * clients hold no thread.
+ */
+public class EventStreamServlet extends HttpServlet
+{
+    private static final String STREAM_ATTRIBUTE = EventStreamServlet.class.getName() + ".stream";
+
+    private EventHub _eventHub;
+    private long _timeout = 30000;
+
+    @Override
+    public void init() throws ServletException
+    {
+        String timeout = getInitParameter("timeout");
+        if (timeout != null)
+            _timeout = Long.parseLong(timeout);
+        _eventHub = new EventHub(JMXServiceImpl.getInstance());
+        _eventHub.start();
+    }
+
+    @Override
+    public void destroy()
+    {
+        _eventHub.destroy();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        Continuation continuation = ContinuationSupport.getContinuation(request);
+        Stream stream = (Stream)request.getAttribute(STREAM_ATTRIBUTE);
+        if (stream == null)
+        {
+            String[] objectNames = request.getParameterValues("objectName");
+            if (objectNames == null)
+            {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,"objectName parameter required");
+                return;
+            }
+            String[] attributes = request.getParameterValues("attribute");
+            Collection<JMXNode> jmxNodes = FilterNodesUtils.getNodesToAggregate(request.getParameter("nodes"));
+            Interest interest = _eventHub.getInterest(jmxNodes,Arrays.asList(objectNames),attributes == null?null:Arrays.asList(attributes),
+                    Boolean.parseBoolean(request.getParameter("notifications")));
+
+            String accept = request.getHeader("Accept");
+            boolean eventStream = accept != null && accept.contains("text/event-stream");
+            String since = eventStream?request.getHeader("Last-Event-ID"):null;
+            if (since == null)
+                since = request.getParameter("since");
+            stream = new Stream(continuation,interest,eventStream,parseId(since));
+            request.setAttribute(STREAM_ATTRIBUTE,stream);
+
+            response.setHeader("Cache-Control","no-cache");
+            response.setContentType(eventStream?"text/event-stream":"application/json");
+            response.setCharacterEncoding("UTF-8");
+            // have EventSource reconnect at once when a stream times out
+            if (eventStream)
+                response.getWriter().print("retry: 1000\n\n");
+        }
+
+        if (continuation.isExpired())
+        {
+            // end the stream - or answer the poll with whatever there is
+            _eventHub.cancel(stream);
+            if (!stream._eventStream)
+                writeLongPoll(response,_eventHub.getEvents(stream._lastId,stream._interest));
+            return;
+        }
+
+        Events events = _eventHub.getEvents(stream._lastId,stream._interest);
+        stream._lastId = events.getLastId();
+        if (!stream._eventStream)
+        {
+            if (!events.getEvents().isEmpty() || events.isSnapshot() || !continuation.isInitial())
+            {
+                writeLongPoll(response,events);
+                return;
+            }
+        }
+        else if (!events.getEvents().isEmpty() || events.isSnapshot())
+        {
+            writeEventStream(response,events);
+            if (response.getWriter().checkError())
+                return;
+        }
+
+        // nothing more to send - wait for the hub to say there is. Suspend
+        // first, so that a resume cannot come before the suspend
+        continuation.setTimeout(_timeout);
+        continuation.suspend();
+        if (!_eventHub.await(stream._lastId,stream._interest,stream))
+            continuation.resume();
+    }
+
+    private long parseId(String id)
+    {
+        if (id == null)
+            return -1;
+        try
+        {
+            return Long.parseLong(id.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    private void writeLongPoll(HttpServletResponse response, Events events) throws IOException
+    {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"lastId\":").append(events.getLastId()).append(",\"snapshot\":").append(events.isSnapshot()).append(",\"events\":[");
+        List<Event> list = events.getEvents();
+        for (int i = 0; i < list.size(); i++)
+        {
+            if (i > 0)
+                json.append(',');
+            json.append(list.get(i).getData());
+        }
+        json.append("]}");
+        response.getWriter().print(json);
+    }
+
+    private void writeEventStream(HttpServletResponse response, Events events) throws IOException
+    {
+        StringBuilder text = new StringBuilder(256);
+        // tell the client to forget what it had, before sending it the current values
+        if (events.isSnapshot())
+            text.append("event: snapshot\ndata: {}\n\n");
+        for (Event event : events.getEvents())
+        {
+            if (event.getId() > 0)
+                text.append("id: ").append(event.getId()).append('\n');
+            text.append("event: ").append(event.getType()).append('\n');
+            text.append("data: ").append(event.getData()).append("\n\n");
+        }
+        // the values of a snapshot have no place in the log, so say where it leaves the client
+        if (events.isSnapshot())
+            text.append("id: ").append(events.getLastId()).append("\n\n");
+        PrintWriter writer = response.getWriter();
+        writer.print(text);
+        writer.flush();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * One client's place in the stream.
+     */
+    private static class Stream extends EventHub.Waiter
+    {
+        private final Continuation _continuation;
+        private final Interest _interest;
+        private final boolean _eventStream;
+        private volatile long _lastId;
+
+        Stream(Continuation continuation, Interest interest, boolean eventStream, long lastId)
+        {
+            _continuation = continuation;
+            _interest = interest;
+            _eventStream = eventStream;
+            _lastId = lastId;
+        }
+
+        @Override
+        protected void eventsAvailable()
+        {
+            _continuation.resume();
+        }
+    }
+}
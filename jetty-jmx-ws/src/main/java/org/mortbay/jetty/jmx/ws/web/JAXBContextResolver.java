@@ -4,6 +4,7 @@ import javax.ws.rs.ext.ContextResolver;
 import javax.ws.rs.ext.Provider;
 import javax.xml.bind.JAXBContext;
 
+import org.mortbay.jetty.jmx.ws.domain.jaxb.SamplesJaxBean;
 import org.mortbay.jetty.jmx.ws.domain.jaxb.jmx.MBeanAttributeValueJaxBeans;
 
 import com.sun.jersey.api.json.JSONConfiguration;
@@ -14,11 +15,11 @@ public class JAXBContextResolver implements ContextResolver<JAXBContext>
 {
 
     private JAXBContext context;
-    private Class<?>[] types =    { MBeanAttributeValueJaxBeans.class };
+    private Class<?>[] types =    { MBeanAttributeValueJaxBeans.class, SamplesJaxBean.class };
 
     public JAXBContextResolver() throws Exception
     {
-        JSONConfiguration config = JSONConfiguration.mapped().arrays("Attribute").build();
+        JSONConfiguration config = JSONConfiguration.mapped().arrays("Attribute","Series","Time","Sample").nonStrings("Interval","LastSampleTime","Time","Sample").build();
         context = new JSONJAXBContext(config,types);
     }
 
@@ -0,0 +1,132 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.web;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import org.eclipse.jetty.util.ajax.JSON;
+
+import org.mortbay.jetty.jmx.ws.domain.jaxb.jmx.MBeanShortJaxBean;
+import org.mortbay.jetty.jmx.ws.domain.jaxb.jmx.MBeanShortJaxBeans;
+
+/* ------------------------------------------------------------ */
+/**
+ * Writes MBean listings straight to the response, one MBean at a time,
+ * rather than have JAXB build the whole document first - they run to
+ * thousands of MBeans. The JSON and XML are as JAXB would write them, except
+ * that "MBean" is always a JSON array, even of one.
+ */
+@Provider
+@Produces(
+{ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
+public class MBeanShortJaxBeansWriter implements MessageBodyWriter<MBeanShortJaxBeans>
+{
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return MBeanShortJaxBeans.class.isAssignableFrom(type);
+    }
+
+    public long getSize(MBeanShortJaxBeans mBeans, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return -1;
+    }
+
+    public void writeTo(MBeanShortJaxBeans mBeans, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(entityStream,"UTF-8"));
+        if (mediaType.getSubtype().endsWith("json"))
+            writeJSON(mBeans,writer);
+        else
+            writeXML(mBeans,writer);
+        // the container closes the stream
+        writer.flush();
+    }
+
+    private void writeJSON(MBeanShortJaxBeans mBeans, Writer writer) throws IOException
+    {
+        StringBuilder builder = new StringBuilder(256);
+        writer.write("{\"MBean\":[");
+        boolean first = true;
+        for (MBeanShortJaxBean mBean : mBeans.mbeans)
+        {
+            builder.setLength(0);
+            if (!first)
+                builder.append(',');
+            first = false;
+            builder.append("{\"ObjectName\":");
+            JSON.getDefault().appendString(builder,mBean.objectName);
+            builder.append(",\"URL\":");
+            JSON.getDefault().appendString(builder,String.valueOf(mBean.url));
+            builder.append('}');
+            writer.append(builder);
+        }
+        writer.write("]}");
+    }
+
+    private void writeXML(MBeanShortJaxBeans mBeans, Writer writer) throws IOException
+    {
+        StringBuilder builder = new StringBuilder(256);
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><MBeans>");
+        for (MBeanShortJaxBean mBean : mBeans.mbeans)
+        {
+            builder.setLength(0);
+            builder.append("<MBean><ObjectName>");
+            appendXML(builder,mBean.objectName);
+            builder.append("</ObjectName><URL>");
+            appendXML(builder,String.valueOf(mBean.url));
+            builder.append("</URL></MBean>");
+            writer.append(builder);
+        }
+        writer.write("</MBeans>");
+    }
+
+    private static void appendXML(StringBuilder builder, String string)
+    {
+        for (int i = 0; i < string.length(); i++)
+        {
+            char c = string.charAt(i);
+            switch (c)
+            {
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '>':
+                    builder.append("&gt;");
+                    break;
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '"':
+                    builder.append("&quot;");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+}
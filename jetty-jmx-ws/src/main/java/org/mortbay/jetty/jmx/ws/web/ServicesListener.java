@@ -0,0 +1,36 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+
+package org.mortbay.jetty.jmx.ws.web;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/* ------------------------------------------------------------ */
+/**
+ * Stops the services shared by the web controllers when the webapp stops,
+ * so that their threads do not outlive it.
+ */
+public class ServicesListener implements ServletContextListener
+{
+    public void contextInitialized(ServletContextEvent event)
+    {
+    }
+
+    public void contextDestroyed(ServletContextEvent event)
+    {
+        BaseAggregateWebController.destroyServices();
+    }
+}
@@ -21,10 +21,13 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
 import org.mortbay.jetty.jmx.ws.domain.JMXNode;
 import org.mortbay.jetty.jmx.ws.domain.jaxb.jmx.MBeanShortJaxBeans;
+import org.mortbay.jetty.jmx.ws.service.impl.AggregateResultCache;
 import org.mortbay.jetty.jmx.ws.util.FilterNodesUtils;
 import org.mortbay.jetty.jmx.ws.web.BaseAggregateWebController;
 
@@ -36,13 +39,31 @@ public class MBeans extends BaseAggregateWebController
 {
     @Context
     UriInfo uriInfo;
+    @Context
+    Request request;
 
     @GET
     @Produces({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
-    public MBeanShortJaxBeans getMBeans(@QueryParam("nodes") String nodes)
+    public Response getMBeans(@QueryParam("nodes") String nodes)
     {
-        Collection<JMXNode> jmxNodes = FilterNodesUtils.getNodesToAggregate(nodes);
-        return aggregateService.getMBeanShortJaxBeans(uriInfo,jmxNodes);
+        final Collection<JMXNode> jmxNodes = FilterNodesUtils.getNodesToAggregate(nodes);
+        // the URLs in the result are relative to the request's
+        AggregateResultCache.CachedResult<MBeanShortJaxBeans> result = resultCache.get(
+                AggregateResultCache.key("mbeans",jmxNodes,uriInfo.getAbsolutePath().toString()),
+                new AggregateResultCache.Loader<MBeanShortJaxBeans, RuntimeException>()
+                {
+                    public MBeanShortJaxBeans load()
+                    {
+                        return aggregateService.getMBeanShortJaxBeans(uriInfo,jmxNodes);
+                    }
+
+                    @Override
+                    public boolean isDegraded(MBeanShortJaxBeans value)
+                    {
+                        return !value.degradedNodes.isEmpty();
+                    }
+                });
+        return conditionalResponse(request,result);
     }
 
 }
@@ -23,12 +23,15 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.mortbay.jetty.jmx.ws.domain.JMXNode;
 import org.mortbay.jetty.jmx.ws.domain.jaxb.jmx.MBeanAttributeValueJaxBeans;
+import org.mortbay.jetty.jmx.ws.service.impl.AggregateResultCache;
 import org.mortbay.jetty.jmx.ws.util.FilterNodesUtils;
 import org.mortbay.jetty.jmx.ws.web.BaseAggregateWebController;
 
@@ -43,16 +46,33 @@ public class MBeansObjectNameAttributesAttributeName extends BaseAggregateWebCon
 
     @Context
     UriInfo uriInfo;
+    @Context
+    Request request;
 
     @GET
     @Produces(
     { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
-    public MBeanAttributeValueJaxBeans getAttribute(@PathParam("objectName") String objectName, @PathParam("attributeName") String attributeName, @QueryParam("nodes") String nodes)
+    public Response getAttribute(@PathParam("objectName") final String objectName, @PathParam("attributeName") final String attributeName, @QueryParam("nodes") String nodes)
     {
-        Collection<JMXNode> jmxNodes = FilterNodesUtils.getNodesToAggregate(nodes);
+        final Collection<JMXNode> jmxNodes = FilterNodesUtils.getNodesToAggregate(nodes);
         try
         {
-            return aggregateService.getAttributeValues(jmxNodes,objectName,attributeName);
+            AggregateResultCache.CachedResult<MBeanAttributeValueJaxBeans> result = resultCache.get(
+                    AggregateResultCache.key("attribute",jmxNodes,objectName,attributeName),
+                    new AggregateResultCache.Loader<MBeanAttributeValueJaxBeans, InstanceNotFoundException>()
+                    {
+                        public MBeanAttributeValueJaxBeans load() throws InstanceNotFoundException
+                        {
+                            return aggregateService.getAttributeValues(jmxNodes,objectName,attributeName);
+                        }
+
+                        @Override
+                        public boolean isDegraded(MBeanAttributeValueJaxBeans value)
+                        {
+                            return !value.degradedNodes.isEmpty();
+                        }
+                    });
+            return conditionalResponse(request,result);
         }
         catch (InstanceNotFoundException e)
         {
@@ -0,0 +1,173 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.remote.JMXServiceURL;
+
+import org.junit.Test;
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.service.impl.AggregateResultCache.CachedResult;
+import org.mortbay.jetty.jmx.ws.service.impl.AggregateResultCache.Loader;
+
+/* ------------------------------------------------------------ */
+/**
+ */
+public class AggregateResultCacheTest
+{
+    private final AtomicInteger _loads = new AtomicInteger();
+
+    private Loader<String, RuntimeException> loader(final String value)
+    {
+        return new Loader<String, RuntimeException>()
+        {
+            @Override
+            public String load()
+            {
+                _loads.incrementAndGet();
+                return value;
+            }
+        };
+    }
+
+    @Test
+    public void testResultIsKeptForTtl()
+    {
+        AggregateResultCache cache = new AggregateResultCache(60000,16);
+        List<String> key = Arrays.asList("mbeans","node1");
+
+        CachedResult<String> result = cache.get(key,loader("a"));
+        assertSame(result,cache.get(key,loader("b")));
+        assertEquals("a",cache.get(key,loader("b")).getValue());
+        assertEquals(1,_loads.get());
+    }
+
+    @Test
+    public void testETagFollowsContent()
+    {
+        AggregateResultCache cache = new AggregateResultCache(0,16);
+        List<String> key = Arrays.asList("mbeans","node1");
+
+        String eTag = cache.get(key,loader("a")).getETag();
+        assertEquals(eTag,cache.get(key,loader(new String("a"))).getETag());
+        assertFalse(eTag.equals(cache.get(key,loader("b")).getETag()));
+        assertEquals(3,_loads.get());
+    }
+
+    @Test
+    public void testETagChangesWithContentOfEqualHash()
+    {
+        AggregateResultCache cache = new AggregateResultCache(0,16);
+        List<String> key = Arrays.asList("mbeans","node1");
+        // "Aa" and "BB" hash alike, and so do sets of them
+        final Set<String> before = new HashSet<String>(Arrays.asList("Aa"));
+        final Set<String> after = new HashSet<String>(Arrays.asList("BB"));
+        assertEquals(before.hashCode(),after.hashCode());
+
+        String eTag = cache.get(key,new Loader<Set<String>, RuntimeException>()
+        {
+            @Override
+            public Set<String> load()
+            {
+                return before;
+            }
+        }).getETag();
+        assertFalse(eTag.equals(cache.get(key,new Loader<Set<String>, RuntimeException>()
+        {
+            @Override
+            public Set<String> load()
+            {
+                return after;
+            }
+        }).getETag()));
+    }
+
+    @Test
+    public void testDegradedResultIsNotKept() throws Exception
+    {
+        AggregateResultCache cache = new AggregateResultCache(60000,16);
+        List<String> key = Arrays.asList("attributes","node1","java.lang:type=Memory");
+        Loader<String, RuntimeException> degraded = new Loader<String, RuntimeException>()
+        {
+            @Override
+            public String load()
+            {
+                _loads.incrementAndGet();
+                return "partial";
+            }
+
+            @Override
+            public boolean isDegraded(String value)
+            {
+                return true;
+            }
+        };
+        assertEquals("partial",cache.get(key,degraded).getValue());
+        Thread.sleep(10);
+        assertEquals("a",cache.get(key,loader("a")).getValue());
+        assertEquals("a",cache.get(key,loader("b")).getValue());
+        assertEquals(2,_loads.get());
+    }
+
+    @Test
+    public void testFailureIsNotCached() throws Exception
+    {
+        AggregateResultCache cache = new AggregateResultCache(60000,16);
+        List<String> key = Arrays.asList("attributes","node1","java.lang:type=Memory");
+        try
+        {
+            cache.get(key,new Loader<String, InstanceNotFoundException>()
+            {
+                @Override
+                public String load() throws InstanceNotFoundException
+                {
+                    throw new InstanceNotFoundException();
+                }
+            });
+            fail("InstanceNotFoundException expected");
+        }
+        catch (InstanceNotFoundException e)
+        {
+        }
+        assertEquals("a",cache.get(key,loader("a")).getValue());
+    }
+
+    @Test
+    public void testKeyIgnoresNodeOrder() throws Exception
+    {
+        List<JMXNode> jmxNodes = new ArrayList<JMXNode>();
+        for (String name : new String[] { "node1", "node2" })
+            jmxNodes.add(new JMXNode(name,new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + name + ":1099/jettyjmx")));
+        List<String> key = AggregateResultCache.key("attribute",jmxNodes,"java.lang:type=Memory","HeapMemoryUsage");
+
+        List<JMXNode> reversed = new ArrayList<JMXNode>(jmxNodes);
+        Collections.reverse(reversed);
+        assertEquals(key,AggregateResultCache.key("attribute",reversed,"java.lang:type=Memory","HeapMemoryUsage"));
+        assertFalse(key.equals(AggregateResultCache.key("attribute",jmxNodes.subList(0,1),"java.lang:type=Memory","HeapMemoryUsage")));
+    }
+}
@@ -1,6 +1,7 @@
 package org.mortbay.jetty.jmx.ws.service.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Matchers.any;
@@ -165,6 +166,32 @@ public class AggregateServiceTest extends AbstractMockitoTest
         }
     }
 
+    @Test
+    public void testGetNodesWithFailingNode() throws InstanceNotFoundException
+    {
+        setExpectationsForJmxServiceGetMemoryAttribute();
+        when(_jmxService.getAttribute(any(JMXServiceURL.class),eq(JMXServiceImpl.JETTY_SERVER_MBEAN),eq("version"))).thenReturn(JETTY_VERSION);
+        when(_jmxService.getAttribute(eq(_jmxServiceURLNode2),eq(JMXServiceImpl.JETTY_SERVER_MBEAN),eq("version"))).thenThrow(
+                new IllegalStateException("connection refused"));
+        when(_jmxService.getAttribute(any(JMXServiceURL.class),eq(JMXServiceImpl.THREADING_MXBEAN),eq("ThreadCount"))).thenReturn(20);
+        when(_jmxService.getAttribute(any(JMXServiceURL.class),eq(JMXServiceImpl.THREADING_MXBEAN),eq("PeakThreadCount"))).thenReturn(30);
+        Set<NodeJaxBean> nodes = _aggregateServiceImpl.getNodes();
+        assertEquals("Expected all 3 nodes, even the failing one",3,nodes.size());
+        for (NodeJaxBean node : nodes)
+        {
+            if (NODE2.equals(node.getName()))
+            {
+                assertTrue("failing node should be degraded",node.isDegraded());
+                assertTrue(node.getError().contains("connection refused"));
+            }
+            else
+            {
+                assertFalse(node.isDegraded());
+                assertEquals("Jetty Version wrong",JETTY_VERSION,node.getJettyVersion());
+            }
+        }
+    }
+
     private void setExpectationsForJmxServiceGetMemoryAttribute() throws InstanceNotFoundException
     {
         when(_jmxNodeService.getNodes()).thenReturn(_jmxNodes);
@@ -178,29 +205,29 @@ public class AggregateServiceTest extends AbstractMockitoTest
     {
         setExpectationsForJmxServiceGetAttributes();
         setExpectationsForJmxServiceGetMemoryAttribute();
-        when(_jmxService.getAttribute(_jmxServiceURLNode1,JMXServiceImpl.MEMORY_MXBEAN,JMXServiceImpl.MEMORY_MXBEAN_NONHEAP)).thenReturn(
-                _compositeDataNonHeapNode1);
-        when(_jmxService.getAttribute(_jmxServiceURLNode2,JMXServiceImpl.MEMORY_MXBEAN,JMXServiceImpl.MEMORY_MXBEAN_NONHEAP)).thenReturn(
-                _compositeDataNonHeapNode2);
-        when(_jmxService.getAttribute(_jmxServiceURLNode3,JMXServiceImpl.MEMORY_MXBEAN,JMXServiceImpl.MEMORY_MXBEAN_NONHEAP)).thenReturn(
-                _compositeDataNonHeapNode3);
-        when(_jmxService.getAttribute(_jmxServiceURLNode1,JMXServiceImpl.MEMORY_MXBEAN,JMXServiceImpl.MEMORY_MXBEAN_OBJECT_PENDING_FINALIZATION)).thenReturn(
-                _objectsPendingFinalizationNode1);
-        when(_jmxService.getAttribute(_jmxServiceURLNode2,JMXServiceImpl.MEMORY_MXBEAN,JMXServiceImpl.MEMORY_MXBEAN_OBJECT_PENDING_FINALIZATION)).thenReturn(
-                _objectsPendingFinalizationNode2);
-        when(_jmxService.getAttribute(_jmxServiceURLNode3,JMXServiceImpl.MEMORY_MXBEAN,JMXServiceImpl.MEMORY_MXBEAN_OBJECT_PENDING_FINALIZATION)).thenReturn(
-                _objectsPendingFinalizationNode3);
-        when(_jmxService.getAttribute(_jmxServiceURLNode1,JMXServiceImpl.MEMORY_MXBEAN,JMXServiceImpl.MEMORY_MXBEAN_VERBOSE)).thenReturn(
-                _objectsPendingFinalizationNode1);
-        when(_jmxService.getAttribute(_jmxServiceURLNode2,JMXServiceImpl.MEMORY_MXBEAN,JMXServiceImpl.MEMORY_MXBEAN_VERBOSE)).thenReturn(
-                _objectsPendingFinalizationNode2);
-        when(_jmxService.getAttribute(_jmxServiceURLNode3,JMXServiceImpl.MEMORY_MXBEAN,JMXServiceImpl.MEMORY_MXBEAN_VERBOSE)).thenReturn(
-                _objectsPendingFinalizationNode3);
+        when(_jmxService.getAttributeValues(eq(_jmxServiceURLNode1),eq(JMXServiceImpl.MEMORY_MXBEAN),any(String[].class))).thenReturn(
+                fillMemoryAttributeValuesMap(_compositeDataHeapNode1,_compositeDataNonHeapNode1,_objectsPendingFinalizationNode1,_verboseNode1));
+        when(_jmxService.getAttributeValues(eq(_jmxServiceURLNode2),eq(JMXServiceImpl.MEMORY_MXBEAN),any(String[].class))).thenReturn(
+                fillMemoryAttributeValuesMap(_compositeDataHeapNode2,_compositeDataNonHeapNode2,_objectsPendingFinalizationNode2,_verboseNode2));
+        when(_jmxService.getAttributeValues(eq(_jmxServiceURLNode3),eq(JMXServiceImpl.MEMORY_MXBEAN),any(String[].class))).thenReturn(
+                fillMemoryAttributeValuesMap(_compositeDataHeapNode3,_compositeDataNonHeapNode3,_objectsPendingFinalizationNode3,_verboseNode3));
 
         MBeanAttributeValueJaxBeans attributes = _aggregateServiceImpl.getAllAttributeValues(_jmxNodes,
                 JMXServiceImpl.MEMORY_MXBEAN);
 
         assertEquals("expected four values for each of two nodes and the local node",12,attributes.mBeanAttributeValueJaxBeans.size());
+        verify(_jmxService,times(3)).getAttributeValues(any(JMXServiceURL.class),eq(JMXServiceImpl.MEMORY_MXBEAN),any(String[].class));
+        verify(_jmxService,times(0)).getAttribute(any(JMXServiceURL.class),eq(JMXServiceImpl.MEMORY_MXBEAN),any(String.class));
+    }
+
+    private Map<String, Object> fillMemoryAttributeValuesMap(Object heap, Object nonHeap, int objectsPendingFinalization, boolean verbose)
+    {
+        Map<String, Object> map = new TreeMap<String, Object>();
+        map.put(JMXServiceImpl.MEMORY_MXBEAN_HEAP,heap);
+        map.put(JMXServiceImpl.MEMORY_MXBEAN_NONHEAP,nonHeap);
+        map.put(JMXServiceImpl.MEMORY_MXBEAN_OBJECT_PENDING_FINALIZATION,objectsPendingFinalization);
+        map.put(JMXServiceImpl.MEMORY_MXBEAN_VERBOSE,verbose);
+        return map;
     }
 
     @Test
@@ -216,6 +243,19 @@ public class AggregateServiceTest extends AbstractMockitoTest
         }
     }
 
+    @Test
+    public void testGetAttributeValuesWithFailingNode() throws InstanceNotFoundException
+    {
+        setExpectationsForJmxServiceGetMemoryAttribute();
+        when(_jmxService.getAttribute(_jmxServiceURLNode3,JMXServiceImpl.MEMORY_MXBEAN,JMXServiceImpl.MEMORY_MXBEAN_HEAP)).thenThrow(
+                new IllegalStateException("connection refused"));
+        MBeanAttributeValueJaxBeans mBeanAttributeValuesJaxBean = _aggregateServiceImpl.getAttributeValues(_jmxNodes,JMXServiceImpl.MEMORY_MXBEAN,
+                JMXServiceImpl.MEMORY_MXBEAN_HEAP);
+        assertEquals("expected values from the two nodes that answered",2,mBeanAttributeValuesJaxBean.mBeanAttributeValueJaxBeans.size());
+        assertEquals(1,mBeanAttributeValuesJaxBean.degradedNodes.size());
+        assertTrue(mBeanAttributeValuesJaxBean.degradedNodes.contains(NODE3));
+    }
+
     @Test
     public void testGetAttributeValuesForJettyServerMBeanWithMultipleIds() throws InstanceNotFoundException
     {
@@ -0,0 +1,298 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.remote.JMXServiceURL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.service.JMXService;
+import org.mortbay.jetty.jmx.ws.service.impl.EventHub.Event;
+import org.mortbay.jetty.jmx.ws.service.impl.EventHub.Events;
+import org.mortbay.jetty.jmx.ws.service.impl.EventHub.Interest;
+import org.mortbay.jetty.jmx.ws.util.JMXServiceURLUtils;
+
+/* ------------------------------------------------------------ */
+/**
+ */
+public class EventHubTest
+{
+    private static final String OBJECT_NAME = "test:type=Test";
+
+    List<JMXNode> _jmxNodes = new ArrayList<JMXNode>();
+    Map<String, Object> _values = new ConcurrentHashMap<String, Object>();
+    Map<String, NotificationListener> _listeners = new ConcurrentHashMap<String, NotificationListener>();
+    AtomicInteger _reads = new AtomicInteger();
+    volatile long _delay;
+    CompositeType _usageType;
+    EventHub _eventHub;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        for (String name : new String[] { "node1", "node2" })
+        {
+            JMXServiceURL jmxServiceURL = JMXServiceURLUtils.getJMXServiceURL("service:jmx:rmi:///jndi/rmi://" + name + ":1099/jettyjmx");
+            _jmxNodes.add(new JMXNode(name,jmxServiceURL));
+        }
+        _usageType = new CompositeType("Usage","usage",new String[] { "max", "used" },new String[] { "max", "used" },new OpenType<?>[] { SimpleType.LONG,
+                SimpleType.LONG });
+        _values.put("Count",1);
+        _values.put("Usage",usage(100,10));
+        _eventHub = new EventHub(new TestJMXService(),new NodeQueryExecutor(2,1000),1000,8,60000);
+    }
+
+    @After
+    public void tearDown()
+    {
+        _eventHub.destroy();
+    }
+
+    private CompositeDataSupport usage(long max, long used) throws Exception
+    {
+        return new CompositeDataSupport(_usageType,new String[] { "max", "used" },new Object[] { max, used });
+    }
+
+    @Test
+    public void testOnlyChangesArePublished() throws Exception
+    {
+        Interest interest = _eventHub.getInterest(_jmxNodes,Collections.singleton(OBJECT_NAME),null,false);
+        Events events = _eventHub.getEvents(-1,interest);
+        assertTrue(events.isSnapshot());
+        long lastId = events.getLastId();
+
+        // the first poll has every value
+        _eventHub.poll(System.currentTimeMillis());
+        events = _eventHub.getEvents(lastId,interest);
+        assertFalse(events.isSnapshot());
+        assertEquals(4,events.getEvents().size());
+        lastId = events.getLastId();
+
+        // nothing changed, nothing to say
+        _eventHub.poll(System.currentTimeMillis());
+        assertEquals(0,_eventHub.getEvents(lastId,interest).getEvents().size());
+
+        // of a composite value, only what changed
+        _values.put("Usage",usage(100,20));
+        _eventHub.poll(System.currentTimeMillis());
+        events = _eventHub.getEvents(lastId,interest);
+        assertEquals(2,events.getEvents().size());
+        for (Event event : events.getEvents())
+        {
+            assertTrue(event.getData(),event.getData().contains("\"delta\":true,\"value\":{\"used\":20}"));
+        }
+
+        // both nodes' MBeans were read once per poll
+        assertEquals(2 * 3,_reads.get());
+    }
+
+    @Test
+    public void testInterestsShareWatchesAndSeeOnlyWhatTheyAskedFor() throws Exception
+    {
+        Interest count = _eventHub.getInterest(_jmxNodes.subList(0,1),Collections.singleton(OBJECT_NAME),Collections.singleton("Count"),false);
+        Interest all = _eventHub.getInterest(_jmxNodes.subList(0,1),Collections.singleton(OBJECT_NAME),null,false);
+        _eventHub.poll(System.currentTimeMillis());
+        assertEquals(1,_reads.get());
+
+        assertEquals(1,_eventHub.getEvents(0,count).getEvents().size());
+        assertEquals(2,_eventHub.getEvents(0,all).getEvents().size());
+
+        // a newcomer gets the current values
+        Interest same = _eventHub.getInterest(_jmxNodes.subList(0,1),Collections.singleton(OBJECT_NAME),Arrays.asList("Count"),false);
+        assertTrue(same == count);
+        Events events = _eventHub.getEvents(-1,same);
+        assertTrue(events.isSnapshot());
+        assertEquals(1,events.getEvents().size());
+        assertTrue(events.getEvents().get(0).getData().contains("\"attribute\":\"Count\",\"value\":1"));
+    }
+
+    @Test
+    public void testWaitersAreToldOfMatchingEvents() throws Exception
+    {
+        Interest interest = _eventHub.getInterest(_jmxNodes,Collections.singleton(OBJECT_NAME),Collections.singleton("Count"),true);
+        _eventHub.poll(System.currentTimeMillis());
+        long lastId = _eventHub.getLastId();
+
+        final AtomicInteger told = new AtomicInteger();
+        EventHub.Waiter waiter = new EventHub.Waiter()
+        {
+            @Override
+            protected void eventsAvailable()
+            {
+                told.incrementAndGet();
+            }
+        };
+        assertTrue(_eventHub.await(lastId,interest,waiter));
+
+        // an attribute nobody waits for
+        _values.put("Usage",usage(100,30));
+        _eventHub.poll(System.currentTimeMillis());
+        assertEquals(0,told.get());
+
+        _listeners.get("node2").handleNotification(new Notification("test.notification",OBJECT_NAME,1,"hello"),null);
+        assertEquals(1,told.get());
+        List<Event> events = _eventHub.getEvents(lastId,interest).getEvents();
+        assertEquals(1,events.size());
+        assertEquals(EventHub.NOTIFICATION,events.get(0).getType());
+        assertTrue(events.get(0).getData().contains("\"message\":\"hello\""));
+
+        // there is something to read now, so no waiting
+        assertFalse(_eventHub.await(lastId,interest,waiter));
+    }
+
+    @Test
+    public void testClientsThatFellBehindGetASnapshot() throws Exception
+    {
+        Interest interest = _eventHub.getInterest(_jmxNodes,Collections.singleton(OBJECT_NAME),Collections.singleton("Count"),false);
+        _eventHub.poll(System.currentTimeMillis());
+        long lastId = _eventHub.getLastId();
+        // more changes than the log holds
+        for (int i = 2; i < 10; i++)
+        {
+            _values.put("Count",i);
+            _eventHub.poll(System.currentTimeMillis());
+        }
+        Events events = _eventHub.getEvents(lastId,interest);
+        assertTrue(events.isSnapshot());
+        assertEquals(2,events.getEvents().size());
+        assertTrue(events.getEvents().get(0).getData().contains("\"value\":9"));
+    }
+
+    @Test
+    public void testATimedOutPollPublishesItsChangesLater() throws Exception
+    {
+        _eventHub.destroy();
+        _eventHub = new EventHub(new TestJMXService(),new NodeQueryExecutor(2,100),1000,8,60000);
+        Interest interest = _eventHub.getInterest(_jmxNodes.subList(0,1),Collections.singleton(OBJECT_NAME),Collections.singleton("Count"),false);
+        _eventHub.poll(System.currentTimeMillis());
+        long lastId = _eventHub.getLastId();
+
+        // the node is too slow: nothing is published, nor taken as published
+        _delay = 300;
+        _values.put("Count",2);
+        _eventHub.poll(System.currentTimeMillis());
+        assertEquals(lastId,_eventHub.getLastId());
+        assertEquals(2,_reads.get());
+
+        // the watch is skipped while the slow poll is still running
+        _delay = 0;
+        _eventHub.poll(System.currentTimeMillis());
+        assertEquals(2,_reads.get());
+        assertEquals(lastId,_eventHub.getLastId());
+
+        // once it is done, the next poll finds the change
+        Thread.sleep(400);
+        _eventHub.poll(System.currentTimeMillis());
+        Events events = _eventHub.getEvents(lastId,interest);
+        assertEquals(1,events.getEvents().size());
+        assertTrue(events.getEvents().get(0).getData().contains("\"value\":2"));
+    }
+
+    /* ------------------------------------------------------------ */
+    class TestJMXService implements JMXService
+    {
+        public Map<String, Object> getAttributeValues(JMXServiceURL jmxServiceURL, String objectName, String[] attributeNames) throws InstanceNotFoundException
+        {
+            _reads.incrementAndGet();
+            // a slow node, which no interrupt hurries up
+            long end = System.currentTimeMillis() + _delay;
+            for (long now = System.currentTimeMillis(); now < end; now = System.currentTimeMillis())
+            {
+                try
+                {
+                    Thread.sleep(end - now);
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            for (String attributeName : attributeNames)
+                values.put(attributeName,_values.get(attributeName));
+            return values;
+        }
+
+        public MBeanAttributeInfo[] getAttributes(JMXServiceURL jmxServiceURL, String objectName) throws InstanceNotFoundException
+        {
+            return new MBeanAttributeInfo[] { new MBeanAttributeInfo("Count","int","count",true,false,false),
+                    new MBeanAttributeInfo("Usage","javax.management.openmbean.CompositeData","usage",true,false,false) };
+        }
+
+        public void addNotificationListener(JMXServiceURL jmxServiceURL, String objectName, NotificationListener listener)
+        {
+            _listeners.put(jmxServiceURL.toString().contains("node1")?"node1":"node2",listener);
+        }
+
+        public void removeNotificationListener(JMXServiceURL jmxServiceURL, String objectName, NotificationListener listener)
+        {
+        }
+
+        public void destroy()
+        {
+        }
+
+        public Object getAttribute(JMXServiceURL jmxServiceURL, String objectName, String attributeName) throws InstanceNotFoundException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public Set<ObjectName> getObjectNames(JMXServiceURL jmxServiceURL)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public Set<String> getObjectNamesByPrefix(JMXServiceURL jmxServiceURL, String prefix)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public MBeanOperationInfo[] getOperations(JMXServiceURL jmxServiceURL, String objectName) throws InstanceNotFoundException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public Object invoke(JMXServiceURL jmxServiceURL, String objectName, String operationName, Object[] params, String[] signature)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXServiceURL;
+import javax.security.auth.Subject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.jmx.ws.util.JMXServiceURLUtils;
+
+/* ------------------------------------------------------------ */
+/**
+ */
+public class JMXConnectionManagerTest
+{
+    private static final long RETRY_DELAY = 200;
+
+    JMXServiceURL _jmxServiceURL = JMXServiceURLUtils.getJMXServiceURL("service:jmx:rmi:///jndi/rmi://node:1099/jettyjmx");
+    AtomicInteger _connects = new AtomicInteger();
+    volatile boolean _reachable = true;
+    volatile FakeConnector _connector;
+    AtomicInteger _opened = new AtomicInteger();
+    AtomicInteger _closed = new AtomicInteger();
+    AtomicInteger _lost = new AtomicInteger();
+    JMXConnectionManager _connectionManager;
+
+    @Before
+    public void setUp()
+    {
+        _connectionManager = new JMXConnectionManager(RETRY_DELAY,4 * RETRY_DELAY,0)
+        {
+            @Override
+            protected JMXConnector connect(JMXServiceURL jmxServiceURL) throws IOException
+            {
+                _connects.incrementAndGet();
+                try
+                {
+                    // give concurrent callers a chance to pile up
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new IOException(e.toString());
+                }
+                if (!_reachable)
+                    throw new IOException("unreachable");
+                _connector = new FakeConnector();
+                return _connector;
+            }
+        };
+        _connectionManager.addListener(new JMXConnectionManager.Listener()
+        {
+            public void connectionOpened(JMXServiceURL jmxServiceURL, MBeanServerConnection connection)
+            {
+                _opened.incrementAndGet();
+            }
+
+            public void connectionClosed(JMXServiceURL jmxServiceURL)
+            {
+                _closed.incrementAndGet();
+            }
+
+            public void notificationsLost(JMXServiceURL jmxServiceURL)
+            {
+                _lost.incrementAndGet();
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+    {
+        _connectionManager.destroy();
+    }
+
+    @Test
+    public void testConcurrentRequestsConnectOnce() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        Future<?>[] futures = new Future<?>[8];
+        for (int i = 0; i < futures.length; i++)
+        {
+            futures[i] = executor.submit(new Callable<MBeanServerConnection>()
+            {
+                public MBeanServerConnection call() throws Exception
+                {
+                    start.await();
+                    return _connectionManager.getConnection(_jmxServiceURL);
+                }
+            });
+        }
+        start.countDown();
+        Object connection = futures[0].get();
+        for (Future<?> future : futures)
+            assertSame(connection,future.get());
+        executor.shutdown();
+
+        assertEquals(1,_connects.get());
+        assertEquals(1,_opened.get());
+    }
+
+    @Test
+    public void testReconnectAfterConnectionFailure() throws Exception
+    {
+        MBeanServerConnection connection = _connectionManager.getConnection(_jmxServiceURL);
+        _connector.fail();
+        assertFalse(_connectionManager.isConnected(_jmxServiceURL));
+        assertEquals(1,_closed.get());
+
+        assertFalse(connection == _connectionManager.getConnection(_jmxServiceURL));
+        assertEquals(2,_connects.get());
+        assertEquals(2,_opened.get());
+    }
+
+    @Test
+    public void testReportedFailureOfReplacedConnectionIsIgnored() throws Exception
+    {
+        MBeanServerConnection connection = _connectionManager.getConnection(_jmxServiceURL);
+        _connectionManager.connectionFailed(_jmxServiceURL,connection);
+        MBeanServerConnection reconnected = _connectionManager.getConnection(_jmxServiceURL);
+
+        _connectionManager.connectionFailed(_jmxServiceURL,connection);
+        assertTrue(_connectionManager.isConnected(_jmxServiceURL));
+        assertSame(reconnected,_connectionManager.getConnection(_jmxServiceURL));
+    }
+
+    @Test
+    public void testUnreachableNodeBacksOff() throws Exception
+    {
+        _reachable = false;
+        assertConnectFails();
+        assertEquals(1,_connects.get());
+
+        // too soon - fails without trying
+        assertConnectFails();
+        assertEquals(1,_connects.get());
+
+        Thread.sleep(RETRY_DELAY + 50);
+        assertConnectFails();
+        assertEquals(2,_connects.get());
+
+        // the delay has doubled
+        Thread.sleep(RETRY_DELAY + 50);
+        assertConnectFails();
+        assertEquals(2,_connects.get());
+
+        _reachable = true;
+        Thread.sleep(RETRY_DELAY);
+        _connectionManager.getConnection(_jmxServiceURL);
+        assertEquals(3,_connects.get());
+        assertTrue(_connectionManager.isConnected(_jmxServiceURL));
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception
+    {
+        _connectionManager.getConnection(_jmxServiceURL);
+        assertEquals(0,_connectionManager.evictIdle(System.currentTimeMillis() - 60000));
+        assertTrue(_connectionManager.isConnected(_jmxServiceURL));
+
+        assertEquals(1,_connectionManager.evictIdle(System.currentTimeMillis() + 60000));
+        assertFalse(_connectionManager.isConnected(_jmxServiceURL));
+        assertTrue(_connector._closed);
+    }
+
+    @Test
+    public void testLostNotificationsKeepTheConnection() throws Exception
+    {
+        MBeanServerConnection connection = _connectionManager.getConnection(_jmxServiceURL);
+        _connector.lose();
+        assertEquals(1,_lost.get());
+        assertEquals(0,_closed.get());
+        assertEquals(1,_opened.get());
+        assertSame(connection,_connectionManager.getConnection(_jmxServiceURL));
+    }
+
+    @Test
+    public void testRepeatedCallFailuresBackOff() throws Exception
+    {
+        // the first failure reconnects at once...
+        _connectionManager.connectionFailed(_jmxServiceURL,_connectionManager.getConnection(_jmxServiceURL));
+        MBeanServerConnection connection = _connectionManager.getConnection(_jmxServiceURL);
+        assertEquals(2,_connects.get());
+
+        // ...but failing again straight after does not
+        _connectionManager.connectionFailed(_jmxServiceURL,connection);
+        assertConnectFails();
+        assertEquals(2,_connects.get());
+
+        Thread.sleep(RETRY_DELAY + 50);
+        _connectionManager.getConnection(_jmxServiceURL);
+        assertEquals(3,_connects.get());
+    }
+
+    @Test
+    public void testEvictedNodeIsNotConnectedTo() throws Exception
+    {
+        _connectionManager.getConnection(_jmxServiceURL);
+        assertEquals(1,_connectionManager.evictIdle(System.currentTimeMillis() + 60000));
+        // connected again, through a node the manager knows about
+        _connectionManager.getConnection(_jmxServiceURL);
+        assertTrue(_connectionManager.isConnected(_jmxServiceURL));
+        assertEquals(2,_connects.get());
+    }
+
+    private void assertConnectFails()
+    {
+        try
+        {
+            _connectionManager.getConnection(_jmxServiceURL);
+            fail("connect should fail");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Connects to the local MBeanServer, and can be made to fail.
+     */
+    class FakeConnector implements JMXConnector
+    {
+        NotificationListener _listener;
+        Object _handback;
+        volatile boolean _closed;
+
+        void fail()
+        {
+            _listener.handleNotification(new JMXConnectionNotification(JMXConnectionNotification.FAILED,this,"id",1,"failed",null),_handback);
+        }
+
+        void lose()
+        {
+            _listener.handleNotification(new JMXConnectionNotification(JMXConnectionNotification.NOTIFS_LOST,this,"id",2,"lost",null),_handback);
+        }
+
+        public void connect() throws IOException
+        {
+        }
+
+        public void connect(Map<String, ?> env) throws IOException
+        {
+        }
+
+        public MBeanServerConnection getMBeanServerConnection() throws IOException
+        {
+            // a fresh proxy per connector, so that connections can be told apart
+            return (MBeanServerConnection)Proxy.newProxyInstance(getClass().getClassLoader(),new Class<?>[] { MBeanServerConnection.class },new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+                {
+                    return method.invoke(ManagementFactory.getPlatformMBeanServer(),args);
+                }
+            });
+        }
+
+        public MBeanServerConnection getMBeanServerConnection(Subject delegationSubject) throws IOException
+        {
+            return getMBeanServerConnection();
+        }
+
+        public void close() throws IOException
+        {
+            _closed = true;
+        }
+
+        public void addConnectionNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback)
+        {
+            _listener = listener;
+            _handback = handback;
+        }
+
+        public void removeConnectionNotificationListener(NotificationListener listener)
+        {
+        }
+
+        public void removeConnectionNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback)
+        {
+        }
+
+        public String getConnectionId() throws IOException
+        {
+            return "id";
+        }
+    }
+}
@@ -15,9 +15,18 @@
 package org.mortbay.jetty.jmx.ws.service.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
 
+import javax.management.remote.JMXServiceURL;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mortbay.jetty.jmx.ws.domain.JMXNode;
@@ -50,4 +59,73 @@ public class JMXNodeServiceTest
         assertEquals("Two nodes expected", 2, jmxNodes.size());
     }
 
+    @Test
+    public void testGetNode()
+    {
+        JMXNode jmxNode = jmxNodeService.getNode("localhost:1100");
+        assertNotNull(jmxNode);
+        assertEquals("service:jmx:rmi:///jndi/rmi://localhost:1100/jettyjmx",jmxNode.getJmxServiceURL().toString());
+        assertNull(jmxNodeService.getNode("localhost:1101"));
+    }
+
+    @Test
+    public void testNodesAreCachedUntilDiscoveryChanges() throws Exception
+    {
+        LocalNodeDiscovery discovery = new LocalNodeDiscovery();
+        discovery.addNode("node1",new JMXServiceURL("service:jmx:rmi:///jndi/rmi://node1:1099/jettyjmx"));
+        JMXNodeService nodeService = new JMXNodeServiceImpl(discovery,0);
+
+        Collection<JMXNode> jmxNodes = nodeService.getNodes();
+        assertSame(jmxNodes,nodeService.getNodes());
+
+        discovery.addNode("node2",new JMXServiceURL("service:jmx:rmi:///jndi/rmi://node2:1099/jettyjmx"));
+        assertEquals(2,nodeService.getNodes().size());
+        assertNotNull(nodeService.getNode("node2"));
+
+        discovery.removeNode("node1");
+        assertEquals(1,nodeService.getNodes().size());
+        assertNull(nodeService.getNode("node1"));
+    }
+
+    @Test
+    public void testDirectoryDiscovery() throws Exception
+    {
+        File directory = File.createTempFile("jmxNodes",null);
+        directory.delete();
+        directory.mkdir();
+        try
+        {
+            write(new File(directory,"a.properties"),"nodes = host1:1099, host2:1099");
+            JMXNodeService nodeService = new JMXNodeServiceImpl(new DirectoryNodeDiscovery(directory),0);
+            assertEquals(2,nodeService.getNodes().size());
+
+            write(new File(directory,"b.properties"),"nodes = host3:1099");
+            assertEquals(3,nodeService.getNodes().size());
+            assertNotNull(nodeService.getNode("host3:1099"));
+
+            new File(directory,"a.properties").delete();
+            assertEquals(1,nodeService.getNodes().size());
+            assertNull(nodeService.getNode("host1:1099"));
+        }
+        finally
+        {
+            for (File file : directory.listFiles())
+                file.delete();
+            directory.delete();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException
+    {
+        Writer writer = new FileWriter(file);
+        try
+        {
+            writer.write(content);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
 }
@@ -17,6 +17,7 @@ import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Map;
 import java.util.Set;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanAttributeInfo;
@@ -46,6 +47,7 @@ import org.mortbay.jetty.jmx.ws.util.JMXServiceURLUtils;
 import org.mortbay.jetty.jmx.ws.util.RandomIntRangeGenerator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -153,6 +155,53 @@ public class JMXServiceTest
         assertTrue(version != null);
     }
 
+    @Test
+    public void testGetAttributeValues() throws InstanceNotFoundException
+    {
+        String[] attributeNames = new String[]
+        { "HeapMemoryUsage", "NonHeapMemoryUsage", "NoSuchAttribute" };
+        Map<String, Object> values = service.getAttributeValues(jmxServiceURL,ManagementFactory.MEMORY_MXBEAN_NAME,attributeNames);
+        assertEquals(3,values.size());
+        assertTrue("Used heap should be greater than zero",(Long)((CompositeDataSupport)values.get("HeapMemoryUsage")).get("used") > 0);
+        assertTrue(values.get("NonHeapMemoryUsage") instanceof CompositeDataSupport);
+        assertTrue("a missing attribute should report why",values.get("NoSuchAttribute") instanceof String);
+    }
+
+    @Test
+    public void testGetObjectNamesSeesNewMBeans() throws Exception
+    {
+        ObjectName objectName = new ObjectName("org.mortbay.jetty.jmx.ws.test:type=added");
+        assertFalse(service.getObjectNames(jmxServiceURL).contains(objectName));
+
+        mBeanServer.registerMBean(new Added(),objectName);
+        try
+        {
+            // the registration notification reaches us asynchronously
+            long end = System.currentTimeMillis() + 10000;
+            while (!service.getObjectNames(jmxServiceURL).contains(objectName) && System.currentTimeMillis() < end)
+                Thread.sleep(50);
+            assertTrue(service.getObjectNames(jmxServiceURL).contains(objectName));
+            assertEquals(1,service.getObjectNamesByPrefix(jmxServiceURL,"org.mortbay.jetty.jmx.ws.test:type=add").size());
+        }
+        finally
+        {
+            mBeanServer.unregisterMBean(objectName);
+        }
+    }
+
+    public interface AddedMBean
+    {
+        int getValue();
+    }
+
+    public static class Added implements AddedMBean
+    {
+        public int getValue()
+        {
+            return 1;
+        }
+    }
+
     @Test
     public void testInvokeOperationWithMultipleParameter()
     {
@@ -0,0 +1,169 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.remote.JMXServiceURL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.service.impl.NodeQueryExecutor.NodeQuery;
+import org.mortbay.jetty.jmx.ws.service.impl.NodeQueryExecutor.NodeResult;
+import org.mortbay.jetty.jmx.ws.util.JMXServiceURLUtils;
+
+/* ------------------------------------------------------------ */
+/**
+ */
+public class NodeQueryExecutorTest
+{
+    private static final long TIMEOUT = 500;
+
+    NodeQueryExecutor _nodeQueryExecutor;
+    List<JMXNode> _jmxNodes = new ArrayList<JMXNode>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _nodeQueryExecutor = new NodeQueryExecutor(4,TIMEOUT);
+        for (String name : new String[] { "fast", "slow", "failing", "fast2" })
+        {
+            JMXServiceURL jmxServiceURL = JMXServiceURLUtils.getJMXServiceURL("service:jmx:rmi:///jndi/rmi://" + name + ":1099/jettyjmx");
+            _jmxNodes.add(new JMXNode(name,jmxServiceURL));
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        _nodeQueryExecutor.destroy();
+    }
+
+    @Test
+    public void testInvokeAllWithSlowAndFailingNodes()
+    {
+        long start = System.currentTimeMillis();
+        List<NodeResult<String>> results = _nodeQueryExecutor.invokeAll(_jmxNodes,new NodeQuery<String>()
+        {
+            public String query(JMXNode jmxNode) throws Exception
+            {
+                if ("slow".equals(jmxNode.getNodeName()))
+                    Thread.sleep(TIMEOUT * 10);
+                if ("failing".equals(jmxNode.getNodeName()))
+                    throw new IllegalStateException("connection refused");
+                return jmxNode.getNodeName();
+            }
+        });
+        long took = System.currentTimeMillis() - start;
+
+        assertTrue("slow node should not stall the others: " + took,took < TIMEOUT * 5);
+        assertEquals(_jmxNodes.size(),results.size());
+
+        assertEquals("results should be in node order","fast",results.get(0).getValue());
+        assertFalse(results.get(0).isDegraded());
+        assertTrue(results.get(1).isDegraded());
+        assertTrue(results.get(1).isTimedOut());
+        assertTrue(results.get(2).isDegraded());
+        assertFalse(results.get(2).isTimedOut());
+        assertTrue(results.get(2).getFailure() instanceof IllegalStateException);
+        assertEquals("fast2",results.get(3).getValue());
+    }
+
+    @Test
+    public void testInvokeAllRunsConcurrently()
+    {
+        long start = System.currentTimeMillis();
+        List<NodeResult<String>> results = _nodeQueryExecutor.invokeAll(_jmxNodes,new NodeQuery<String>()
+        {
+            public String query(JMXNode jmxNode) throws Exception
+            {
+                Thread.sleep(TIMEOUT / 2);
+                return jmxNode.getNodeName();
+            }
+        });
+        long took = System.currentTimeMillis() - start;
+
+        for (NodeResult<String> result : results)
+            assertFalse(result.getJmxNode().getNodeName() + " should have answered",result.isDegraded());
+        assertTrue("nodes should be queried at once: " + took,took < TIMEOUT * 2);
+    }
+
+    @Test
+    public void testHungNodeHoldsOnlyItsShareOfThreads() throws Exception
+    {
+        // an RMI call ignores interrupts, so a hung node's queries stay
+        // running after they time out...
+        final CountDownLatch hung = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        NodeQuery<String> query = new NodeQuery<String>()
+        {
+            public String query(JMXNode jmxNode) throws Exception
+            {
+                if ("slow".equals(jmxNode.getNodeName()))
+                {
+                    running.incrementAndGet();
+                    while (true)
+                    {
+                        try
+                        {
+                            hung.await();
+                            break;
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // like RMI, carry on
+                        }
+                    }
+                }
+                return jmxNode.getNodeName();
+            }
+        };
+
+        NodeQueryExecutor executor = new NodeQueryExecutor(4,TIMEOUT / 5,2);
+        try
+        {
+            for (int i = 0; i < 5; i++)
+            {
+                List<NodeResult<String>> results = executor.invokeAll(_jmxNodes,query);
+                assertTrue(results.get(1).isDegraded());
+                if (i >= 2)
+                    assertTrue(results.get(1).getFailure() instanceof RejectedExecutionException);
+                assertEquals("the other nodes should still answer","fast",results.get(0).getValue());
+                assertEquals("failing",results.get(2).getValue());
+                assertEquals("fast2",results.get(3).getValue());
+            }
+            assertEquals(2,running.get());
+
+            hung.countDown();
+            Thread.sleep(TIMEOUT / 5);
+            assertFalse(executor.invokeAll(_jmxNodes,query).get(1).isDegraded());
+        }
+        finally
+        {
+            hung.countDown();
+            executor.destroy();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/* ------------------------------------------------------------ */
+/**
+ */
+public class SampleRingTest
+{
+    @Test
+    public void testSinceReturnsNewerSamplesOldestFirst()
+    {
+        SampleRing ring = new SampleRing(4);
+        assertEquals(0,ring.latest().size());
+        for (int i = 1; i <= 3; i++)
+            ring.add(i * 1000,i);
+
+        SampleRing.Snapshot snapshot = ring.since(1000);
+        assertArrayEquals(new long[] { 2000, 3000 },snapshot.getTimes());
+        assertArrayEquals(new double[] { 2, 3 },snapshot.getValues(),0);
+        assertEquals(3,ring.since(0).size());
+        assertEquals(0,ring.since(3000).size());
+    }
+
+    @Test
+    public void testFullRingOverwritesOldest()
+    {
+        SampleRing ring = new SampleRing(4);
+        for (int i = 1; i <= 10; i++)
+            ring.add(i * 1000,i);
+
+        assertEquals(4,ring.size());
+        assertArrayEquals(new long[] { 7000, 8000, 9000, 10000 },ring.since(0).getTimes());
+        assertArrayEquals(new double[] { 10 },ring.latest().getValues(),0);
+    }
+}
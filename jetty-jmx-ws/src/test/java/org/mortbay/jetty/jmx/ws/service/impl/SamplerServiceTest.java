@@ -0,0 +1,260 @@
+// ========================================================================
+// Copyright (c) 2009-2009 Mort Bay Consulting Pty. Ltd.
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+
+package org.mortbay.jetty.jmx.ws.service.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.remote.JMXServiceURL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.jmx.ws.domain.JMXNode;
+import org.mortbay.jetty.jmx.ws.domain.jaxb.SamplesJaxBean;
+import org.mortbay.jetty.jmx.ws.domain.jaxb.SeriesJaxBean;
+import org.mortbay.jetty.jmx.ws.service.JMXNodeService;
+import org.mortbay.jetty.jmx.ws.service.JMXService;
+import org.mortbay.jetty.jmx.ws.util.JMXServiceURLUtils;
+
+/* ------------------------------------------------------------ */
+/**
+ * Samples the local MBeanServer, through a JMXService which reads it
+ * directly, as two nodes - one of which goes down.
+ */
+public class SamplerServiceTest
+{
+    private static final String HEAP_USED = JMXServiceImpl.MEMORY_MXBEAN + "/" + JMXServiceImpl.MEMORY_MXBEAN_HEAP + ".used";
+    private static final String THREAD_COUNT = JMXServiceImpl.THREADING_MXBEAN + "/ThreadCount";
+
+    List<JMXNode> _jmxNodes = new ArrayList<JMXNode>();
+    AtomicInteger _bulkReads = new AtomicInteger();
+    volatile boolean _node2Down;
+    volatile long _node2Delay;
+    JMXNodeService _jmxNodeService;
+    SamplerServiceImpl _samplerService;
+
+    @Before
+    public void setUp()
+    {
+        for (String name : new String[] { "node1", "node2" })
+        {
+            JMXServiceURL jmxServiceURL = JMXServiceURLUtils.getJMXServiceURL("service:jmx:rmi:///jndi/rmi://" + name + ":1099/jettyjmx");
+            _jmxNodes.add(new JMXNode(name,jmxServiceURL));
+        }
+        _jmxNodeService = new JMXNodeService()
+        {
+            public Collection<JMXNode> getNodes()
+            {
+                return _jmxNodes;
+            }
+
+            public JMXNode getNode(String nodeName)
+            {
+                for (JMXNode jmxNode : _jmxNodes)
+                    if (jmxNode.getNodeName().equals(nodeName))
+                        return jmxNode;
+                return null;
+            }
+        };
+        _samplerService = new SamplerServiceImpl(new LocalJMXService(),_jmxNodeService,new NodeQueryExecutor(2,1000),SamplerServiceImpl.parse(HEAP_USED + ";"
+                + THREAD_COUNT + ";" + JMXServiceImpl.THREADING_MXBEAN + "/PeakThreadCount"),60000,3)
+        {
+            @Override
+            public synchronized void start()
+            {
+                // the test takes the samples
+            }
+        };
+    }
+
+    @After
+    public void tearDown()
+    {
+        _samplerService.destroy();
+    }
+
+    @Test
+    public void testSamplesAreKeptPerNodeAndAttribute()
+    {
+        for (int i = 1; i <= 4; i++)
+            _samplerService.sample(i * 1000);
+
+        // one bulk read per MBean per node per sample
+        assertEquals(2 * 2 * 4,_bulkReads.get());
+
+        SamplesJaxBean samples = _samplerService.getSamples(_jmxNodes,null,0);
+        assertEquals(2 * 3,samples.series.size());
+        assertEquals(4000,samples.lastSampleTime);
+        for (SeriesJaxBean series : samples.series)
+        {
+            // only the last three are kept
+            assertArrayEquals(new long[] { 2000, 3000, 4000 },series.times);
+            assertTrue(series.values[0] > 0);
+        }
+
+        samples = _samplerService.getSamples(_jmxNodes,THREAD_COUNT,3000);
+        assertEquals(2,samples.series.size());
+        for (SeriesJaxBean series : samples.series)
+        {
+            assertEquals(THREAD_COUNT,series.name);
+            assertArrayEquals(new long[] { 4000 },series.times);
+        }
+    }
+
+    @Test
+    public void testFailingNodeIsDegraded()
+    {
+        _samplerService.sample(1000);
+        _node2Down = true;
+        _samplerService.sample(2000);
+
+        SamplesJaxBean samples = _samplerService.getLatestSamples(_jmxNodes,HEAP_USED);
+        assertEquals(2,samples.series.size());
+        assertEquals("node2",samples.degradedNodes.iterator().next());
+        for (SeriesJaxBean series : samples.series)
+            assertEquals(series.nodeName.equals("node1")?2000:1000,series.times[0]);
+    }
+
+    @Test
+    public void testSlowNodeDoesNotDelayTheTick()
+    {
+        // the nodes may take 5s, but the interval is 200ms
+        SamplerServiceImpl samplerService = new SamplerServiceImpl(new LocalJMXService(),_jmxNodeService,new NodeQueryExecutor(2,5000),
+                SamplerServiceImpl.parse(HEAP_USED),200,3)
+        {
+            @Override
+            public synchronized void start()
+            {
+            }
+        };
+        try
+        {
+            _node2Delay = 5000;
+            long start = System.currentTimeMillis();
+            samplerService.sample(1000);
+            long took = System.currentTimeMillis() - start;
+            assertTrue("a tick should wait no longer than the interval: " + took,took < 1000);
+            SamplesJaxBean samples = samplerService.getLatestSamples(_jmxNodes,HEAP_USED);
+            assertEquals("node2",samples.degradedNodes.iterator().next());
+            assertEquals(1,samples.series.size());
+        }
+        finally
+        {
+            samplerService.destroy();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Reads attributes from the local MBeanServer - or reports errors as
+     * values for node2 while it is down, as JMXServiceImpl does.
+     */
+    class LocalJMXService implements JMXService
+    {
+        public Map<String, Object> getAttributeValues(JMXServiceURL jmxServiceURL, String objectName, String[] attributeNames) throws InstanceNotFoundException
+        {
+            _bulkReads.incrementAndGet();
+            if (_node2Delay > 0 && jmxServiceURL.toString().contains("node2"))
+            {
+                try
+                {
+                    Thread.sleep(_node2Delay);
+                }
+                catch (InterruptedException e)
+                {
+                    return java.util.Collections.emptyMap();
+                }
+            }
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            for (String attributeName : attributeNames)
+                values.put(attributeName,getAttribute(jmxServiceURL,objectName,attributeName));
+            return values;
+        }
+
+        public Object getAttribute(JMXServiceURL jmxServiceURL, String objectName, String attribute) throws InstanceNotFoundException
+        {
+            if (_node2Down && jmxServiceURL.toString().contains("node2"))
+                return "java.io.IOException: connection refused";
+            try
+            {
+                return ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(objectName),attribute);
+            }
+            catch (InstanceNotFoundException e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                return e.toString();
+            }
+        }
+
+        public Set<ObjectName> getObjectNames(JMXServiceURL jmxServiceURL)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public Set<String> getObjectNamesByPrefix(JMXServiceURL jmxServiceURL, String prefix)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public MBeanAttributeInfo[] getAttributes(JMXServiceURL jmxServiceURL, String objectName) throws InstanceNotFoundException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public MBeanOperationInfo[] getOperations(JMXServiceURL jmxServiceURL, String objectName) throws InstanceNotFoundException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public Object invoke(JMXServiceURL jmxServiceURL, String objectName, String operationName, Object[] params, String[] signature)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void addNotificationListener(JMXServiceURL jmxServiceURL, String objectName, NotificationListener listener)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void removeNotificationListener(JMXServiceURL jmxServiceURL, String objectName, NotificationListener listener)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void destroy()
+        {
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package org.mortbay.jetty.test.remote;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+
+/**
+ * The measurements reported by a <code>RemoteBenchmarkServlet</code>.
+ */
+public class RemoteBenchmarkResults
+{
+    public static class BenchmarkClass
+    {
+        private String className;
+        private Map<String, BenchmarkResult> results;
+
+        public BenchmarkClass(JSONObject robj) throws JSONException
+        {
+            this.className = robj.getString("name");
+            this.results = new TreeMap<String, BenchmarkResult>();
+
+            // parse results
+            JSONArray arr = robj.getJSONArray("results");
+            int len = arr.length();
+            for (int i = 0; i < len; i++)
+            {
+                BenchmarkResult br = new BenchmarkResult(arr.getJSONObject(i));
+                results.put(br.getMethodName(),br);
+            }
+        }
+
+        public String getClassName()
+        {
+            return className;
+        }
+
+        public Map<String, BenchmarkResult> getResults()
+        {
+            return results;
+        }
+
+        public int getBenchmarkCount()
+        {
+            return results.size();
+        }
+
+        public BenchmarkResult getBenchmarkResult(String methodName)
+        {
+            return results.get(methodName);
+        }
+    }
+
+    public static class BenchmarkResult
+    {
+        private String className;
+        private String methodName;
+        private int threads;
+        private int iterations;
+        private boolean success;
+        private long ops;
+        private double opsPerSecond;
+        private double opsPerSecondError;
+        private double[] iterationScores;
+        private Map<String, Double> latency = new TreeMap<String, Double>();
+        private double allocatedBytesPerOp;
+        private String failureMessage;
+        private String failureTrace;
+
+        public BenchmarkResult(JSONObject jobj) throws JSONException
+        {
+            this.className = jobj.getString("className");
+            this.methodName = jobj.getString("methodName");
+            this.threads = jobj.optInt("threads",1);
+            this.iterations = jobj.optInt("iterations",0);
+            this.success = jobj.optBoolean("success",true);
+            this.ops = jobj.optLong("ops",0);
+            this.opsPerSecond = jobj.optDouble("opsPerSecond",0);
+            this.opsPerSecondError = jobj.optDouble("opsPerSecondError",0);
+            this.allocatedBytesPerOp = jobj.optDouble("allocatedBytesPerOp",-1);
+
+            JSONArray scores = jobj.optJSONArray("iterationScores");
+            this.iterationScores = new double[scores == null?0:scores.length()];
+            for (int i = 0; i < iterationScores.length; i++)
+            {
+                iterationScores[i] = scores.getDouble(i);
+            }
+
+            JSONObject lat = jobj.optJSONObject("latency");
+            if (lat != null)
+            {
+                for (String key : new String[] { "mean", "min", "p50", "p90", "p99", "p999", "max" })
+                {
+                    latency.put(key,lat.optDouble(key,0));
+                }
+            }
+
+            JSONObject failure = jobj.optJSONObject("failure");
+            if (failure != null)
+            {
+                this.failureMessage = failure.optString("message");
+                this.failureTrace = failure.optString("trace");
+            }
+        }
+
+        public String getClassName()
+        {
+            return className;
+        }
+
+        public String getMethodName()
+        {
+            return methodName;
+        }
+
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public int getIterations()
+        {
+            return iterations;
+        }
+
+        public boolean isSuccess()
+        {
+            return success;
+        }
+
+        public long getOps()
+        {
+            return ops;
+        }
+
+        /**
+         * @return the mean ops/s of the measured iterations, across all threads
+         */
+        public double getOpsPerSecond()
+        {
+            return opsPerSecond;
+        }
+
+        /**
+         * @return the standard deviation of the measured iterations' ops/s
+         */
+        public double getOpsPerSecondError()
+        {
+            return opsPerSecondError;
+        }
+
+        public double[] getIterationScores()
+        {
+            return iterationScores;
+        }
+
+        /**
+         * @param name
+         *            one of <code>mean, min, p50, p90, p99, p999, max</code>
+         * @return that latency, in nanoseconds, or 0 if it was not reported
+         */
+        public double getLatency(String name)
+        {
+            Double value = latency.get(name);
+            return value == null?0:value.doubleValue();
+        }
+
+        /**
+         * @return the bytes allocated per call, or -1 if the server's JVM cannot tell
+         */
+        public double getAllocatedBytesPerOp()
+        {
+            return allocatedBytesPerOp;
+        }
+
+        public String getFailureMessage()
+        {
+            return failureMessage;
+        }
+
+        public String getFailureTrace()
+        {
+            return failureTrace;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (!success)
+            {
+                return String.format("%s.%s FAILED: %s",className,methodName,failureMessage);
+            }
+            String allocation = (allocatedBytesPerOp < 0)?"":String.format(", %.1f B/op",allocatedBytesPerOp);
+            return String.format("%s.%s: %.1f +/- %.1f ops/s, p50 %.0f ns, p99 %.0f ns%s",className,methodName,opsPerSecond,opsPerSecondError,
+                    getLatency("p50"),getLatency("p99"),allocation);
+        }
+    }
+
+    private Map<String, BenchmarkClass> resultMap = new TreeMap<String, BenchmarkClass>();
+
+    public RemoteBenchmarkResults(String rawJsonString) throws JSONException
+    {
+        this(new JSONArray(rawJsonString));
+    }
+
+    public RemoteBenchmarkResults(JSONArray arr) throws JSONException
+    {
+        int count = arr.length();
+        for (int i = 0; i < count; i++)
+        {
+            BenchmarkClass bc = new BenchmarkClass(arr.getJSONObject(i));
+            resultMap.put(bc.className,bc);
+        }
+    }
+
+    /**
+     * Assert that every benchmark ran to the end, without throwing.
+     */
+    public void assertSuccess()
+    {
+        StringWriter writer = new StringWriter();
+        PrintWriter out = new PrintWriter(writer);
+        int failureCount = 0;
+        for (BenchmarkClass bc : resultMap.values())
+        {
+            for (BenchmarkResult result : bc.getResults().values())
+            {
+                if (result.isSuccess())
+                {
+                    continue;
+                }
+                failureCount++;
+                out.printf("Failure %d: %s.%s%n",failureCount,result.getClassName(),result.getMethodName());
+                out.printf("         %s%n",result.getFailureMessage());
+                System.out.println(result.getFailureTrace());
+            }
+        }
+        if (failureCount > 0)
+        {
+            out.flush();
+            Assert.fail("Encountered " + failureCount + " failure(s)\n" + "See STDOUT for Stacktrace Details on failures.\n" + writer.toString());
+        }
+    }
+
+    public BenchmarkClass getBenchmarkClass(String name)
+    {
+        return resultMap.get(name);
+    }
+
+    public int getBenchmarkClassCount()
+    {
+        return resultMap.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder str = new StringBuilder();
+        for (BenchmarkClass bc : resultMap.values())
+        {
+            for (BenchmarkResult result : bc.getResults().values())
+            {
+                str.append(result).append('\n');
+            }
+        }
+        return str.toString();
+    }
+}
@@ -1,5 +1,6 @@
 package org.mortbay.jetty.test.remote;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -7,12 +8,41 @@ import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.eclipse.jetty.toolchain.test.IO;
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
+import org.mortbay.jetty.test.remote.RemoteTestSuiteResults.TestResult;
 
 public class RemoteTestSuiteClient
 {
+    /** The content type of results streamed one test per line, as each test finishes */
+    public static final String RESULT_STREAM_CONTENT_TYPE = "application/x-ndjson";
+
+    /**
+     * Told about each test result as soon as it arrives, while the rest of the tests are still running.
+     */
+    public interface ProgressListener
+    {
+        void testFinished(TestResult result);
+    }
+
+    /**
+     * Prints one line per test result to STDOUT.
+     */
+    public static final ProgressListener CONSOLE_PROGRESS = new ProgressListener()
+    {
+        public void testFinished(TestResult result)
+        {
+            String status = result.isIgnored()?"IGNORED":(result.isSuccess()?"PASS":"FAIL");
+            String time = (result.getTime() < 0)?"":String.format(" (%d ms)",result.getTime());
+            System.out.printf("[%s] %s.%s%s%n",status,result.getClassName(),result.getMethodName(),time);
+        }
+    };
+
     private URI baseUri;
 
     public RemoteTestSuiteClient(URI serverURI) throws UnknownHostException
@@ -24,27 +54,112 @@ public class RemoteTestSuiteClient
     {
         URI uri = this.baseUri.resolve(relativePath);
         System.out.println("GET (Remote TestSuite Results): " + uri.toASCIIString());
+        return new RemoteTestSuiteResults(get(uri));
+    }
 
+    /**
+     * Run benchmarks in a <code>RemoteBenchmarkServlet</code>, and get their measurements.
+     *
+     * @param relativePath
+     *            the benchmarks to run, with any overrides of their iterations as request parameters
+     * @return the measurements
+     */
+    public RemoteBenchmarkResults getBenchmarkResults(String relativePath) throws IOException, JSONException
+    {
+        URI uri = this.baseUri.resolve(relativePath);
+        System.out.println("GET (Remote Benchmark Results): " + uri.toASCIIString());
+        String body = get(uri);
+        System.out.println("JSON:\n" + body);
+        return new RemoteBenchmarkResults(body);
+    }
+
+    private String get(URI uri) throws IOException
+    {
         InputStream in = null;
         InputStreamReader reader = null;
-        HttpURLConnection connection = null;
 
         try
         {
-            connection = (HttpURLConnection)uri.toURL().openConnection();
-            connection.connect();
-            if (HttpURLConnection.HTTP_OK != connection.getResponseCode())
-            {
-                String body = getPotentialBody(connection);
-                String err = String.format("GET request failed (%d %s) %s%n%s",connection.getResponseCode(),connection.getResponseMessage(),
-                        uri.toASCIIString(),body);
-                throw new IOException(err);
-            }
+            HttpURLConnection connection = connect(uri,null);
             in = connection.getInputStream();
             reader = new InputStreamReader(in);
             StringWriter writer = new StringWriter();
             IO.copy(reader,writer);
-            return new RemoteTestSuiteResults(writer.toString());
+            return writer.toString();
+        }
+        finally
+        {
+            IO.close(reader);
+            IO.close(in);
+        }
+    }
+
+    /**
+     * Get the results as each test finishes, rather than all at once when the whole run is over.
+     *
+     * @param relativePath
+     *            the tests to run
+     * @param listener
+     *            told about each result as it arrives
+     * @return all of the results
+     */
+    public RemoteTestSuiteResults getResults(String relativePath, ProgressListener listener) throws IOException, JSONException
+    {
+        URI uri = this.baseUri.resolve(relativePath);
+        System.out.println("GET (Remote TestSuite Results, streamed): " + uri.toASCIIString());
+
+        InputStream in = null;
+        BufferedReader reader = null;
+
+        try
+        {
+            HttpURLConnection connection = connect(uri,RESULT_STREAM_CONTENT_TYPE);
+            in = connection.getInputStream();
+            reader = new BufferedReader(new InputStreamReader(in,"UTF-8"));
+
+            String contentType = connection.getContentType();
+            if (contentType == null || !contentType.startsWith(RESULT_STREAM_CONTENT_TYPE))
+            {
+                // Server does not stream, report everything at the end
+                StringWriter writer = new StringWriter();
+                IO.copy(reader,writer);
+                RemoteTestSuiteResults results = new RemoteTestSuiteResults(writer.toString());
+                results.notify(listener);
+                return results;
+            }
+
+            // Group the results by class, as the non-streamed results are
+            Map<String, JSONArray> classes = new LinkedHashMap<String, JSONArray>();
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.trim().length() == 0)
+                {
+                    continue;
+                }
+                JSONObject joresult = new JSONObject(line);
+                TestResult result = new TestResult(joresult);
+                listener.testFinished(result);
+
+                JSONArray classResults = classes.get(result.getClassName());
+                if (classResults == null)
+                {
+                    classResults = new JSONArray();
+                    classes.put(result.getClassName(),classResults);
+                }
+                classResults.put(joresult);
+            }
+
+            JSONArray top = new JSONArray();
+            for (Map.Entry<String, JSONArray> entry : classes.entrySet())
+            {
+                JSONObject classresults = new JSONObject();
+                classresults.put("name",entry.getKey());
+                classresults.put("testCount",entry.getValue().length());
+                classresults.put("results",entry.getValue());
+                top.put(classresults);
+            }
+            return new RemoteTestSuiteResults(top);
         }
         finally
         {
@@ -53,9 +168,27 @@ public class RemoteTestSuiteClient
         }
     }
 
+    private HttpURLConnection connect(URI uri, String accept) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection)uri.toURL().openConnection();
+        if (accept != null)
+        {
+            connection.setRequestProperty("Accept",accept);
+        }
+        connection.connect();
+        if (HttpURLConnection.HTTP_OK != connection.getResponseCode())
+        {
+            String body = getPotentialBody(connection);
+            String err = String.format("GET request failed (%d %s) %s%n%s",connection.getResponseCode(),connection.getResponseMessage(),
+                    uri.toASCIIString(),body);
+            throw new IOException(err);
+        }
+        return connection;
+    }
+
     /**
      * Attempt to obtain the body text if available. Do not throw an exception if body is unable to be fetched.
-     * 
+     *
      * @param connection
      *            the connection to fetch the body content from.
      * @return the body content, if present.
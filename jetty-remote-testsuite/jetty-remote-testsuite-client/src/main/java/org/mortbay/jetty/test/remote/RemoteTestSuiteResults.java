@@ -64,11 +64,13 @@ public class RemoteTestSuiteResults
         private String failureHeader;
         private String failureMessage;
         private String failureTrace;
+        private long time;
 
         public TestResult(JSONObject jobj) throws JSONException
         {
             this.className = jobj.getString("className");
             this.methodName = jobj.getString("methodName");
+            this.time = jobj.optLong("time",-1);
             this.ignored = jobj.optBoolean("ignored",false);
             if (this.ignored)
             {
@@ -112,6 +114,14 @@ public class RemoteTestSuiteResults
             return methodName;
         }
 
+        /**
+         * @return how long the test took, in milliseconds, or -1 if unknown
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
         public boolean isAssumptionFailure()
         {
             return assumptionFailure;
@@ -132,8 +142,11 @@ public class RemoteTestSuiteResults
 
     public RemoteTestSuiteResults(String rawJsonString) throws JSONException
     {
-        System.out.println("JSON:\n" + rawJsonString);
-        JSONArray arr = new JSONArray(rawJsonString);
+        this(parse(rawJsonString));
+    }
+
+    public RemoteTestSuiteResults(JSONArray arr) throws JSONException
+    {
         int count = arr.length();
         for (int i = 0; i < count; i++)
         {
@@ -143,6 +156,12 @@ public class RemoteTestSuiteResults
         }
     }
 
+    private static JSONArray parse(String rawJsonString) throws JSONException
+    {
+        System.out.println("JSON:\n" + rawJsonString);
+        return new JSONArray(rawJsonString);
+    }
+
     /**
      * Assert that all results are success (or are ignored)
      */
@@ -178,6 +197,17 @@ public class RemoteTestSuiteResults
         }
     }
 
+    void notify(RemoteTestSuiteClient.ProgressListener listener)
+    {
+        for (TestClass tc : resultMap.values())
+        {
+            for (TestResult result : tc.getResults().values())
+            {
+                listener.testFinished(result);
+            }
+        }
+    }
+
     public TestClass getTestClass(String name)
     {
         return resultMap.get(name);
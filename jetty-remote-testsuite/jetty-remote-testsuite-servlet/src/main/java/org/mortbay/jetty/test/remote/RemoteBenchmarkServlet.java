@@ -0,0 +1,226 @@
+package org.mortbay.jetty.test.remote;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mortbay.jetty.test.remote.bench.Benchmark;
+import org.mortbay.jetty.test.remote.bench.BenchmarkResult;
+import org.mortbay.jetty.test.remote.bench.BenchmarkRunner;
+
+/**
+ * Runs the registered {@link Benchmark} classes inside the container, and reports their measurements as JSON.
+ * <p>
+ * The PathInfo selects what to run, as for {@link RemoteTestSuiteServlet}: every benchmark class, one benchmark
+ * class, or some of its methods (eg: <code>/benchmarks/MyBenchmark/parse,format</code>).
+ * <p>
+ * The request parameters <code>warmupIterations</code>, <code>iterations</code>, <code>iterationTime</code> (ms) and
+ * <code>threads</code> override what the {@link Benchmark} annotations ask for, eg: for a quick run. They are checked
+ * before anything runs: one that is not a number in range (at most {@value #MAX_THREADS} threads) is a 400.
+ * <p>
+ * Benchmarks run one after the other, never alongside each other, so they do not disturb each other's measurements.
+ * The results are written as each benchmark class finishes, as a JSON array of benchmark classes.
+ */
+public abstract class RemoteBenchmarkServlet extends HttpServlet
+{
+    private static final long serialVersionUID = 2380932715496123517L;
+    public static final int MAX_THREADS = 256;
+    private static final String[] OVERRIDES = { "warmupIterations", "iterations", "iterationTime", "threads" };
+    private static final long[] OVERRIDE_MIN = { 0, 1, 1, 1 };
+    private static final long[] OVERRIDE_MAX = { Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, MAX_THREADS };
+    private Map<String, Class<?>> benchmarks = new LinkedHashMap<String, Class<?>>();
+
+    public void addBenchmarkClass(Class<?> benchmarkClass)
+    {
+        benchmarks.put(benchmarkClass.getSimpleName(),benchmarkClass);
+    }
+
+    public void addBenchmarkClass(String name, Class<?> benchmarkClass)
+    {
+        benchmarks.put(name,benchmarkClass);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+    {
+        TestScope scope = new TestScope(req.getPathInfo());
+        System.out.println("BenchmarkScope: " + scope);
+
+        // parse them all now, as there is no reporting an error once the response is committed
+        Map<String, Long> overrides = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < OVERRIDES.length; i++)
+        {
+            String value = req.getParameter(OVERRIDES[i]);
+            if (value == null)
+            {
+                continue;
+            }
+            Long parsed = parseOverride(value,OVERRIDE_MIN[i],OVERRIDE_MAX[i]);
+            if (parsed == null)
+            {
+                respondWithError(resp,HttpServletResponse.SC_BAD_REQUEST,"Invalid " + OVERRIDES[i] + " (" + OVERRIDE_MIN[i] + ".." + OVERRIDE_MAX[i]
+                        + "): " + value);
+                return;
+            }
+            overrides.put(OVERRIDES[i],parsed);
+        }
+
+        Map<Class<?>, List<Method>> runs = new LinkedHashMap<Class<?>, List<Method>>();
+        if (!scope.hasClassName())
+        {
+            for (Class<?> benchmarkClass : benchmarks.values())
+            {
+                runs.put(benchmarkClass,BenchmarkRunner.getBenchmarkMethods(benchmarkClass));
+            }
+        }
+        else
+        {
+            Class<?> benchmarkClass = benchmarks.get(scope.getClassName());
+            if (benchmarkClass == null)
+            {
+                respondWithError(resp,HttpServletResponse.SC_CONFLICT,"Specified Benchmark Class does not exist: " + scope.getClassName());
+                return;
+            }
+
+            List<Method> methods = BenchmarkRunner.getBenchmarkMethods(benchmarkClass);
+            if (scope.hasMethodName())
+            {
+                List<String> methodNames = Arrays.asList(scope.getMethodName().split(","));
+                List<Method> selected = new ArrayList<Method>();
+                for (String methodName : methodNames)
+                {
+                    Method method = findMethod(methods,methodName);
+                    if (method == null)
+                    {
+                        respondWithError(resp,HttpServletResponse.SC_CONFLICT,"Specified Benchmark Method does not exist: " + scope.getClassName() + "."
+                                + methodName);
+                        return;
+                    }
+                    selected.add(method);
+                }
+                methods = selected;
+            }
+            runs.put(benchmarkClass,methods);
+        }
+
+        ServletRequestContext context = new ServletRequestContext(this,req,resp);
+        ServletRequestContext previous = ThreadLocalServletRequestContext.get();
+        ThreadLocalServletRequestContext.set(context);
+        try
+        {
+            runBenchmarks(resp,runs,overrides);
+        }
+        catch (JSONException e)
+        {
+            throw new ServletException(e);
+        }
+        finally
+        {
+            ThreadLocalServletRequestContext.set(previous);
+        }
+    }
+
+    private Long parseOverride(String value, long min, long max)
+    {
+        try
+        {
+            long parsed = Long.parseLong(value.trim());
+            return (parsed < min || parsed > max)?null:Long.valueOf(parsed);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    private Method findMethod(List<Method> methods, String methodName)
+    {
+        for (Method method : methods)
+        {
+            if (method.getName().equals(methodName))
+            {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private void respondWithError(HttpServletResponse resp, int responseCode, String msg) throws IOException
+    {
+        System.err.printf("ERROR[%d]: %s%n",responseCode,msg);
+        resp.sendError(responseCode,msg);
+    }
+
+    private void runBenchmarks(HttpServletResponse resp, Map<Class<?>, List<Method>> runs, Map<String, Long> overrides) throws IOException, JSONException
+    {
+        resp.setContentType("application/json");
+        PrintWriter out = resp.getWriter();
+        // commit the response now, so the client knows the benchmarks are running
+        out.write("[");
+        out.flush();
+        resp.flushBuffer();
+
+        boolean first = true;
+        for (Map.Entry<Class<?>, List<Method>> run : runs.entrySet())
+        {
+            JSONArray resultsArray = new JSONArray();
+            for (Method method : run.getValue())
+            {
+                BenchmarkRunner runner = new BenchmarkRunner(run.getKey(),method);
+                configure(runner,overrides);
+                System.out.printf("Benchmark: %s.%s%n",run.getKey().getName(),method.getName());
+                BenchmarkResult result = runner.run();
+                resultsArray.put(result.toJSON());
+            }
+
+            JSONObject classresults = new JSONObject();
+            classresults.put("name",run.getKey().getName());
+            classresults.put("benchmarkCount",resultsArray.length());
+            classresults.put("results",resultsArray);
+
+            out.write((first?"\n":",\n") + classresults.toString(2));
+            out.flush();
+            resp.flushBuffer();
+            first = false;
+        }
+        out.write("\n]\n");
+        out.flush();
+    }
+
+    private void configure(BenchmarkRunner runner, Map<String, Long> overrides)
+    {
+        Long value = overrides.get("warmupIterations");
+        if (value != null)
+        {
+            runner.setWarmupIterations(value.intValue());
+        }
+        value = overrides.get("iterations");
+        if (value != null)
+        {
+            runner.setIterations(value.intValue());
+        }
+        value = overrides.get("iterationTime");
+        if (value != null)
+        {
+            runner.setIterationTime(value);
+        }
+        value = overrides.get("threads");
+        if (value != null)
+        {
+            runner.setThreads(value.intValue());
+        }
+    }
+}
@@ -1,13 +1,23 @@
 package org.mortbay.jetty.test.remote;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -17,14 +27,38 @@ import javax.servlet.http.HttpServletResponse;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.Description;
 import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.notification.Failure;
 import org.mortbay.jetty.test.remote.junit.RunResult;
 import org.mortbay.jetty.test.remote.junit.RunResultsListener;
 
+/**
+ * Runs the registered test classes inside the container, and reports their results as JSON.
+ * <p>
+ * The PathInfo selects what to run (see {@link TestScope}): every test class, one test class, or some of the methods
+ * of one test class, as a comma separated list (eg: <code>/tests/MyTest/testFoo,testBar</code>).
+ * <p>
+ * Test classes are run one after the other, unless <code>threads</code> (init-param, or {@link #setThreads(int)}) is
+ * more than 1: then they are run in parallel, on up to that many threads. Only suites whose test classes can run
+ * alongside each other should ask for it.
+ * <p>
+ * The results are written as each test class finishes, as a JSON array of test classes. A client sending
+ * <code>Accept: {@value #RESULT_STREAM_CONTENT_TYPE}</code> instead gets each test result as soon as that test
+ * finishes, as one JSON object per line. An error once the results have started ends them with a failed result,
+ * against this servlet's class, which describes it.
+ */
 public abstract class RemoteTestSuiteServlet extends HttpServlet
 {
     private static final long serialVersionUID = -5707460195745579917L;
+    public static final String RESULT_STREAM_CONTENT_TYPE = "application/x-ndjson";
+    private static final String CLASS_ARRAY_CONTENT_TYPE = "application/json";
     private Map<String, Class<?>> testSuite = new HashMap<String, Class<?>>();
+    private int threads = -1;
+    private transient ExecutorService executor;
 
     public void addTestClass(Class<?> testclass)
     {
@@ -36,21 +70,52 @@ public abstract class RemoteTestSuiteServlet extends HttpServlet
         testSuite.put(name,testclass);
     }
 
-    private void closeIO(Closeable c)
+    /**
+     * @param threads
+     *            the number of test classes to run at once, 1 (the default) to run them one after the other
+     */
+    public void setThreads(int threads)
     {
-        if (c == null)
+        this.threads = threads;
+    }
+
+    public int getThreads()
+    {
+        if (threads <= 0)
         {
-            return;
+            String param = getServletConfig() == null?null:getInitParameter("threads");
+            threads = (param == null)?1:Integer.parseInt(param.trim());
         }
+        return Math.max(1,threads);
+    }
 
-        try
+    private synchronized ExecutorService getExecutor()
+    {
+        if (executor == null)
         {
-            c.close();
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(getThreads(),new ThreadFactory()
+            {
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable,"RemoteTestSuite-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         }
-        catch (IOException ignore)
+        return executor;
+    }
+
+    @Override
+    public synchronized void destroy()
+    {
+        if (executor != null)
         {
-            /* ignore */
+            executor.shutdownNow();
+            executor = null;
         }
+        super.destroy();
     }
 
     @Override
@@ -62,24 +127,16 @@ public abstract class RemoteTestSuiteServlet extends HttpServlet
         ServletRequestContext context = new ServletRequestContext(this,req,resp);
         ThreadLocalServletRequestContext.set(context);
 
+        List<TestRun> runs = new ArrayList<TestRun>();
         if (!scope.hasClassName())
         {
-            List<Class<?>> testlist = new ArrayList<Class<?>>();
-            testlist.addAll(testSuite.values());
-            Class<?> testClasses[] = testlist.toArray(new Class<?>[0]);
-            runTestClasses(context,testClasses);
-            return;
-        }
-
-        if (scope.hasMethodName())
-        {
-            // Run Specific Test Method
-            respondWithError(resp,HttpServletResponse.SC_NOT_IMPLEMENTED,"Running specific test method not supported (yet).");
-            return;
+            for (Class<?> testClass : testSuite.values())
+            {
+                runs.add(new TestRun(context,testClass,Request.aClass(testClass)));
+            }
         }
         else
         {
-            // Run All Tests in ClassName
             Class<?> testClass = testSuite.get(scope.getClassName());
             if (testClass == null)
             {
@@ -87,7 +144,51 @@ public abstract class RemoteTestSuiteServlet extends HttpServlet
                 return;
             }
 
-            runTestClasses(context,testClass);
+            if (scope.hasMethodName())
+            {
+                // Run Specific Test Method(s)
+                List<String> methodNames = Arrays.asList(scope.getMethodName().split(","));
+                for (String methodName : methodNames)
+                {
+                    if (!isTestMethod(testClass,methodName))
+                    {
+                        respondWithError(resp,HttpServletResponse.SC_CONFLICT,"Specified Test Method does not exist: " + scope.getClassName() + "."
+                                + methodName);
+                        return;
+                    }
+                }
+                runs.add(new TestRun(context,testClass,Request.aClass(testClass).filterWith(new MethodNamesFilter(methodNames))));
+            }
+            else
+            {
+                // Run All Tests in ClassName
+                runs.add(new TestRun(context,testClass,Request.aClass(testClass)));
+            }
+        }
+
+        String accept = req.getHeader("Accept");
+        ResultsWriter results;
+        if (accept != null && accept.contains(RESULT_STREAM_CONTENT_TYPE))
+        {
+            results = new ResultStreamWriter(resp);
+        }
+        else
+        {
+            results = new ClassArrayWriter(resp);
+        }
+        runTests(runs,results);
+    }
+
+    private boolean isTestMethod(Class<?> testClass, String methodName)
+    {
+        try
+        {
+            Method method = testClass.getMethod(methodName);
+            return method.getAnnotation(Test.class) != null;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
         }
     }
 
@@ -97,64 +198,317 @@ public abstract class RemoteTestSuiteServlet extends HttpServlet
         resp.sendError(responseCode,msg);
     }
 
-    private void runTestClasses(ServletRequestContext context, Class<?>... testClasses) throws IOException
+    private void runTests(List<TestRun> runs, ResultsWriter results) throws IOException
     {
-        RunResultsListener resultsListener = new RunResultsListener();
-
+        List<Future<Map<String, List<RunResult>>>> futures = new ArrayList<Future<Map<String, List<RunResult>>>>();
         try
         {
-            JUnitCore junit = new JUnitCore();
-            junit.addListener(resultsListener);
-            junit.run(testClasses);
-
-            writeResultsJson(context.getResponse(),resultsListener.getResults());
+            results.begin();
+            if (runs.size() == 1 || getThreads() == 1)
+            {
+                for (TestRun run : runs)
+                {
+                    results.classesFinished(run.call(results));
+                }
+            }
+            else
+            {
+                CompletionService<Map<String, List<RunResult>>> completion = new ExecutorCompletionService<Map<String, List<RunResult>>>(getExecutor());
+                for (TestRun run : runs)
+                {
+                    futures.add(completion.submit(run.bind(results)));
+                }
+                for (int i = 0; i < runs.size(); i++)
+                {
+                    results.classesFinished(completion.take().get());
+                }
+            }
+            results.end();
         }
         catch (Throwable t)
         {
-            t.printStackTrace(System.err);
+            if (t instanceof InterruptedException)
+            {
+                Thread.currentThread().interrupt();
+            }
+            for (Future<?> future : futures)
+            {
+                future.cancel(true);
+            }
+            Throwable cause = (t instanceof ExecutionException)?t.getCause():t;
+            cause.printStackTrace(System.err);
+            if (results.isCommitted())
+            {
+                // too late for an error response, so end the results with it
+                try
+                {
+                    results.error(getClass(),cause);
+                }
+                catch (Exception e)
+                {
+                    // the client has gone
+                    e.printStackTrace(System.err);
+                }
+                return;
+            }
             StringWriter writer = new StringWriter();
             PrintWriter err = new PrintWriter(writer);
-            err.printf("%s: %s%n",t.getClass().getName(),t.getMessage());
-            t.printStackTrace(err);
-            context.getResponse().sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,err.toString());
-            return;
+            err.printf("%s: %s%n",cause.getClass().getName(),cause.getMessage());
+            cause.printStackTrace(err);
+            results.getResponse().sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,err.toString());
         }
     }
 
-    private void writeResultsJson(HttpServletResponse resp, Map<String, List<RunResult>> resultsMap) throws JSONException, IOException
+    /**
+     * Runs one test class in its own JUnitCore, on whichever thread calls it.
+     */
+    private static class TestRun
     {
-        JSONArray top = new JSONArray();
+        private final ServletRequestContext context;
+        private final Class<?> testClass;
+        private final Request request;
 
-        for (String className : resultsMap.keySet())
+        TestRun(ServletRequestContext context, Class<?> testClass, Request request)
         {
-            JSONObject classresults = new JSONObject();
-            classresults.put("name",className);
-            List<RunResult> results = resultsMap.get(className);
-            classresults.put("testCount",results.size());
+            this.context = context;
+            this.testClass = testClass;
+            this.request = request;
+        }
 
-            JSONArray resultsArray = new JSONArray();
-            for (RunResult result : results)
+        Callable<Map<String, List<RunResult>>> bind(final ResultsWriter results)
+        {
+            return new Callable<Map<String, List<RunResult>>>()
             {
-                resultsArray.put(result.toJSON());
+                public Map<String, List<RunResult>> call() throws Exception
+                {
+                    return TestRun.this.call(results);
+                }
+            };
+        }
+
+        Map<String, List<RunResult>> call(final ResultsWriter results) throws IOException, JSONException
+        {
+            // the tests' rules expect the context on the thread that runs them
+            ServletRequestContext previous = ThreadLocalServletRequestContext.get();
+            ThreadLocalServletRequestContext.set(context);
+            RunResultsListener resultsListener = new RunResultsListener()
+            {
+                @Override
+                protected void resultSaved(String className, RunResult result)
+                {
+                    results.testFinished(result);
+                }
+            };
+            try
+            {
+                JUnitCore junit = new JUnitCore();
+                junit.addListener(resultsListener);
+                junit.run(request);
+            }
+            catch (Throwable t)
+            {
+                // report it against the class, rather than lose the other classes' results
+                t.printStackTrace(System.err);
+                Description description = Description.createTestDescription(testClass,"run");
+                RunResult failedRun = new RunResult(description);
+                failedRun.setFailure(new Failure(description,t));
+                resultsListener.getResults().put(testClass.getName(),new ArrayList<RunResult>(Arrays.asList(failedRun)));
+            }
+            finally
+            {
+                ThreadLocalServletRequestContext.set(previous);
             }
-            classresults.put("results",resultsArray);
+            return resultsListener.getResults();
+        }
+    }
+
+    /**
+     * Selects test methods by name.
+     */
+    private static class MethodNamesFilter extends Filter
+    {
+        private final List<String> methodNames;
 
-            top.put(classresults);
+        MethodNamesFilter(List<String> methodNames)
+        {
+            this.methodNames = methodNames;
         }
 
-        resp.setContentType("application/json");
+        @Override
+        public boolean shouldRun(Description description)
+        {
+            if (description.getMethodName() == null)
+            {
+                // a class or suite, run it if it contains a selected method
+                for (Description child : description.getChildren())
+                {
+                    if (shouldRun(child))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return methodNames.contains(description.getMethodName());
+        }
 
-        PrintWriter writer = null;
-        try
+        @Override
+        public String describe()
+        {
+            return "Methods " + methodNames;
+        }
+    }
+
+    /**
+     * Writes the results to the response as they become available, from whichever thread has them.
+     */
+    private abstract static class ResultsWriter
+    {
+        private final HttpServletResponse response;
+        private PrintWriter writer;
+        private boolean closed;
+
+        ResultsWriter(HttpServletResponse response)
+        {
+            this.response = response;
+        }
+
+        HttpServletResponse getResponse()
+        {
+            return response;
+        }
+
+        synchronized boolean isCommitted()
+        {
+            return writer != null && response.isCommitted();
+        }
+
+        abstract void begin() throws IOException;
+
+        void testFinished(RunResult result)
         {
-            writer = resp.getWriter();
-            writer.write(top.toString(2));
+        }
+
+        void classesFinished(Map<String, List<RunResult>> resultsMap) throws JSONException, IOException
+        {
+        }
+
+        abstract void end() throws IOException;
+
+        /**
+         * Ends the results with a failed result describing the error, and drops any written after it.
+         */
+        synchronized void error(Class<?> source, Throwable cause) throws JSONException, IOException
+        {
+            Description description = Description.createTestDescription(source,"run");
+            RunResult failedRun = new RunResult(description);
+            failedRun.setFailure(new Failure(description,cause));
+            testFinished(failedRun);
+            Map<String, List<RunResult>> resultsMap = new HashMap<String, List<RunResult>>();
+            resultsMap.put(source.getName(),new ArrayList<RunResult>(Arrays.asList(failedRun)));
+            classesFinished(resultsMap);
+            end();
+            closed = true;
+        }
+
+        protected synchronized void write(String content, String contentType) throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            if (writer == null)
+            {
+                response.setContentType(contentType);
+                writer = response.getWriter();
+            }
+            writer.write(content);
             writer.flush();
+            response.flushBuffer();
+        }
+    }
+
+    /**
+     * As before: a JSON array of test classes, with each class written when all of its tests have finished.
+     */
+    private static class ClassArrayWriter extends ResultsWriter
+    {
+        private boolean first = true;
+
+        ClassArrayWriter(HttpServletResponse response)
+        {
+            super(response);
         }
-        finally
+
+        @Override
+        void begin() throws IOException
         {
-            closeIO(writer);
+            write("[",CLASS_ARRAY_CONTENT_TYPE);
+        }
+
+        @Override
+        synchronized void classesFinished(Map<String, List<RunResult>> resultsMap) throws JSONException, IOException
+        {
+            for (String className : resultsMap.keySet())
+            {
+                JSONObject classresults = new JSONObject();
+                classresults.put("name",className);
+                List<RunResult> results = resultsMap.get(className);
+                classresults.put("testCount",results.size());
+
+                JSONArray resultsArray = new JSONArray();
+                for (RunResult result : results)
+                {
+                    resultsArray.put(result.toJSON());
+                }
+                classresults.put("results",resultsArray);
+
+                write((first?"\n":",\n") + classresults.toString(2),CLASS_ARRAY_CONTENT_TYPE);
+                first = false;
+            }
+        }
+
+        @Override
+        void end() throws IOException
+        {
+            write("\n]\n",CLASS_ARRAY_CONTENT_TYPE);
         }
     }
 
+    /**
+     * One JSON test result per line, each written as soon as its test has finished.
+     */
+    private static class ResultStreamWriter extends ResultsWriter
+    {
+        ResultStreamWriter(HttpServletResponse response)
+        {
+            super(response);
+        }
+
+        @Override
+        void begin() throws IOException
+        {
+            // commit the response now, so the client knows the tests are running
+            write("",RESULT_STREAM_CONTENT_TYPE);
+        }
+
+        @Override
+        void testFinished(RunResult result)
+        {
+            try
+            {
+                write(result.toJSON().toString() + "\n",RESULT_STREAM_CONTENT_TYPE);
+            }
+            catch (Exception e)
+            {
+                // the client has gone, the tests carry on
+                e.printStackTrace(System.err);
+            }
+        }
+
+        @Override
+        void end() throws IOException
+        {
+        }
+    }
 }
@@ -51,7 +51,7 @@ public class TestScope
 
     public boolean hasMethodName()
     {
-        return className != null;
+        return methodName != null;
     }
 
     @Override
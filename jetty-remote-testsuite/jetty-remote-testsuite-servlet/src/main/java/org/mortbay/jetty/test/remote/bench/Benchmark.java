@@ -0,0 +1,39 @@
+package org.mortbay.jetty.test.remote.bench;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a public, no-argument method to be measured by {@link BenchmarkRunner}.
+ * <p>
+ * The method is called over and over, from {@link #threads()} threads at once, for {@link #warmupIterations()}
+ * unmeasured iterations and then {@link #iterations()} measured ones, each lasting {@link #iterationTime()}
+ * milliseconds. Whatever it returns is consumed, so the JIT cannot optimize the work away; primitive results are
+ * boxed, which counts against the allocation per op.
+ * <p>
+ * The benchmark class needs a public no-argument constructor. One instance is shared by all of the threads of one
+ * benchmark, and its JUnit <code>@Before</code> and <code>@After</code> methods are called once around the whole
+ * benchmark, not around every call.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Benchmark
+{
+    int warmupIterations() default 5;
+
+    int iterations() default 10;
+
+    /**
+     * @return how long each iteration lasts, in milliseconds
+     */
+    long iterationTime() default 1000;
+
+    /**
+     * @return how many threads call the method at once
+     */
+    int threads() default 1;
+}
@@ -0,0 +1,171 @@
+package org.mortbay.jetty.test.remote.bench;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The measurements of one benchmark method: the ops/s of each measured iteration, the latencies of a sample of the
+ * calls, and the bytes allocated per call.
+ */
+public class BenchmarkResult
+{
+    private final String className;
+    private final String methodName;
+    private final int threads;
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationTime;
+    private final List<Double> scores = new ArrayList<Double>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long ops;
+    private long allocatedBytes;
+    private Throwable failure;
+
+    public BenchmarkResult(String className, String methodName, int threads, int warmupIterations, int iterations, long iterationTime)
+    {
+        this.className = className;
+        this.methodName = methodName;
+        this.threads = threads;
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationTime = iterationTime;
+    }
+
+    /**
+     * @param opsPerSecond
+     *            the throughput of the iteration, across all of its threads
+     * @param iterationOps
+     *            the number of calls made
+     * @param iterationLatency
+     *            the latencies sampled
+     * @param iterationAllocatedBytes
+     *            the bytes allocated by the calls, or -1 if the JVM cannot tell
+     */
+    public void addIteration(double opsPerSecond, long iterationOps, LatencyHistogram iterationLatency, long iterationAllocatedBytes)
+    {
+        scores.add(opsPerSecond);
+        ops += iterationOps;
+        latency.add(iterationLatency);
+        if (iterationAllocatedBytes < 0 || allocatedBytes < 0)
+        {
+            allocatedBytes = -1;
+        }
+        else
+        {
+            allocatedBytes += iterationAllocatedBytes;
+        }
+    }
+
+    public void setFailure(Throwable failure)
+    {
+        this.failure = failure;
+    }
+
+    public String getClassName()
+    {
+        return className;
+    }
+
+    public String getMethodName()
+    {
+        return methodName;
+    }
+
+    public boolean isSuccess()
+    {
+        return failure == null;
+    }
+
+    public long getOps()
+    {
+        return ops;
+    }
+
+    public double getOpsPerSecond()
+    {
+        double sum = 0;
+        for (double score : scores)
+        {
+            sum += score;
+        }
+        return scores.isEmpty()?0:sum / scores.size();
+    }
+
+    /**
+     * @return the standard deviation of the iterations' ops/s
+     */
+    public double getOpsPerSecondError()
+    {
+        if (scores.size() < 2)
+        {
+            return 0;
+        }
+        double mean = getOpsPerSecond();
+        double squares = 0;
+        for (double score : scores)
+        {
+            squares += (score - mean) * (score - mean);
+        }
+        return Math.sqrt(squares / (scores.size() - 1));
+    }
+
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * @return the bytes allocated per call, or -1 if the JVM cannot tell
+     */
+    public double getAllocatedBytesPerOp()
+    {
+        if (allocatedBytes < 0 || ops == 0)
+        {
+            return -1;
+        }
+        return (double)allocatedBytes / ops;
+    }
+
+    public JSONObject toJSON() throws JSONException
+    {
+        JSONObject json = new JSONObject();
+        json.put("className",className);
+        json.put("methodName",methodName);
+        json.put("threads",threads);
+        json.put("warmupIterations",warmupIterations);
+        json.put("iterations",iterations);
+        json.put("iterationTime",iterationTime);
+        json.put("success",isSuccess());
+        json.put("ops",ops);
+        json.put("opsPerSecond",getOpsPerSecond());
+        json.put("opsPerSecondError",getOpsPerSecondError());
+        JSONArray scoresArray = new JSONArray();
+        for (double score : scores)
+        {
+            scoresArray.put(score);
+        }
+        json.put("iterationScores",scoresArray);
+        json.put("latency",latency.toJSON());
+        if (getAllocatedBytesPerOp() >= 0)
+        {
+            json.put("allocatedBytesPerOp",getAllocatedBytesPerOp());
+        }
+        if (failure != null)
+        {
+            StringWriter trace = new StringWriter();
+            failure.printStackTrace(new PrintWriter(trace));
+            JSONObject failureJson = new JSONObject();
+            failureJson.put("message",failure.getMessage());
+            failureJson.put("header",methodName + "(" + className + ")");
+            failureJson.put("trace",trace.toString());
+            json.put("failure",failureJson);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,372 @@
+package org.mortbay.jetty.test.remote.bench;
+
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.mortbay.jetty.test.remote.ServletRequestContext;
+import org.mortbay.jetty.test.remote.ThreadLocalServletRequestContext;
+import org.mortbay.jetty.test.remote.util.MethodNameSorter;
+
+/**
+ * Runs one {@link Benchmark} method: its warmup iterations, then its measured iterations.
+ * <p>
+ * Every call is counted towards the ops/s, but only one call in {@value #LATENCY_SAMPLE_RATE} is timed, so that
+ * reading the clock does not dominate the cost of short methods. The calls are made through reflection, which adds
+ * a few nanoseconds to each of them.
+ * <p>
+ * The benchmark threads are given the {@link ServletRequestContext} of the thread calling {@link #run()}, so the
+ * benchmark sees the same request, servlet and webapp classloader as the tests do.
+ */
+public class BenchmarkRunner
+{
+    public static final int LATENCY_SAMPLE_RATE = 8;
+    private static final long SAMPLE_MASK = LATENCY_SAMPLE_RATE - 1;
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+    private static final Method ALLOCATED_BYTES = findAllocatedBytesMethod();
+
+    private final Class<?> benchmarkClass;
+    private final Method method;
+    private int warmupIterations;
+    private int iterations;
+    private long iterationTime;
+    private int threads;
+    // never equal to a result, but the JIT cannot know that
+    private volatile Object sink = new Object();
+
+    public BenchmarkRunner(Class<?> benchmarkClass, Method method)
+    {
+        Benchmark benchmark = method.getAnnotation(Benchmark.class);
+        if (benchmark == null)
+        {
+            throw new IllegalArgumentException("Not a @Benchmark method: " + method);
+        }
+        this.benchmarkClass = benchmarkClass;
+        this.method = method;
+        this.warmupIterations = benchmark.warmupIterations();
+        this.iterations = benchmark.iterations();
+        this.iterationTime = benchmark.iterationTime();
+        this.threads = benchmark.threads();
+    }
+
+    /**
+     * @return the {@link Benchmark} methods of a class, by name
+     */
+    public static List<Method> getBenchmarkMethods(Class<?> benchmarkClass)
+    {
+        List<Method> methods = new ArrayList<Method>();
+        for (Method method : benchmarkClass.getMethods())
+        {
+            if (method.getAnnotation(Benchmark.class) != null)
+            {
+                methods.add(method);
+            }
+        }
+        Collections.sort(methods,new MethodNameSorter());
+        return methods;
+    }
+
+    public void setWarmupIterations(int warmupIterations)
+    {
+        this.warmupIterations = Math.max(0,warmupIterations);
+    }
+
+    public void setIterations(int iterations)
+    {
+        this.iterations = Math.max(1,iterations);
+    }
+
+    /**
+     * @param iterationTime
+     *            how long each iteration lasts, in milliseconds
+     */
+    public void setIterationTime(long iterationTime)
+    {
+        this.iterationTime = Math.max(1,iterationTime);
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1,threads);
+    }
+
+    public BenchmarkResult run()
+    {
+        BenchmarkResult result = new BenchmarkResult(benchmarkClass.getName(),method.getName(),threads,warmupIterations,iterations,iterationTime);
+        Object target;
+        try
+        {
+            target = benchmarkClass.newInstance();
+            invokeAnnotated(target,Before.class);
+        }
+        catch (Throwable t)
+        {
+            result.setFailure(unwrap(t));
+            return result;
+        }
+
+        try
+        {
+            for (int i = 0; i < warmupIterations; i++)
+            {
+                runIteration(target);
+            }
+            for (int i = 0; i < iterations; i++)
+            {
+                Iteration iteration = runIteration(target);
+                result.addIteration(iteration.getOpsPerSecond(),iteration.getOps(),iteration.getLatency(),iteration.getAllocatedBytes());
+            }
+        }
+        catch (Throwable t)
+        {
+            result.setFailure(unwrap(t));
+        }
+        finally
+        {
+            try
+            {
+                invokeAnnotated(target,After.class);
+            }
+            catch (Throwable t)
+            {
+                if (result.isSuccess())
+                {
+                    result.setFailure(unwrap(t));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Iteration runIteration(Object target) throws Throwable
+    {
+        Iteration iteration = new Iteration(ThreadLocalServletRequestContext.get());
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i] = new Thread(iteration.newWorker(target),"Benchmark-" + method.getName() + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        iteration.start.countDown();
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+        if (iteration.failure != null)
+        {
+            throw iteration.failure;
+        }
+        return iteration;
+    }
+
+    private void invokeAnnotated(Object target, Class<? extends Annotation> annotation) throws Exception
+    {
+        for (Method m : benchmarkClass.getMethods())
+        {
+            if (m.getAnnotation(annotation) != null)
+            {
+                m.invoke(target,NO_ARGS);
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable t)
+    {
+        return (t instanceof InvocationTargetException)?t.getCause():t;
+    }
+
+    private static Method findAllocatedBytesMethod()
+    {
+        // Only HotSpot's ThreadMXBean can tell, and only from Java 6u25
+        try
+        {
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (!beanClass.isInstance(THREAD_BEAN))
+            {
+                return null;
+            }
+            Boolean supported = (Boolean)beanClass.getMethod("isThreadAllocatedMemorySupported").invoke(THREAD_BEAN);
+            Boolean enabled = (Boolean)beanClass.getMethod("isThreadAllocatedMemoryEnabled").invoke(THREAD_BEAN);
+            if (!supported.booleanValue() || !enabled.booleanValue())
+            {
+                return null;
+            }
+            return beanClass.getMethod("getThreadAllocatedBytes",long.class);
+        }
+        catch (Throwable t)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or -1 if the JVM cannot tell
+     */
+    static long getAllocatedBytes()
+    {
+        if (ALLOCATED_BYTES == null)
+        {
+            return -1;
+        }
+        try
+        {
+            return ((Long)ALLOCATED_BYTES.invoke(THREAD_BEAN,Thread.currentThread().getId())).longValue();
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * One iteration: every thread calls the method until the iteration time is up.
+     */
+    private class Iteration
+    {
+        private final ServletRequestContext context;
+        private final CountDownLatch start = new CountDownLatch(1);
+        private final List<Worker> workers = new ArrayList<Worker>();
+        private volatile boolean stopped;
+        private volatile Throwable failure;
+
+        Iteration(ServletRequestContext context)
+        {
+            this.context = context;
+        }
+
+        Worker newWorker(Object target)
+        {
+            Worker worker = new Worker(this,target);
+            workers.add(worker);
+            return worker;
+        }
+
+        void fail(Throwable t)
+        {
+            if (failure == null)
+            {
+                failure = t;
+            }
+            stopped = true;
+        }
+
+        double getOpsPerSecond()
+        {
+            double opsPerSecond = 0;
+            for (Worker worker : workers)
+            {
+                opsPerSecond += worker.ops * 1000000000d / Math.max(1,worker.elapsedNanos);
+            }
+            return opsPerSecond;
+        }
+
+        long getOps()
+        {
+            long ops = 0;
+            for (Worker worker : workers)
+            {
+                ops += worker.ops;
+            }
+            return ops;
+        }
+
+        LatencyHistogram getLatency()
+        {
+            LatencyHistogram latency = new LatencyHistogram();
+            for (Worker worker : workers)
+            {
+                latency.add(worker.latency);
+            }
+            return latency;
+        }
+
+        long getAllocatedBytes()
+        {
+            long allocated = 0;
+            for (Worker worker : workers)
+            {
+                if (worker.allocatedBytes < 0)
+                {
+                    return -1;
+                }
+                allocated += worker.allocatedBytes;
+            }
+            return allocated;
+        }
+    }
+
+    private class Worker implements Runnable
+    {
+        private final Iteration iteration;
+        private final Object target;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long ops;
+        private long elapsedNanos;
+        private long allocatedBytes = -1;
+        private long sunk;
+
+        Worker(Iteration iteration, Object target)
+        {
+            this.iteration = iteration;
+            this.target = target;
+        }
+
+        public void run()
+        {
+            ThreadLocalServletRequestContext.set(iteration.context);
+            try
+            {
+                iteration.start.await();
+                long allocatedBefore = getAllocatedBytes();
+                long startNanos = System.nanoTime();
+                long deadline = startNanos + iterationTime * 1000000L;
+                while (true)
+                {
+                    if ((ops & SAMPLE_MASK) == 0)
+                    {
+                        long before = System.nanoTime();
+                        if (before - deadline >= 0 || iteration.stopped)
+                        {
+                            break;
+                        }
+                        Object result = method.invoke(target,NO_ARGS);
+                        latency.record(System.nanoTime() - before);
+                        if (result == sink)
+                        {
+                            sunk++;
+                        }
+                    }
+                    else if (method.invoke(target,NO_ARGS) == sink)
+                    {
+                        sunk++;
+                    }
+                    ops++;
+                }
+                elapsedNanos = System.nanoTime() - startNanos;
+                long allocatedAfter = getAllocatedBytes();
+                if (allocatedBefore >= 0 && allocatedAfter >= 0)
+                {
+                    allocatedBytes = allocatedAfter - allocatedBefore;
+                }
+            }
+            catch (Throwable t)
+            {
+                iteration.fail(unwrap(t));
+            }
+            finally
+            {
+                ThreadLocalServletRequestContext.set(null);
+            }
+        }
+    }
+}
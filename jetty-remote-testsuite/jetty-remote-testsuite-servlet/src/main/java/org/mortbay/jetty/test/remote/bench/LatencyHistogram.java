@@ -0,0 +1,143 @@
+package org.mortbay.jetty.test.remote.bench;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Counts latencies, in nanoseconds, in log-linear buckets: exact below 64ns, and to within about 3% above that.
+ * <p>
+ * Recording is one array increment, with no allocation, so it does not disturb what is being measured. Not thread
+ * safe: each thread records into its own histogram, and they are {@link #add(LatencyHistogram) added} together
+ * afterwards.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long total;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+        {
+            nanos = 0;
+        }
+        counts[indexOf(nanos)]++;
+        count++;
+        total += nanos;
+        if (nanos < min)
+        {
+            min = nanos;
+        }
+        if (nanos > max)
+        {
+            max = nanos;
+        }
+    }
+
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        min = Math.min(min,other.min);
+        max = Math.max(max,other.max);
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getMin()
+    {
+        return count == 0?0:min;
+    }
+
+    public long getMax()
+    {
+        return max;
+    }
+
+    public double getMean()
+    {
+        return count == 0?0:(double)total / count;
+    }
+
+    /**
+     * @param percentile
+     *            between 0 and 100
+     * @return the latency that percentile of the recorded latencies were at or below
+     */
+    public long getPercentile(double percentile)
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+        long rank = (long)Math.ceil(count * Math.min(100,Math.max(0,percentile)) / 100);
+        rank = Math.max(1,rank);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                // never report beyond what was actually seen
+                return Math.max(getMin(),Math.min(max,valueOf(i)));
+            }
+        }
+        return max;
+    }
+
+    public JSONObject toJSON() throws JSONException
+    {
+        JSONObject jo = new JSONObject();
+        jo.put("unit","ns");
+        jo.put("samples",count);
+        jo.put("mean",getMean());
+        jo.put("min",getMin());
+        jo.put("p50",getPercentile(50));
+        jo.put("p90",getPercentile(90));
+        jo.put("p99",getPercentile(99));
+        jo.put("p999",getPercentile(99.9));
+        jo.put("max",max);
+        return jo;
+    }
+
+    static int indexOf(long nanos)
+    {
+        if (nanos < LINEAR_LIMIT)
+        {
+            return (int)nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int)(nanos >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS * (shift + 1) + subBucket;
+    }
+
+    /**
+     * @return the middle of the range of latencies counted by a bucket
+     */
+    static long valueOf(int index)
+    {
+        if (index < LINEAR_LIMIT)
+        {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long low = (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return low + ((1L << shift) >> 1);
+    }
+}
@@ -13,11 +13,27 @@ public class RunResult
     private boolean assumptionFailure = true;
     private boolean success = true;
     private boolean ignored = false;
+    private long startTime;
+    private long elapsedMillis = -1;
 
     public RunResult(Description description)
     {
         this.description = description;
         this.success = true;
+        this.startTime = System.nanoTime();
+    }
+
+    public Description getDescription()
+    {
+        return description;
+    }
+
+    /**
+     * Mark the test as finished, recording how long it took.
+     */
+    public void setFinished()
+    {
+        this.elapsedMillis = (System.nanoTime() - startTime) / 1000000;
     }
 
     public void setAssumptionFailure(Failure failure)
@@ -43,7 +59,9 @@ public class RunResult
     {
         JSONObject json = new JSONObject();
         json.put("className",description.getClassName());
-        json.put("methodName",description.getMethodName());
+        // failures outside of any test method (eg: @BeforeClass) are reported against the class
+        String methodName = description.getMethodName();
+        json.put("methodName",methodName == null?description.getDisplayName():methodName);
         if (ignored)
         {
             json.put("ignored",true);
@@ -57,6 +75,10 @@ public class RunResult
         }
 
         json.put("success",success);
+        if (elapsedMillis >= 0)
+        {
+            json.put("time",elapsedMillis);
+        }
         if (!success)
         {
             json.put("assumptionFailure",assumptionFailure);
@@ -33,6 +33,19 @@ public class RunResultsListener extends RunListener
         }
         runs.add(rr);
         resultMap.put(className,runs);
+        resultSaved(className,rr);
+    }
+
+    /**
+     * Called as soon as the result of each test is known, before the rest of the run.
+     * 
+     * @param className
+     *            the class of the test
+     * @param result
+     *            its result
+     */
+    protected void resultSaved(String className, RunResult result)
+    {
     }
 
     @Override
@@ -45,7 +58,17 @@ public class RunResultsListener extends RunListener
     @Override
     public void testFailure(Failure failure) throws Exception
     {
-        activeRun.setFailure(failure);
+        if (activeRun == null)
+        {
+            // Failure outside of a test (eg: in @BeforeClass, or no such test), report it on its own
+            RunResult failedRun = new RunResult(failure.getDescription());
+            failedRun.setFailure(failure);
+            saveResult(failure.getDescription().getClassName(),failedRun);
+        }
+        else
+        {
+            activeRun.setFailure(failure);
+        }
         super.testFailure(failure);
     }
 
@@ -53,6 +76,7 @@ public class RunResultsListener extends RunListener
     public void testFinished(Description description) throws Exception
     {
         // Run for specific test method finished
+        activeRun.setFinished();
         saveResult(description.getClassName(),activeRun);
         activeRun = null;
         super.testFinished(description);
@@ -0,0 +1,13 @@
+package org.mortbay.jetty.test.remote;
+
+import org.mortbay.jetty.test.remote.fwk.SimpleBenchmark;
+
+public class BasicBenchmarkServlet extends RemoteBenchmarkServlet
+{
+    private static final long serialVersionUID = 7204381120347789152L;
+
+    public BasicBenchmarkServlet()
+    {
+        addBenchmarkClass(SimpleBenchmark.class);
+    }
+}
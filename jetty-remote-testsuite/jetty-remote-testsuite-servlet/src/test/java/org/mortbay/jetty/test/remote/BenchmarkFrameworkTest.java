@@ -0,0 +1,141 @@
+package org.mortbay.jetty.test.remote;
+
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mortbay.jetty.test.remote.RemoteBenchmarkResults.BenchmarkClass;
+import org.mortbay.jetty.test.remote.RemoteBenchmarkResults.BenchmarkResult;
+import org.mortbay.jetty.test.remote.fwk.SimpleBenchmark;
+
+public class BenchmarkFrameworkTest
+{
+    private static final String QUICK = "?warmupIterations=1&iterations=2&iterationTime=50";
+    private static Server jetty;
+    private static URI baseUri;
+
+    @BeforeClass
+    public static void initEmbeddedJetty() throws Exception
+    {
+        jetty = new Server();
+
+        // Connectors
+        Connector socketConnector = new SocketConnector();
+        socketConnector.setPort(0);
+        jetty.setConnectors(new Connector[] { socketConnector });
+
+        // Servlet Context
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        context.setContextPath("/");
+        jetty.setHandler(context);
+
+        // Servlet
+        context.addServlet(BasicBenchmarkServlet.class,"/benchmarks/*");
+
+        // Start Jetty
+        jetty.start();
+
+        // Figure out Base URI
+        String host = socketConnector.getHost();
+        if (host == null)
+        {
+            host = "localhost";
+        }
+        baseUri = URI.create("http://" + host + ":" + socketConnector.getLocalPort());
+    }
+
+    @AfterClass
+    public static void stopEmbeddedJetty() throws Exception
+    {
+        if (jetty != null)
+        {
+            jetty.stop();
+        }
+    }
+
+    @Test
+    public void testRunAllBenchmarks() throws Exception
+    {
+        RemoteTestSuiteClient rtsclient = new RemoteTestSuiteClient(baseUri);
+        RemoteBenchmarkResults results = rtsclient.getBenchmarkResults("/benchmarks/" + QUICK);
+
+        Assert.assertThat("Class Count",results.getBenchmarkClassCount(),is(1));
+        BenchmarkClass bc = results.getBenchmarkClass(SimpleBenchmark.class.getName());
+        Assert.assertNotNull("Should have found BenchmarkClass[SimpleBenchmark]",bc);
+        Assert.assertEquals("SimpleBenchmark.benchmarkCount",4,bc.getBenchmarkCount());
+
+        BenchmarkResult br = bc.getBenchmarkResult("allocateArray");
+        Assert.assertTrue("benchmark should be success",br.isSuccess());
+        Assert.assertThat("ops",br.getOps(),greaterThan(0L));
+        Assert.assertThat("ops/s",br.getOpsPerSecond(),greaterThan(0d));
+        Assert.assertThat("iteration scores",br.getIterationScores().length,is(2));
+        Assert.assertThat("p50 <= p99",br.getLatency("p50"),lessThanOrEqualTo(br.getLatency("p99")));
+        Assert.assertThat("p99 <= max",br.getLatency("p99"),lessThanOrEqualTo(br.getLatency("max")));
+        if (br.getAllocatedBytesPerOp() >= 0)
+        {
+            Assert.assertThat("bytes/op",br.getAllocatedBytesPerOp(),greaterThanOrEqualTo(1024d));
+        }
+
+        Assert.assertTrue("benchmark threads should have the context",bc.getBenchmarkResult("hasContext").isSuccess());
+        Assert.assertThat("threads",bc.getBenchmarkResult("formatNumber").getThreads(),is(2));
+
+        br = bc.getBenchmarkResult("throwsException");
+        Assert.assertFalse("benchmark should not be success",br.isSuccess());
+        Assert.assertEquals("benchmark.failure.message","Expected failure",br.getFailureMessage());
+    }
+
+    @Test
+    public void testRunSelectedBenchmarks() throws Exception
+    {
+        RemoteTestSuiteClient rtsclient = new RemoteTestSuiteClient(baseUri);
+        RemoteBenchmarkResults results = rtsclient.getBenchmarkResults("/benchmarks/SimpleBenchmark/allocateArray,hasContext" + QUICK + "&threads=3");
+
+        BenchmarkClass bc = results.getBenchmarkClass(SimpleBenchmark.class.getName());
+        Assert.assertEquals("SimpleBenchmark.benchmarkCount",2,bc.getBenchmarkCount());
+        Assert.assertThat("threads",bc.getBenchmarkResult("allocateArray").getThreads(),is(3));
+        results.assertSuccess();
+    }
+
+    @Test
+    public void testRunUnknownBenchmark() throws Exception
+    {
+        RemoteTestSuiteClient rtsclient = new RemoteTestSuiteClient(baseUri);
+        try
+        {
+            rtsclient.getBenchmarkResults("/benchmarks/SimpleBenchmark/doesNotExist");
+            Assert.fail("Expected a 409 Conflict");
+        }
+        catch (IOException e)
+        {
+            Assert.assertTrue(e.getMessage(),e.getMessage().contains("409"));
+        }
+    }
+
+    @Test
+    public void testRunWithInvalidOverrides() throws Exception
+    {
+        RemoteTestSuiteClient rtsclient = new RemoteTestSuiteClient(baseUri);
+        String[] invalid = { "iterations=99999999999", "threads=100000", "iterationTime=0", "warmupIterations=x" };
+        for (String override : invalid)
+        {
+            try
+            {
+                rtsclient.getBenchmarkResults("/benchmarks/SimpleBenchmark/allocateArray?" + override);
+                Assert.fail("Expected a 400 Bad Request for " + override);
+            }
+            catch (IOException e)
+            {
+                Assert.assertTrue(e.getMessage(),e.getMessage().contains("400"));
+            }
+        }
+    }
+}
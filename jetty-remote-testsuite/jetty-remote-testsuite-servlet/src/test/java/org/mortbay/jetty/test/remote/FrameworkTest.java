@@ -2,7 +2,10 @@ package org.mortbay.jetty.test.remote;
 
 import static org.hamcrest.Matchers.*;
 
+import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
@@ -40,7 +43,7 @@ public class FrameworkTest
         jetty.setHandler(context);
 
         // Servlet
-        context.addServlet(BasicTestSuiteServlet.class,"/tests/");
+        context.addServlet(BasicTestSuiteServlet.class,"/tests/*");
 
         // Start Jetty
         jetty.start();
@@ -93,4 +96,66 @@ public class FrameworkTest
         Assert.assertNotNull("Should have found TestClass[ContextTest]",tc);
         Assert.assertEquals("ContextTest.testCount",3,tc.getTestCount());
     }
+
+    @Test
+    public void testRunSingleMethod() throws Exception
+    {
+        RemoteTestSuiteClient rtsclient = new RemoteTestSuiteClient(baseUri);
+        RemoteTestSuiteResults results = rtsclient.getResults("/tests/SimpleTest/testQuoteEqualsSuccess");
+
+        Assert.assertThat("Class Count",results.getTestClassCount(),is(1));
+        TestClass tc = results.getTestClass(SimpleTest.class.getName());
+        Assert.assertEquals("SimpleTest.testCount",1,tc.getTestCount());
+        Assert.assertTrue("test should be success",tc.getTestResult("testQuoteEqualsSuccess").isSuccess());
+    }
+
+    @Test
+    public void testRunSelectedMethods() throws Exception
+    {
+        RemoteTestSuiteClient rtsclient = new RemoteTestSuiteClient(baseUri);
+        RemoteTestSuiteResults results = rtsclient.getResults("/tests/SimpleTest/testNumberEqualsSuccess,testQuoteEqualsFailure");
+
+        TestClass tc = results.getTestClass(SimpleTest.class.getName());
+        Assert.assertEquals("SimpleTest.testCount",2,tc.getTestCount());
+        Assert.assertTrue("test should be success",tc.getTestResult("testNumberEqualsSuccess").isSuccess());
+        Assert.assertFalse("test should not be success",tc.getTestResult("testQuoteEqualsFailure").isSuccess());
+    }
+
+    @Test
+    public void testRunUnknownMethod() throws Exception
+    {
+        RemoteTestSuiteClient rtsclient = new RemoteTestSuiteClient(baseUri);
+        try
+        {
+            rtsclient.getResults("/tests/SimpleTest/testDoesNotExist");
+            Assert.fail("Expected a 409 Conflict");
+        }
+        catch (IOException e)
+        {
+            Assert.assertTrue(e.getMessage(),e.getMessage().contains("409"));
+        }
+    }
+
+    @Test
+    public void testStreamedResults() throws Exception
+    {
+        final List<TestResult> progress = new ArrayList<TestResult>();
+        RemoteTestSuiteClient rtsclient = new RemoteTestSuiteClient(baseUri);
+        RemoteTestSuiteResults results = rtsclient.getResults("/tests/",new RemoteTestSuiteClient.ProgressListener()
+        {
+            public void testFinished(TestResult result)
+            {
+                progress.add(result);
+            }
+        });
+
+        Assert.assertThat("Progress Count",progress.size(),is(8));
+        Assert.assertThat("Class Count",results.getTestClassCount(),is(2));
+
+        TestClass tc = results.getTestClass(SimpleTest.class.getName());
+        Assert.assertEquals("SimpleTest.testCount",5,tc.getTestCount());
+        Assert.assertTrue("test should be ignore",tc.getTestResult("testNumberIgnored").isIgnored());
+        Assert.assertFalse("test should not be success",tc.getTestResult("testQuoteEqualsFailure").isSuccess());
+        Assert.assertEquals("ContextTest.testCount",3,results.getTestClass(ContextTest.class.getName()).getTestCount());
+    }
 }
@@ -14,6 +14,8 @@ public class TestScopeTest
 
         Assert.assertThat("Expected class name",scope.getClassName(),is(expectedClassName));
         Assert.assertThat("Expected method name",scope.getMethodName(),is(expectedMethodName));
+        Assert.assertThat("Has class name",scope.hasClassName(),is(expectedClassName != null));
+        Assert.assertThat("Has method name",scope.hasMethodName(),is(expectedMethodName != null));
     }
 
     @Test
@@ -0,0 +1,76 @@
+package org.mortbay.jetty.test.remote.bench;
+
+import static org.hamcrest.Matchers.*;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void testEmpty()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertThat("count",histogram.getCount(),is(0L));
+        Assert.assertThat("p99",histogram.getPercentile(99),is(0L));
+        Assert.assertThat("min",histogram.getMin(),is(0L));
+    }
+
+    @Test
+    public void testSmallValuesAreExact()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 50; nanos++)
+        {
+            histogram.record(nanos);
+        }
+        Assert.assertThat("p50",histogram.getPercentile(50),is(25L));
+        Assert.assertThat("p100",histogram.getPercentile(100),is(50L));
+        Assert.assertThat("min",histogram.getMin(),is(1L));
+        Assert.assertThat("mean",histogram.getMean(),is(25.5d));
+    }
+
+    @Test
+    public void testLargeValuesAreClose()
+    {
+        long[] values = { 100, 1000, 12345, 999999, 123456789L, 98765432109L };
+        for (long value : values)
+        {
+            long bucketValue = LatencyHistogram.valueOf(LatencyHistogram.indexOf(value));
+            Assert.assertThat("bucket of " + value,(double)Math.abs(bucketValue - value),lessThanOrEqualTo(value * 0.035));
+        }
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++)
+        {
+            histogram.record(1000);
+        }
+        for (int i = 0; i < 10; i++)
+        {
+            histogram.record(1000000);
+        }
+        Assert.assertThat("p50",(double)histogram.getPercentile(50),closeTo(1000,35));
+        Assert.assertThat("p99",(double)histogram.getPercentile(99),closeTo(1000,35));
+        Assert.assertThat("p999",(double)histogram.getPercentile(99.9),closeTo(1000000,35000));
+        Assert.assertThat("max",histogram.getMax(),is(1000000L));
+    }
+
+    @Test
+    public void testAdd()
+    {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(20);
+        b.record(30);
+        a.add(b);
+        Assert.assertThat("count",a.getCount(),is(3L));
+        Assert.assertThat("min",a.getMin(),is(10L));
+        Assert.assertThat("max",a.getMax(),is(30L));
+        Assert.assertThat("p50",a.getPercentile(50),is(20L));
+    }
+}
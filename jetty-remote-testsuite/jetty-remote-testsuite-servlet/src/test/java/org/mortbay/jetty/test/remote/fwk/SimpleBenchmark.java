@@ -0,0 +1,51 @@
+package org.mortbay.jetty.test.remote.fwk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.mortbay.jetty.test.remote.ThreadLocalServletRequestContext;
+import org.mortbay.jetty.test.remote.bench.Benchmark;
+
+public class SimpleBenchmark
+{
+    private StringBuilder buffer;
+
+    @Before
+    public void setUp()
+    {
+        buffer = new StringBuilder();
+    }
+
+    @After
+    public void tearDown()
+    {
+        buffer = null;
+    }
+
+    @Benchmark
+    public Object allocateArray()
+    {
+        return new byte[1024];
+    }
+
+    @Benchmark(threads = 2)
+    public String formatNumber()
+    {
+        return Integer.toHexString(System.identityHashCode(this));
+    }
+
+    @Benchmark
+    public Object hasContext()
+    {
+        if (ThreadLocalServletRequestContext.get() == null)
+        {
+            throw new IllegalStateException("No ServletRequestContext");
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public void throwsException()
+    {
+        throw new UnsupportedOperationException("Expected failure");
+    }
+}
@@ -0,0 +1,95 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.runner;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.webapp.JarScanner;
+import org.eclipse.jetty.webapp.MetaInfConfiguration;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+/* ------------------------------------------------------------ */
+/**
+ * CachingMetaInfConfiguration
+ *
+ * A MetaInfConfiguration which takes the META-INF entries of the 
+ * container and WEB-INF/lib jars from a {@link ScanIndex}, rather
+ * than reading through every jar on every start.
+ * 
+ * Without a ScanIndex in the context attribute {@link ScanIndex#ATTRIBUTE}
+ * it is the same as a MetaInfConfiguration.
+ */
+public class CachingMetaInfConfiguration extends MetaInfConfiguration
+{
+    /* ------------------------------------------------------------ */
+    @Override
+    public void preConfigure(final WebAppContext context) throws Exception
+    {
+        ScanIndex index = (ScanIndex)context.getAttribute(ScanIndex.ATTRIBUTE);
+        if (index == null)
+        {
+            super.preConfigure(context);
+            return;
+        }
+
+        // the same jars, in the same order, as MetaInfConfiguration
+        List<Resource> jars = new ArrayList<Resource>();
+        jars.addAll(context.getMetaData().getOrderedContainerJars());
+        jars.addAll(context.getMetaData().getWebInfJars());
+
+        List<File> files = new ArrayList<File>();
+        for (Resource jar : jars)
+        {
+            File file = jar.getFile();
+            if (file != null && file.isFile())
+                files.add(file);
+        }
+        List<List<String>> entries = index.getMetaInfEntries(files);
+        index.save();
+
+        JarScanner scanner = null;
+        int indexed = 0;
+        for (Resource jar : jars)
+        {
+            URI uri = jar.getURI();
+            File file = jar.getFile();
+            if (file != null && file.isFile())
+            {
+                for (String name : entries.get(indexed++))
+                    processEntry(context,uri,new JarEntry(name));
+            }
+            else
+            {
+                // not a local file, so read through it as usual
+                if (scanner == null)
+                {
+                    scanner = new JarScanner()
+                    {
+                        public void processEntry(URI jarUri, JarEntry entry)
+                        {
+                            CachingMetaInfConfiguration.this.processEntry(context,jarUri,entry);
+                        }
+                    };
+                }
+                scanner.scan(null,new URI[] {uri},true);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.runner;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+
+/* ------------------------------------------------------------ */
+/**
+ * ContextStatusServlet
+ *
+ * Reports the readiness of each context of a runner as JSON, eg
+ * <pre>
+ * {"contexts":[{"contextPath":"/foo","lazy":true,"state":"idle"}]}
+ * </pre>
+ * 
+ * With a <code>path</code> parameter it reports on just that context,
+ * with a 200 if it is ready and a 503 if it is not - so a load balancer
+ * can check each context. Checking never starts a lazy context.
+ */
+public class ContextStatusServlet extends HttpServlet
+{
+    private final ContextHandlerCollection _contexts;
+
+    /* ------------------------------------------------------------ */
+    public ContextStatusServlet(ContextHandlerCollection contexts)
+    {
+        _contexts = contexts;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        String path = request.getParameter("path");
+        StringBuilder json = new StringBuilder();
+        boolean found = false;
+        boolean ready = true;
+
+        json.append("{\"contexts\":[");
+        Handler[] handlers = _contexts.getHandlers();
+        for (int i=0;handlers!=null && i<handlers.length;i++)
+        {
+            ContextHandler context;
+            String state;
+            boolean lazy = handlers[i] instanceof LazyContextHandler;
+            if (lazy)
+            {
+                context = ((LazyContextHandler)handlers[i]).getContext();
+                state = ((LazyContextHandler)handlers[i]).getState();
+            }
+            else if (handlers[i] instanceof ContextHandler)
+            {
+                context = (ContextHandler)handlers[i];
+                state = LazyContextHandler.getState(context);
+            }
+            else
+                continue;
+
+            if (path != null && !path.equals(context.getContextPath()))
+                continue;
+
+            if (found)
+                json.append(',');
+            found = true;
+            ready &= LazyContextHandler.READY.equals(state);
+            json.append("{\"contextPath\":\"").append(escape(context.getContextPath()));
+            if (context.getDisplayName() != null)
+                json.append("\",\"displayName\":\"").append(escape(context.getDisplayName()));
+            json.append("\",\"lazy\":").append(lazy);
+            json.append(",\"state\":\"").append(state).append("\"}");
+        }
+        json.append("]}\n");
+
+        if (path != null && !found)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,"No context "+path);
+            return;
+        }
+
+        response.setStatus((path != null && !ready)?HttpServletResponse.SC_SERVICE_UNAVAILABLE:HttpServletResponse.SC_OK);
+        response.setContentType("application/json");
+        response.setHeader("Cache-Control","no-cache");
+        PrintWriter out = response.getWriter();
+        out.write(json.toString());
+    }
+
+    /* ------------------------------------------------------------ */
+    static String escape(String s)
+    {
+        StringBuilder b = new StringBuilder(s.length());
+        for (int i=0;i<s.length();i++)
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                b.append('\\').append(c);
+            else if (c < ' ')
+                b.append(String.format("\\u%04x",(int)c));
+            else
+                b.append(c);
+        }
+        return b.toString();
+    }
+}
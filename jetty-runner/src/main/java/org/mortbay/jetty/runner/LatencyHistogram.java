@@ -0,0 +1,159 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+
+package org.mortbay.jetty.runner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* ------------------------------------------------------------ */
+/**
+ * LatencyHistogram
+ *
+ * Counts latencies, in microseconds, in log-linear buckets: exact below
+ * 64us, and to within about 3% above that.
+ * 
+ * Recording takes no lock and allocates nothing - it is a couple of
+ * atomic increments - so any number of request threads can record into
+ * one histogram without queuing behind each other. Reading takes a 
+ * snapshot of the buckets, which may be a few samples behind the 
+ * count while requests are in flight.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _total = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    /* ------------------------------------------------------------ */
+    public void record(long micros)
+    {
+        if (micros < 0)
+            micros = 0;
+        _counts.incrementAndGet(indexOf(micros));
+        _total.addAndGet(micros);
+
+        long max = _max.get();
+        while (micros > max && !_max.compareAndSet(max,micros))
+            max = _max.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the buckets as they are now, to work out percentiles from
+     */
+    public Snapshot getSnapshot()
+    {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i=0;i<BUCKETS;i++)
+        {
+            counts[i] = _counts.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts,count,_total.get(),_max.get());
+    }
+
+    /* ------------------------------------------------------------ */
+    static int indexOf(long micros)
+    {
+        if (micros < LINEAR_LIMIT)
+            return (int)micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int)(micros >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS * (shift + 1) + subBucket;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the middle of the range of latencies counted by a bucket
+     */
+    static long valueOf(int index)
+    {
+        if (index < LINEAR_LIMIT)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long low = (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return low + ((1L << shift) >> 1);
+    }
+
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Snapshot
+     *
+     * The counts of a histogram at one moment.
+     */
+    public static class Snapshot
+    {
+        private final long[] _counts;
+        private final long _count;
+        private final long _total;
+        private final long _max;
+
+        /* ------------------------------------------------------------ */
+        Snapshot(long[] counts, long count, long total, long max)
+        {
+            _counts = counts;
+            _count = count;
+            _total = total;
+            _max = max;
+        }
+
+        /* ------------------------------------------------------------ */
+        public long getCount()
+        {
+            return _count;
+        }
+
+        /* ------------------------------------------------------------ */
+        public long getMax()
+        {
+            return _max;
+        }
+
+        /* ------------------------------------------------------------ */
+        public double getMean()
+        {
+            return _count==0?0:(double)_total/_count;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @param percentile between 0 and 100
+         * @return the latency that percentile of the recorded latencies were at or below
+         */
+        public long getPercentile(double percentile)
+        {
+            if (_count == 0)
+                return 0;
+            long rank = Math.max(1,(long)Math.ceil(_count*Math.min(100,Math.max(0,percentile))/100));
+            long seen = 0;
+            for (int i=0;i<_counts.length;i++)
+            {
+                seen += _counts[i];
+                if (seen >= rank)
+                    return Math.min(_max,valueOf(i)); // never beyond what was seen
+            }
+            return _max;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.runner;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpHeaders;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandlerContainer;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/**
+ * LazyContextHandler
+ *
+ * Holds a context which is not started with the server, but on the
+ * first request for it. Requests which arrive while it is starting
+ * get a 503 with a Retry-After header, rather than holding a thread
+ * until it has started; if it cannot be started they get a 503.
+ * 
+ * The context is still a child of this handler, so a 
+ * ContextHandlerCollection maps requests to it by its context path.
+ */
+public class LazyContextHandler extends AbstractHandlerContainer
+{
+    private static final Logger LOG = Log.getLogger(LazyContextHandler.class);
+
+    public static final String IDLE = "idle";
+    public static final String STARTING = "starting";
+    public static final String READY = "ready";
+    public static final String UNAVAILABLE = "unavailable";
+    public static final String FAILED = "failed";
+    public static final String STOPPED = "stopped";
+
+    private final ContextHandler _context;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private int _retryAfter = 1;
+    private volatile boolean _attempted;
+    private volatile Throwable _failure;
+    private volatile long _startMillis = -1;
+
+    /* ------------------------------------------------------------ */
+    public LazyContextHandler(ContextHandler context)
+    {
+        _context = context;
+    }
+
+    /* ------------------------------------------------------------ */
+    public ContextHandler getContext()
+    {
+        return _context;
+    }
+
+    /* ------------------------------------------------------------ */
+    public Handler[] getHandlers()
+    {
+        return new Handler[] {_context};
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return how long the context took to start, in ms, or -1 if it has not been started
+     */
+    public long getStartMillis()
+    {
+        return _startMillis;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param seconds when requests which arrive while the context is 
+     * starting are told to try again
+     */
+    public void setRetryAfter(int seconds)
+    {
+        _retryAfter = seconds;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getRetryAfter()
+    {
+        return _retryAfter;
+    }
+
+    /* ------------------------------------------------------------ */
+    public Throwable getFailure()
+    {
+        return _failure;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return one of {@link #IDLE}, {@link #STARTING}, {@link #READY}, 
+     * {@link #UNAVAILABLE}, {@link #FAILED} or {@link #STOPPED}
+     */
+    public String getState()
+    {
+        if (!_attempted)
+            return IDLE;
+        return getState(_context);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the readiness of any context, as for {@link #getState()}
+     */
+    public static String getState(ContextHandler context)
+    {
+        if (context.isStarted())
+            return context.isAvailable()?READY:UNAVAILABLE;
+        if (context.isStarting())
+            return STARTING;
+        if (context.isFailed())
+            return FAILED;
+        return STOPPED;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void setServer(Server server)
+    {
+        super.setServer(server);
+        _context.setServer(server);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Start the context now, if it has not been already, waiting
+     * for it if another thread is starting it.
+     * 
+     * @return true if the context is started
+     */
+    public boolean startContext()
+    {
+        if (_context.isStarted())
+            return true;
+
+        _lock.lock();
+        try
+        {
+            if (_context.isStarted())
+                return true;
+            if (_failure != null || !isRunning())
+                return false;
+
+            _attempted = true;
+            long start = System.currentTimeMillis();
+            try
+            {
+                _context.start();
+                _startMillis = System.currentTimeMillis()-start;
+                LOG.info("Started {} on demand in {}ms",_context,_startMillis);
+                return true;
+            }
+            catch (Throwable e)
+            {
+                _failure = e;
+                LOG.warn("Failed to start "+_context+" on demand",e);
+                return false;
+            }
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) 
+        throws IOException, ServletException
+    {
+        if (!_context.isStarted())
+        {
+            // another thread is starting (or stopping) the context
+            if (!_lock.tryLock())
+            {
+                baseRequest.setHandled(true);
+                response.setHeader(HttpHeaders.RETRY_AFTER,Integer.toString(_retryAfter));
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            boolean started;
+            try
+            {
+                started = startContext();
+            }
+            finally
+            {
+                _lock.unlock();
+            }
+            if (!started)
+            {
+                baseRequest.setHandled(true);
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+        }
+        _context.handle(target,baseRequest,request,response);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        _lock.lock();
+        try
+        {
+            if (_context.isStarted() || _context.isStarting())
+                _context.stop();
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+        super.doStop();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void destroy()
+    {
+        _context.destroy();
+        super.destroy();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Object expandChildren(Object list, Class<?> byClass)
+    {
+        return expandHandler(_context,list,(Class<Handler>)byClass);
+    }
+}
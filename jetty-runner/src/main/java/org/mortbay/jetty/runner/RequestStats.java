@@ -0,0 +1,139 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+
+package org.mortbay.jetty.runner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* ------------------------------------------------------------ */
+/**
+ * RequestStats
+ *
+ * The requests to one context, one path pattern or the whole server:
+ * how many, how many are in flight now and at most, how often they were
+ * suspended or timed out while suspended, their responses by status class
+ * and a {@link LatencyHistogram} of how long they took from the first
+ * dispatch to completion.
+ * 
+ * Everything is an atomic counter, so recording never blocks.
+ */
+public class RequestStats
+{
+    private final String _name;
+    private final AtomicLong _requests = new AtomicLong();
+    private final AtomicInteger _inFlight = new AtomicInteger();
+    private final AtomicInteger _inFlightMax = new AtomicInteger();
+    private final AtomicLong _suspends = new AtomicLong();
+    private final AtomicLong _expires = new AtomicLong();
+    private final AtomicLongArray _responses = new AtomicLongArray(6); // other,1xx..5xx
+    private final LatencyHistogram _latency = new LatencyHistogram();
+
+    /* ------------------------------------------------------------ */
+    public RequestStats(String name)
+    {
+        _name = name;
+    }
+
+    /* ------------------------------------------------------------ */
+    public String getName()
+    {
+        return _name;
+    }
+
+    /* ------------------------------------------------------------ */
+    void begin()
+    {
+        _requests.incrementAndGet();
+        int inFlight = _inFlight.incrementAndGet();
+        int max = _inFlightMax.get();
+        while (inFlight > max && !_inFlightMax.compareAndSet(max,inFlight))
+            max = _inFlightMax.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    void suspended()
+    {
+        _suspends.incrementAndGet();
+    }
+
+    /* ------------------------------------------------------------ */
+    void expired()
+    {
+        _expires.incrementAndGet();
+    }
+
+    /* ------------------------------------------------------------ */
+    void end(long micros, int status)
+    {
+        _inFlight.decrementAndGet();
+        _latency.record(micros);
+        int statusClass = status/100;
+        _responses.incrementAndGet((statusClass>=1 && statusClass<=5)?statusClass:0);
+    }
+
+    /* ------------------------------------------------------------ */
+    public long getRequests()
+    {
+        return _requests.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getInFlight()
+    {
+        return _inFlight.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getInFlightMax()
+    {
+        return _inFlightMax.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    public long getSuspends()
+    {
+        return _suspends.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    public long getExpires()
+    {
+        return _expires.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param statusClass 1 to 5 for 1xx to 5xx, or 0 for anything else
+     */
+    public long getResponses(int statusClass)
+    {
+        return _responses.get(statusClass);
+    }
+
+    /* ------------------------------------------------------------ */
+    public LatencyHistogram getLatency()
+    {
+        return _latency;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return _name+"{requests="+_requests+",inFlight="+_inFlight+",suspends="+_suspends+"}";
+    }
+}
@@ -0,0 +1,333 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+
+package org.mortbay.jetty.runner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.eclipse.jetty.http.PathMap;
+import org.eclipse.jetty.server.AsyncContinuation;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/* ------------------------------------------------------------ */
+/**
+ * RequestStatsHandler
+ *
+ * Records a {@link RequestStats} for the whole server, for each context 
+ * of a runner and for each path pattern it is given, eg 
+ * <code>/api/*</code> or <code>*.jsp</code>. Patterns are matched against
+ * the whole path of the request, context path included. Contexts with
+ * virtual hosts only count the requests for their hosts, and are 
+ * recorded as <code>contextPath@host,...</code>.
+ * 
+ * A request is timed from its first dispatch until it completes, so
+ * a request which is suspended is counted as in flight, and its latency
+ * recorded, only once its response is complete. A request whose handling
+ * throws is recorded as a 500, whatever status it had been given.
+ */
+public class RequestStatsHandler extends HandlerWrapper
+{
+    public static final String RECORDING_ATTRIBUTE = "org.mortbay.jetty.runner.RequestStatsHandler.recording";
+
+    private final ContextHandlerCollection _contexts;
+    private final RequestStats _serverStats = new RequestStats("server");
+    private final ConcurrentMap<String,RequestStats> _contextStats = new ConcurrentHashMap<String,RequestStats>();
+    private final List<RequestStats> _pathStats = new ArrayList<RequestStats>();
+    private final PathMap _paths = new PathMap(true);
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param contexts the contexts to record each context of
+     */
+    public RequestStatsHandler(ContextHandlerCollection contexts)
+    {
+        _contexts = contexts;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Record the requests matching a path pattern. Patterns can only be
+     * added before the handler is started.
+     */
+    public void addPathPattern(String pattern)
+    {
+        if (isStarted())
+            throw new IllegalStateException("started");
+        RequestStats stats = new RequestStats(pattern);
+        _pathStats.add(stats);
+        _paths.put(pattern,stats);
+    }
+
+    /* ------------------------------------------------------------ */
+    public RequestStats getServerStats()
+    {
+        return _serverStats;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the stats of each context which has had a request, by context path
+     * (and virtual hosts, if it has any)
+     */
+    public Map<String,RequestStats> getContextStats()
+    {
+        return Collections.unmodifiableMap(_contextStats);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the stats of each path pattern, in the order they were added
+     */
+    public List<RequestStats> getPathStats()
+    {
+        return Collections.unmodifiableList(_pathStats);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        AsyncContinuation continuation = baseRequest.getAsyncContinuation();
+        Recording recording;
+        if (continuation.isInitial())
+        {
+            recording = new Recording(System.nanoTime(),getContextStats(target,request.getServerName()),getPathStats(target));
+            recording.begin();
+        }
+        else
+            recording = (Recording)baseRequest.getAttribute(RECORDING_ATTRIBUTE);
+
+        boolean handled = false;
+        try
+        {
+            super.handle(target,baseRequest,request,response);
+            handled = true;
+        }
+        finally
+        {
+            if (recording != null)
+            {
+                if (!handled)
+                    recording.failed();
+                if (continuation.isSuspended())
+                {
+                    if (continuation.isInitial())
+                    {
+                        baseRequest.setAttribute(RECORDING_ATTRIBUTE,recording);
+                        continuation.addContinuationListener(recording);
+                    }
+                    recording.suspended();
+                }
+                else if (continuation.isInitial())
+                    recording.end(baseRequest.getResponse().getStatus());
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the stats of the context with the longest context path that the target is within,
+     * of those for the host, or null
+     */
+    protected RequestStats getContextStats(String target, String host)
+    {
+        if (_contexts == null || target == null)
+            return null;
+
+        String best = null;
+        String[] bestHosts = null;
+        Handler[] handlers = _contexts.getHandlers();
+        for (int i=0;handlers!=null && i<handlers.length;i++)
+        {
+            Handler handler = handlers[i];
+            if (handler instanceof LazyContextHandler)
+                handler = ((LazyContextHandler)handler).getContext();
+            if (!(handler instanceof ContextHandler))
+                continue;
+
+            String contextPath = ((ContextHandler)handler).getContextPath();
+            if (contextPath == null || (best != null && best.length() >= contextPath.length()))
+                continue;
+            String[] hosts = ((ContextHandler)handler).getVirtualHosts();
+            if (!matchesHost(hosts,host))
+                continue;
+            if ("/".equals(contextPath) || 
+                (target.startsWith(contextPath) && (target.length()==contextPath.length() || target.charAt(contextPath.length())=='/')))
+            {
+                best = contextPath;
+                bestHosts = hosts;
+            }
+        }
+        if (best == null)
+            return null;
+
+        String name = best;
+        if (bestHosts != null && bestHosts.length > 0)
+        {
+            StringBuilder buf = new StringBuilder(best).append('@');
+            for (int i=0;i<bestHosts.length;i++)
+                buf.append(i==0?"":",").append(bestHosts[i]);
+            name = buf.toString();
+        }
+
+        RequestStats stats = _contextStats.get(name);
+        if (stats == null)
+        {
+            RequestStats created = new RequestStats(name);
+            stats = _contextStats.putIfAbsent(name,created);
+            if (stats == null)
+                stats = created;
+        }
+        return stats;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if a context with the virtual hosts serves the host, 
+     * as a ContextHandlerCollection would send it the request
+     */
+    protected static boolean matchesHost(String[] hosts, String host)
+    {
+        if (hosts == null || hosts.length == 0)
+            return true;
+        if (host == null)
+            return false;
+        if (host.endsWith("."))
+            host = host.substring(0,host.length()-1);
+        for (int i=0;i<hosts.length;i++)
+        {
+            String vhost = hosts[i];
+            if (vhost == null)
+                continue;
+            if (vhost.startsWith("*."))
+            {
+                // a wildcard matches any one more label
+                int dot = host.indexOf('.');
+                if (dot >= 0 && host.substring(dot).equalsIgnoreCase(vhost.substring(1)))
+                    return true;
+            }
+            else if (vhost.equalsIgnoreCase(host))
+                return true;
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    protected RequestStats getPathStats(String target)
+    {
+        if (_pathStats.isEmpty() || target == null)
+            return null;
+        PathMap.Entry entry = _paths.getMatch(target);
+        return entry==null?null:(RequestStats)entry.getValue();
+    }
+
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Recording
+     *
+     * One request, from its first dispatch until it completes.
+     */
+    private class Recording implements ContinuationListener
+    {
+        private final long _start;
+        private final RequestStats _context;
+        private final RequestStats _path;
+        private volatile boolean _failed;
+
+        /* ------------------------------------------------------------ */
+        Recording(long start, RequestStats context, RequestStats path)
+        {
+            _start = start;
+            _context = context;
+            _path = path;
+        }
+
+        /* ------------------------------------------------------------ */
+        void begin()
+        {
+            _serverStats.begin();
+            if (_context != null)
+                _context.begin();
+            if (_path != null)
+                _path.begin();
+        }
+
+        /* ------------------------------------------------------------ */
+        void suspended()
+        {
+            _serverStats.suspended();
+            if (_context != null)
+                _context.suspended();
+            if (_path != null)
+                _path.suspended();
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * The request's handling threw, so it is a server error, whatever
+         * its response says.
+         */
+        void failed()
+        {
+            _failed = true;
+        }
+
+        /* ------------------------------------------------------------ */
+        void end(int status)
+        {
+            if (_failed && status < 500)
+                status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            long micros = (System.nanoTime()-_start)/1000;
+            _serverStats.end(micros,status);
+            if (_context != null)
+                _context.end(micros,status);
+            if (_path != null)
+                _path.end(micros,status);
+        }
+
+        /* ------------------------------------------------------------ */
+        public void onComplete(Continuation continuation)
+        {
+            end(((AsyncContinuation)continuation).getBaseRequest().getResponse().getStatus());
+        }
+
+        /* ------------------------------------------------------------ */
+        public void onTimeout(Continuation continuation)
+        {
+            _serverStats.expired();
+            if (_context != null)
+                _context.expired();
+            if (_path != null)
+                _path.expired();
+        }
+    }
+}
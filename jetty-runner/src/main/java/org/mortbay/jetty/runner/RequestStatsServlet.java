@@ -0,0 +1,194 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+
+package org.mortbay.jetty.runner;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.servlet.StatisticsServlet;
+
+/* ------------------------------------------------------------ */
+/**
+ * RequestStatsServlet
+ *
+ * Adds the stats of a {@link RequestStatsHandler} to those of the
+ * StatisticsServlet. With <code>format=json</code> or <code>format=csv</code>
+ * (or an Accept header asking for either) it reports the requests, 
+ * in flight gauges, suspends, responses and latency percentiles of the
+ * server, each context and each path pattern, eg
+ * <pre>
+ * {"server":{"name":"server","requests":10,"inFlight":1,...,"latency":{"unit":"ms","p50":1.2,"p99":9.8,"max":12.1}},
+ *  "contexts":[...],"paths":[...]}
+ * </pre>
+ * Anything else is left to the StatisticsServlet.
+ */
+public class RequestStatsServlet extends StatisticsServlet
+{
+    private static final String[] STATUS_CLASSES = {"other","1xx","2xx","3xx","4xx","5xx"};
+
+    private final RequestStatsHandler _handler;
+
+    /* ------------------------------------------------------------ */
+    public RequestStatsServlet(RequestStatsHandler handler)
+    {
+        _handler = handler;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        String format = request.getParameter("format");
+        if (format == null)
+        {
+            String accept = request.getHeader("Accept");
+            if (accept != null && accept.indexOf("application/json") >= 0)
+                format = "json";
+            else if (accept != null && accept.indexOf("text/csv") >= 0)
+                format = "csv";
+        }
+
+        if ("json".equalsIgnoreCase(format))
+        {
+            response.setContentType("application/json");
+            response.setHeader("Cache-Control","no-cache");
+            writeJson(response.getWriter());
+        }
+        else if ("csv".equalsIgnoreCase(format))
+        {
+            response.setContentType("text/csv");
+            response.setHeader("Cache-Control","no-cache");
+            writeCsv(response.getWriter());
+        }
+        else
+            super.doGet(request,response);
+    }
+
+    /* ------------------------------------------------------------ */
+    protected void writeJson(PrintWriter out)
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"server\":");
+        appendJson(json,_handler.getServerStats());
+        json.append(",\"contexts\":[");
+        List<RequestStats> contexts = getContextStats();
+        for (int i=0;i<contexts.size();i++)
+        {
+            if (i>0)
+                json.append(',');
+            appendJson(json,contexts.get(i));
+        }
+        json.append("],\"paths\":[");
+        List<RequestStats> paths = _handler.getPathStats();
+        for (int i=0;i<paths.size();i++)
+        {
+            if (i>0)
+                json.append(',');
+            appendJson(json,paths.get(i));
+        }
+        json.append("]}\n");
+        out.write(json.toString());
+    }
+
+    /* ------------------------------------------------------------ */
+    protected void writeCsv(PrintWriter out)
+    {
+        StringBuilder csv = new StringBuilder();
+        csv.append("scope,name,requests,inFlight,inFlightMax,suspends,expires");
+        for (int i=1;i<STATUS_CLASSES.length;i++)
+            csv.append(',').append(STATUS_CLASSES[i]);
+        csv.append(",latencyCount,meanMs,p50Ms,p99Ms,maxMs\r\n");
+
+        appendCsv(csv,"server",_handler.getServerStats());
+        for (RequestStats stats : getContextStats())
+            appendCsv(csv,"context",stats);
+        for (RequestStats stats : _handler.getPathStats())
+            appendCsv(csv,"path",stats);
+        out.write(csv.toString());
+    }
+
+    /* ------------------------------------------------------------ */
+    private List<RequestStats> getContextStats()
+    {
+        List<String> contextPaths = new ArrayList<String>(_handler.getContextStats().keySet());
+        Collections.sort(contextPaths);
+        List<RequestStats> contexts = new ArrayList<RequestStats>();
+        for (String contextPath : contextPaths)
+            contexts.add(_handler.getContextStats().get(contextPath));
+        return contexts;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void appendJson(StringBuilder json, RequestStats stats)
+    {
+        LatencyHistogram.Snapshot latency = stats.getLatency().getSnapshot();
+        json.append("{\"name\":\"").append(ContextStatusServlet.escape(stats.getName())).append('"');
+        json.append(",\"requests\":").append(stats.getRequests());
+        json.append(",\"inFlight\":").append(stats.getInFlight());
+        json.append(",\"inFlightMax\":").append(stats.getInFlightMax());
+        json.append(",\"suspends\":").append(stats.getSuspends());
+        json.append(",\"expires\":").append(stats.getExpires());
+        json.append(",\"responses\":{");
+        for (int i=1;i<STATUS_CLASSES.length;i++)
+            json.append('"').append(STATUS_CLASSES[i]).append("\":").append(stats.getResponses(i)).append(',');
+        json.append("\"other\":").append(stats.getResponses(0)).append('}');
+        json.append(",\"latency\":{\"unit\":\"ms\",\"count\":").append(latency.getCount());
+        json.append(",\"mean\":").append(millis(latency.getMean()));
+        json.append(",\"p50\":").append(millis(latency.getPercentile(50)));
+        json.append(",\"p99\":").append(millis(latency.getPercentile(99)));
+        json.append(",\"max\":").append(millis(latency.getMax()));
+        json.append("}}");
+    }
+
+    /* ------------------------------------------------------------ */
+    private void appendCsv(StringBuilder csv, String scope, RequestStats stats)
+    {
+        LatencyHistogram.Snapshot latency = stats.getLatency().getSnapshot();
+        csv.append(scope).append(',');
+        String name = stats.getName();
+        if (name.indexOf(',') >= 0 || name.indexOf('"') >= 0)
+            csv.append('"').append(name.replace("\"","\"\"")).append('"');
+        else
+            csv.append(name);
+        csv.append(',').append(stats.getRequests());
+        csv.append(',').append(stats.getInFlight());
+        csv.append(',').append(stats.getInFlightMax());
+        csv.append(',').append(stats.getSuspends());
+        csv.append(',').append(stats.getExpires());
+        for (int i=1;i<STATUS_CLASSES.length;i++)
+            csv.append(',').append(stats.getResponses(i));
+        csv.append(',').append(latency.getCount());
+        csv.append(',').append(millis(latency.getMean()));
+        csv.append(',').append(millis(latency.getPercentile(50)));
+        csv.append(',').append(millis(latency.getPercentile(99)));
+        csv.append(',').append(millis(latency.getMax()));
+        csv.append("\r\n");
+    }
+
+    /* ------------------------------------------------------------ */
+    private static String millis(double micros)
+    {
+        return String.format(Locale.ENGLISH,"%.3f",micros/1000);
+    }
+}
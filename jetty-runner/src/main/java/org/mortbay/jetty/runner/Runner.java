@@ -27,6 +27,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.transaction.UserTransaction;
 
@@ -44,6 +50,7 @@ import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.server.handler.RequestLogHandler;
 import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.server.session.HashSessionIdManager;
 import org.eclipse.jetty.server.session.SessionHandler;
 import org.eclipse.jetty.security.ConstraintMapping;
 import org.eclipse.jetty.security.ConstraintSecurityHandler;
@@ -51,7 +58,7 @@ import org.eclipse.jetty.security.HashLoginService;
 import org.eclipse.jetty.security.authentication.BasicAuthenticator;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
-import org.eclipse.jetty.servlet.StatisticsServlet;
+import org.eclipse.jetty.util.MultiException;
 import org.eclipse.jetty.util.RolloverFileOutputStream;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -68,7 +75,7 @@ public class Runner
     public static final String[] __plusConfigurationClasses = new String[] {
             org.eclipse.jetty.webapp.WebInfConfiguration.class.getCanonicalName(),
             org.eclipse.jetty.webapp.WebXmlConfiguration.class.getCanonicalName(),
-            org.eclipse.jetty.webapp.MetaInfConfiguration.class.getCanonicalName(),
+            org.mortbay.jetty.runner.CachingMetaInfConfiguration.class.getCanonicalName(),
             org.eclipse.jetty.webapp.FragmentConfiguration.class.getCanonicalName(),
             org.eclipse.jetty.plus.webapp.EnvConfiguration.class.getCanonicalName(),
             org.eclipse.jetty.plus.webapp.PlusConfiguration.class.getCanonicalName(),
@@ -94,7 +101,15 @@ public class Runner
     protected boolean _isTxServiceAvailable=false;
     protected boolean _enableStatsGathering=false;
     protected String _statsPropFile;
+    protected List<String> _statsPaths = new ArrayList<String>();
+    protected RequestStatsHandler _requestStats;
     protected boolean _clusteredSessions=true;
+    protected String _scanIndexFile;
+    protected boolean _scanIndexEnabled=true;
+    protected ScanIndex _scanIndex;
+    protected int _startThreads=1;
+    protected boolean _lazyStart=false;
+    protected String _statusPath="/status";
 
 
     public Runner()
@@ -121,7 +136,12 @@ public class Runner
         System.err.println(" --classes dir                      - a directory of classes to be added to the classloader");
         System.err.println(" --txFile                           - override properties file for Atomikos");
         System.err.println(" --stats [unsecure|realm.properties] - enable stats gathering servlet context");
+        System.err.println(" --stats-path pattern               - also gather stats for requests matching a path pattern, eg /api/* (repeatable)");
         System.err.println(" --config file                      - a jetty xml config file to use instead of command line options");
+        System.err.println(" --start-threads n                  - start up to n contexts at once (default 1)");
+        System.err.println(" --lazy-start                       - start each context on its first request, and report readiness at the status path");
+        System.err.println(" --status-path [/path|off]          - where --lazy-start reports readiness (default /status)");
+        System.err.println(" --scan-index [file|off]            - where to keep the index of scanned jars (default $java.io.tmpdir/jetty-runner-scan.idx)");
         System.err.println("Context Options:");
         System.err.println(" --path /path       - context path (default /)");
         System.err.println(" context            - WAR file, web app dir or context.xml file");
@@ -138,7 +158,11 @@ public class Runner
                 
             }
             
-            if ("--lib".equals(args[i]))
+            if ("--lazy-start".equals(args[i]))
+            {
+                // no argument to skip
+            }
+            else if ("--lib".equals(args[i]))
             {
                 Resource lib = Resource.newResource(args[++i]);
                 if (!lib.exists() || !lib.isDirectory())
@@ -234,6 +258,29 @@ public class Runner
                 _statsPropFile = args[++i];
                 _statsPropFile = ("unsecure".equalsIgnoreCase(_statsPropFile)?null:_statsPropFile);
             }
+            else if ("--stats-path".equals(args[i]))
+            {
+                _statsPaths.add(args[++i]);
+            }
+            else if ("--start-threads".equals(args[i]))
+            {
+                _startThreads = Integer.parseInt(args[++i]);
+            }
+            else if ("--lazy-start".equals(args[i]))
+            {
+                _lazyStart = true;
+            }
+            else if ("--status-path".equals(args[i]))
+            {
+                _statusPath = args[++i];
+                if ("off".equalsIgnoreCase(_statusPath))
+                    _statusPath = null;
+            }
+            else if ("--scan-index".equals(args[i]))
+            {
+                _scanIndexFile = args[++i];
+                _scanIndexEnabled = !"off".equalsIgnoreCase(_scanIndexFile);
+            }
             else if ("--txFile".equals(args[i]))
             {
                 _txMgrPropertiesFile=args[++i];
@@ -289,32 +336,41 @@ public class Runner
 
                     if (_enableStatsGathering)
                     {
+                        //time every request, by context and path pattern
+                        _requestStats = new RequestStatsHandler(_contexts);
+                        for (String pattern : _statsPaths)
+                            _requestStats.addPathPattern(pattern);
+                        _requestStats.setHandler(_server.getHandler());
+                        _server.setHandler(_requestStats);
+
                         //if no stats handler already configured
                         if (handlers.getChildHandlerByClass(StatisticsHandler.class) == null)
                         {
                             StatisticsHandler statsHandler = new StatisticsHandler();
                             prependHandler(statsHandler,handlers);
-                            ServletContextHandler statsContext = new ServletContextHandler(_contexts, "/stats");
-                            statsContext.addServlet(new ServletHolder(new StatisticsServlet()), "/");
-                            statsContext.setSessionHandler(new SessionHandler());
-                            if (_statsPropFile != null)
-                            {
-                                HashLoginService loginService = new HashLoginService("StatsRealm", _statsPropFile);
-                                Constraint constraint = new Constraint();
-                                constraint.setName("Admin Only");
-                                constraint.setRoles(new String[]{"admin"});
-                                constraint.setAuthenticate(true);
-
-                                ConstraintMapping cm = new ConstraintMapping();
-                                cm.setConstraint(constraint);
-                                cm.setPathSpec("/*");
-
-                                ConstraintSecurityHandler securityHandler = new ConstraintSecurityHandler();
-                                securityHandler.setLoginService(loginService);
-                                securityHandler.setConstraintMappings(Collections.singletonList(cm));
-                                securityHandler.setAuthenticator(new BasicAuthenticator());
-                                statsContext.setSecurityHandler(securityHandler);
-                            }
+                        }
+
+                        //report them, whoever configured the stats handler
+                        ServletContextHandler statsContext = new ServletContextHandler(_contexts, "/stats");
+                        statsContext.addServlet(new ServletHolder(new RequestStatsServlet(_requestStats)), "/");
+                        statsContext.setSessionHandler(new SessionHandler());
+                        if (_statsPropFile != null)
+                        {
+                            HashLoginService loginService = new HashLoginService("StatsRealm", _statsPropFile);
+                            Constraint constraint = new Constraint();
+                            constraint.setName("Admin Only");
+                            constraint.setRoles(new String[]{"admin"});
+                            constraint.setAuthenticate(true);
+
+                            ConstraintMapping cm = new ConstraintMapping();
+                            cm.setConstraint(constraint);
+                            cm.setPathSpec("/*");
+
+                            ConstraintSecurityHandler securityHandler = new ConstraintSecurityHandler();
+                            securityHandler.setLoginService(loginService);
+                            securityHandler.setConstraintMappings(Collections.singletonList(cm));
+                            securityHandler.setAuthenticator(new BasicAuthenticator());
+                            statsContext.setSecurityHandler(securityHandler);
                         }
                     }
                    
@@ -354,6 +410,15 @@ public class Runner
                         }
                     }
 
+                    //reuse what earlier starts found in unchanged jars
+                    if (_scanIndexEnabled)
+                    {
+                        File indexFile = (_scanIndexFile==null?new File(System.getProperty("java.io.tmpdir"),"jetty-runner-scan.idx"):new File(_scanIndexFile));
+                        _scanIndex = new ScanIndex(indexFile);
+                        _scanIndex.load();
+                        LOG.debug("Scan index {}",indexFile);
+                    }
+
                     runnerServerInitialized = true;
                 }
 
@@ -369,11 +434,13 @@ public class Runner
                     XmlConfiguration xmlConfiguration=new XmlConfiguration(ctx.getURL());
                     xmlConfiguration.getIdMap().put("Server",_server);
                     ContextHandler handler=(ContextHandler)xmlConfiguration.configure();
-                    _contexts.addHandler(handler);
+                    addContext(handler);
                     if (contextPathSet)
                         handler.setContextPath(contextPath);
                     handler.setAttribute("org.eclipse.jetty.server.webapp.ContainerIncludeJarPattern",
                                          __containerIncludeJarPattern);
+                    if (_scanIndex != null)
+                        handler.setAttribute(ScanIndex.ATTRIBUTE,_scanIndex);
                 }
                 else
                 {
@@ -382,10 +449,13 @@ public class Runner
                         contextPath = "/"+contextPath;
                     
                     LOG.info("Deploying "+ctx.toString()+" @ "+contextPath);
-                    WebAppContext webapp = new WebAppContext(_contexts,ctx.toString(),contextPath);
+                    WebAppContext webapp = new WebAppContext(ctx.toString(),contextPath);
+                    addContext(webapp);
                     webapp.setConfigurationClasses(__plusConfigurationClasses);
                     webapp.setAttribute("org.eclipse.jetty.server.webapp.ContainerIncludeJarPattern",
                                         __containerIncludeJarPattern);
+                    if (_scanIndex != null)
+                        webapp.setAttribute(ScanIndex.ATTRIBUTE,_scanIndex);
                 }
             }
         }
@@ -412,6 +482,10 @@ public class Runner
                 break;
         }
 
+        //report the readiness of contexts which start on demand
+        if (_lazyStart && _statusPath != null && _contexts != null)
+            addStatusContext(_statusPath);
+
         if (_logFile!=null)
         {
             NCSARequestLog requestLog = new NCSARequestLog(_logFile);
@@ -421,6 +495,34 @@ public class Runner
     }
     
     
+    protected void addContext(ContextHandler context)
+    {
+        if (_lazyStart)
+            _contexts.addHandler(new LazyContextHandler(context));
+        else
+            _contexts.addHandler(context);
+    }
+
+
+    /**
+     * Mount the {@link ContextStatusServlet}, unless a context already has the path.
+     */
+    protected void addStatusContext(String path)
+    {
+        Handler[] contexts = _contexts.getChildHandlersByClass(ContextHandler.class);
+        for (int i=0; contexts != null && i<contexts.length; i++)
+        {
+            if (path.equals(((ContextHandler)contexts[i]).getContextPath()))
+            {
+                LOG.warn("Not reporting context status at {}, which is the path of {}",path,contexts[i]);
+                return;
+            }
+        }
+        ServletContextHandler statusContext = new ServletContextHandler(_contexts, path);
+        statusContext.addServlet(new ServletHolder(new ContextStatusServlet(_contexts)), "/");
+    }
+
+
     protected void prependHandler (Handler handler, HandlerCollection handlers)
     {
         if (handler == null || handlers == null)
@@ -507,11 +609,85 @@ public class Runner
         {
             _monitor.start();
         }
-        
+
+        if (_startThreads > 1)
+            startContexts();
+
         _server.start();
         _server.join();
     }
 
+
+    /**
+     * Start the contexts on up to <code>_startThreads</code> threads at once,
+     * before the server starts them one after the other.
+     */
+    protected void startContexts() throws Exception
+    {
+        Handler[] handlers = _contexts.getHandlers();
+        if (handlers == null || handlers.length < 2)
+            return;
+
+        //contexts starting together must not each make their own session id manager
+        if (_server.getSessionIdManager() == null)
+            _server.setSessionIdManager(new HashSessionIdManager());
+
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        final AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(_startThreads,handlers.length),new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable,"RunnerStart-"+count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setContextClassLoader(loader);
+                return thread;
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        MultiException mex = new MultiException();
+        try
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final Handler handler : handlers)
+            {
+                futures.add(executor.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            handler.start();
+                        }
+                        catch (Exception e)
+                        {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    Throwable cause = e.getCause();
+                    mex.add((cause instanceof RuntimeException && cause.getCause() != null)?cause.getCause():cause);
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        LOG.info("Started {} contexts on {} threads in {}ms",handlers.length,Math.min(_startThreads,handlers.length),System.currentTimeMillis()-start);
+        mex.ifExceptionThrow();
+    }
+
     protected void expandJars(Resource lib) throws IOException
     {
         String[] list = lib.list();
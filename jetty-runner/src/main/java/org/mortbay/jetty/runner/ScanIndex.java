@@ -0,0 +1,443 @@
+// ========================================================================
+// Copyright (c) Webtide LLC
+// ------------------------------------------------------------------------
+// All rights reserved. This program and the accompanying materials
+// are made available under the terms of the Eclipse Public License v1.0
+// and Apache License v2.0 which accompanies this distribution.
+// The Eclipse Public License is available at 
+// http://www.eclipse.org/legal/epl-v10.html
+// The Apache License v2.0 is available at
+// http://www.opensource.org/licenses/apache2.0.php
+// You may elect to redistribute this code under either of these licenses. 
+// ========================================================================
+
+
+package org.mortbay.jetty.runner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/**
+ * ScanIndex
+ *
+ * A persistent index of what each jar holds under META-INF that
+ * the webapp configurations care about: TLDs, web-fragment.xml and
+ * META-INF/resources. 
+ * 
+ * Jars are keyed by their path, and are unchanged if their size and
+ * last modified time are the same as when they were scanned. If the
+ * time differs (eg the jar was extracted again from its war) the jar
+ * is still unchanged if a CRC of its central directory is the same.
+ * Changed jars are scanned again, in parallel.
+ * 
+ * The index is shared by all of the contexts of a Runner, so the
+ * container jars are only scanned once. Jars which no longer exist
+ * are dropped from it when it is saved.
+ */
+public class ScanIndex
+{
+    private static final Logger LOG = Log.getLogger(ScanIndex.class);
+
+    /** The context attribute holding the ScanIndex for {@link CachingMetaInfConfiguration} */
+    public static final String ATTRIBUTE = "org.mortbay.jetty.runner.ScanIndex";
+
+    private static final int VERSION = 1;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private final File _file;
+    private final Map<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private int _threads = Runtime.getRuntime().availableProcessors();
+    private volatile boolean _dirty;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param file where the index is kept between starts
+     */
+    public ScanIndex(File file)
+    {
+        _file = file;
+    }
+
+    /* ------------------------------------------------------------ */
+    public File getFile()
+    {
+        return _file;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param threads the most jars to scan at once
+     */
+    public void setThreads(int threads)
+    {
+        _threads = Math.max(1,threads);
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getThreads()
+    {
+        return _threads;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Read the index. A missing, old or corrupt index is simply
+     * treated as empty.
+     */
+    public void load()
+    {
+        if (!_file.exists())
+            return;
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+            if (in.readInt() != VERSION)
+                return;
+            int count = in.readInt();
+            for (int i=0;i<count;i++)
+            {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                long crc = in.readLong();
+                int names = in.readInt();
+                List<String> entries = new ArrayList<String>(names);
+                for (int j=0;j<names;j++)
+                    entries.add(in.readUTF());
+                _entries.put(path,new Entry(size,lastModified,crc,Collections.unmodifiableList(entries)));
+            }
+            LOG.debug("Loaded {} jars from scan index {}",count,_file);
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Ignoring unreadable scan index "+_file,e);
+            _entries.clear();
+        }
+        finally
+        {
+            close(in);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Write the index, if anything has changed since it was read, 
+     * without the jars which no longer exist. 
+     */
+    public synchronized void save()
+    {
+        for (String path : _entries.keySet())
+        {
+            if (!new File(path).exists())
+            {
+                _entries.remove(path);
+                _dirty = true;
+            }
+        }
+        if (!_dirty)
+            return;
+        _dirty = false;
+
+        File tmp = null;
+        DataOutputStream out = null;
+        try
+        {
+            File dir = _file.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.exists())
+                dir.mkdirs();
+
+            // a name of its own, as other processes may be saving the same index
+            tmp = File.createTempFile(_file.getName()+"-",".tmp",dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            List<Map.Entry<String, Entry>> entries = new ArrayList<Map.Entry<String, Entry>>(_entries.entrySet());
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries)
+            {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry._size);
+                out.writeLong(entry._lastModified);
+                out.writeLong(entry._crc);
+                out.writeInt(entry._metaInfEntries.size());
+                for (String name : entry._metaInfEntries)
+                    out.writeUTF(name);
+            }
+            out.close();
+            out = null;
+
+            // replace the old index in one step, so a concurrent start never reads half an index
+            if (!tmp.renameTo(_file))
+            {
+                _file.delete();
+                if (!tmp.renameTo(_file))
+                    throw new IOException("Cannot rename "+tmp+" to "+_file);
+            }
+            LOG.debug("Saved {} jars to scan index {}",entries.size(),_file);
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Cannot save scan index "+_file,e);
+        }
+        finally
+        {
+            close(out);
+            if (tmp != null && tmp.exists())
+                tmp.delete();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Get the META-INF entries of jars, from the index for jars 
+     * which have not changed, and by scanning the others in parallel.
+     * 
+     * @param jars the jar files
+     * @return the names of the META-INF entries of each jar, in the same order as the jars
+     */
+    public List<List<String>> getMetaInfEntries(List<File> jars) throws Exception
+    {
+        List<List<String>> results = new ArrayList<List<String>>(jars.size());
+        List<Integer> changed = new ArrayList<Integer>();
+        for (int i=0;i<jars.size();i++)
+        {
+            List<String> entries = lookup(jars.get(i));
+            if (entries == null)
+                changed.add(i);
+            results.add(entries);
+        }
+
+        if (changed.isEmpty())
+            return results;
+
+        LOG.debug("Scanning {} of {} jars",changed.size(),jars.size());
+        if (changed.size() == 1 || _threads == 1)
+        {
+            for (Integer i : changed)
+                results.set(i,update(jars.get(i)));
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(_threads,changed.size()));
+        try
+        {
+            List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+            for (Integer i : changed)
+            {
+                final File jar = jars.get(i);
+                futures.add(executor.submit(new Callable<List<String>>()
+                {
+                    public List<String> call() throws Exception
+                    {
+                        return update(jar);
+                    }
+                }));
+            }
+            for (int i=0;i<changed.size();i++)
+                results.set(changed.get(i),futures.get(i).get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the indexed entries of the jar, or null if it is not indexed or has changed
+     */
+    protected List<String> lookup(File jar) throws IOException
+    {
+        String path = jar.getCanonicalPath();
+        Entry entry = _entries.get(path);
+        if (entry == null || entry._size != jar.length())
+            return null;
+
+        long lastModified = jar.lastModified();
+        if (entry._lastModified == lastModified)
+            return entry._metaInfEntries;
+
+        if (entry._crc != crc(jar))
+            return null;
+
+        // same content, just touched
+        _entries.put(path,new Entry(entry._size,lastModified,entry._crc,entry._metaInfEntries));
+        _dirty = true;
+        return entry._metaInfEntries;
+    }
+
+    /* ------------------------------------------------------------ */
+    protected List<String> update(File jar) throws IOException
+    {
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        long crc = crc(jar);
+        List<String> entries = scan(jar);
+        _entries.put(jar.getCanonicalPath(),new Entry(size,lastModified,crc,entries));
+        _dirty = true;
+        return entries;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Find the META-INF entries of a jar from its central directory,
+     * without inflating anything.
+     */
+    public static List<String> scan(File jar) throws IOException
+    {
+        List<String> entries = new ArrayList<String>();
+        JarFile jarFile = new JarFile(jar,false);
+        try
+        {
+            Enumeration<JarEntry> e = jarFile.entries();
+            while (e.hasMoreElements())
+            {
+                String name = e.nextElement().getName();
+                if (isMetaInfEntry(name))
+                    entries.add(name);
+            }
+        }
+        finally
+        {
+            jarFile.close();
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true for the entries that MetaInfConfiguration processes
+     */
+    public static boolean isMetaInfEntry(String name)
+    {
+        if (!name.startsWith("META-INF/"))
+            return false;
+        return name.equals("META-INF/web-fragment.xml") 
+            || name.equals("META-INF/resources/") 
+            || name.toLowerCase(Locale.ENGLISH).endsWith(".tld");
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A CRC of the central directory of a jar, which lists the name,
+     * size and CRC of every entry. If the central directory cannot be
+     * found, a CRC of the whole file.
+     */
+    public static long crc(File jar) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        RandomAccessFile file = new RandomAccessFile(jar,"r");
+        try
+        {
+            long length = file.length();
+            // the end of central directory record is followed by a comment of up to 64k
+            int tail = (int)Math.min(length,END_OF_CENTRAL_DIRECTORY_SIZE+0xFFFF);
+            byte[] buf = new byte[tail];
+            file.seek(length-tail);
+            file.readFully(buf);
+            for (int i=tail-END_OF_CENTRAL_DIRECTORY_SIZE;i>=0;i--)
+            {
+                if (readInt(buf,i) == END_OF_CENTRAL_DIRECTORY)
+                {
+                    long size = readInt(buf,i+12) & 0xFFFFFFFFL;
+                    long offset = readInt(buf,i+16) & 0xFFFFFFFFL;
+                    if (offset+size > length)
+                        break;
+                    byte[] directory = new byte[(int)size];
+                    file.seek(offset);
+                    file.readFully(directory);
+                    crc.update(directory);
+                    return crc.getValue();
+                }
+            }
+        }
+        finally
+        {
+            file.close();
+        }
+
+        InputStream in = new FileInputStream(jar);
+        try
+        {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len=in.read(buf)) > 0)
+                crc.update(buf,0,len);
+        }
+        finally
+        {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int readInt(byte[] buf, int offset)
+    {
+        // zip records are little endian
+        return (buf[offset]&0xFF) | (buf[offset+1]&0xFF)<<8 | (buf[offset+2]&0xFF)<<16 | (buf[offset+3]&0xFF)<<24;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void close(Closeable closeable)
+    {
+        try
+        {
+            if (closeable != null)
+                closeable.close();
+        }
+        catch (IOException e)
+        {
+            LOG.ignore(e);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static class Entry
+    {
+        final long _size;
+        final long _lastModified;
+        final long _crc;
+        final List<String> _metaInfEntries;
+
+        Entry(long size, long lastModified, long crc, List<String> metaInfEntries)
+        {
+            _size = size;
+            _lastModified = lastModified;
+            _crc = crc;
+            _metaInfEntries = metaInfEntries;
+        }
+    }
+}